@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -14,6 +16,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.LogicalSubplanJoinNode;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
@@ -24,6 +27,8 @@ import simpledb.transaction.TransactionId;
 
 public class Parser {
     static boolean explain = false;
+    static boolean push = false;
+    static int workers = 1;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -72,6 +77,18 @@ public class Parser {
                         "Only simple binary expresssions of the form A op B are currently supported.");
             }
 
+            if ((wx.getOperator().equals("IN") || wx.getOperator().equals("NOT IN"))
+                    && ops.get(0) instanceof ZConstant && ops.get(1) instanceof ZQuery) {
+                // a semi-join (or anti-join) with the first field of the subquery
+                LogicalPlan sublp = parseQueryLogicalPlan(tid, (ZQuery) ops.get(1));
+                OpIterator pp = sublp.physicalPlan(tid,
+                        TableStats.getStatsMap(), explain);
+                lp.addJoin(((ZConstant) ops.get(0)).getValue(), pp, Predicate.Op.EQUALS,
+                        wx.getOperator().equals("IN") ? LogicalSubplanJoinNode.Kind.SEMI
+                                : LogicalSubplanJoinNode.Kind.ANTI);
+                return;
+            }
+
             boolean isJoin = false;
             Predicate.Op op = getOp(wx.getOperator());
 
@@ -111,6 +128,8 @@ public class Parser {
                             (ZQuery) ops.get(1));
                     OpIterator pp = sublp.physicalPlan(tid,
                             TableStats.getStatsMap(), explain);
+                    // a join, which keeps the subquery's columns; only
+                    // IN and NOT IN are planned as semi- and anti-joins
                     lp.addJoin(tab1field, pp, op);
                 } else {
                     tab2field = ((ZConstant) ops.get(1)).getValue();
@@ -143,6 +162,7 @@ public class Parser {
         List<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        lp.setDistinct(q.isDistinct());
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.get(i);
@@ -187,23 +207,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        List<String> groupByFields = new ArrayList<>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             List<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.get(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -212,8 +228,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         List<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        List<String> aggFields = new ArrayList<>();
+        List<String> aggFuns = new ArrayList<>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.get(i);
@@ -223,20 +239,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
+                aggFields.add(aggField);
+                aggFuns.add(aggFun);
                 lp.addProjectField(aggField, aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -246,30 +260,30 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
+        }
+        for (int i = 0; i < aggFuns.size(); i++) {
+            lp.addAggregate(aggFuns.get(i), aggFields.get(i));
         }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             List<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.get(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -278,16 +292,75 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    /**
+     * Matches a trailing "LIMIT count", "LIMIT count OFFSET offset" or
+     * "LIMIT offset, count" clause. Zql has no LIMIT, so the clause is cut
+     * from the statement text before Zql sees it.
+     */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+limit\\s+(\\d+)(?:\\s*,\\s*(\\d+)|\\s+offset\\s+(\\d+))?\\s*(;?)\\s*$",
+            Pattern.CASE_INSENSITIVE);
+
+    /** LIMIT and OFFSET of the statement being processed; stmtLimit is -1 without a LIMIT */
+    private int stmtLimit = -1;
+    private int stmtOffset = 0;
+
+    /**
+     * Removes a LIMIT clause from the end of the first statement in sql and
+     * records it in stmtLimit/stmtOffset.
+     *
+     * @return sql without the LIMIT clause
+     */
+    private String stripLimitClause(String sql) throws simpledb.ParsingException {
+        stmtLimit = -1;
+        stmtOffset = 0;
+        int end = sql.indexOf(';');
+        String head = end < 0 ? sql : sql.substring(0, end + 1);
+        Matcher m = LIMIT_CLAUSE.matcher(head);
+        if (!m.find())
+            return sql;
+        try {
+            if (m.group(2) != null) {
+                stmtOffset = Integer.parseInt(m.group(1));
+                stmtLimit = Integer.parseInt(m.group(2));
+            } else {
+                stmtLimit = Integer.parseInt(m.group(1));
+                if (m.group(3) != null)
+                    stmtOffset = Integer.parseInt(m.group(3));
+            }
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT out of range: " + m.group().trim());
+        }
+        return head.substring(0, m.start()) + m.group(4) + sql.substring(head.length());
+    }
+
+    /**
+     * Rejects a LIMIT clause on a statement other than a query, which has no
+     * result for it to apply to.
+     */
+    private void checkNoLimit(String statement) throws simpledb.ParsingException {
+        if (stmtLimit >= 0) {
+            stmtLimit = -1;
+            throw new simpledb.ParsingException("LIMIT is not supported on " + statement + " statements");
+        }
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws IOException,
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (stmtLimit >= 0) {
+            lp.setLimit(stmtLimit, stmtOffset);
+            stmtLimit = -1;
+        }
+        lp.setParallelism(workers);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
         query.setLogicalPlan(lp);
+        query.setPushExecution(push);
 
         if (physicalPlan != null) {
             Class<?> c;
@@ -339,6 +412,7 @@ public class Parser {
         OpIterator newTups;
 
         if (s.getValues() != null) {
+            checkNoLimit("INSERT ... VALUES");
             @SuppressWarnings("unchecked")
             List<ZExp> values = s.getValues();
             if (td.numFields() != values.size()) {
@@ -383,6 +457,11 @@ public class Parser {
         } else {
             ZQuery zq = s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            // the LIMIT ends the statement, so it belongs to the query
+            if (stmtLimit >= 0) {
+                lp.setLimit(stmtLimit, stmtOffset);
+                stmtLimit = -1;
+            }
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -404,6 +483,7 @@ public class Parser {
             throw new simpledb.ParsingException("Unknown table : "
                     + s.getTable());
         }
+        checkNoLimit("DELETE");
         String name = s.getTable();
         Query sdbq = new Query(tid);
 
@@ -465,12 +545,16 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        String sql = stripLimitClause(s);
+        ByteArrayInputStream bis = new ByteArrayInputStream(sql.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (stmtLimit >= 0)
+                    lp.setLimit(stmtLimit, stmtOffset);
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -495,13 +579,20 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                bos.write(buf, 0, n);
+            String sql = stripLimitClause(bos.toString(StandardCharsets.UTF_8.name()));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(sql.getBytes(StandardCharsets.UTF_8)));
             ZStatement s = p.readStatement();
 
             Query query = null;
-            if (s instanceof ZTransactStmt)
+            if (s instanceof ZTransactStmt) {
+                checkNoLimit("transaction");
                 handleTransactStatement((ZTransactStmt) s);
-            else {
+            } else {
                 if (!this.inUserTrans) {
                     curtrans = new Transaction();
                     curtrans.start();
@@ -567,11 +658,11 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "order by", "limit", "offset" };
 
     public static void main(String[] argv) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 7) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -581,7 +672,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-push] [-workers n] [-sample fraction] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -593,7 +684,6 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
 
         String queryFile = null;
 
@@ -602,6 +692,25 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-push")) {
+                    push = true;
+                    System.out.println("Push-based execution enabled.");
+                } else if (argv[i].equals("-workers")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected number of workers after -workers\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    workers = Integer.parseInt(argv[i]);
+                    System.out.println("Scanning single tables with " + workers + " workers.");
+                } else if (argv[i].equals("-sample")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected sample fraction after -sample\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    TableStats.setDefaultSampleFraction(Double.parseDouble(argv[i]));
+                    System.out.println("Sampling " + argv[i] + " of the pages of each table for statistics.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -617,6 +726,7 @@ public class Parser {
                 }
             }
         }
+        TableStats.computeStatistics();
         if (!interactive) {
             try {
                 // curtrans = new Transaction();
@@ -1,6 +1,7 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.optimizer.TableStats;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
@@ -152,6 +153,8 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * The stats of the tables are kept in a file next to it, with the same name
+     * and the extension .stats; see {@link TableStats#computeStatistics()}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -196,6 +199,10 @@ public class Catalog {
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
+            String catalogName = new File(catalogFile).getName();
+            if (catalogName.lastIndexOf('.') > 0)
+                catalogName = catalogName.substring(0, catalogName.lastIndexOf('.'));
+            TableStats.setStatsFile(new File(baseFolder, catalogName + ".stats"));
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
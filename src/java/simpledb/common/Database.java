@@ -1,5 +1,6 @@
 package simpledb.common;
 
+import simpledb.optimizer.TableStats;
 import simpledb.storage.BufferPool;
 import simpledb.storage.LogFile;
 
@@ -73,6 +74,7 @@ public class Database {
     // reset the database, used for unit tests only.
     public static void reset() {
         _instance.set(new Database());
+        TableStats.clearPendingChanges();
     }
 
 }
@@ -0,0 +1,221 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The running state of a list of aggregates for a number of groups, held in
+ * primitive long arrays: the state of aggregate i for group n is acc[i][n],
+ * plus cnt[i][n] for the averaging operators. Shared by the aggregation
+ * operators that keep many aggregates per group.
+ * <p>
+ * Besides the usual operators, SUM_COUNT returns its state (sum and count) as
+ * two fields, and SC_AVG reads such pairs back and merges them; see
+ * {@link TwoPhaseAggregation}.
+ */
+class Accumulators {
+
+    final Aggregator.Op[] ops;
+    final long[][] acc;
+    final long[][] cnt;
+
+    /**
+     * @param ops
+     *            the aggregation operator of each aggregate
+     * @param capacity
+     *            the number of groups to make room for initially
+     */
+    Accumulators(Aggregator.Op[] ops, int capacity) {
+        this.ops = ops;
+        this.acc = new long[ops.length][];
+        this.cnt = new long[ops.length][];
+        int cap = Math.max(1, capacity);
+        for (int i = 0; i < ops.length; i++) {
+            acc[i] = new long[cap];
+            if (hasCount(ops[i]))
+                cnt[i] = new long[cap];
+        }
+    }
+
+    private static boolean hasCount(Aggregator.Op op) {
+        return op == Aggregator.Op.AVG || op == Aggregator.Op.SUM_COUNT || op == Aggregator.Op.SC_AVG;
+    }
+
+    /** @return the number of input fields op reads, starting at its aggregate field */
+    static int inputWidth(Aggregator.Op op) {
+        return op == Aggregator.Op.SC_AVG ? 2 : 1;
+    }
+
+    /** @return the number of INT fields the result of op takes */
+    static int outputWidth(Aggregator.Op op) {
+        return op == Aggregator.Op.SUM_COUNT ? 2 : 1;
+    }
+
+    /**
+     * @return the child fields an aggregation reads, in the order the
+     *         accumulators expect them: the group-by fields, then the input
+     *         fields of each aggregate
+     */
+    static int[] inputFields(int[] gfields, int[] afields, Aggregator.Op[] ops) {
+        int n = gfields.length;
+        for (Aggregator.Op op : ops)
+            n += inputWidth(op);
+        int[] fields = Arrays.copyOf(gfields, n);
+        int f = gfields.length;
+        for (int i = 0; i < ops.length; i++) {
+            for (int j = 0; j < inputWidth(ops[i]); j++)
+                fields[f++] = afields[i] + j;
+        }
+        return fields;
+    }
+
+    /**
+     * @return the TupleDesc of an aggregation's output: the group-by fields,
+     *         then the INT result fields of each aggregate, named after the
+     *         field they aggregate
+     */
+    static TupleDesc outputDesc(TupleDesc child, int[] gfields, int[] afields, Aggregator.Op[] ops) {
+        List<Type> types = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (int g : gfields) {
+            types.add(child.getFieldType(g));
+            names.add(child.getFieldName(g));
+        }
+        for (int i = 0; i < ops.length; i++) {
+            for (int j = 0; j < outputWidth(ops[i]); j++) {
+                types.add(Type.INT_TYPE);
+                names.add(child.getFieldName(afields[i]));
+            }
+        }
+        return new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
+    }
+
+    /**
+     * Checks that every operator can be computed over its field.
+     *
+     * @throws IllegalArgumentException
+     *             if an operator needs an INT field and gets another type
+     * @throws UnsupportedOperationException
+     *             if an operator is not supported
+     */
+    static void check(TupleDesc td, int[] afields, Aggregator.Op[] ops) {
+        if (afields.length == 0 || afields.length != ops.length)
+            throw new IllegalArgumentException("need one aggregation operator per aggregate field");
+        for (int i = 0; i < ops.length; i++) {
+            switch (ops[i]) {
+                case COUNT:
+                    break;
+                case MIN: case MAX: case SUM: case AVG: case SUM_COUNT:
+                    if (td.getFieldType(afields[i]) != Type.INT_TYPE)
+                        throw new IllegalArgumentException(ops[i] + " needs an INT field");
+                    break;
+                case SC_AVG:
+                    if (afields[i] + 1 >= td.numFields() || td.getFieldType(afields[i]) != Type.INT_TYPE
+                            || td.getFieldType(afields[i] + 1) != Type.INT_TYPE)
+                        throw new IllegalArgumentException(ops[i] + " needs a sum and a count INT field");
+                    break;
+                default:
+                    throw new UnsupportedOperationException("unsupported aggregation operator " + ops[i]);
+            }
+        }
+    }
+
+    /** Resets the state of group n, growing the arrays if needed. */
+    void init(int n) {
+        if (n >= acc[0].length) {
+            int cap = Math.max(n + 1, acc[0].length * 2);
+            for (int i = 0; i < ops.length; i++) {
+                acc[i] = Arrays.copyOf(acc[i], cap);
+                if (cnt[i] != null)
+                    cnt[i] = Arrays.copyOf(cnt[i], cap);
+            }
+        }
+        for (int i = 0; i < ops.length; i++) {
+            if (ops[i] == Aggregator.Op.MIN)
+                acc[i][n] = Long.MAX_VALUE;
+            else if (ops[i] == Aggregator.Op.MAX)
+                acc[i][n] = Long.MIN_VALUE;
+            else
+                acc[i][n] = 0;
+            if (cnt[i] != null)
+                cnt[i][n] = 0;
+        }
+    }
+
+    /**
+     * Adds a tuple to group n.
+     *
+     * @param first
+     *            the field of t holding the input of the first aggregate; the
+     *            inputs of the others follow it, {@link #inputWidth} fields
+     *            each
+     */
+    void add(int n, Tuple t, int first) {
+        int f = first;
+        for (int i = 0; i < ops.length; f += inputWidth(ops[i]), i++) {
+            switch (ops[i]) {
+                case COUNT:
+                    acc[i][n]++;
+                    break;
+                case SUM:
+                    acc[i][n] += ((IntField) t.getField(f)).getValue();
+                    break;
+                case MIN:
+                    acc[i][n] = Math.min(acc[i][n], ((IntField) t.getField(f)).getValue());
+                    break;
+                case MAX:
+                    acc[i][n] = Math.max(acc[i][n], ((IntField) t.getField(f)).getValue());
+                    break;
+                case AVG: case SUM_COUNT:
+                    acc[i][n] += ((IntField) t.getField(f)).getValue();
+                    cnt[i][n]++;
+                    break;
+                case SC_AVG:
+                    acc[i][n] += ((IntField) t.getField(f)).getValue();
+                    cnt[i][n] += ((IntField) t.getField(f + 1)).getValue();
+                    break;
+                default:
+                    throw new UnsupportedOperationException("unsupported aggregation operator " + ops[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the single tuple of aggregates without grouping over an empty
+     *         input: COUNT is 0, and so are the others, as there is no NULL
+     *         to return for them
+     */
+    static Tuple emptyResult(TupleDesc td) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            t.setField(i, new IntField(0));
+        return t;
+    }
+
+    /**
+     * Writes the values of all aggregates of group n to t, starting at field
+     * first, {@link #outputWidth} fields each.
+     */
+    void results(int n, Tuple t, int first) {
+        int f = first;
+        for (int i = 0; i < ops.length; i++) {
+            switch (ops[i]) {
+                case AVG: case SC_AVG:
+                    t.setField(f++, new IntField((int) (acc[i][n] / cnt[i][n])));
+                    break;
+                case SUM_COUNT:
+                    t.setField(f++, new IntField((int) acc[i][n]));
+                    t.setField(f++, new IntField((int) cnt[i][n]));
+                    break;
+                default:
+                    t.setField(f++, new IntField((int) acc[i][n]));
+            }
+        }
+    }
+}
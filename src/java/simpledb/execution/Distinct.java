@@ -0,0 +1,403 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Distinct eliminates duplicate tuples, as in SELECT DISTINCT. Two tuples are
+ * duplicates if all of their fields are equal.
+ * <p>
+ * With the HASH strategy, each tuple is returned as soon as its key is first
+ * seen, so the operator pipelines. Keys are kept in a hash set in the compact
+ * binary form of spill runs (see {@link RunWriter}) rather than as Field
+ * objects. Once the set fills its memory budget, tuples with new keys are
+ * hash-partitioned to disk, and each partition is deduplicated in turn after
+ * the child is exhausted, as {@link HashAggregate} does with groups.
+ * <p>
+ * With the SORT strategy, the child is sorted with an {@link ExternalSorter},
+ * unless its tuples already arrive grouped, and each run of equal tuples is
+ * returned once.
+ */
+public class Distinct extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** How duplicates are found. */
+    public enum Strategy {
+        HASH, SORT
+    }
+
+    /** Default memory budget, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = 1024;
+    /** Number of partitions the keys that do not fit are spilled to. */
+    public static final int SPILL_PARTITIONS = 16;
+    /** Spill levels after which keys are kept in memory regardless. */
+    private static final int MAX_SPILL_LEVEL = 4;
+    /** Estimated bytes of a key in the hash set besides its encoding. */
+    private static final int KEY_OVERHEAD = 64;
+
+    private OpIterator child;
+    private final Strategy strategy;
+    private final int memoryPages;
+    private final TupleDesc td;
+    private final int[] allFields;
+
+    // HASH
+    transient private Set<Key> seen;
+    transient private long used;
+    transient private int level;
+    transient private RunWriter[] spills;
+    transient private File[] spillFiles;
+    transient private Deque<Partition> pending;
+    transient private RunReader partition;
+    transient private File partitionFile;
+    transient private ByteArrayOutputStream keyBytes;
+    transient private DataOutputStream keyOut;
+
+    // SORT
+    transient private ExternalSorter sorter;
+    transient private Iterator<Tuple> sorted;
+    transient private Tuple last;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples
+     */
+    public Distinct(OpIterator child) {
+        this(child, Strategy.HASH);
+    }
+
+    public Distinct(OpIterator child, Strategy strategy) {
+        this(child, strategy, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryPages
+     *            The number of pages the hash set or the sort may use before
+     *            spilling to disk; at least 2
+     */
+    public Distinct(OpIterator child, Strategy strategy, int memoryPages) {
+        if (memoryPages < 2)
+            throw new IllegalArgumentException("memory budget must be at least 2 pages");
+        this.child = child;
+        this.strategy = strategy;
+        this.memoryPages = memoryPages;
+        this.td = child.getTupleDesc();
+        this.allFields = new int[td.numFields()];
+        for (int i = 0; i < allFields.length; i++)
+            allFields[i] = i;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return true if the SORT strategy can use the order of the child as is */
+    private boolean childGrouped() {
+        return child.getOrdering().groups(allFields);
+    }
+
+    @Override
+    public Ordering getOrdering() {
+        if (strategy == Strategy.HASH)
+            return Ordering.NONE;
+        if (childGrouped())
+            return child.getOrdering();
+        return new Ordering(allFields, ascending());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        start();
+        super.open();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        if (strategy == Strategy.HASH) {
+            seen = new HashSet<>();
+            used = 0;
+            level = 0;
+            pending = new ArrayDeque<>();
+            keyBytes = new ByteArrayOutputStream();
+            keyOut = new DataOutputStream(keyBytes);
+        } else if (!childGrouped()) {
+            sorter = new ExternalSorter(td, new TupleComparator(allFields, ascending(), td), memoryPages);
+            sorter.addAll(child);
+            sorter.finish();
+            sorted = sorter.iterator();
+        }
+        last = null;
+    }
+
+    private boolean[] ascending() {
+        boolean[] asc = new boolean[allFields.length];
+        Arrays.fill(asc, true);
+        return asc;
+    }
+
+    public void close() {
+        super.close();
+        discard();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (sorter != null) {
+            sorted = sorter.iterator();
+            last = null;
+            return;
+        }
+        discard();
+        child.rewind();
+        start();
+    }
+
+    private void discard() {
+        if (spills != null) {
+            for (int p = 0; p < SPILL_PARTITIONS; p++) {
+                if (spills[p] != null) {
+                    try {
+                        spills[p].close();
+                    } catch (IOException ignored) {
+                    }
+                    spillFiles[p].delete();
+                }
+            }
+        }
+        if (pending != null) {
+            for (Partition p : pending)
+                p.file.delete();
+        }
+        if (partition != null) {
+            partition.close();
+            partitionFile.delete();
+        }
+        if (sorter != null)
+            sorter.close();
+        spills = null;
+        spillFiles = null;
+        pending = null;
+        partition = null;
+        partitionFile = null;
+        seen = null;
+        sorter = null;
+        sorted = null;
+        last = null;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return strategy == Strategy.HASH ? nextHashed() : nextSorted();
+    }
+
+    private Tuple nextSorted() throws TransactionAbortedException, DbException {
+        while (true) {
+            Tuple t;
+            if (sorted != null) {
+                try {
+                    if (!sorted.hasNext())
+                        return null;
+                    t = sorted.next();
+                } catch (UncheckedIOException e) {
+                    throw new DbException("reading sort run failed: " + e.getCause().getMessage());
+                }
+            } else {
+                if (!child.hasNext())
+                    return null;
+                t = child.next();
+            }
+            if (last == null || !sameFields(last, t)) {
+                last = t;
+                return t;
+            }
+        }
+    }
+
+    private boolean sameFields(Tuple a, Tuple b) {
+        for (int i = 0; i < allFields.length; i++) {
+            if (!a.getField(i).equals(b.getField(i)))
+                return false;
+        }
+        return true;
+    }
+
+    private Tuple nextHashed() throws TransactionAbortedException, DbException {
+        long budget = (long) memoryPages * BufferPool.getPageSize();
+        while (true) {
+            Tuple t = nextInput();
+            if (t == null) {
+                if (!nextPartition())
+                    return null;
+                continue;
+            }
+            Key k = key(t);
+            if (seen.contains(k))
+                continue;
+            if (used < budget || level >= MAX_SPILL_LEVEL) {
+                seen.add(k);
+                used += KEY_OVERHEAD + k.bytes.length;
+                return t;
+            }
+            spill(k, t);
+        }
+    }
+
+    /** @return the next input tuple of the current pass, or null at its end */
+    private Tuple nextInput() throws TransactionAbortedException, DbException {
+        if (partition == null)
+            return child.hasNext() ? child.next() : null;
+        try {
+            return partition.next();
+        } catch (IOException e) {
+            throw new DbException("could not read distinct partition: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ends the current pass and starts deduplicating the next spilled
+     * partition.
+     *
+     * @return false if no partitions are left
+     */
+    private boolean nextPartition() throws DbException {
+        if (partition != null) {
+            partition.close();
+            partitionFile.delete();
+            partition = null;
+            partitionFile = null;
+        }
+        if (spills != null) {
+            for (int p = 0; p < SPILL_PARTITIONS; p++) {
+                if (spills[p] == null)
+                    continue;
+                try {
+                    spills[p].close();
+                    pending.push(new Partition(spillFiles[p], level + 1));
+                } catch (IOException e) {
+                    spillFiles[p].delete();
+                    throw new DbException("could not write distinct partition: " + e.getMessage());
+                }
+            }
+            spills = null;
+            spillFiles = null;
+        }
+        if (pending.isEmpty())
+            return false;
+        Partition p = pending.pop();
+        seen = new HashSet<>();
+        used = 0;
+        level = p.level;
+        try {
+            partition = new RunReader(p.file, td);
+            partitionFile = p.file;
+        } catch (IOException e) {
+            p.file.delete();
+            throw new DbException("could not read distinct partition: " + e.getMessage());
+        }
+        return true;
+    }
+
+    private void spill(Key k, Tuple t) throws DbException {
+        if (spills == null) {
+            spills = new RunWriter[SPILL_PARTITIONS];
+            spillFiles = new File[SPILL_PARTITIONS];
+        }
+        // mix in the level so that each pass partitions on different hash bits
+        int h = k.hash ^ (level + 1) * 0x9E3779B9;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        int p = Math.floorMod(h, SPILL_PARTITIONS);
+        try {
+            if (spills[p] == null) {
+                spillFiles[p] = File.createTempFile("simpledb-distinct", ".part");
+                spillFiles[p].deleteOnExit();
+                spills[p] = new RunWriter(spillFiles[p], td);
+            }
+            spills[p].write(t);
+        } catch (IOException e) {
+            throw new DbException("could not spill distinct partition: " + e.getMessage());
+        }
+    }
+
+    /** @return the key of t: its fields encoded as in a spill run */
+    private Key key(Tuple t) throws DbException {
+        keyBytes.reset();
+        try {
+            for (int i = 0; i < allFields.length; i++) {
+                Field f = t.getField(i);
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    keyOut.writeInt(((IntField) f).getValue());
+                else
+                    keyOut.writeUTF(((StringField) f).getValue());
+            }
+            keyOut.flush();
+        } catch (IOException e) {
+            throw new DbException("could not encode distinct key: " + e.getMessage());
+        }
+        return new Key(keyBytes.toByteArray());
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+
+    /** The encoded fields of a tuple, with their hash code cached. */
+    private static class Key {
+        final byte[] bytes;
+        final int hash;
+
+        Key(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).hash == hash && Arrays.equals(((Key) o).bytes, bytes);
+        }
+    }
+
+    /** A spilled partition of tuples, to be deduplicated at the given level. */
+    private static class Partition {
+        final File file;
+        final int level;
+
+        Partition(File file, int level) {
+            this.file = file;
+            this.level = level;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ExternalSorter sorts a stream of tuples under a fixed memory budget.
+ * <p>
+ * Tuples are accumulated in memory until the budget is full; the buffer is
+ * then sorted and written to a temporary run file. Once the input is
+ * exhausted, the runs are combined with a k-way merge driven by a loser tree.
+ * If there are more runs than the budget allows to be merged at once,
+ * intermediate merge passes combine them into longer runs first. Input that
+ * fits in the budget never touches disk.
+ * <p>
+ * Spilled tuples are stored in a compact binary format (see {@link RunWriter})
+ * and come back without a RecordId.
+ */
+public class ExternalSorter {
+
+    /**
+     * Estimated heap bytes of a buffered Tuple apart from its fields: the
+     * Tuple, its field list and its RecordId, plus the buffer slot.
+     */
+    private static final int TUPLE_OVERHEAD = 128;
+    /** Estimated heap bytes of an IntField and the reference to it. */
+    private static final int INT_FIELD_BYTES = 24;
+    /**
+     * Estimated heap bytes of a StringField, its String and the String's
+     * byte array, apart from the characters, plus the reference to it.
+     */
+    private static final int STRING_FIELD_BYTES = 80;
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> cmp;
+    private final int bufferTuples;
+    private final int fanIn;
+
+    private Tuple[] buffer;
+    private int bufferLen = 0;
+    private final List<File> runs = new ArrayList<>();
+    private boolean finished = false;
+    private LoserTree merge = null;
+
+    /**
+     * Creates a sorter.
+     *
+     * @param td
+     *            the TupleDesc of the tuples to sort
+     * @param cmp
+     *            the sort order
+     * @param memoryPages
+     *            the memory budget, in pages of {@link BufferPool#getPageSize()}
+     *            bytes; must be at least 2 so that two runs can be merged
+     */
+    public ExternalSorter(TupleDesc td, Comparator<Tuple> cmp, int memoryPages) {
+        if (memoryPages < 2)
+            throw new IllegalArgumentException("an external sort needs at least 2 pages of memory");
+        this.td = td;
+        this.cmp = cmp;
+        long budget = (long) memoryPages * BufferPool.getPageSize();
+        this.bufferTuples = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, budget / heapBytes(td)));
+        this.fanIn = Math.max(2, memoryPages - 1);
+        this.buffer = new Tuple[Math.min(bufferTuples, 1024)];
+    }
+
+    /**
+     * @return the estimated heap bytes of a buffered tuple of td, which is
+     *         several times its size on disk; strings are taken at their
+     *         maximum length, one byte per character
+     */
+    static long heapBytes(TupleDesc td) {
+        long bytes = TUPLE_OVERHEAD;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                bytes += STRING_FIELD_BYTES + Type.STRING_LEN;
+            else
+                bytes += INT_FIELD_BYTES;
+        }
+        return bytes;
+    }
+
+    /** @return the number of tuples held in memory before a run is spilled */
+    public int getBufferTuples() {
+        return bufferTuples;
+    }
+
+    /** @return the number of runs spilled to disk so far */
+    public int numRuns() {
+        return runs.size();
+    }
+
+    /** Adds a tuple to the sort input. */
+    public void add(Tuple t) throws DbException {
+        if (finished)
+            throw new IllegalStateException("sorter already finished");
+        if (bufferLen == bufferTuples)
+            spill();
+        if (bufferLen == buffer.length)
+            buffer = Arrays.copyOf(buffer, (int) Math.min(bufferTuples, 2L * buffer.length));
+        buffer[bufferLen++] = t;
+    }
+
+    /** Adds all remaining tuples of an opened iterator to the sort input. */
+    public void addAll(OpIterator it) throws DbException, TransactionAbortedException {
+        while (it.hasNext())
+            add(it.next());
+    }
+
+    /**
+     * Ends the input and prepares the sorted output. If any runs were spilled,
+     * the remaining in-memory tuples are spilled too and runs are merged down
+     * until one merge pass can produce the output.
+     */
+    public void finish() throws DbException {
+        if (finished)
+            return;
+        finished = true;
+        if (runs.isEmpty()) {
+            Arrays.sort(buffer, 0, bufferLen, cmp);
+            return;
+        }
+        if (bufferLen > 0)
+            spill();
+        buffer = null;
+        while (runs.size() > fanIn) {
+            List<File> next = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<File> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+                if (group.size() == 1) {
+                    next.add(group.get(0));
+                    continue;
+                }
+                File out = newRunFile();
+                try (RunWriter w = new RunWriter(out, td);
+                     LoserTree merge = new LoserTree(open(group), cmp)) {
+                    Tuple t;
+                    while ((t = merge.next()) != null)
+                        w.write(t);
+                } catch (IOException e) {
+                    throw new DbException("external sort merge failed: " + e.getMessage());
+                }
+                for (File f : group)
+                    f.delete();
+                next.add(out);
+            }
+            runs.clear();
+            runs.addAll(next);
+        }
+    }
+
+    /**
+     * Returns an iterator over the sorted tuples. May be called repeatedly
+     * after {@link #finish()}; each call starts from the first tuple again.
+     */
+    public Iterator<Tuple> iterator() throws DbException {
+        if (!finished)
+            throw new IllegalStateException("sorter not finished");
+        if (runs.isEmpty())
+            return Arrays.asList(buffer).subList(0, bufferLen).iterator();
+        closeMerge();
+        final LoserTree merge = new LoserTree(open(runs), cmp);
+        this.merge = merge;
+        return new Iterator<Tuple>() {
+            Tuple next = advance();
+
+            private Tuple advance() {
+                try {
+                    Tuple t = merge.next();
+                    if (t == null)
+                        merge.close();
+                    return t;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public Tuple next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                Tuple t = next;
+                next = advance();
+                return t;
+            }
+        };
+    }
+
+    /** Releases the in-memory buffer and deletes all run files. */
+    public void close() {
+        closeMerge();
+        buffer = null;
+        bufferLen = 0;
+        for (File f : runs)
+            f.delete();
+        runs.clear();
+    }
+
+    private void closeMerge() {
+        if (merge != null)
+            merge.close();
+        merge = null;
+    }
+
+    private void spill() throws DbException {
+        Arrays.sort(buffer, 0, bufferLen, cmp);
+        File f = newRunFile();
+        try (RunWriter w = new RunWriter(f, td)) {
+            for (int i = 0; i < bufferLen; i++) {
+                w.write(buffer[i]);
+                buffer[i] = null;
+            }
+        } catch (IOException e) {
+            f.delete();
+            throw new DbException("could not spill sort run: " + e.getMessage());
+        }
+        runs.add(f);
+        bufferLen = 0;
+    }
+
+    private File newRunFile() throws DbException {
+        try {
+            File f = File.createTempFile("simpledb-sort", ".run");
+            f.deleteOnExit();
+            return f;
+        } catch (IOException e) {
+            throw new DbException("could not create sort run file: " + e.getMessage());
+        }
+    }
+
+    private List<RunReader> open(List<File> files) throws DbException {
+        List<RunReader> readers = new ArrayList<>(files.size());
+        try {
+            for (File f : files)
+                readers.add(new RunReader(f, td));
+        } catch (IOException e) {
+            for (RunReader r : readers)
+                r.close();
+            throw new DbException("could not open sort run: " + e.getMessage());
+        }
+        return readers;
+    }
+}
+
+/**
+ * A loser tree (tournament tree) merging k sorted runs. Each internal node
+ * holds the run that lost the match played there, and node 0 holds the
+ * overall winner, so replacing the winner replays only the log2(k) matches on
+ * its path to the root. Ties go to the lower run index, which keeps the merge
+ * stable across runs.
+ */
+class LoserTree implements Closeable {
+    private final List<RunReader> runs;
+    private final Comparator<Tuple> cmp;
+    private final Tuple[] heads;
+    private final int[] tree;
+    private final int k;
+
+    LoserTree(List<RunReader> runs, Comparator<Tuple> cmp) throws DbException {
+        this.runs = runs;
+        this.cmp = cmp;
+        this.k = runs.size();
+        this.heads = new Tuple[k];
+        this.tree = new int[Math.max(1, k)];
+        try {
+            for (int i = 0; i < k; i++)
+                heads[i] = runs.get(i).next();
+        } catch (IOException e) {
+            close();
+            throw new DbException("could not read sort run: " + e.getMessage());
+        }
+        if (k == 0)
+            return;
+        // leaf i sits at node k + i; play every match bottom up
+        int[] winners = new int[2 * k];
+        for (int i = 0; i < k; i++)
+            winners[k + i] = i;
+        for (int n = k - 1; n >= 1; n--) {
+            int a = winners[2 * n], b = winners[2 * n + 1];
+            if (beats(a, b)) {
+                winners[n] = a;
+                tree[n] = b;
+            } else {
+                winners[n] = b;
+                tree[n] = a;
+            }
+        }
+        tree[0] = k == 1 ? 0 : winners[1];
+    }
+
+    /** @return true if run a's head sorts before run b's head */
+    private boolean beats(int a, int b) {
+        if (heads[a] == null)
+            return false;
+        if (heads[b] == null)
+            return true;
+        int c = cmp.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /** @return the smallest remaining tuple across all runs, or null if all are exhausted */
+    Tuple next() throws IOException {
+        if (k == 0)
+            return null;
+        int w = tree[0];
+        Tuple t = heads[w];
+        if (t == null)
+            return null;
+        heads[w] = runs.get(w).next();
+        for (int n = (w + k) / 2; n > 0; n /= 2) {
+            if (beats(tree[n], w)) {
+                int loser = w;
+                w = tree[n];
+                tree[n] = loser;
+            }
+        }
+        tree[0] = w;
+        return t;
+    }
+
+    public void close() {
+        for (RunReader r : runs)
+            r.close();
+    }
+}
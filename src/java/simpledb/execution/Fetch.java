@@ -0,0 +1,142 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Fetch implements late materialization: given tuples that carry the row id
+ * of a HeapFile tuple (see {@link SeqScan#ROWID}), it reads that tuple and
+ * appends some of its columns. Placed at the top of a plan whose scans only
+ * return the columns needed by filters, joins and sorts, it reads the
+ * remaining columns for just the tuples that survive.
+ */
+public class Fetch extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private OpIterator child;
+    private final int rowIdField;
+    private final int tableid;
+    private final int[] columns;
+    private final int slots;
+    private final TupleDesc td;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            The transaction the fetches run as a part of
+     * @param child
+     *            The OpIterator that is feeding us tuples
+     * @param rowIdField
+     *            The field of the child tuples holding the row id
+     * @param tableid
+     *            The HeapFile the row ids point into
+     * @param tableAlias
+     *            The alias that prefixes the names of the fetched fields
+     * @param columns
+     *            The columns of the table to append, as indexes of its
+     *            TupleDesc
+     */
+    public Fetch(TransactionId tid, OpIterator child, int rowIdField, int tableid,
+                 String tableAlias, int[] columns) {
+        TupleDesc ctd = child.getTupleDesc();
+        if (ctd.getFieldType(rowIdField) != Type.INT_TYPE)
+            throw new IllegalArgumentException("row ids are INT fields");
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableid);
+        this.tid = tid;
+        this.child = child;
+        this.rowIdField = rowIdField;
+        this.tableid = tableid;
+        this.columns = columns.clone();
+        this.slots = HeapPage.numSlots(tableTd);
+
+        int n = ctd.numFields();
+        Type[] types = new Type[n + columns.length];
+        String[] names = new String[n + columns.length];
+        for (int i = 0; i < n; i++) {
+            types[i] = ctd.getFieldType(i);
+            names[i] = ctd.getFieldName(i);
+        }
+        for (int i = 0; i < columns.length; i++) {
+            types[n + i] = tableTd.getFieldType(columns[i]);
+            names[n + i] = tableAlias + "." + tableTd.getFieldName(columns[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public int getTableId() {
+        return tableid;
+    }
+
+    public int[] getColumns() {
+        return columns.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public Ordering getOrdering() {
+        return child.getOrdering();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!child.hasNext())
+            return null;
+        Tuple t = child.next();
+        int rowId = ((IntField) t.getField(rowIdField)).getValue();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(tableid, rowId / slots), Permissions.READ_ONLY);
+        Tuple row = page.getTuple(rowId % slots);
+        if (row == null)
+            throw new DbException("row " + rowId + " of table " + tableid + " no longer exists");
+
+        int n = t.getTupleDesc().numFields();
+        Tuple out = new Tuple(td);
+        for (int i = 0; i < n; i++)
+            out.setField(i, t.getField(i));
+        for (int i = 0; i < columns.length; i++)
+            out.setField(n + i, row.getField(columns[i]));
+        return out;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+}
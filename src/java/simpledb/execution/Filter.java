@@ -40,6 +40,11 @@ public class Filter extends Operator {
         return child.getTupleDesc();
     }
 
+    @Override
+    public Ordering getOrdering() {
+        return child.getOrdering();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
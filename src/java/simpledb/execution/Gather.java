@@ -0,0 +1,226 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Gather is an exchange operator that runs several worker pipelines in
+ * parallel and returns the union of their outputs, in no particular order.
+ * <p>
+ * Each worker is an ordinary operator tree (typically a morsel SeqScan
+ * followed by Filters and a partial Aggregate) that is opened, drained and
+ * closed on a thread of a pool shared by all Gather operators. Workers hand
+ * their tuples to the consuming thread in batches through a bounded queue, so
+ * a slow consumer throttles the workers. All workers of a query run under the
+ * query's TransactionId, so page locks they take belong to that transaction.
+ * <p>
+ * A Gather must not appear inside the worker pipeline of another Gather, since
+ * a worker blocked on a nested Gather would hold a pool thread.
+ */
+public class Gather extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Worker threads shared by all Gather operators. */
+    private static final ForkJoinPool POOL =
+            new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /** Number of tuples a worker hands over at once. */
+    public static final int BATCH_SIZE = 256;
+    private static final int QUEUE_BATCHES = 64;
+
+    /** Marks the end of one worker's output; compared by identity. */
+    private static final List<Tuple> DONE = new ArrayList<>(0);
+
+    private OpIterator[] workers;
+    private final PageMorsels morsels;
+    private final TupleDesc td;
+
+    transient private BlockingQueue<List<Tuple>> queue;
+    transient private CountDownLatch finished;
+    transient private volatile boolean cancelled;
+    transient private AtomicReference<Throwable> failure;
+    transient private int running;
+    transient private Iterator<Tuple> batch;
+
+    /**
+     * Constructor.
+     *
+     * @param workers
+     *            the worker pipelines; all must produce the same TupleDesc
+     * @param morsels
+     *            the morsels the workers' scans share, reset every time the
+     *            workers are started; may be null if the workers do not
+     *            scan morsels
+     */
+    public Gather(OpIterator[] workers, PageMorsels morsels) {
+        if (workers.length == 0)
+            throw new IllegalArgumentException("Gather needs at least one worker");
+        this.workers = workers.clone();
+        this.morsels = morsels;
+        this.td = workers[0].getTupleDesc();
+        for (OpIterator w : workers) {
+            if (!w.getTupleDesc().equals(td))
+                throw new IllegalArgumentException("all workers must produce the same TupleDesc");
+        }
+    }
+
+    /** @return the number of threads available to workers */
+    public static int getParallelism() {
+        return POOL.getParallelism();
+    }
+
+    public int getNumWorkers() {
+        return workers.length;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        startWorkers();
+        super.open();
+    }
+
+    public void close() {
+        stopWorkers();
+        super.close();
+        queue = null;
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stopWorkers();
+        startWorkers();
+    }
+
+    private void startWorkers() {
+        if (morsels != null)
+            morsels.reset();
+        queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        failure = new AtomicReference<>();
+        cancelled = false;
+        running = workers.length;
+        batch = Collections.emptyIterator();
+        finished = new CountDownLatch(workers.length);
+        for (OpIterator w : workers)
+            POOL.execute(() -> runWorker(w));
+    }
+
+    /**
+     * Cancels the workers and waits until every one of them has closed its
+     * pipeline.
+     */
+    private void stopWorkers() {
+        if (finished == null)
+            return;
+        cancelled = true;
+        try {
+            // a worker notices cancellation within one put
+            while (!finished.await(10, TimeUnit.MILLISECONDS))
+                queue.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finished = null;
+    }
+
+    /** Drains one worker pipeline into the queue. Runs on a pool thread. */
+    private void runWorker(OpIterator w) {
+        try {
+            if (cancelled)
+                return;
+            w.open();
+            try {
+                List<Tuple> buf = new ArrayList<>(BATCH_SIZE);
+                while (!cancelled && w.hasNext()) {
+                    buf.add(w.next());
+                    if (buf.size() == BATCH_SIZE) {
+                        put(buf);
+                        buf = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                if (!buf.isEmpty())
+                    put(buf);
+            } finally {
+                w.close();
+            }
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            try {
+                put(DONE);
+            } catch (InterruptedException ignored) {
+            }
+            finished.countDown();
+        }
+    }
+
+    /** Hands a batch to the consumer, giving up if the Gather is cancelled. */
+    private void put(List<Tuple> b) throws InterruptedException {
+        while (!cancelled) {
+            if (queue.offer(b, 10, TimeUnit.MILLISECONDS))
+                return;
+        }
+    }
+
+    /** Rethrows the first failure of any worker, after stopping the others. */
+    private void checkFailure() throws DbException, TransactionAbortedException {
+        Throwable e = failure.get();
+        if (e == null)
+            return;
+        stopWorkers();
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        throw new DbException("parallel worker failed: " + e);
+    }
+
+    /**
+     * Returns the next tuple produced by any worker, or null once all workers
+     * have finished.
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (batch.hasNext())
+                return batch.next();
+            if (running == 0 || finished == null)
+                return null;
+            List<Tuple> b;
+            try {
+                b = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for parallel workers");
+            }
+            if (b == DONE) {
+                running--;
+                checkFailure();
+            } else {
+                batch = b.iterator();
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return workers.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.workers = children.clone();
+    }
+
+}
@@ -0,0 +1,409 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * HashAggregate computes any number of aggregates over groups defined by any
+ * number of columns, in a single pass over its child.
+ * <p>
+ * Groups are kept in a hash table whose accumulators live in primitive long
+ * arrays, one per aggregate, indexed by group number. When the number of
+ * groups outgrows the memory budget, tuples of groups that are already in the
+ * table keep being aggregated in place, while tuples of new groups are hash
+ * partitioned into temporary files. Once the in-memory groups have been
+ * returned, each partition is aggregated the same way, with a different hash
+ * function, so that partitions that are still too big split further.
+ * <p>
+ * Output tuples hold the group-by fields, in the order given, followed by one
+ * INT field per aggregate (two for SUM_COUNT). An empty input produces no
+ * tuples when grouping; without grouping it produces one tuple, as in SQL,
+ * whose aggregates are all 0 (see {@link Accumulators#emptyResult}).
+ */
+public class HashAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget of the group table, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = 1024;
+    /** Number of partitions the overflow of one pass is split into. */
+    public static final int SPILL_PARTITIONS = 16;
+    /** Partitioning depth after which groups are kept in memory regardless of the budget. */
+    static final int MAX_SPILL_LEVEL = 6;
+    /** Rough per-group cost of the hash table entry and key objects, in bytes. */
+    private static final int GROUP_OVERHEAD = 64;
+
+    private OpIterator child;
+    private final int[] gfields;
+    private final int[] afields;
+    private final Aggregator.Op[] aops;
+    private final TupleDesc td;
+
+    /** Input of a pass: the group-by fields followed by the aggregate fields of the child. */
+    private final int[] passFields;
+    private final TupleDesc passTd;
+    private final int maxGroups;
+
+    transient private GroupTable table;
+    transient private Iterator<Tuple> out;
+    transient private Deque<Partition> pending;
+    transient private Tuple pass;
+
+    /**
+     * Whether an aggregate without grouping returns a tuple over an empty
+     * input; not for partial aggregates, whose empty parts have no state to
+     * merge.
+     */
+    private boolean emptyInputTuple = true;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param gfields
+     *            The columns to group by; empty for a single group over the
+     *            whole input
+     * @param afields
+     *            The column each aggregate is computed over
+     * @param aops
+     *            The aggregation operator of each aggregate; MIN, MAX, SUM and
+     *            AVG need INT columns, COUNT works on any column. SUM_COUNT and
+     *            SC_AVG compute the two phases of a split AVG, see
+     *            {@link TwoPhaseAggregation}
+     */
+    public HashAggregate(OpIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops) {
+        this(child, gfields, afields, aops, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryPages
+     *            The number of pages the group table may use before new groups
+     *            are spilled to disk
+     * @see #HashAggregate(OpIterator, int[], int[], Aggregator.Op[])
+     */
+    public HashAggregate(OpIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops,
+                         int memoryPages) {
+        if (memoryPages < 1)
+            throw new IllegalArgumentException("memory budget must be at least one page");
+        TupleDesc ctd = child.getTupleDesc();
+        Accumulators.check(ctd, afields, aops);
+        this.child = child;
+        this.gfields = gfields.clone();
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+
+        this.passFields = Accumulators.inputFields(gfields, afields, aops);
+        Type[] passTypes = new Type[passFields.length];
+        for (int i = 0; i < passFields.length; i++)
+            passTypes[i] = ctd.getFieldType(passFields[i]);
+        this.passTd = new TupleDesc(passTypes);
+        this.td = Accumulators.outputDesc(ctd, gfields, afields, aops);
+
+        int keyBytes = 0;
+        for (int g : gfields)
+            keyBytes += ctd.getFieldType(g).getLen();
+        long perGroup = GROUP_OVERHEAD + keyBytes + 16L * afields.length;
+        this.maxGroups = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                (long) memoryPages * BufferPool.getPageSize() / perGroup));
+    }
+
+    public int[] groupFields() {
+        return gfields.clone();
+    }
+
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
+    }
+
+    /** @return the name of the i-th group-by field in the output tuples */
+    public String groupFieldName(int i) {
+        return td.getFieldName(i);
+    }
+
+    /** Makes an aggregate without grouping return no tuple over an empty input. */
+    void noEmptyInputTuple() {
+        emptyInputTuple = false;
+    }
+
+    /** @return the number of groups held in memory before new groups are spilled */
+    public int getMaxGroups() {
+        return maxGroups;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        child.open();
+        aggregate();
+        super.open();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        discard();
+        child.rewind();
+        aggregate();
+    }
+
+    public void close() {
+        super.close();
+        discard();
+        child.close();
+    }
+
+    /** Runs the first pass over the child. */
+    private void aggregate() throws DbException, TransactionAbortedException {
+        startPass();
+        while (child.hasNext())
+            consume(child.next());
+        finishPass();
+    }
+
+    /**
+     * Starts the first pass. Together with {@link #consume} and
+     * {@link #finishPass} this lets {@link PushExecutor} push the child tuples
+     * in instead of the aggregate pulling them.
+     */
+    void startPass() {
+        discard();
+        pending = new ArrayDeque<>();
+        table = new GroupTable(0);
+        pass = new Tuple(passTd);
+    }
+
+    /** Adds a child tuple to the first pass. */
+    void consume(Tuple t) throws DbException {
+        for (int i = 0; i < passFields.length; i++)
+            pass.setField(i, t.getField(passFields[i]));
+        table.add(pass);
+    }
+
+    /** Closes the spill files of the current pass and starts returning its groups. */
+    void finishPass() throws DbException {
+        Partition[] parts = table.closeSpills();
+        if (parts != null) {
+            for (Partition p : parts) {
+                if (p != null)
+                    pending.push(p);
+            }
+        }
+        out = table.results();
+        if (gfields.length == 0 && emptyInputTuple && !out.hasNext() && pending.isEmpty())
+            out = Collections.singletonList(Accumulators.emptyResult(td)).iterator();
+    }
+
+    void discard() {
+        if (table != null) {
+            try {
+                Partition[] parts = table.closeSpills();
+                if (parts != null) {
+                    for (Partition p : parts) {
+                        if (p != null)
+                            p.file.delete();
+                    }
+                }
+            } catch (DbException e) {
+                // the spill files are deleted already
+            }
+        }
+        if (pending != null) {
+            for (Partition p : pending)
+                p.file.delete();
+        }
+        pending = null;
+        table = null;
+        out = null;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (out != null) {
+            if (out.hasNext())
+                return out.next();
+            if (pending.isEmpty())
+                return null;
+            Partition p = pending.pop();
+            table = new GroupTable(p.level);
+            try (RunReader r = new RunReader(p.file, passTd)) {
+                Tuple t;
+                while ((t = r.next()) != null)
+                    table.add(t);
+            } catch (IOException e) {
+                throw new DbException("could not read aggregate partition: " + e.getMessage());
+            } finally {
+                p.file.delete();
+            }
+            finishPass();
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+
+    /** A spilled partition of pass tuples, to be aggregated at the given level. */
+    private static class Partition {
+        final File file;
+        final int level;
+
+        Partition(File file, int level) {
+            this.file = file;
+            this.level = level;
+        }
+    }
+
+    /**
+     * The group table of one pass. Group keys map to dense group numbers that
+     * index the accumulators.
+     */
+    private class GroupTable {
+        final int level;
+        final Map<List<Field>, Integer> groups = new HashMap<>();
+        final List<List<Field>> keys = new ArrayList<>();
+        final Accumulators acc;
+        int numGroups = 0;
+        RunWriter[] spills;
+        File[] spillFiles;
+
+        GroupTable(int level) {
+            this.level = level;
+            this.acc = new Accumulators(aops, Math.min(maxGroups, 1024));
+        }
+
+        /** Aggregates one pass tuple, or spills it if its group does not fit. */
+        void add(Tuple t) throws DbException {
+            int g = gfields.length;
+            List<Field> key;
+            if (g == 0) {
+                key = Collections.emptyList();
+            } else {
+                Field[] k = new Field[g];
+                for (int i = 0; i < g; i++)
+                    k[i] = t.getField(i);
+                key = Arrays.asList(k);
+            }
+            Integer slot = groups.get(key);
+            int n;
+            if (slot != null) {
+                n = slot;
+            } else if (numGroups < maxGroups || level >= MAX_SPILL_LEVEL) {
+                n = newGroup(key);
+            } else {
+                spill(key, t);
+                return;
+            }
+            acc.add(n, t, g);
+        }
+
+        private int newGroup(List<Field> key) {
+            int n = numGroups++;
+            acc.init(n);
+            groups.put(key, n);
+            keys.add(key);
+            return n;
+        }
+
+        private void spill(List<Field> key, Tuple t) throws DbException {
+            if (spills == null) {
+                spills = new RunWriter[SPILL_PARTITIONS];
+                spillFiles = new File[SPILL_PARTITIONS];
+            }
+            // mix in the level so that each pass partitions on different hash bits
+            int h = key.hashCode() ^ (level + 1) * 0x9E3779B9;
+            h *= 0x85EBCA6B;
+            h ^= h >>> 13;
+            int p = Math.floorMod(h, SPILL_PARTITIONS);
+            try {
+                if (spills[p] == null) {
+                    spillFiles[p] = File.createTempFile("simpledb-agg", ".part");
+                    spillFiles[p].deleteOnExit();
+                    spills[p] = new RunWriter(spillFiles[p], passTd);
+                }
+                spills[p].write(t);
+            } catch (IOException e) {
+                throw new DbException("could not spill aggregate partition: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Closes the spill files of this pass. If one cannot be written out,
+         * all of them are deleted, since the groups of this pass are lost.
+         *
+         * @return the partitions spilled by this pass, or null if none
+         */
+        Partition[] closeSpills() throws DbException {
+            if (spills == null)
+                return null;
+            Partition[] parts = new Partition[SPILL_PARTITIONS];
+            File[] files = spillFiles;
+            IOException failure = null;
+            for (int p = 0; p < SPILL_PARTITIONS; p++) {
+                if (spills[p] == null)
+                    continue;
+                try {
+                    spills[p].close();
+                    parts[p] = new Partition(files[p], level + 1);
+                } catch (IOException e) {
+                    if (failure == null)
+                        failure = e;
+                }
+            }
+            spills = null;
+            spillFiles = null;
+            if (failure != null) {
+                for (File f : files) {
+                    if (f != null)
+                        f.delete();
+                }
+                throw new DbException("could not write aggregate partition: " + failure.getMessage());
+            }
+            return parts;
+        }
+
+        Iterator<Tuple> results() {
+            return new Iterator<Tuple>() {
+                int n = 0;
+
+                public boolean hasNext() {
+                    return n < numGroups;
+                }
+
+                public Tuple next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    Tuple t = new Tuple(td);
+                    List<Field> key = keys.get(n);
+                    for (int i = 0; i < key.size(); i++)
+                        t.setField(i, key.get(i));
+                    acc.results(n, t, key.size());
+                    n++;
+                    return t;
+                }
+            };
+        }
+    }
+}
@@ -9,13 +9,20 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * The left child is the build side, loaded into a hash table; the right child
+ * is the probe side. If the probe side is a scan, possibly below filters,
+ * {@link #pushRuntimeFilter} makes each load of the hash table also build a
+ * {@link RuntimeFilter} over its keys that the scan uses to drop tuples which
+ * cannot join.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
     private final JoinPredicate pred;
     private OpIterator child1, child2;
-    private final TupleDesc comboTD;
+    private JoinOutput out;
+    private RuntimeFilter runtimeFilter;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
@@ -31,10 +38,22 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, null);
+    }
+
+    /**
+     * Constructor. Like {@link #HashEquiJoin(JoinPredicate, OpIterator, OpIterator)},
+     * but returns only some of the fields of the joined tuples.
+     *
+     * @param outFields
+     *            the fields to return, as indexes into the concatenation of
+     *            the child tuples, or null to return all fields
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int[] outFields) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
-        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.out = new JoinOutput(child1.getTupleDesc(), child2.getTupleDesc(), outFields);
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -42,7 +61,7 @@ public class HashEquiJoin extends Operator {
     }
 
     public TupleDesc getTupleDesc() {
-        return comboTD;
+        return out.getTupleDesc();
     }
     
     public String getJoinField1Name()
@@ -55,6 +74,38 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
+    /**
+     * Pushes a runtime filter over the keys of the build side into the scan
+     * that produces the probe side's join field, if the probe side is a
+     * SeqScan below any number of Filters.
+     *
+     * @return the filter, or null if it could not be pushed
+     */
+    public RuntimeFilter pushRuntimeFilter() {
+        if (runtimeFilter != null)
+            return runtimeFilter;
+        OpIterator probe = child2;
+        while (probe instanceof Filter)
+            probe = ((Filter) probe).getChildren()[0];
+        if (!(probe instanceof SeqScan))
+            return null;
+        SeqScan scan = (SeqScan) probe;
+        if (scan.tableColumn(pred.getField2()) == SeqScan.ROWID)
+            return null;
+        runtimeFilter = new RuntimeFilter();
+        scan.addRuntimeFilter(pred.getField2(), runtimeFilter);
+        return runtimeFilter;
+    }
+
+    JoinOutput getOutput() {
+        return out;
+    }
+
+    /** @return the filter pushed into the probe side, or null */
+    public RuntimeFilter getRuntimeFilter() {
+        return runtimeFilter;
+    }
+
     final Map<Object, List<Tuple>> map = new HashMap<>();
     public final static int MAP_SIZE = 20000;
 
@@ -66,8 +117,11 @@ public class HashEquiJoin extends Operator {
             List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
             list.add(t1);
             if (cnt++ == MAP_SIZE)
-                return true;
+                break;
         }
+        // the probe side is rescanned for every load, against its keys only
+        if (runtimeFilter != null && cnt > 0)
+            runtimeFilter.build(map.keySet());
         return cnt > 0;
 
     }
@@ -117,17 +171,7 @@ public class HashEquiJoin extends Operator {
      */
     private Tuple processList() {
         t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+        return out.merge(t1, t2);
 
     }
 
@@ -169,6 +213,7 @@ public class HashEquiJoin extends Operator {
     public void setChildren(OpIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.out = new JoinOutput(child1.getTupleDesc(), child2.getTupleDesc(), out.getFields());
     }
     
 }
@@ -0,0 +1,142 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * HashSemiJoin returns the tuples of its left child whose join field equals
+ * the join field of some tuple of its right child, e.g. for
+ * <code>WHERE x IN (SELECT ...)</code>. As an anti-join, e.g. for
+ * <code>NOT IN</code>, it returns those whose join field equals none.
+ * <p>
+ * The distinct keys of the right child are loaded into a hash set; each left
+ * tuple is then looked up once and returned as is, so a left tuple is never
+ * returned twice and no joined tuples are built.
+ */
+public class HashSemiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final boolean anti;
+    private OpIterator child1, child2;
+    private RuntimeFilter runtimeFilter;
+    private transient Set<Field> keys;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join on; field 1 is a field of child1 and
+     *            field 2 a field of child2, and the operator must be EQUALS
+     * @param child1
+     *            Iterator for the relation whose tuples are returned
+     * @param child2
+     *            Iterator for the relation whose keys are looked up
+     * @param anti
+     *            true to return the tuples of child1 without a match
+     */
+    public HashSemiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, boolean anti) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("a hash semi-join needs an equality predicate");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.anti = anti;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /** @return true if this is an anti-join */
+    public boolean isAnti() {
+        return anti;
+    }
+
+    /**
+     * Pushes a runtime filter over the keys of child2 into the scan of child1,
+     * as {@link HashEquiJoin#pushRuntimeFilter} does. An anti-join keeps the
+     * tuples the filter would drop, so it never pushes one.
+     *
+     * @return the filter, or null if it could not be pushed
+     */
+    public RuntimeFilter pushRuntimeFilter() {
+        if (anti || runtimeFilter != null)
+            return runtimeFilter;
+        OpIterator probe = child1;
+        while (probe instanceof Filter)
+            probe = ((Filter) probe).getChildren()[0];
+        if (!(probe instanceof SeqScan))
+            return null;
+        SeqScan scan = (SeqScan) probe;
+        if (scan.tableColumn(pred.getField1()) == SeqScan.ROWID)
+            return null;
+        runtimeFilter = new RuntimeFilter();
+        scan.addRuntimeFilter(pred.getField1(), runtimeFilter);
+        return runtimeFilter;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child1.getTupleDesc();
+    }
+
+    @Override
+    public Ordering getOrdering() {
+        return child1.getOrdering();
+    }
+
+    private void loadKeys() throws DbException, TransactionAbortedException {
+        keys = new HashSet<>();
+        while (child2.hasNext())
+            keys.add(child2.next().getField(pred.getField2()));
+        if (runtimeFilter != null)
+            runtimeFilter.build(keys);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        loadKeys();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        keys = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            if (keys.contains(t.getField(pred.getField1())) != anti)
+                return t;
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+}
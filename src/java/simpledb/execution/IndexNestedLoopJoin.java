@@ -0,0 +1,159 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin implements an equi-join by probing an index on the
+ * inner relation once per outer tuple, instead of scanning the inner relation.
+ * The inner child must be an {@link IndexOpIterator} (e.g. a BTreeScan) whose
+ * index key is the inner join field.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private OpIterator child1;
+    private IndexOpIterator child2;
+    private JoinOutput out;
+
+    transient private Tuple left = null;
+    transient private boolean innerOpen = false;
+
+    /**
+     * Constructor. Accepts an outer child and an indexed inner child to join
+     * on the given equality predicate.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be
+     *            Predicate.Op.EQUALS, and its second field must be the index
+     *            key of child2
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Index iterator for the right(inner) relation to join
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, IndexOpIterator child2) {
+        this(p, child1, child2, null);
+    }
+
+    /**
+     * Constructor. Like
+     * {@link #IndexNestedLoopJoin(JoinPredicate, OpIterator, IndexOpIterator)},
+     * but returns only some of the fields of the joined tuples.
+     *
+     * @param outFields
+     *            the fields to return, as indexes into the concatenation of
+     *            the child tuples, or null to return all fields
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, IndexOpIterator child2,
+                               int[] outFields) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("index nested-loop join requires an equality predicate");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.out = new JoinOutput(child1.getTupleDesc(), child2.getTupleDesc(), outFields);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.p.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return out.getTupleDesc();
+    }
+
+    /** Outer tuples are joined one at a time, so the outer order is kept. */
+    @Override
+    public Ordering getOrdering() {
+        return out.leftOrdering(child1.getOrdering());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (innerOpen)
+            child2.close();
+        child1.close();
+        innerOpen = false;
+        left = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        left = null;
+    }
+
+    /**
+     * Starts a probe of the inner index for the join key of the current outer
+     * tuple. The inner iterator is opened lazily on the first probe.
+     */
+    private void probe() throws DbException, TransactionAbortedException {
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS,
+                left.getField(p.getField1()));
+        if (innerOpen) {
+            child2.rewind(ipred);
+        } else {
+            child2.open(ipred);
+            innerOpen = true;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The output tuples are the concatenation of the matching
+     * outer and inner tuples, as in {@link Join}, narrowed to the output
+     * fields if any were given.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (left != null) {
+                while (child2.hasNext()) {
+                    Tuple right = child2.next();
+                    if (p.filter(left, right)) {
+                        return out.merge(left, right);
+                    }
+                }
+                left = null;
+            }
+            if (!child1.hasNext())
+                return null;
+            left = child1.next();
+            probe();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = (IndexOpIterator) children[1];
+        this.out = new JoinOutput(child1.getTupleDesc(), child2.getTupleDesc(), out.getFields());
+    }
+
+}
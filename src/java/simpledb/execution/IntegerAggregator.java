@@ -176,9 +176,10 @@ public class IntegerAggregator implements Aggregator {
             fieldTypes = new Type[]{Type.INT_TYPE};
             fieldNames = new String[]{"aggregateValue"};
             tupleDesc = new TupleDesc(fieldTypes,fieldNames);
+            // an empty input still produces one tuple, as in SQL; there is
+            // no NULL, so its aggregate value is 0
             Tuple tuple = new Tuple(tupleDesc);
-            IntField intField = new IntField(aggResult.get(null));
-            tuple.setField(0,intField);
+            tuple.setField(0, new IntField(aggResult.getOrDefault(null, 0)));
             tuples.add(tuple);
         }else {
             fieldTypes = new Type[]{gbfieldtype,Type.INT_TYPE};
@@ -2,21 +2,36 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation as a block
+ * nested-loop join: it buffers a block of outer (child1) tuples in memory and
+ * scans the inner (child2) relation once per block, rather than once per
+ * outer tuple.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Default number of pages' worth of outer tuples buffered per block. */
+    public static final int DEFAULT_BLOCK_PAGES = 8;
+
     private JoinPredicate p;
     private  OpIterator child1;
     private OpIterator child2;
+    private JoinOutput out;
+    private final int blockPages;
+    private int blockSize;
+
+    private transient Tuple[] block;
+    private transient int blockLen;
+    private transient int blockPos;
+    private transient Tuple right;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -30,10 +45,56 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor. Like {@link #Join(JoinPredicate, OpIterator, OpIterator)},
+     * but buffers the given number of pages' worth of outer tuples per pass
+     * over the inner relation.
+     *
+     * @param blockPages
+     *            the number of pages' worth of outer tuples to buffer; must be
+     *            positive
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, int blockPages) {
+        this(p, child1, child2, blockPages, null);
+    }
+
+    /**
+     * Constructor. Like {@link #Join(JoinPredicate, OpIterator, OpIterator, int)},
+     * but returns only some of the fields of the joined tuples.
+     *
+     * @param outFields
+     *            the fields to return, as indexes into the concatenation of
+     *            the child tuples, or null to return all fields
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, int blockPages,
+                int[] outFields) {
         // some code goes here
+        if (blockPages <= 0)
+            throw new IllegalArgumentException("block size must be positive");
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.blockPages = blockPages;
+        this.out = new JoinOutput(child1.getTupleDesc(), child2.getTupleDesc(), outFields);
+    }
+
+    /**
+     * @return the number of tuples with the specified schema that fit on one
+     *         page, i.e. the number of tuples buffered per page of a block.
+     */
+    public static int tuplesPerPage(TupleDesc td) {
+        return Math.max(1, BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1));
+    }
+
+    /**
+     * @return the number of outer tuples buffered per pass over the inner
+     *         relation
+     */
+    public int getBlockSize() {
+        return blockPages * tuplesPerPage(child1.getTupleDesc());
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -68,7 +129,7 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return TupleDesc.merge(child1.getTupleDesc(),child2.getTupleDesc());
+        return out.getTupleDesc();
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -76,6 +137,9 @@ public class Join extends Operator {
         // some code goes here
         child1.open();
         child2.open();
+        blockSize = getBlockSize();
+        block = new Tuple[blockSize];
+        loadBlock();
         super.open();
     }
 
@@ -83,13 +147,34 @@ public class Join extends Operator {
         // some code goes here
         child1.close();
         child2.close();
+        block = null;
+        blockLen = 0;
+        right = null;
         super.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        close();
-        open();
+        child1.rewind();
+        child2.rewind();
+        right = null;
+        loadBlock();
+    }
+
+    /**
+     * Fills the block buffer with up to blockSize tuples from the outer
+     * relation.
+     *
+     * @return true if at least one outer tuple was buffered
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        Arrays.fill(block, 0, blockLen, null);
+        blockLen = 0;
+        blockPos = 0;
+        while (blockLen < blockSize && child1.hasNext()) {
+            block[blockLen++] = child1.next();
+        }
+        return blockLen > 0;
     }
 
     /**
@@ -106,36 +191,31 @@ public class Join extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
+     * A join constructed with output fields returns only those fields of the
+     * concatenation.
      * 
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple left=null;
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        while(child1.hasNext() || left!=null) {
-            if(child1.hasNext() && left == null) {
-                left = child1.next();
-            }
-            Tuple right;
-            while(child2.hasNext()) {
-                right = child2.next();
-                if(p.filter(left,right)) {
-                    int len1 = left.getTupleDesc().numFields();
-                    int len2 = right.getTupleDesc().numFields();
-                    Tuple tuple = new Tuple(getTupleDesc());
-                    for(int i=0;i<len1;i++){
-                        tuple.setField(i, left.getField(i));
+        while (blockLen > 0) {
+            if (right != null) {
+                while (blockPos < blockLen) {
+                    Tuple left = block[blockPos++];
+                    if (p.filter(left, right)) {
+                        return out.merge(left, right);
                     }
-                    for(int i=0;i<len2;i++){
-                        tuple.setField(i+len1, right.getField(i));
-                    }
-                    System.out.println(tuple.toString());
-                    return tuple;
                 }
+                right = null;
+            }
+            if (child2.hasNext()) {
+                right = child2.next();
+                blockPos = 0;
+            } else if (loadBlock()) {
+                // the inner relation is scanned once per block of outer tuples
+                child2.rewind();
             }
-            left=null;
-            child2.rewind();
         }
         return null;
     }
@@ -151,6 +231,7 @@ public class Join extends Operator {
         // some code goes here
         child1 = children[0];
         child2 = children[1];
+        out = new JoinOutput(child1.getTupleDesc(), child2.getTupleDesc(), out.getFields());
     }
 
 }
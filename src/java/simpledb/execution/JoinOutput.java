@@ -0,0 +1,86 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The output of a join: which fields of the concatenated left and right
+ * tuples it returns. By default all of them; a join that only needs to pass
+ * on some fields builds narrow tuples holding just those, instead of copying
+ * every field of both sides for a projection to throw away.
+ */
+class JoinOutput implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int len1;
+    /** Indexes into the concatenation of both sides, or null for all fields. */
+    private final int[] fields;
+    private final TupleDesc td;
+
+    /**
+     * @param fields
+     *            the fields to return, as indexes into the concatenation of
+     *            td1 and td2, or null to return all fields
+     */
+    JoinOutput(TupleDesc td1, TupleDesc td2, int[] fields) {
+        this.len1 = td1.numFields();
+        TupleDesc merged = TupleDesc.merge(td1, td2);
+        if (fields == null) {
+            this.fields = null;
+            this.td = merged;
+        } else {
+            this.fields = fields.clone();
+            Type[] types = new Type[fields.length];
+            String[] names = new String[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                types[i] = merged.getFieldType(fields[i]);
+                names[i] = merged.getFieldName(fields[i]);
+            }
+            this.td = new TupleDesc(types, names);
+        }
+    }
+
+    TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the fields returned, or null if all of them are */
+    int[] getFields() {
+        return fields == null ? null : fields.clone();
+    }
+
+    Tuple merge(Tuple left, Tuple right) {
+        Tuple t = new Tuple(td);
+        if (fields == null) {
+            int len2 = td.numFields() - len1;
+            for (int i = 0; i < len1; i++)
+                t.setField(i, left.getField(i));
+            for (int i = 0; i < len2; i++)
+                t.setField(len1 + i, right.getField(i));
+        } else {
+            for (int i = 0; i < fields.length; i++) {
+                int f = fields[i];
+                t.setField(i, f < len1 ? left.getField(f) : right.getField(f - len1));
+            }
+        }
+        return t;
+    }
+
+    /** @return the ordering of the left side, renumbered to output fields */
+    Ordering leftOrdering(Ordering left) {
+        if (fields == null)
+            return left;
+        int[] mapping = new int[len1];
+        Arrays.fill(mapping, -1);
+        for (int i = fields.length - 1; i >= 0; i--) {
+            if (fields[i] < len1)
+                mapping[fields[i]] = i;
+        }
+        return left.project(mapping);
+    }
+}
@@ -0,0 +1,107 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that implements LIMIT/OFFSET. It skips the first
+ * offset tuples of its child, returns at most limit tuples after them, and
+ * stops pulling from the child as soon as the limit is reached.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final int limit;
+    private final int offset;
+    private OpIterator child;
+    private int returned = 0;
+    private boolean skipped = false;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            The maximum number of tuples to return
+     * @param offset
+     *            The number of leading child tuples to skip
+     * @param child
+     *            The child operator
+     */
+    public Limit(int limit, int offset, OpIterator child) {
+        if (limit < 0 || offset < 0)
+            throw new IllegalArgumentException("LIMIT and OFFSET must not be negative");
+        this.limit = limit;
+        this.offset = offset;
+        this.child = child;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public Ordering getOrdering() {
+        return child.getOrdering();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+        returned = 0;
+        skipped = false;
+    }
+
+    public void close() {
+        child.close();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+        skipped = false;
+    }
+
+    /**
+     * Returns the next tuple within the LIMIT/OFFSET window, or null once
+     * limit tuples have been returned or the child is exhausted.
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (returned >= limit)
+            return null;
+        if (!skipped) {
+            for (int i = 0; i < offset && child.hasNext(); i++)
+                child.next();
+            skipped = true;
+        }
+        if (!child.hasNext())
+            return null;
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+
+}
@@ -58,4 +58,14 @@ public interface OpIterator extends Serializable{
    */
   void close();
 
+  /**
+   * Returns the order in which this iterator returns its tuples, as a
+   * physical property the planner can rely on. Iterators that guarantee no
+   * order need not override this.
+   * @return the ordering of the returned tuples, or Ordering.NONE
+   */
+  default Ordering getOrdering() {
+    return Ordering.NONE;
+  }
+
 }
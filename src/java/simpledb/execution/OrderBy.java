@@ -2,29 +2,37 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.UncheckedIOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * The child is sorted with an {@link ExternalSorter}, so inputs larger than
+ * the memory budget are spilled to sorted runs on disk and merged back.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget of a sort, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = 1024;
+
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
-    private final int orderByField;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
     private final String orderByFieldName;
+    private final int memoryPages;
+    transient private ExternalSorter sorter;
     private Iterator<Tuple> it;
-    private final boolean asc;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
-     * 
+     *
      * @param orderbyField
      *            the field to which the sort is applied.
      * @param asc
@@ -33,64 +41,132 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[]{orderbyField}, new boolean[]{asc}, child);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        this(orderbyFields, asc, child, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields under the given
+     * memory budget.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryPages
+     *            the number of pages of tuples the sort may hold in memory
+     *            before spilling runs to disk; at least 2.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, int memoryPages) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one sort direction per ORDER BY field");
+        if (memoryPages < 2)
+            throw new IllegalArgumentException("an external sort needs at least 2 pages of memory");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = asc.clone();
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.memoryPages = memoryPages;
     }
-    
+
     public boolean isASC()
     {
-	return this.asc;
+	return this.ascs[0];
     }
-    
+
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
-    
+
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
-    
+
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    public boolean[] getAscending() {
+        return ascs.clone();
+    }
+
+    /** @return the number of runs the last open() spilled to disk */
+    public int numSpilledRuns() {
+        return sorter == null ? 0 : sorter.numRuns();
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    @Override
+    public Ordering getOrdering() {
+        return new Ordering(orderByFields, ascs);
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        if (sorter != null)
+            sorter.close();
+        sorter = new ExternalSorter(td, new TupleComparator(orderByFields, ascs, td), memoryPages);
+        sorter.addAll(child);
+        sorter.finish();
+        it = sorter.iterator();
         super.open();
     }
 
     public void close() {
         super.close();
         it = null;
+        if (sorter != null)
+            sorter.close();
+        sorter = null;
+        child.close();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        if (sorter == null)
+            throw new IllegalStateException("Operator not yet open");
+        it = sorter.iterator();
     }
 
     /**
      * Operator.fetchNext implementation. Returns tuples from the child operator
      * in order
-     * 
+     *
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
-            return null;
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        try {
+            if (it != null && it.hasNext()) {
+                return it.next();
+            } else
+                return null;
+        } catch (UncheckedIOException e) {
+            throw new DbException("reading sort run failed: " + e.getCause().getMessage());
+        }
     }
 
     @Override
@@ -104,25 +180,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
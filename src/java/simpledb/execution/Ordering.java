@@ -0,0 +1,128 @@
+package simpledb.execution;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Ordering describes the order in which an operator returns its tuples: a
+ * list of field indexes of the operator's TupleDesc, most significant first,
+ * each ascending or descending. It is a physical property that the planner
+ * uses to skip sorts and to choose streaming operators; {@link #NONE} means
+ * no order is guaranteed.
+ */
+public class Ordering implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** No guaranteed order. */
+    public static final Ordering NONE = new Ordering(new int[0], new boolean[0]);
+
+    private final int[] fields;
+    private final boolean[] asc;
+
+    /**
+     * @param fields
+     *            the fields the tuples are sorted on, most significant first
+     * @param asc
+     *            for each field, true if it is sorted ascending
+     */
+    public Ordering(int[] fields, boolean[] asc) {
+        if (fields.length != asc.length)
+            throw new IllegalArgumentException("need one direction per ordering field");
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+    }
+
+    /** @return the ordering of tuples sorted ascending on a single field */
+    public static Ordering ascending(int field) {
+        return new Ordering(new int[]{field}, new boolean[]{true});
+    }
+
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    public boolean[] getAscending() {
+        return asc.clone();
+    }
+
+    /** @return the number of fields in this ordering */
+    public int size() {
+        return fields.length;
+    }
+
+    /**
+     * @return true if tuples that agree on all of gfields are guaranteed to
+     *         be adjacent, i.e. the leading fields of this ordering are
+     *         exactly gfields, in any order and direction
+     */
+    public boolean groups(int[] gfields) {
+        if (gfields.length > fields.length)
+            return false;
+        for (int g : gfields) {
+            boolean found = false;
+            for (int i = 0; i < gfields.length; i++)
+                found |= fields[i] == g;
+            if (!found)
+                return false;
+        }
+        for (int i = 0; i < gfields.length; i++) {
+            for (int j = i + 1; j < gfields.length; j++) {
+                if (fields[i] == fields[j])
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if tuples in this ordering are also sorted on the given
+     *         fields and directions, i.e. they are a prefix of this ordering
+     */
+    public boolean satisfies(int[] sortFields, boolean[] sortAsc) {
+        if (sortFields.length > fields.length)
+            return false;
+        for (int i = 0; i < sortFields.length; i++) {
+            if (fields[i] != sortFields[i] || asc[i] != sortAsc[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Maps this ordering through a projection.
+     *
+     * @param mapping
+     *            for each input field, its index in the output, or -1 if it is
+     *            dropped
+     * @return the longest prefix of this ordering whose fields survive the
+     *         projection, renumbered to output indexes
+     */
+    public Ordering project(int[] mapping) {
+        int n = 0;
+        while (n < fields.length && fields[n] < mapping.length && mapping[fields[n]] >= 0)
+            n++;
+        int[] f = new int[n];
+        for (int i = 0; i < n; i++)
+            f[i] = mapping[fields[i]];
+        return new Ordering(f, Arrays.copyOf(asc, n));
+    }
+
+    /** @return this ordering with every field index moved by offset */
+    public Ordering shift(int offset) {
+        int[] f = new int[fields.length];
+        for (int i = 0; i < f.length; i++)
+            f[i] = fields[i] + offset;
+        return new Ordering(f, asc);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(fields[i]).append(asc[i] ? " ASC" : " DESC");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageMorsels splits a HeapFile into fixed-size page ranges ("morsels") and
+ * hands them out to the scans of parallel workers. Workers that finish their
+ * morsels early simply take more, so the load evens out without any static
+ * partitioning of the file.
+ */
+public class PageMorsels {
+
+    /** Default number of pages per morsel. */
+    public static final int DEFAULT_MORSEL_PAGES = 16;
+
+    private final int tableid;
+    private final int morselPages;
+    private final AtomicInteger nextPage = new AtomicInteger();
+    private volatile int numPages;
+
+    /**
+     * Creates the morsels of a table.
+     *
+     * @param tableid
+     *            the table to split; must be stored in a HeapFile
+     * @param morselPages
+     *            the number of pages in each morsel
+     */
+    public PageMorsels(int tableid, int morselPages) {
+        if (morselPages <= 0)
+            throw new IllegalArgumentException("morsels must hold at least one page");
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof HeapFile))
+            throw new IllegalArgumentException("page-range morsels require a HeapFile");
+        this.tableid = tableid;
+        this.morselPages = morselPages;
+        reset();
+    }
+
+    public PageMorsels(int tableid) {
+        this(tableid, DEFAULT_MORSEL_PAGES);
+    }
+
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * Makes every morsel available again, picking up the current size of the
+     * file. Must not be called while workers are still taking morsels.
+     */
+    public void reset() {
+        numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).numPages();
+        nextPage.set(0);
+    }
+
+    /**
+     * Claims the next morsel. Safe to call from several threads.
+     *
+     * @return the first page of the claimed morsel, or -1 if none are left
+     */
+    public int next() {
+        int start = nextPage.getAndAdd(morselPages);
+        return start < numPages ? start : -1;
+    }
+
+    /** @return one past the last page of the morsel starting at start */
+    public int end(int start) {
+        return Math.min(start + morselPages, numPages);
+    }
+}
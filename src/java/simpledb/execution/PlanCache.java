@@ -1,53 +1,114 @@
 package simpledb.execution;
+import simpledb.optimizer.CostCard;
 import simpledb.optimizer.LogicalJoinNode;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to order a given set of joins.  A set of relations is a bitmask with
+ * bit i set for relation i, which indexes flat arrays of the best orders,
+ * costs and cardinalities, so that no lookup hashes a set. Plans for more
+ * relations than the arrays can hold a plan for every set of are kept in a
+ * map instead, for planners that only visit a few of the sets. */
 public class PlanCache {
-    final Map<Set<LogicalJoinNode>,List<LogicalJoinNode>> bestOrders= new HashMap<>();
-    final Map<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<>();
-    final Map<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<>();
-    
-    /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
+    /** The most relations the cache holds flat arrays of plans for. */
+    static final int MAX_ARRAY_RELATIONS = 20;
+
+    final List<LogicalJoinNode>[] bestOrders;
+    final double[] bestCosts;
+    final int[] bestCardinalities;
+    /** The plans by set, if there are too many relations for the arrays. */
+    final Map<Long, CostCard> plans;
+
+    /**
+     * @param relations the number of relations; the cache holds 2^relations
+     *                  plans for up to {@link #MAX_ARRAY_RELATIONS} of them
+     */
+    public PlanCache(int relations) {
+        this(relations, relations > MAX_ARRAY_RELATIONS);
+    }
+
+    /**
+     * @param relations the number of relations
+     * @param sparse    whether to keep the plans in a map rather than in
+     *                  arrays of 2^relations plans, as for a planner that
+     *                  only visits a few of the sets
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public PlanCache(int relations, boolean sparse) {
+        if (relations < 0 || relations > 63 || (!sparse && relations > MAX_ARRAY_RELATIONS))
+            throw new IllegalArgumentException("cannot cache plans for " + relations + " relations");
+        if (sparse) {
+            bestOrders = null;
+            bestCosts = null;
+            bestCardinalities = null;
+            plans = new HashMap<>();
+        } else {
+            bestOrders = new List[1 << relations];
+            bestCosts = new double[1 << relations];
+            bestCardinalities = new int[1 << relations];
+            plans = null;
+        }
+    }
+
+    /** Add a new cost, cardinality and ordering for a particular set of relations.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
-        specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
+        specified set
+        @param s the set of relations for which a new ordering (plan) is being added
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
         @param order the ordering of the joins in the plan
     */
-    public void addPlan(Set<LogicalJoinNode> s, double cost, int card, List<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
+    public void addPlan(long s, double cost, int card, List<LogicalJoinNode> order) {
+        if (plans != null) {
+            CostCard cc = new CostCard();
+            cc.cost = cost;
+            cc.card = card;
+            cc.plan = order;
+            plans.put(s, cc);
+            return;
+        }
+        bestOrders[(int) s] = order;
+        bestCosts[(int) s] = cost;
+        bestCardinalities[(int) s] = card;
     }
-    
-    /** Find the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+
+    /** Find the best join order in the cache for the specified plan
+        @param s the set of relations to look up the best order for
+        @return the best order for s in the cache, or null if there is none
     */
-    public List<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    public List<LogicalJoinNode> getOrder(long s) {
+        if (plans != null) {
+            CostCard cc = plans.get(s);
+            return cc == null ? null : cc.plan;
+        }
+        return bestOrders[(int) s];
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cost for
-        @return the cost of the best order for s in the cache
+
+    /** Find the cost of the best join order in the cache for the specified plan
+        @param s the set of relations to look up the best cost for
+        @return the cost of the best order for s in the cache, or
+            Double.MAX_VALUE if there is none
     */
-    public double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    public double getCost(long s) {
+        if (plans != null) {
+            CostCard cc = plans.get(s);
+            return cc == null ? Double.MAX_VALUE : cc.cost;
+        }
+        return bestOrders[(int) s] == null ? Double.MAX_VALUE : bestCosts[(int) s];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cardinality for
+
+    /** Find the cardinality of the best join order in the cache for the specified plan
+        @param s the set of relations to look up the best cardinality for
         @return the cardinality of the best order for s in the cache
     */
-    public int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    public int getCard(long s) {
+        if (plans != null) {
+            CostCard cc = plans.get(s);
+            return cc == null ? 0 : cc.card;
+        }
+        return bestCardinalities[(int) s];
     }
 }
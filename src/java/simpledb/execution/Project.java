@@ -44,10 +44,24 @@ public class Project extends Operator {
         td = new TupleDesc(types, fieldAr);
     }
 
+    /** @return the child field each output field is taken from */
+    List<Integer> getFieldIds() {
+        return outFieldIds;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    @Override
+    public Ordering getOrdering() {
+        int[] mapping = new int[child.getTupleDesc().numFields()];
+        Arrays.fill(mapping, -1);
+        for (int i = outFieldIds.size() - 1; i >= 0; i--)
+            mapping[outFieldIds.get(i)] = i;
+        return child.getOrdering().project(mapping);
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
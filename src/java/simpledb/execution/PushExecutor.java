@@ -0,0 +1,284 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PushExecutor runs a physical plan push-based instead of pulling tuples
+ * through the OpIterator tree. The plan is split into pipelines at its
+ * pipeline breakers, the build side of a HashEquiJoin and a HashAggregate.
+ * Each pipeline is a loop in which a source pushes tuples through the
+ * streaming operators of the pipeline, fused into a chain of
+ * {@link TupleSink}s, into the breaker that ends it or into the caller's sink.
+ * <p>
+ * Filter, Project, Limit, HashEquiJoin and HashAggregate are compiled into
+ * pipelines. Any other operator, e.g. an OrderBy, is a source that is pulled
+ * as an ordinary OpIterator, together with the subtree below it, so every
+ * plan can be pushed and the two engines give the same results.
+ */
+public final class PushExecutor {
+
+    private PushExecutor() {
+    }
+
+    /**
+     * Runs a plan, pushing each of its tuples into sink and then finishing it.
+     * The plan must not be open; it is left closed.
+     */
+    public static void run(OpIterator plan, TupleSink sink) throws DbException, TransactionAbortedException {
+        compile(plan, sink).run();
+    }
+
+    /** @return all tuples of a plan, computed by {@link #run} */
+    public static List<Tuple> collect(OpIterator plan) throws DbException, TransactionAbortedException {
+        final List<Tuple> out = new ArrayList<>();
+        run(plan, new TupleSink() {
+            public boolean push(Tuple t) {
+                out.add(t);
+                return true;
+            }
+
+            public void finish() {
+            }
+        });
+        return out;
+    }
+
+    /** The start of a pipeline; each run pushes a whole stream into its sink. */
+    private interface Source {
+        void run() throws DbException, TransactionAbortedException;
+    }
+
+    /** @return the source of the pipeline that pushes the tuples of op into down */
+    private static Source compile(OpIterator op, TupleSink down) {
+        if (op instanceof Filter) {
+            Filter f = (Filter) op;
+            return compile(f.getChildren()[0], new FilterSink(f.getPredicate(), down));
+        } else if (op instanceof Project) {
+            Project p = (Project) op;
+            return compile(p.getChildren()[0], new ProjectSink(p, down));
+        } else if (op instanceof Limit) {
+            Limit l = (Limit) op;
+            return compile(l.getChildren()[0], new LimitSink(l.getLimit(), l.getOffset(), down));
+        } else if (op instanceof HashEquiJoin) {
+            HashEquiJoin j = (HashEquiJoin) op;
+            BuildSink build = new BuildSink(j, down);
+            build.probe = compile(j.getChildren()[1], build.new ProbeSink());
+            return compile(j.getChildren()[0], build);
+        } else if (op instanceof HashAggregate) {
+            HashAggregate a = (HashAggregate) op;
+            return compile(a.getChildren()[0], new AggregateSink(a, down));
+        }
+        return new PullSource(op, down);
+    }
+
+    /** Pulls the tuples of an OpIterator and pushes them. */
+    private static class PullSource implements Source {
+        private final OpIterator op;
+        private final TupleSink down;
+
+        PullSource(OpIterator op, TupleSink down) {
+            this.op = op;
+            this.down = down;
+        }
+
+        public void run() throws DbException, TransactionAbortedException {
+            op.open();
+            try {
+                while (op.hasNext()) {
+                    if (!down.push(op.next()))
+                        break;
+                }
+            } finally {
+                op.close();
+            }
+            down.finish();
+        }
+    }
+
+    private static class FilterSink implements TupleSink {
+        private final Predicate p;
+        private final TupleSink down;
+
+        FilterSink(Predicate p, TupleSink down) {
+            this.p = p;
+            this.down = down;
+        }
+
+        public boolean push(Tuple t) throws DbException, TransactionAbortedException {
+            return !p.filter(t) || down.push(t);
+        }
+
+        public void finish() throws DbException, TransactionAbortedException {
+            down.finish();
+        }
+    }
+
+    private static class ProjectSink implements TupleSink {
+        private final Project p;
+        private final int[] fields;
+        private final TupleSink down;
+
+        ProjectSink(Project p, TupleSink down) {
+            this.p = p;
+            List<Integer> ids = p.getFieldIds();
+            this.fields = new int[ids.size()];
+            for (int i = 0; i < fields.length; i++)
+                fields[i] = ids.get(i);
+            this.down = down;
+        }
+
+        public boolean push(Tuple t) throws DbException, TransactionAbortedException {
+            Tuple out = new Tuple(p.getTupleDesc());
+            out.setRecordId(t.getRecordId());
+            for (int i = 0; i < fields.length; i++)
+                out.setField(i, t.getField(fields[i]));
+            return down.push(out);
+        }
+
+        public void finish() throws DbException, TransactionAbortedException {
+            down.finish();
+        }
+    }
+
+    private static class LimitSink implements TupleSink {
+        private final int limit;
+        private final int offset;
+        private final TupleSink down;
+        private int seen = 0;
+
+        LimitSink(int limit, int offset, TupleSink down) {
+            this.limit = limit;
+            this.offset = offset;
+            this.down = down;
+        }
+
+        public boolean push(Tuple t) throws DbException, TransactionAbortedException {
+            if (seen >= offset + limit)
+                return false;
+            if (seen++ < offset)
+                return true;
+            return down.push(t) && seen < offset + limit;
+        }
+
+        public void finish() throws DbException, TransactionAbortedException {
+            seen = 0;
+            down.finish();
+        }
+    }
+
+    /**
+     * The breaker at the end of the build side of a HashEquiJoin. Like the
+     * operator, it loads up to {@link HashEquiJoin#MAP_SIZE} tuples at a time
+     * and runs the probe pipeline once per load.
+     */
+    private static class BuildSink implements TupleSink {
+        private final int field1;
+        private final int field2;
+        private final JoinOutput out;
+        private final RuntimeFilter runtimeFilter;
+        private final TupleSink down;
+        private final Map<Field, List<Tuple>> map = new HashMap<>();
+        private int loaded = 0;
+        private boolean stopped = false;
+        Source probe;
+
+        BuildSink(HashEquiJoin j, TupleSink down) {
+            this.field1 = j.getJoinPredicate().getField1();
+            this.field2 = j.getJoinPredicate().getField2();
+            this.out = j.getOutput();
+            this.runtimeFilter = j.getRuntimeFilter();
+            this.down = down;
+        }
+
+        public boolean push(Tuple t) throws DbException, TransactionAbortedException {
+            map.computeIfAbsent(t.getField(field1), k -> new ArrayList<>()).add(t);
+            if (++loaded > HashEquiJoin.MAP_SIZE)
+                runProbe();
+            return !stopped;
+        }
+
+        private void runProbe() throws DbException, TransactionAbortedException {
+            if (runtimeFilter != null)
+                runtimeFilter.build(map.keySet());
+            probe.run();
+            map.clear();
+            loaded = 0;
+        }
+
+        public void finish() throws DbException, TransactionAbortedException {
+            if (loaded > 0 && !stopped)
+                runProbe();
+            map.clear();
+            loaded = 0;
+            stopped = false;
+            down.finish();
+        }
+
+        /** The end of the probe pipeline, which joins with the loaded tuples. */
+        class ProbeSink implements TupleSink {
+            public boolean push(Tuple t) throws DbException, TransactionAbortedException {
+                List<Tuple> l = map.get(t.getField(field2));
+                if (l == null)
+                    return true;
+                for (Tuple b : l) {
+                    if (!down.push(out.merge(b, t))) {
+                        stopped = true;
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            public void finish() {
+                // the probe side ends once per load; the join's output ends
+                // when the build side does
+            }
+        }
+    }
+
+    /** The breaker at the end of the input of a HashAggregate. */
+    private static class AggregateSink implements TupleSink {
+        private final HashAggregate a;
+        private final TupleSink down;
+        private boolean started = false;
+
+        AggregateSink(HashAggregate a, TupleSink down) {
+            this.a = a;
+            this.down = down;
+        }
+
+        public boolean push(Tuple t) throws DbException {
+            if (!started) {
+                a.startPass();
+                started = true;
+            }
+            a.consume(t);
+            return true;
+        }
+
+        public void finish() throws DbException, TransactionAbortedException {
+            if (!started)
+                a.startPass();
+            started = false;
+            try {
+                a.finishPass();
+                Tuple t;
+                while ((t = a.fetchNext()) != null) {
+                    if (!down.push(t))
+                        break;
+                }
+            } finally {
+                a.discard();
+            }
+            down.finish();
+        }
+    }
+}
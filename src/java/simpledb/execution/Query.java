@@ -27,6 +27,7 @@ public class Query implements Serializable {
     transient private LogicalPlan logicalPlan;
     final TransactionId tid;
     transient private boolean started = false;
+    transient private boolean pushExecution = false;
 
     public TransactionId getTransactionId() {
         return this.tid;
@@ -48,6 +49,14 @@ public class Query implements Serializable {
         return this.op;
     }
 
+    /**
+     * Makes {@link #execute} run the plan with the push-based
+     * {@link PushExecutor} instead of pulling its tuples.
+     */
+    public void setPushExecution(boolean push) {
+        this.pushExecution = push;
+    }
+
     public Query(TransactionId t) {
         tid = t;
     }
@@ -112,6 +121,22 @@ public class Query implements Serializable {
         }
         System.out.println();
 
+        if (pushExecution) {
+            final int[] cnt = {0};
+            PushExecutor.run(op, new TupleSink() {
+                public boolean push(Tuple tup) {
+                    System.out.println(tup);
+                    cnt[0]++;
+                    return true;
+                }
+
+                public void finish() {
+                }
+            });
+            System.out.println("\n " + cnt[0] + " rows.");
+            return;
+        }
+
         this.start();
         int cnt = 0;
         while (this.hasNext()) {
@@ -0,0 +1,186 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * QueryExecutor runs transactions concurrently for programs that embed
+ * SimpleDB. Each submitted unit of work runs in a transaction of its own on a
+ * thread of the executor; the transaction is committed when the work returns
+ * and aborted when it throws, e.g. a {@link TransactionAbortedException}
+ * after a deadlock. The outcome is reported through a {@link Future}, whose
+ * get() throws an ExecutionException wrapping the failure if the transaction
+ * was aborted.
+ * <p>
+ * At most maxRunning transactions run at once, so that together they do not
+ * pin more pages than the buffer pool holds, and at most maxQueued more wait
+ * for a thread. A submit beyond that blocks the caller until a transaction
+ * finishes.
+ */
+public class QueryExecutor implements AutoCloseable {
+
+    /** Pages a transaction is assumed to pin when sizing the executor. */
+    public static final int PAGES_PER_TRANSACTION = 8;
+    /** Waiting transactions per running one, when sizing the executor. */
+    public static final int QUEUED_PER_RUNNING = 4;
+
+    /** The work of one transaction. */
+    public interface Work<T> {
+        /**
+         * Runs the work as a part of the transaction tid. Any exception aborts
+         * the transaction.
+         */
+        T run(TransactionId tid) throws Exception;
+    }
+
+    /** Builds the physical plan of a query run as a part of transaction tid. */
+    public interface PlanBuilder {
+        OpIterator build(TransactionId tid) throws DbException, TransactionAbortedException;
+    }
+
+    private static final AtomicInteger executors = new AtomicInteger();
+
+    private final ThreadPoolExecutor pool;
+    /** Permits for running and queued transactions. */
+    private final Semaphore admission;
+
+    /**
+     * Creates an executor sized to the buffer pool: one running transaction
+     * per {@link #PAGES_PER_TRANSACTION} pages, and
+     * {@link #QUEUED_PER_RUNNING} waiting ones per running one.
+     */
+    public QueryExecutor() {
+        this(Math.max(1, Database.getBufferPool().getMaxPages() / PAGES_PER_TRANSACTION));
+    }
+
+    public QueryExecutor(int maxRunning) {
+        this(maxRunning, maxRunning * QUEUED_PER_RUNNING);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxRunning
+     *            the number of transactions that may run at once
+     * @param maxQueued
+     *            the number of transactions that may wait to run
+     */
+    public QueryExecutor(int maxRunning, int maxQueued) {
+        if (maxRunning < 1 || maxQueued < 0)
+            throw new IllegalArgumentException("need at least one running transaction");
+        String name = "simpledb-executor-" + executors.incrementAndGet() + "-txn-";
+        AtomicInteger threads = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(maxRunning, maxRunning, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, name + threads.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.pool.allowCoreThreadTimeOut(true);
+        this.admission = new Semaphore(maxRunning + maxQueued, true);
+    }
+
+    /** @return the number of transactions that may run at once */
+    public int getMaxRunning() {
+        return pool.getMaximumPoolSize();
+    }
+
+    /**
+     * Runs work in a new transaction, blocking while the executor is full.
+     *
+     * @return the result of the work, once its transaction has committed
+     * @throws RejectedExecutionException
+     *             if the executor has been closed
+     */
+    public <T> Future<T> submit(Work<T> work) throws InterruptedException {
+        admission.acquire();
+        // done() also runs if the future is cancelled before the work starts
+        FutureTask<T> task = new FutureTask<T>(() -> runTransaction(work)) {
+            @Override
+            protected void done() {
+                admission.release();
+            }
+        };
+        try {
+            pool.execute(task);
+        } catch (RejectedExecutionException e) {
+            admission.release();
+            throw e;
+        }
+        return task;
+    }
+
+    /**
+     * Runs a query in a new transaction and collects its tuples.
+     *
+     * @return the tuples of the query, once its transaction has committed
+     */
+    public Future<List<Tuple>> submitQuery(PlanBuilder plan) throws InterruptedException {
+        return submit(tid -> PushExecutor.collect(plan.build(tid)));
+    }
+
+    /**
+     * Runs a query in a new transaction, pushing its tuples into sink as they
+     * are produced, on the transaction's thread. The transaction commits after
+     * the sink is finished; if it is aborted instead, the sink may already have
+     * received some tuples.
+     */
+    public Future<Void> submitQuery(PlanBuilder plan, TupleSink sink) throws InterruptedException {
+        return submit(tid -> {
+            PushExecutor.run(plan.build(tid), sink);
+            return null;
+        });
+    }
+
+    private static <T> T runTransaction(Work<T> work) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        T result;
+        try {
+            result = work.run(t.getId());
+        } catch (Exception | Error e) {
+            abort(t, e);
+            throw e;
+        }
+        try {
+            t.commit();
+        } catch (IOException e) {
+            abort(t, e);
+            throw new DbException("commit failed: " + e.getMessage());
+        }
+        return result;
+    }
+
+    private static void abort(Transaction t, Throwable cause) {
+        try {
+            t.abort();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Stops accepting work and waits for the submitted transactions to
+     * finish. If the calling thread is interrupted, it stops waiting, and its
+     * interrupt status is set again for it to see.
+     */
+    public void close() {
+        pool.shutdown();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                // keep waiting; transactions time out of lock waits on their own
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+
+/** Reads back the tuples of a run file written by {@link RunWriter}. */
+class RunReader implements Closeable {
+    private final DataInputStream in;
+    private final TupleDesc td;
+
+    RunReader(File f, TupleDesc td) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+        this.td = td;
+    }
+
+    /** @return the next tuple of the run, or null at the end of the run */
+    Tuple next() throws IOException {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            try {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    t.setField(i, new IntField(in.readInt()));
+                else
+                    t.setField(i, new StringField(in.readUTF(), Type.STRING_LEN));
+            } catch (EOFException e) {
+                if (i == 0)
+                    return null;
+                throw e;
+            }
+        }
+        return t;
+    }
+
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+
+/**
+ * Writes tuples to a run file. INT fields take 4 bytes and STRING fields are
+ * written with their actual length rather than padded to Type.STRING_LEN, so
+ * runs are much smaller than the equivalent heap pages.
+ */
+class RunWriter implements Closeable {
+    private final DataOutputStream out;
+    private final TupleDesc td;
+
+    RunWriter(File f, TupleDesc td) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+        this.td = td;
+    }
+
+    void write(Tuple t) throws IOException {
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                out.writeInt(((IntField) f).getValue());
+            else
+                out.writeUTF(((StringField) f).getValue());
+        }
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A RuntimeFilter summarizes the join keys of the build side of a hash join
+ * while the query runs, so that the probe side can drop tuples that cannot
+ * match before they reach the join. It holds a Bloom filter over the keys and,
+ * for INT keys, their minimum and maximum; it never rejects a key that was
+ * added, but may accept keys that were not.
+ * <p>
+ * Until the build side has been loaded the filter accepts everything. If it
+ * turns out to reject too few of the tuples it is shown, it stops checking
+ * them, so an unselective filter costs little.
+ */
+public class RuntimeFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Bits per key; with K hash functions this gives about 1% false positives. */
+    private static final int BITS_PER_KEY = 10;
+    private static final int K = 7;
+    /** Tuples checked before the filter decides whether it is worth keeping. */
+    static final int SAMPLE = 1024;
+    /** Fraction of tuples the filter must reject to keep being checked. */
+    static final double MIN_REJECT_RATE = 0.1;
+
+    private long[] bits;
+    private int mask;
+    private boolean ints;
+    private int min;
+    private int max;
+    private boolean built;
+    private boolean enabled;
+    private long checked;
+    private long rejected;
+
+    public RuntimeFilter() {
+        reset();
+    }
+
+    /** Makes the filter accept everything until it is built again. */
+    public void reset() {
+        built = false;
+        enabled = true;
+        checked = 0;
+        rejected = 0;
+    }
+
+    /**
+     * Rebuilds the filter over a set of join keys, replacing the keys of any
+     * previous build.
+     *
+     * @param keys
+     *            the distinct join keys of the build side
+     */
+    public void build(Collection<?> keys) {
+        long numBits = Math.max(64, Long.highestOneBit(Math.max(1, keys.size()) * (long) BITS_PER_KEY) << 1);
+        numBits = Math.min(numBits, 1L << 30);
+        if (bits == null || bits.length != numBits / 64)
+            bits = new long[(int) (numBits / 64)];
+        else
+            Arrays.fill(bits, 0);
+        mask = (int) (numBits - 1);
+        ints = true;
+        min = Integer.MAX_VALUE;
+        max = Integer.MIN_VALUE;
+        for (Object k : keys) {
+            Field f = (Field) k;
+            if (f instanceof IntField) {
+                int v = ((IntField) f).getValue();
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            } else {
+                ints = false;
+            }
+            int h1 = mix(f.hashCode());
+            int h2 = mix(h1 ^ 0x5bd1e995) | 1;
+            for (int i = 0; i < K; i++) {
+                int b = (h1 + i * h2) & mask;
+                bits[b >>> 6] |= 1L << b;
+            }
+        }
+        built = true;
+        enabled = true;
+        checked = 0;
+        rejected = 0;
+    }
+
+    /** @return false if no tuple of the build side can have the key f */
+    public boolean mightContain(Field f) {
+        if (!built || !enabled)
+            return true;
+        boolean pass = test(f);
+        if (!pass)
+            rejected++;
+        if (++checked == SAMPLE && rejected < SAMPLE * MIN_REJECT_RATE)
+            enabled = false;
+        return pass;
+    }
+
+    private boolean test(Field f) {
+        if (ints && f instanceof IntField) {
+            int v = ((IntField) f).getValue();
+            if (v < min || v > max)
+                return false;
+        }
+        int h1 = mix(f.hashCode());
+        int h2 = mix(h1 ^ 0x5bd1e995) | 1;
+        for (int i = 0; i < K; i++) {
+            int b = (h1 + i * h2) & mask;
+            if ((bits[b >>> 6] & (1L << b)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** @return the number of tuples this filter rejected since it was built */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /** @return true if the filter is built and still being checked */
+    public boolean isActive() {
+        return built && enabled;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -7,6 +7,10 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -16,6 +20,28 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * A scan may return only some columns of the table, so that the operators
+ * above it handle narrow tuples. Besides the table's columns it can return a
+ * row id, an INT that locates the tuple in its HeapFile, which lets a
+ * {@link Fetch} operator read the remaining columns of only those tuples that
+ * survive the rest of the plan. The scan itself does not get cheaper: pages
+ * decode all columns of their tuples when they are read into the buffer
+ * pool, and the scan copies the returned columns into a new tuple; what is
+ * saved is the work of the joins and other operators above it, which copy,
+ * hash and buffer fewer fields per tuple. A scan of every column in table
+ * order returns the page's tuples as they are.
+ * <p>
+ * A hash join can also push {@link RuntimeFilter}s built from its build side
+ * into the scan of its probe side; the scan then drops tuples whose join key
+ * the filter rejects before copying their columns. On a HeapFile the filters
+ * are checked as the page's slots are read. Pages are still read whole, as
+ * they keep no ranges of their keys to skip them by.
+ * <p>
+ * If scan sharing is enabled (see {@link simpledb.storage.ScanSharing}),
+ * scans of a large HeapFile share their reads with the other scans of it that
+ * are running, so they may return the tuples starting from the middle of the
+ * file.
  */
 public class SeqScan implements OpIterator {
 
@@ -26,6 +52,27 @@ public class SeqScan implements OpIterator {
     private int tableid;
     private String tableAlias;
     private DbFileIterator iterator;
+    private final PageMorsels morsels;
+    private boolean morselsDone;
+
+    /** Pseudo column index of the row id in a column list. */
+    public static final int ROWID = -1;
+    /** Name of the row id field, after the table alias. */
+    public static final String ROWID_NAME = "#rowid";
+
+    /** The table columns returned, or null for all columns. */
+    private final int[] columns;
+    private transient TupleDesc td;
+    /** Tuple slots per page of the table, for computing row ids. */
+    private transient int slots;
+
+    /** Runtime filters on the table column at the same index of filterColumns. */
+    private RuntimeFilter[] filters = new RuntimeFilter[0];
+    private int[] filterColumns = new int[0];
+    /** The next tuple that passed the runtime filters, if hasNext found one. */
+    private transient Tuple pending;
+    /** Whether the file iterator checks the runtime filters itself. */
+    private transient boolean filteredByFile;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -47,7 +94,69 @@ public class SeqScan implements OpIterator {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.morsels = null;
+        this.columns = null;
+
+    }
+
+    /**
+     * Creates a sequential scan that returns only some columns of the table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as in
+     *            {@link #SeqScan(TransactionId, int, String)}
+     * @param columns
+     *            the columns to return, in order, as indexes of the table's
+     *            TupleDesc; {@link #ROWID} returns the row id, which only
+     *            HeapFiles support
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.morsels = null;
+        for (int c : columns) {
+            if (c == ROWID && !(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile))
+                throw new IllegalArgumentException("row ids are only supported on heap files");
+        }
+        this.columns = isIdentity(columns, Database.getCatalog().getTupleDesc(tableid)) ? null : columns.clone();
+    }
+
+    /** @return whether columns are all columns of td, in order */
+    private static boolean isIdentity(int[] columns, TupleDesc td) {
+        if (columns.length != td.numFields())
+            return false;
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] != i)
+                return false;
+        }
+        return true;
+    }
 
+    /**
+     * Creates a scan that reads only the page-range morsels it claims from
+     * morsels, for use as one of several parallel workers over the same
+     * table. Together, the workers sharing morsels read every page once.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param morsels
+     *            the morsels of the table to scan, shared with the other
+     *            workers
+     * @param tableAlias
+     *            the alias of this table, as in
+     *            {@link #SeqScan(TransactionId, int, String)}
+     */
+    public SeqScan(TransactionId tid, PageMorsels morsels, String tableAlias) {
+        this.tid = tid;
+        this.tableid = morsels.getTableId();
+        this.tableAlias = tableAlias;
+        this.morsels = morsels;
+        this.columns = null;
     }
 
     /**
@@ -56,7 +165,61 @@ public class SeqScan implements OpIterator {
      *       be the actual name of the table in the catalog of the database
      * */
     public String getTableName() {
-        return null;
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the id of the table this operator scans
+     * */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the table columns this scan returns, or null if it returns all
+     *         of them
+     * */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
+    /**
+     * @return the column of the table that field i of the returned tuples
+     *         holds, or {@link #ROWID}
+     * */
+    public int tableColumn(int i) {
+        return columns == null ? i : columns[i];
+    }
+
+    /**
+     * Makes the scan drop the tuples whose field i the filter rejects. The
+     * filter is consulted as the scan runs, so it may be built after the scan
+     * is created or opened.
+     *
+     * @param i
+     *            the field of the returned tuples to check, which must not be
+     *            the row id
+     */
+    public void addRuntimeFilter(int i, RuntimeFilter filter) {
+        int column = tableColumn(i);
+        if (column == ROWID)
+            throw new IllegalArgumentException("cannot filter on row ids");
+        filters = Arrays.copyOf(filters, filters.length + 1);
+        filters[filters.length - 1] = filter;
+        filterColumns = Arrays.copyOf(filterColumns, filterColumns.length + 1);
+        filterColumns[filterColumns.length - 1] = column;
+    }
+
+    /** @return the runtime filters pushed into this scan */
+    public RuntimeFilter[] getRuntimeFilters() {
+        return filters.clone();
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     * */
+    public TransactionId getTransactionId() {
+        return tid;
     }
 
     /**
@@ -84,6 +247,7 @@ public class SeqScan implements OpIterator {
         // some code goes here
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.td = null;
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -104,6 +268,12 @@ public class SeqScan implements OpIterator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
+        if (td == null)
+            td = buildTupleDesc();
+        return td;
+    }
+
+    private TupleDesc buildTupleDesc() {
         TupleDesc tupleDesc = Database.getCatalog().getTupleDesc(tableid);
         String prefix = "null";
         if(tableAlias != "null") {
@@ -120,19 +290,102 @@ public class SeqScan implements OpIterator {
             }
             fieldAr[i] = prefix + "." + fieldName;
         }
+        if (columns != null) {
+            Type[] types = new Type[columns.length];
+            String[] names = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                types[i] = columns[i] == ROWID ? Type.INT_TYPE : typeAr[columns[i]];
+                names[i] = columns[i] == ROWID ? prefix + "." + ROWID_NAME : fieldAr[columns[i]];
+            }
+            typeAr = types;
+            fieldAr = names;
+        }
         tupleDesc = new TupleDesc(typeAr, fieldAr);
         return tupleDesc;
     }
 
+    /**
+     * @return the row id of the tuple at rid in a HeapFile with the given
+     *         number of tuple slots per page
+     * @throws DbException
+     *             if the row id does not fit an INT
+     */
+    static int rowId(RecordId rid, int slots) throws DbException {
+        long id = (long) rid.getPageId().getPageNumber() * slots + rid.getTupleNumber();
+        if (id > Integer.MAX_VALUE)
+            throw new DbException("table too large for row ids");
+        return (int) id;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
+        pending = null;
+        if (morsels != null) {
+            iterator = null;
+            morselsDone = false;
+            filteredByFile = filters.length > 0;
+            nextMorsel();
+            return;
+        }
         DbFile databaseFile = Database.getCatalog().getDatabaseFile(tableid);
-        iterator = databaseFile.iterator(tid);
+        filteredByFile = filters.length > 0 && databaseFile instanceof HeapFile;
+        if (filteredByFile)
+            iterator = ((HeapFile) databaseFile).sharedIterator(tid, this::passesFilters);
+        else if (databaseFile instanceof HeapFile)
+            iterator = ((HeapFile) databaseFile).sharedIterator(tid);
+        else
+            iterator = databaseFile.iterator(tid);
+        iterator.open();
+    }
+
+    /**
+     * Claims the next morsel and opens an iterator over it.
+     *
+     * @return false if no morsels are left
+     */
+    private boolean nextMorsel() throws DbException, TransactionAbortedException {
+        int start = morsels.next();
+        if (start < 0) {
+            morselsDone = true;
+            return false;
+        }
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        iterator = filteredByFile ? file.iterator(tid, start, morsels.end(start), this::passesFilters)
+                : file.iterator(tid, start, morsels.end(start));
         iterator.open();
+        return true;
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
+        if (filters.length == 0 || filteredByFile)
+            return hasNextInFile();
+        while (pending == null) {
+            if (!hasNextInFile())
+                return false;
+            Tuple t = iterator.next();
+            if (passesFilters(t))
+                pending = t;
+        }
+        return true;
+    }
+
+    private boolean passesFilters(Tuple t) {
+        for (int i = 0; i < filters.length; i++) {
+            if (!filters[i].mightContain(t.getField(filterColumns[i])))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean hasNextInFile() throws TransactionAbortedException, DbException {
+        if (morsels != null) {
+            while (iterator == null || !iterator.hasNext()) {
+                if (morselsDone || !nextMorsel())
+                    return false;
+            }
+            return true;
+        }
         if(iterator!=null)return iterator.hasNext();
 
         throw new TransactionAbortedException();
@@ -140,22 +393,50 @@ public class SeqScan implements OpIterator {
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        Tuple tuple = iterator.next();
+        if ((morsels != null || filters.length > 0) && !hasNext())
+            throw new NoSuchElementException("This is the last element");
+        Tuple tuple;
+        if (pending != null) {
+            tuple = pending;
+            pending = null;
+        } else {
+            tuple = iterator.next();
+        }
         if( tuple!=null) {
-            return tuple;
+            return columns == null ? tuple : narrow(tuple);
         } else {
             throw new NoSuchElementException("This is the last element");
         }
     }
 
+    /** @return the returned columns of a full table tuple */
+    private Tuple narrow(Tuple tuple) throws DbException {
+        Tuple t = new Tuple(getTupleDesc());
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] == ROWID) {
+                if (slots == 0)
+                    slots = HeapPage.numSlots(Database.getCatalog().getTupleDesc(tableid));
+                t.setField(i, new IntField(rowId(tuple.getRecordId(), slots)));
+            } else {
+                t.setField(i, tuple.getField(columns[i]));
+            }
+        }
+        t.setRecordId(tuple.getRecordId());
+        return t;
+    }
+
     public void close() {
         // some code goes here
-        iterator.close();
+        pending = null;
+        if (iterator != null)
+            iterator.close();
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        if (morsels != null)
+            throw new DbException("a morsel scan cannot be rewound on its own; reset its PageMorsels instead");
         close();
         open();
     }
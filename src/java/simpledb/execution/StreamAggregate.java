@@ -0,0 +1,191 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * StreamAggregate computes the same aggregates as {@link HashAggregate}, but
+ * over a child whose tuples arrive grouped, i.e. all tuples of a group are
+ * adjacent, as they are when the child is sorted on the group-by fields (see
+ * {@link Ordering#groups(int[])}). Only the current group is held in memory,
+ * and each group is returned as soon as the group-by fields change, so the
+ * operator pipelines and never spills.
+ * <p>
+ * Output tuples hold the group-by fields, in the order given, followed by one
+ * INT field per aggregate (two for SUM_COUNT). Groups are returned in input order. An empty input
+ * produces no tuples when grouping, and otherwise one tuple as {@link HashAggregate} does.
+ */
+public class StreamAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int[] gfields;
+    private final int[] afields;
+    private final Aggregator.Op[] aops;
+    private final TupleDesc td;
+
+    /** The aggregate fields of the current tuple, copied for the accumulators. */
+    private final int[] passFields;
+    private final TupleDesc passTd;
+
+    transient private Accumulators acc;
+    /** First tuple of the next group, already read from the child. */
+    transient private Tuple lookahead;
+    /** Whether a tuple was returned since the last open or rewind. */
+    transient private boolean returned;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples; tuples with equal
+     *            group-by fields must be adjacent
+     * @param gfields
+     *            The columns to group by; empty for a single group over the
+     *            whole input
+     * @param afields
+     *            The column each aggregate is computed over
+     * @param aops
+     *            The aggregation operator of each aggregate; MIN, MAX, SUM and
+     *            AVG need INT columns, COUNT works on any column. SUM_COUNT and
+     *            SC_AVG compute the two phases of a split AVG, see
+     *            {@link TwoPhaseAggregation}
+     */
+    public StreamAggregate(OpIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops) {
+        TupleDesc ctd = child.getTupleDesc();
+        Accumulators.check(ctd, afields, aops);
+        this.child = child;
+        this.gfields = gfields.clone();
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+
+        int[] inputs = Accumulators.inputFields(gfields, afields, aops);
+        this.passFields = Arrays.copyOfRange(inputs, gfields.length, inputs.length);
+        Type[] passTypes = new Type[passFields.length];
+        for (int i = 0; i < passFields.length; i++)
+            passTypes[i] = ctd.getFieldType(passFields[i]);
+        this.passTd = new TupleDesc(passTypes);
+        this.td = Accumulators.outputDesc(ctd, gfields, afields, aops);
+    }
+
+    public int[] groupFields() {
+        return gfields.clone();
+    }
+
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
+    }
+
+    /** @return the name of the i-th group-by field in the output tuples */
+    public String groupFieldName(int i) {
+        return td.getFieldName(i);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** Groups come out in the order the child grouped them. */
+    @Override
+    public Ordering getOrdering() {
+        int[] mapping = new int[child.getTupleDesc().numFields()];
+        Arrays.fill(mapping, -1);
+        for (int i = gfields.length - 1; i >= 0; i--)
+            mapping[gfields[i]] = i;
+        return child.getOrdering().project(mapping);
+    }
+
+    public void open() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        child.open();
+        acc = new Accumulators(aops, 1);
+        lookahead = null;
+        returned = false;
+        super.open();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        lookahead = null;
+        returned = false;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        acc = null;
+        lookahead = null;
+    }
+
+    private boolean sameGroup(Tuple a, Tuple b) {
+        for (int g : gfields) {
+            if (!a.getField(g).equals(b.getField(g)))
+                return false;
+        }
+        return true;
+    }
+
+    /** Adds the aggregate fields of child tuple t to the current group. */
+    private void add(Tuple t, Tuple pass) {
+        for (int i = 0; i < passFields.length; i++)
+            pass.setField(i, t.getField(passFields[i]));
+        acc.add(0, pass, 0);
+    }
+
+    /**
+     * Reads the child up to the first tuple of the next group and returns the
+     * aggregates of the current one.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        Tuple first = lookahead;
+        lookahead = null;
+        if (first == null) {
+            if (!child.hasNext()) {
+                if (gfields.length > 0 || returned)
+                    return null;
+                returned = true;
+                return Accumulators.emptyResult(td);
+            }
+            first = child.next();
+        }
+        Tuple pass = new Tuple(passTd);
+        acc.init(0);
+        add(first, pass);
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!sameGroup(first, t)) {
+                lookahead = t;
+                break;
+            }
+            add(t, pass);
+        }
+
+        Tuple out = new Tuple(td);
+        for (int i = 0; i < gfields.length; i++)
+            out.setField(i, first.getField(gfields[i]));
+        acc.results(0, out, gfields.length);
+        returned = true;
+        return out;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+}
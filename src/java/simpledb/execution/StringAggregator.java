@@ -100,9 +100,9 @@ public class StringAggregator implements Aggregator {
             fieldTypes = new Type[]{Type.INT_TYPE};
             fieldNames = new String[]{"aggregateValue"};
             tupleDesc = new TupleDesc(fieldTypes,fieldNames);
+            // an empty input still produces one tuple, as in SQL: a COUNT of 0
             Tuple tuple = new Tuple(tupleDesc);
-            IntField intField = new IntField(aggResult.get(null));
-            tuple.setField(0,intField);
+            tuple.setField(0, new IntField(aggResult.getOrDefault(null, 0)));
             tuples.add(tuple);
         }else {
             fieldTypes = new Type[]{gbfieldtype,Type.INT_TYPE};
@@ -0,0 +1,134 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY followed by LIMIT/OFFSET. Instead of sorting the
+ * whole child it keeps the best limit + offset tuples in a bounded heap, so
+ * it runs in O(n log k) time and O(k) memory for k = limit + offset.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
+    private final int limit;
+    private final int offset;
+    transient private Tuple[] result;
+    private int pos;
+
+    /**
+     * Constructor.
+     *
+     * @param orderbyFields
+     *            the fields to sort on, most significant first
+     * @param asc
+     *            for each field, true if its sort order is ascending
+     * @param limit
+     *            the maximum number of tuples to return
+     * @param offset
+     *            the number of leading tuples of the ordering to skip
+     * @param child
+     *            the tuples to sort
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, int offset, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one sort direction per ORDER BY field");
+        if (limit < 0 || offset < 0)
+            throw new IllegalArgumentException("LIMIT and OFFSET must not be negative");
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = asc.clone();
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    public boolean[] getAscending() {
+        return ascs.clone();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public Ordering getOrdering() {
+        return new Ordering(orderByFields, ascs);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        int k = (int) Math.min(Integer.MAX_VALUE - 8, (long) limit + offset);
+        Comparator<Tuple> cmp = new TupleComparator(orderByFields, ascs, td);
+        // max-heap on the ordering: the root is the worst tuple kept so far
+        PriorityQueue<Tuple> heap = new PriorityQueue<>(Math.max(1, Math.min(k, 1024)), cmp.reversed());
+        if (k > 0) {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (heap.size() < k) {
+                    heap.add(t);
+                } else if (cmp.compare(t, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(t);
+                }
+            }
+        }
+        Tuple[] sorted = heap.toArray(new Tuple[0]);
+        Arrays.sort(sorted, cmp);
+        result = sorted;
+        pos = Math.min(offset, sorted.length);
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        result = null;
+    }
+
+    public void rewind() {
+        pos = Math.min(offset, result.length);
+    }
+
+    /**
+     * Returns the next tuple of the top limit + offset, skipping the first
+     * offset of them.
+     */
+    protected Tuple fetchNext() throws NoSuchElementException {
+        if (result != null && pos < result.length)
+            return result[pos++];
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+
+}
@@ -0,0 +1,82 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.Comparator;
+
+/**
+ * TupleComparator orders tuples on one or more key fields, each either
+ * ascending or descending. INT keys are compared on their primitive values,
+ * so a comparison costs a single integer compare instead of the two
+ * Field.compare calls a predicate-based comparison needs.
+ */
+public class TupleComparator implements Comparator<Tuple> {
+    private final int[] fields;
+    private final boolean[] asc;
+    private final boolean[] intKey;
+
+    /**
+     * Creates a comparator over a single key field.
+     *
+     * @param field
+     *            the index of the key field
+     * @param asc
+     *            true if the key sorts ascending
+     */
+    public TupleComparator(int field, boolean asc) {
+        this(new int[]{field}, new boolean[]{asc}, null);
+    }
+
+    /**
+     * Creates a comparator over several key fields; earlier keys take
+     * precedence over later ones.
+     *
+     * @param fields
+     *            the indexes of the key fields, most significant first
+     * @param asc
+     *            for each key, true if it sorts ascending
+     * @param td
+     *            the TupleDesc of the compared tuples, used to pick primitive
+     *            comparisons for INT keys; may be null, in which case the key
+     *            types are taken from the compared fields
+     */
+    public TupleComparator(int[] fields, boolean[] asc, TupleDesc td) {
+        if (fields.length == 0 || fields.length != asc.length)
+            throw new IllegalArgumentException("need one sort direction per key field");
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+        this.intKey = new boolean[fields.length];
+        if (td != null) {
+            for (int i = 0; i < fields.length; i++)
+                intKey[i] = td.getFieldType(fields[i]) == Type.INT_TYPE;
+        }
+    }
+
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    public boolean[] getAscending() {
+        return asc.clone();
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        for (int i = 0; i < fields.length; i++) {
+            int c;
+            if (intKey[i] || o1.getField(fields[i]) instanceof IntField) {
+                c = Integer.compare(((IntField) o1.getField(fields[i])).getValue(),
+                        ((IntField) o2.getField(fields[i])).getValue());
+            } else {
+                c = ((StringField) o1.getField(fields[i])).getValue()
+                        .compareTo(((StringField) o2.getField(fields[i])).getValue());
+            }
+            if (c != 0)
+                return asc[i] ? c : -c;
+        }
+        return 0;
+    }
+}
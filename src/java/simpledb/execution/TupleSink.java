@@ -0,0 +1,28 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * The consumer of a stream of tuples in the push-based engine: the producer
+ * calls push for each tuple and finish at the end of the stream. See
+ * {@link PushExecutor}.
+ */
+public interface TupleSink {
+
+    /**
+     * Consumes the next tuple of the stream.
+     *
+     * @return false if the sink needs no more tuples of this stream, in which
+     *         case the producer should stop and call finish
+     */
+    boolean push(Tuple t) throws DbException, TransactionAbortedException;
+
+    /**
+     * Ends the stream. A sink may be given another stream after this, e.g.
+     * when the probe side of a hash join is run once per part of its build
+     * side.
+     */
+    void finish() throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,104 @@
+package simpledb.execution;
+
+/**
+ * Splits an aggregation into a partial and a final phase. Partial aggregates
+ * run over disjoint parts of the input, e.g. in each worker of a
+ * {@link Gather} or below a join, and return one tuple per group and part
+ * holding the mergeable state of each aggregate; the final aggregate merges
+ * these states per group into the result of the original aggregation.
+ * <p>
+ * MIN, MAX and SUM are their own partial states and merge with themselves.
+ * COUNT is merged by summing the partial counts. AVG is carried as SUM_COUNT,
+ * i.e. a sum and a count field, which SC_AVG adds up and divides.
+ */
+public final class TwoPhaseAggregation {
+
+    private TwoPhaseAggregation() {
+    }
+
+    /** @return the operator that computes the partial state of op */
+    public static Aggregator.Op partialOp(Aggregator.Op op) {
+        switch (op) {
+            case MIN: case MAX: case SUM: case COUNT:
+                return op;
+            case AVG:
+                return Aggregator.Op.SUM_COUNT;
+            default:
+                throw new UnsupportedOperationException("cannot split aggregation operator " + op);
+        }
+    }
+
+    /** @return the operator that merges partial states of op */
+    public static Aggregator.Op finalOp(Aggregator.Op op) {
+        switch (op) {
+            case MIN: case MAX: case SUM:
+                return op;
+            case COUNT:
+                return Aggregator.Op.SUM;
+            case AVG:
+                return Aggregator.Op.SC_AVG;
+            default:
+                throw new UnsupportedOperationException("cannot split aggregation operator " + op);
+        }
+    }
+
+    /**
+     * @return the number of fields the partial state of op takes in a partial
+     *         aggregate's output
+     */
+    public static int partialWidth(Aggregator.Op op) {
+        return Accumulators.outputWidth(partialOp(op));
+    }
+
+    /**
+     * Builds the partial phase of an aggregation. Its output holds the
+     * group-by fields followed by the partial state of each aggregate.
+     *
+     * @see HashAggregate#HashAggregate(OpIterator, int[], int[], Aggregator.Op[])
+     */
+    public static HashAggregate partial(OpIterator child, int[] gfields, int[] afields,
+                                        Aggregator.Op[] aops) {
+        Aggregator.Op[] pops = new Aggregator.Op[aops.length];
+        for (int i = 0; i < aops.length; i++)
+            pops[i] = partialOp(aops[i]);
+        HashAggregate partial = new HashAggregate(child, gfields, afields, pops);
+        partial.noEmptyInputTuple();
+        return partial;
+    }
+
+    /**
+     * @param first
+     *            the field holding the partial state of the first aggregate;
+     *            the others follow it
+     * @return the field holding the partial state of each aggregate
+     */
+    public static int[] partialFields(int first, Aggregator.Op[] aops) {
+        int[] fields = new int[aops.length];
+        for (int i = 0; i < aops.length; i++) {
+            fields[i] = first;
+            first += partialWidth(aops[i]);
+        }
+        return fields;
+    }
+
+    /** @return the operators that merge the partial states of aops */
+    public static Aggregator.Op[] finalOps(Aggregator.Op[] aops) {
+        Aggregator.Op[] fops = new Aggregator.Op[aops.length];
+        for (int i = 0; i < aops.length; i++)
+            fops[i] = finalOp(aops[i]);
+        return fops;
+    }
+
+    /**
+     * Builds the final phase over the output of partial aggregates built by
+     * {@link #partial} with the same number of group-by fields and the same
+     * operators, e.g. a Gather of per-worker partials. Its output has the same
+     * shape as the single-phase aggregation.
+     */
+    public static HashAggregate merge(OpIterator partials, int numGroupFields, Aggregator.Op[] aops) {
+        int[] gfields = new int[numGroupFields];
+        for (int i = 0; i < numGroupFields; i++)
+            gfields[i] = i;
+        return new HashAggregate(partials, gfields, partialFields(numGroupFields, aops), finalOps(aops));
+    }
+}
@@ -1232,6 +1232,25 @@ public class BTreeFile implements DbFile {
 		return new BTreeSearchIterator(this, tid, ipred);
 	}
 
+	/**
+	 * Restart an open iterator returned by {@link #indexIterator} with a new
+	 * predicate. Successive EQUALS predicates with ascending keys resume from
+	 * the leaf the previous search started on rather than searching from the
+	 * root.
+	 * 
+	 * @param it - the iterator to restart
+	 * @param ipred - the new predicate to filter on
+	 * @return false if it was not returned by {@link #indexIterator}, and was
+	 *         left as it was
+	 */
+	boolean rewindIndexIterator(DbFileIterator it, IndexPredicate ipred)
+			throws DbException, TransactionAbortedException {
+		if (!(it instanceof BTreeSearchIterator))
+			return false;
+		((BTreeSearchIterator) it).rewind(ipred);
+		return true;
+	}
+
 	/**
 	 * Get an iterator for all tuples in this B+ tree file in sorted order. This method 
 	 * will acquire a read lock on the affected pages of the file, and may block until 
@@ -1332,12 +1351,19 @@ class BTreeFileIterator extends AbstractDbFileIterator {
  */
 class BTreeSearchIterator extends AbstractDbFileIterator {
 
+	/**
+	 * Maximum number of right-sibling hops taken from the previous probe's
+	 * leaf before falling back to a search from the root
+	 */
+	static final int MAX_FINGER_HOPS = 4;
+
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	BTreePageId startPid = null;
 
 	final TransactionId tid;
 	final BTreeFile f;
-	final IndexPredicate ipred;
+	IndexPredicate ipred;
 
 	/**
 	 * Constructor for this iterator
@@ -1366,9 +1392,43 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		else {
 			curp = f.findLeafPage(tid, root, null);
 		}
+		startPid = curp.getId();
 		it = curp.iterator();
 	}
 
+	/**
+	 * Begin a new search with the specified predicate. When successive EQUALS
+	 * probes arrive in ascending key order, the search resumes from the leaf
+	 * the previous probe started on and follows right-sibling pointers, instead
+	 * of descending the tree from the root again.
+	 * 
+	 * @param ipred - the new predicate to filter on
+	 */
+	public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		IndexPredicate prev = this.ipred;
+		this.ipred = ipred;
+		close();
+		if (startPid != null && prev.getOp() == Op.EQUALS && ipred.getOp() == Op.EQUALS
+				&& ipred.getField().compare(Op.GREATER_THAN_OR_EQ, prev.getField())) {
+			BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+					startPid, Permissions.READ_ONLY);
+			for (int hops = 0; hops <= MAX_FINGER_HOPS; hops++) {
+				Iterator<Tuple> rit = leaf.reverseIterator();
+				BTreePageId nextp = leaf.getRightSiblingId();
+				if (nextp == null || (rit.hasNext()
+						&& rit.next().getField(f.keyField()).compare(Op.GREATER_THAN_OR_EQ, ipred.getField()))) {
+					curp = leaf;
+					startPid = leaf.getId();
+					it = curp.iterator();
+					return;
+				}
+				leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+						nextp, Permissions.READ_ONLY);
+			}
+		}
+		open();
+	}
+
 	/**
 	 * Read the next tuple either from the current page if it has more tuples matching
 	 * the predicate or from the next page by following the right sibling pointer.
@@ -3,8 +3,9 @@ package simpledb.index;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.execution.IndexOpIterator;
 import simpledb.execution.IndexPredicate;
-import simpledb.execution.OpIterator;
+import simpledb.execution.Ordering;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -17,7 +18,7 @@ import java.util.*;
  * BTreeScan is an operator which reads tuples in sorted order 
  * according to a predicate
  */
-public class BTreeScan implements OpIterator {
+public class BTreeScan implements IndexOpIterator {
 
 	private static final long serialVersionUID = 1L;
 
@@ -26,6 +27,7 @@ public class BTreeScan implements OpIterator {
 	private TupleDesc myTd;
 	private IndexPredicate ipred = null;
 	private transient DbFileIterator it;
+	private int tableid;
 	private String tablename;
 	private String alias;
 
@@ -85,6 +87,7 @@ public class BTreeScan implements OpIterator {
 	 */
 	public void reset(int tableid, String tableAlias) {
 		this.isOpen=false;
+		this.tableid = tableid;
 		this.alias = tableAlias;
 		this.tablename = Database.getCatalog().getTableName(tableid);
 		if(ipred == null) {
@@ -118,6 +121,36 @@ public class BTreeScan implements OpIterator {
 		isOpen = true;
 	}
 
+	/**
+	 * Opens this scan to return only the tuples matching ipred, replacing any
+	 * predicate given to the constructor.
+	 */
+	public void open(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+
+		this.ipred = ipred;
+		this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
+		open();
+	}
+
+	/**
+	 * Restarts this scan with a new predicate. Successive EQUALS predicates with
+	 * ascending keys resume from the previously visited leaf rather than
+	 * searching from the root.
+	 */
+	public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(tableid);
+		if (f.rewindIndexIterator(it, ipred)) {
+			this.ipred = ipred;
+		} else {
+			close();
+			open(ipred);
+		}
+	}
+
 	/**
 	 * Returns the TupleDesc with field names from the underlying BTreeFile,
 	 * prefixed with the tableAlias string from the constructor. This prefix
@@ -131,6 +164,15 @@ public class BTreeScan implements OpIterator {
 		return myTd;
 	}
 
+	/**
+	 * A B+ tree returns its tuples in ascending order of the key field,
+	 * whether or not a predicate restricts the scan.
+	 */
+	@Override
+	public Ordering getOrdering() {
+		return Ordering.ascending(((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).keyField());
+	}
+
 	public boolean hasNext() throws TransactionAbortedException, DbException {
 		if (!isOpen)
 			throw new IllegalStateException("iterator is closed");
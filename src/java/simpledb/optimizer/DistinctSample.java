@@ -0,0 +1,92 @@
+package simpledb.optimizer;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A sample of the distinct values of a column, with the number of times each
+ * was seen, in a fixed amount of space.
+ * <p>
+ * Each value is hashed to 64 bits, and the sample keeps the values with the
+ * smallest hashes (a bottom-k sample). These are a uniform sample of the
+ * distinct values, and since a value whose hash is ever too large to be kept
+ * is never kept later, each value kept was counted every time it was seen.
+ * The fraction of the values kept that were seen once estimates the fraction
+ * of all distinct values seen once, and the largest hash kept estimates the
+ * number of distinct values (Bar-Yossef et al., 2002).
+ */
+public class DistinctSample {
+
+    /** The number of values that TableStats keeps per column. */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final int capacity;
+    /** The counts of the values kept, by their hashes, as non-negative longs. */
+    private final TreeMap<Long, Integer> counts = new TreeMap<>();
+    /** Whether a value has been dropped or not kept, so that counts is a sample. */
+    private boolean full = false;
+
+    public DistinctSample() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity
+     *            the number of distinct values kept, at least 2
+     */
+    public DistinctSample(int capacity) {
+        if (capacity < 2)
+            throw new IllegalArgumentException("capacity must be at least 2: " + capacity);
+        this.capacity = capacity;
+    }
+
+    /** Add a value to the values sampled. */
+    public void addValue(int v) {
+        addHash(HyperLogLog.hash(v));
+    }
+
+    /** Add a value to the values sampled. */
+    public void addValue(String s) {
+        addHash(HyperLogLog.hash(s));
+    }
+
+    private void addHash(long hash) {
+        long h = hash >>> 1;
+        if (full && h >= counts.lastKey())
+            return;
+        counts.merge(h, 1, Integer::sum);
+        if (counts.size() > capacity) {
+            counts.pollLastEntry();
+            full = true;
+        }
+    }
+
+    /** @return the estimated number of distinct values added */
+    public long distinct() {
+        if (!full)
+            return counts.size();
+        // the capacity-th smallest of d uniform hashes in [0, 2^63) is about
+        // capacity / d of the way up
+        return Math.round((capacity - 1) * 0x1p63 / (counts.lastKey() + 1.0));
+    }
+
+    /** @return the estimated number of distinct values added exactly once */
+    public long singletons() {
+        long once = 0;
+        for (Map.Entry<Long, Integer> e : counts.entrySet()) {
+            if (e.getValue() == 1)
+                once++;
+        }
+        if (!full)
+            return once;
+        return Math.round((double) once / counts.size() * distinct());
+    }
+
+    /**
+     * @return A string describing this sample, for debugging purposes
+     */
+    public String toString() {
+        return "DistinctSample(capacity=" + capacity + ", distinct=" + distinct()
+                + ", singletons=" + singletons() + ")";
+    }
+}
@@ -0,0 +1,353 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A histogram over a single integer-based field that holds up to the same
+ * number of tuples in each bucket, with the most common values (MCVs) of the
+ * field and their frequencies kept apart from the buckets.
+ * <p>
+ * The MCVs answer equality predicates on the values that skewed data repeats
+ * most often exactly, and keep them from inflating the buckets they fall in.
+ * The other values are spread over buckets of equal depth: each bucket spans
+ * the range of about the same number of tuples, so that dense ranges get
+ * narrow buckets and sparse ones wide buckets. Within a bucket, the tuples
+ * are assumed to be spread evenly over its range and its distinct values.
+ * <p>
+ * Histograms are built by {@link EquiDepthHistogramBuilder}.
+ */
+public class EquiDepthHistogram {
+
+    private int min;
+    private int max;
+    /** The number of tuples, which updates may make fractional. */
+    private double total;
+
+    /** The MCVs in ascending order, and the number of tuples of each. */
+    private final int[] mcvValues;
+    private final double[] mcvCounts;
+
+    /** The inclusive, disjoint ranges of the buckets in ascending order. */
+    private int[] lo;
+    private int[] hi;
+    /** The number of tuples of each bucket, and of its distinct values. */
+    private double[] counts;
+    private double[] distinct;
+
+    /**
+     * The number of tuples of a value that is neither an MCV nor in a bucket:
+     * 0 if the buckets were built from every value, and otherwise the average
+     * of the values that are not MCVs, as the value may have been left out of
+     * the sample.
+     */
+    private final double unseenCount;
+
+    /**
+     * mcvPrefix[i] and bucketPrefix[i] are the tuples of the first i MCVs and
+     * buckets, recomputed after updates.
+     */
+    private double[] mcvPrefix;
+    private double[] bucketPrefix;
+
+    EquiDepthHistogram(int min, int max, double total, int[] mcvValues, double[] mcvCounts,
+                       int[] lo, int[] hi, double[] counts, double[] distinct, double unseenCount) {
+        this.min = min;
+        this.max = max;
+        this.total = total;
+        this.mcvValues = mcvValues;
+        this.mcvCounts = mcvCounts;
+        this.lo = lo;
+        this.hi = hi;
+        this.counts = counts;
+        this.distinct = distinct;
+        this.unseenCount = unseenCount;
+    }
+
+    private static double[] prefixSums(double[] values) {
+        double[] prefix = new double[values.length + 1];
+        for (int i = 0; i < values.length; i++)
+            prefix[i + 1] = prefix[i] + values[i];
+        return prefix;
+    }
+
+    /** @return the number of tuples the histogram describes */
+    public synchronized double count() {
+        return total;
+    }
+
+    /** @return the number of most common values kept apart from the buckets */
+    public int numMcvs() {
+        return mcvValues.length;
+    }
+
+    /** @return the number of buckets */
+    public synchronized int numBuckets() {
+        return lo.length;
+    }
+
+    /**
+     * Adds weight tuples of value v to the histogram, for a tuple inserted
+     * after the histogram was built. The tuples go to the MCV or the bucket
+     * of v. A value between buckets widens the bucket below it, and counts as
+     * a new distinct value of it. A value beyond the buckets widens the first
+     * or last bucket too, unless that one already holds its share of the
+     * tuples or the value is further from it than it is wide; then the value
+     * starts a new bucket, so that buckets stay of about equal depth as the
+     * range of the field grows, and outliers stay apart.
+     *
+     * @param weight the share of the tuples of the table the histogram
+     *               counts: 1 unless it was built from a sample
+     */
+    public synchronized void addValue(int v, double weight) {
+        if (total <= 0) {
+            min = max = v;
+        } else {
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        total += weight;
+        int i = Arrays.binarySearch(mcvValues, v);
+        if (i >= 0) {
+            mcvCounts[i] += weight;
+        } else if (lo.length == 0) {
+            addBucket(0, v, weight);
+        } else if (v < lo[0] && (isFull(0) || (long) lo[0] - v > (long) hi[0] - lo[0])) {
+            addBucket(0, v, weight);
+        } else if (v > hi[lo.length - 1] && (isFull(lo.length - 1)
+                || (long) v - hi[lo.length - 1] > (long) hi[lo.length - 1] - lo[lo.length - 1])) {
+            addBucket(lo.length, v, weight);
+        } else {
+            int b = bucketOf(v);
+            if (b < 0) {
+                // the bucket ending below v, or the first one
+                b = Math.max(0, -b - 2);
+                if (v < lo[b])
+                    lo[b] = v;
+                else
+                    hi[b] = v;
+                distinct[b]++;
+            }
+            counts[b] += weight;
+        }
+        mcvPrefix = null;
+    }
+
+    /** @return whether bucket b holds at least the average share of tuples */
+    private boolean isFull(int b) {
+        double sum = 0;
+        for (double c : counts)
+            sum += c;
+        return counts[b] >= sum / counts.length;
+    }
+
+    /** Inserts a bucket holding weight tuples of value v at index b. */
+    private void addBucket(int b, int v, double weight) {
+        lo = insert(lo, b, v);
+        hi = insert(hi, b, v);
+        counts = insert(counts, b, weight);
+        distinct = insert(distinct, b, 1);
+    }
+
+    private static int[] insert(int[] a, int i, int v) {
+        int[] b = new int[a.length + 1];
+        System.arraycopy(a, 0, b, 0, i);
+        b[i] = v;
+        System.arraycopy(a, i, b, i + 1, a.length - i);
+        return b;
+    }
+
+    private static double[] insert(double[] a, int i, double v) {
+        double[] b = new double[a.length + 1];
+        System.arraycopy(a, 0, b, 0, i);
+        b[i] = v;
+        System.arraycopy(a, i, b, i + 1, a.length - i);
+        return b;
+    }
+
+    /**
+     * Removes weight tuples of value v from the histogram, for a tuple
+     * deleted after the histogram was built. Ranges and distinct values are
+     * left as they are.
+     */
+    public synchronized void removeValue(int v, double weight) {
+        if (total <= 0 || v < min || v > max)
+            return;
+        total = Math.max(0, total - weight);
+        int i = Arrays.binarySearch(mcvValues, v);
+        if (i >= 0) {
+            mcvCounts[i] = Math.max(0, mcvCounts[i] - weight);
+        } else {
+            int b = bucketOf(v);
+            if (b >= 0)
+                counts[b] = Math.max(0, counts[b] - weight);
+        }
+        mcvPrefix = null;
+    }
+
+    /**
+     * @return a value the histogram counts as v: v if it is an MCV or out of
+     *         the buckets, and otherwise an end of its bucket that is not an
+     *         MCV, if there is one
+     */
+    synchronized int representative(int v) {
+        if (Arrays.binarySearch(mcvValues, v) >= 0)
+            return v;
+        int b = bucketOf(v);
+        if (b < 0)
+            return v;
+        if (Arrays.binarySearch(mcvValues, lo[b]) < 0)
+            return lo[b];
+        return Arrays.binarySearch(mcvValues, hi[b]) < 0 ? hi[b] : v;
+    }
+
+    /** @return the fraction of the tuples whose value is v */
+    private double equalTo(int v) {
+        if (total <= 0 || v < min || v > max)
+            return 0.0;
+        int i = Arrays.binarySearch(mcvValues, v);
+        if (i >= 0)
+            return mcvCounts[i] / total;
+        int b = bucketOf(v);
+        if (b >= 0)
+            return counts[b] / distinct[b] / total;
+        return Math.min(1.0, unseenCount / total);
+    }
+
+    /** @return the fraction of the tuples whose value is less than v */
+    private double lessThan(int v) {
+        if (total <= 0 || v <= min)
+            return 0.0;
+        if (v > max)
+            return 1.0;
+        if (mcvPrefix == null) {
+            mcvPrefix = prefixSums(mcvCounts);
+            bucketPrefix = prefixSums(counts);
+        }
+        int i = Arrays.binarySearch(mcvValues, v);
+        double below = mcvPrefix[i >= 0 ? i : -i - 1];
+        // the buckets that end below v, and the part of the bucket holding v
+        int b = Arrays.binarySearch(hi, v);
+        int before = b >= 0 ? b : -b - 1;
+        below += bucketPrefix[before];
+        if (before < lo.length && lo[before] < v)
+            below += counts[before] * (v - (double) lo[before]) / (hi[before] - (double) lo[before] + 1);
+        return Math.min(1.0, below / total);
+    }
+
+    /**
+     * @return the index of the bucket whose range holds v, or -(i + 1) where
+     *         i is the index of the first bucket above v
+     */
+    private int bucketOf(int v) {
+        int b = Arrays.binarySearch(hi, v);
+        if (b < 0)
+            b = -b - 1;
+        return b < lo.length && lo[b] <= v ? b : -(b + 1);
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public synchronized double estimateSelectivity(Predicate.Op op, int v) {
+        switch (op) {
+            case EQUALS:
+                return equalTo(v);
+            case NOT_EQUALS:
+                return 1 - equalTo(v);
+            case LESS_THAN:
+                return lessThan(v);
+            case LESS_THAN_OR_EQ:
+                return Math.min(1.0, lessThan(v) + equalTo(v));
+            case GREATER_THAN:
+                return Math.max(0.0, 1 - lessThan(v) - equalTo(v));
+            case GREATER_THAN_OR_EQ:
+                return 1 - lessThan(v);
+            default:
+                throw new UnsupportedOperationException("Operation is illegal");
+        }
+    }
+
+    /**
+     * @return the selectivity of an equality predicate on a value drawn from
+     *         the field itself: the chance that two random tuples have the
+     *         same value, which the MCVs dominate on skewed data
+     */
+    public synchronized double avgSelectivity() {
+        if (total <= 0)
+            return 0.0;
+        double sel = 0;
+        for (double c : mcvCounts)
+            sel += (c / total) * (c / total);
+        for (int b = 0; b < lo.length; b++)
+            sel += (counts[b] / total) * (counts[b] / total) / distinct[b];
+        return sel;
+    }
+
+    /** Writes the histogram, to be read back by {@link #read}. */
+    synchronized void write(DataOutput out) throws IOException {
+        out.writeInt(min);
+        out.writeInt(max);
+        out.writeDouble(total);
+        writeInts(out, mcvValues);
+        writeDoubles(out, mcvCounts);
+        writeInts(out, lo);
+        writeInts(out, hi);
+        writeDoubles(out, counts);
+        writeDoubles(out, distinct);
+        out.writeDouble(unseenCount);
+    }
+
+    /** @return a histogram written by {@link #write} */
+    static EquiDepthHistogram read(DataInput in) throws IOException {
+        return new EquiDepthHistogram(in.readInt(), in.readInt(), in.readDouble(), readInts(in), readDoubles(in),
+                readInts(in), readInts(in), readDoubles(in), readDoubles(in), in.readDouble());
+    }
+
+    private static void writeInts(DataOutput out, int[] a) throws IOException {
+        out.writeInt(a.length);
+        for (int v : a)
+            out.writeInt(v);
+    }
+
+    private static void writeDoubles(DataOutput out, double[] a) throws IOException {
+        out.writeInt(a.length);
+        for (double v : a)
+            out.writeDouble(v);
+    }
+
+    private static int[] readInts(DataInput in) throws IOException {
+        int[] a = new int[in.readInt()];
+        for (int i = 0; i < a.length; i++)
+            a[i] = in.readInt();
+        return a;
+    }
+
+    private static double[] readDoubles(DataInput in) throws IOException {
+        double[] a = new double[in.readInt()];
+        for (int i = 0; i < a.length; i++)
+            a[i] = in.readDouble();
+        return a;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("EquiDepthHistogram(" + total + " tuples in [" + min + ", " + max + "]");
+        for (int i = 0; i < mcvValues.length; i++)
+            sb.append(i == 0 ? "; mcvs " : ", ").append(mcvValues[i]).append(": ").append(mcvCounts[i]);
+        for (int b = 0; b < lo.length; b++)
+            sb.append(b == 0 ? "; buckets " : ", ").append('[').append(lo[b]).append(", ").append(hi[b])
+                    .append("]: ").append(counts[b]);
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,268 @@
+package simpledb.optimizer;
+
+import java.util.*;
+
+/**
+ * Builds an {@link EquiDepthHistogram} in one pass over values whose range
+ * and distribution are not known in advance, in space proportional to the
+ * number of buckets.
+ * <p>
+ * Two structures follow the values as they are added:
+ * <ul>
+ * <li>a Space-Saving summary (Metwally et al., 2005) of twice as many
+ * counters as there are MCVs, which keeps every value more frequent than
+ * 1/counters of the tuples, with a count that is over by at most the bound it
+ * records;</li>
+ * <li>a uniform reservoir sample of the values, kept with Li's Algorithm L,
+ * from which the bucket boundaries and distinct values per bucket are
+ * taken, as the equi-depth boundaries of a sample of a few hundred values
+ * per bucket are close to those of the whole column.</li>
+ * </ul>
+ * When every value of the field fits into the reservoir, the histogram is
+ * exact but for the spreading of tuples within a bucket.
+ */
+class EquiDepthHistogramBuilder {
+
+    /** Sampled values per bucket. */
+    static final int SAMPLE_PER_BUCKET = 300;
+
+    private final int maxMcvs;
+
+    private final int[] sample;
+    private int sampled = 0;
+    private final Random random = new Random();
+    /** The state of Algorithm L: the next value to sample, and its weight. */
+    private long next;
+    private double w;
+
+    /** A min-heap of counters by count, with the position of each value. */
+    private final int[] values;
+    private final long[] counts;
+    private final long[] errors;
+    private int counters = 0;
+    private final Map<Integer, Integer> positions = new HashMap<>();
+    private boolean evicted = false;
+
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    private long n = 0;
+
+    /**
+     * @param buckets the number of buckets, which is also the most MCVs kept
+     */
+    EquiDepthHistogramBuilder(int buckets) {
+        this.maxMcvs = buckets;
+        this.sample = new int[buckets * SAMPLE_PER_BUCKET];
+        this.values = new int[2 * buckets];
+        this.counts = new long[2 * buckets];
+        this.errors = new long[2 * buckets];
+    }
+
+    void addValue(int v) {
+        n++;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+        count(v);
+        if (sampled < sample.length) {
+            sample[sampled++] = v;
+            if (sampled == sample.length) {
+                w = Math.exp(Math.log(uniform()) / sample.length);
+                next = n + skip() + 1;
+            }
+        } else if (n == next) {
+            sample[random.nextInt(sample.length)] = v;
+            w *= Math.exp(Math.log(uniform()) / sample.length);
+            next += skip() + 1;
+        }
+    }
+
+    /** @return the number of values Algorithm L skips before the next one it samples */
+    private long skip() {
+        return (long) Math.floor(Math.log(uniform()) / Math.log(1 - w));
+    }
+
+    private double uniform() {
+        double u;
+        do {
+            u = random.nextDouble();
+        } while (u == 0);
+        return u;
+    }
+
+    private void count(int v) {
+        Integer pos = positions.get(v);
+        if (pos != null) {
+            counts[pos]++;
+            siftDown(pos);
+        } else if (counters < values.length) {
+            values[counters] = v;
+            counts[counters] = 1;
+            errors[counters] = 0;
+            positions.put(v, counters);
+            siftUp(counters++);
+        } else {
+            // the least counted value makes room; the new value may have
+            // occurred as often as it
+            evicted = true;
+            positions.remove(values[0]);
+            values[0] = v;
+            errors[0] = counts[0];
+            counts[0]++;
+            positions.put(v, 0);
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0 && counts[(i - 1) / 2] > counts[i]) {
+            swap(i, (i - 1) / 2);
+            i = (i - 1) / 2;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int least = i;
+            for (int c = 2 * i + 1; c <= 2 * i + 2 && c < counters; c++) {
+                if (counts[c] < counts[least])
+                    least = c;
+            }
+            if (least == i)
+                return;
+            swap(i, least);
+            i = least;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int v = values[i];
+        values[i] = values[j];
+        values[j] = v;
+        long c = counts[i];
+        counts[i] = counts[j];
+        counts[j] = c;
+        long e = errors[i];
+        errors[i] = errors[j];
+        errors[j] = e;
+        positions.put(values[i], i);
+        positions.put(values[j], j);
+    }
+
+    /** @return the number of values added */
+    long count() {
+        return n;
+    }
+
+    /**
+     * @param buckets the number of buckets of the histogram
+     * @param ndv     the estimated number of distinct values of the field
+     * @param partial whether the values added are a sample of the field
+     * @return a histogram of the values added
+     */
+    EquiDepthHistogram build(int buckets, long ndv, boolean partial) {
+        if (n == 0)
+            return new EquiDepthHistogram(0, 0, 0, new int[0], new double[0], new int[0], new int[0],
+                    new double[0], new double[0], 0);
+
+        // the MCVs: every value if they all fit, and otherwise the values
+        // known to be more common than the average one
+        Integer[] order = new Integer[counters];
+        for (int i = 0; i < counters; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(counts[b] - errors[b], counts[a] - errors[a]));
+        boolean all = !evicted && counters <= maxMcvs;
+        double threshold = Math.max(2, 1.25 * n / Math.max(1, ndv));
+        TreeMap<Integer, Double> mcvs = new TreeMap<>();
+        for (int i = 0; i < counters && mcvs.size() < maxMcvs; i++) {
+            int c = order[i];
+            if (!all && counts[c] - errors[c] < threshold)
+                break;
+            // halfway between the guaranteed and the counted occurrences
+            mcvs.put(values[c], counts[c] - errors[c] / 2.0);
+        }
+        int[] mcvValues = new int[mcvs.size()];
+        double[] mcvCounts = new double[mcvs.size()];
+        double rest = n;
+        int m = 0;
+        for (Map.Entry<Integer, Double> e : mcvs.entrySet()) {
+            mcvValues[m] = e.getKey();
+            mcvCounts[m++] = e.getValue();
+            rest -= e.getValue();
+        }
+        rest = Math.max(0, rest);
+
+        // the buckets, over the sampled values that are not MCVs
+        int[] others = new int[sampled];
+        int k = 0;
+        for (int i = 0; i < sampled; i++) {
+            if (!mcvs.containsKey(sample[i]))
+                others[k++] = sample[i];
+        }
+        Arrays.sort(others, 0, k);
+        List<int[]> ranges = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        List<Integer> distincts = new ArrayList<>();
+        int perBucket = Math.max(1, (int) Math.ceil((double) k / buckets));
+        for (int start = 0; start < k; ) {
+            int end = Math.min(k, start + perBucket);
+            // a value does not span buckets
+            while (end < k && others[end] == others[end - 1])
+                end++;
+            addBucket(others, start, end, true, ranges, sizes, distincts);
+            start = end;
+        }
+
+        boolean complete = sampled == n && !partial;
+        int sampledDistinct = 0;
+        for (int d : distincts)
+            sampledDistinct += d;
+        // scale the distinct values seen in the sample up to the estimated
+        // number of distinct values that are not MCVs
+        double scale = complete || sampledDistinct == 0 ? 1.0
+                : Math.max(1.0, (double) (ndv - mcvValues.length) / sampledDistinct);
+        int[] lo = new int[ranges.size()];
+        int[] hi = new int[ranges.size()];
+        double[] bucketCounts = new double[ranges.size()];
+        double[] distinct = new double[ranges.size()];
+        for (int b = 0; b < ranges.size(); b++) {
+            lo[b] = ranges.get(b)[0];
+            hi[b] = ranges.get(b)[1];
+            bucketCounts[b] = rest * sizes.get(b) / k;
+            distinct[b] = Math.min(hi[b] - (double) lo[b] + 1, distincts.get(b) * scale);
+        }
+        double unseen = complete || sampledDistinct == 0 ? 0 : rest / (sampledDistinct * scale);
+        return new EquiDepthHistogram(min, max, n, mcvValues, mcvCounts, lo, hi, bucketCounts, distinct, unseen);
+    }
+
+    /**
+     * Adds a bucket for the sorted values in [start, end). If splittable, the
+     * bucket is split in two at its widest gap between adjacent values when
+     * that gap covers most of its range, so that an outlier does not stretch
+     * the range the tuples of the bucket are spread over.
+     */
+    private static void addBucket(int[] sorted, int start, int end, boolean splittable,
+                                  List<int[]> ranges, List<Integer> sizes, List<Integer> distincts) {
+        int distinct = 1;
+        int split = -1;
+        long widest = 0;
+        for (int i = start + 1; i < end; i++) {
+            if (sorted[i] == sorted[i - 1])
+                continue;
+            distinct++;
+            long gap = (long) sorted[i] - sorted[i - 1];
+            if (gap > widest) {
+                widest = gap;
+                split = i;
+            }
+        }
+        long span = (long) sorted[end - 1] - sorted[start];
+        if (splittable && widest > 1 && 2 * widest > span) {
+            addBucket(sorted, start, split, false, ranges, sizes, distincts);
+            addBucket(sorted, split, end, false, ranges, sizes, distincts);
+        } else {
+            ranges.add(new int[] { sorted[start], sorted[end - 1] });
+            sizes.add(end - start);
+            distincts.add(distinct);
+        }
+    }
+}
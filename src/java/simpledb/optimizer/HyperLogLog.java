@@ -0,0 +1,139 @@
+package simpledb.optimizer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A HyperLogLog sketch (Flajolet et al., 2007), which estimates the number of
+ * distinct values of a column in a fixed amount of space.
+ * <p>
+ * Each value is hashed to 64 bits. The first bits of the hash pick one of
+ * 2^precision registers, and the register keeps the longest run of leading
+ * zeros seen among the remaining bits. The harmonic mean of the registers
+ * estimates the number of distinct values with a standard error of about
+ * 1.04 / sqrt(2^precision): 1.6% at the default precision, in 4KB. Small
+ * counts, which leave registers empty, are estimated by linear counting
+ * instead.
+ */
+public class HyperLogLog {
+
+    /** The precision of a sketch that TableStats keeps per column. */
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision
+     *            the number of hash bits that pick a register, in [4, 16]
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16)
+            throw new IllegalArgumentException("precision must be in [4, 16]: " + precision);
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /** Add a value to the set of values whose distinct values are counted. */
+    public void addValue(int v) {
+        addHash(hash(v));
+    }
+
+    /** Add a value to the set of values whose distinct values are counted. */
+    public void addValue(String s) {
+        addHash(hash(s));
+    }
+
+    /** @return the 64-bit hash of a value that the sketch counts */
+    static long hash(int v) {
+        return mix(v);
+    }
+
+    /** @return the 64-bit hash of a value that the sketch counts */
+    static long hash(String s) {
+        // FNV-1a over the characters, then mixed like an integer
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private void addHash(long hash) {
+        int register = (int) (hash >>> (64 - precision));
+        // the sentinel bit caps the rank when the remaining bits are all zero
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[register])
+            registers[register] = rank;
+    }
+
+    /** The finalizer of MurmurHash3, which spreads every input bit over the hash. */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Adds the values counted by another sketch of the same precision to this
+     * one, as if they had been added to it.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision)
+            throw new IllegalArgumentException("cannot merge sketches of different precisions");
+        for (int i = 0; i < registers.length; i++)
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+    }
+
+    /** @return the estimated number of distinct values added */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int empty = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                empty++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && empty > 0)
+            estimate = m * Math.log((double) m / empty);
+        return Math.round(estimate);
+    }
+
+    /** Writes the sketch, to be read back by {@link #read}. */
+    void write(DataOutput out) throws IOException {
+        out.writeByte(precision);
+        out.write(registers);
+    }
+
+    /** @return a sketch written by {@link #write} */
+    static HyperLogLog read(DataInput in) throws IOException {
+        HyperLogLog sketch = new HyperLogLog(in.readByte());
+        in.readFully(sketch.registers);
+        return sketch;
+    }
+
+    /** @return the relative standard error of {@link #estimate()} */
+    public double relativeError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    /**
+     * @return A string describing this sketch, for debugging purposes
+     */
+    public String toString() {
+        return "HyperLogLog(precision=" + precision + ", estimate=" + estimate() + ")";
+    }
+}
@@ -2,6 +2,10 @@ package simpledb.optimizer;
 
 import simpledb.execution.Predicate;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /** A class to represent a fixed-width histogram over a single integer-based field.
  */
 public class IntHistogram {
@@ -58,6 +62,47 @@ public class IntHistogram {
         }
     }
 
+    /**
+     * Remove a value that was added to the histogram.
+     * @param v Value to remove from the histogram
+     */
+    public void removeValue(int v) {
+        if (v >= min && v <= max && buckets[getIndex(v)] > 0) {
+            buckets[getIndex(v)]--;
+            tuplesCount--;
+        }
+    }
+
+    /**
+     * @return the lowest value of the bucket of v, which the histogram counts
+     *         as v, or v if it is out of range
+     */
+    int representative(int v) {
+        if (v < min || v > max)
+            return v;
+        int r = (int) Math.ceil(min + getIndex(v) * width);
+        return getIndex(r) == getIndex(v) ? r : v;
+    }
+
+    /** Writes the histogram, to be read back by {@link #read}. */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(buckets.length);
+        out.writeInt(min);
+        out.writeInt(max);
+        for (int count : buckets)
+            out.writeInt(count);
+        out.writeInt(tuplesCount);
+    }
+
+    /** @return a histogram written by {@link #write} */
+    static IntHistogram read(DataInput in) throws IOException {
+        IntHistogram hist = new IntHistogram(in.readInt(), in.readInt(), in.readInt());
+        for (int i = 0; i < hist.buckets.length; i++)
+            hist.buckets[i] = in.readInt();
+        hist.tuplesCount = in.readInt();
+        return hist;
+    }
+
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
      * 
@@ -111,7 +156,16 @@ public class IntHistogram {
     public double avgSelectivity()
     {
         // some code goes here
-        return 1.0;
+        // the chance that two random tuples share a value, with the values
+        // of a bucket taken to be equally common
+        if (tuplesCount == 0)
+            return 0.0;
+        double sel = 0.0;
+        for (int count : buckets) {
+            double f = (double) count / tuplesCount;
+            sel += f * f / Math.max(1.0, width);
+        }
+        return sel;
     }
     
     /**
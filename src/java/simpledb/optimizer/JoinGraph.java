@@ -0,0 +1,220 @@
+package simpledb.optimizer;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+
+/**
+ * The graph of the relations of a query and the joins between them, which
+ * {@link JoinOptimizer#orderJoins} enumerates plans over.
+ * <p>
+ * The relations are the tables the joins name, by alias, and the subplan of
+ * each subquery join. They are numbered in breadth-first order from the first
+ * table of the first join, so that a set of relations is a bitmask with bit i
+ * set for relation i, and sets of relations can index flat arrays.
+ */
+class JoinGraph {
+
+    /** The most relations a bitmask holds. */
+    static final int MAX_RELATIONS = 63;
+
+    private final List<LogicalJoinNode> joins;
+    /** Per join, the join with its sides swapped, made once it is needed. */
+    private final LogicalJoinNode[] swapped;
+    /** Per join, and per join with its sides swapped, the join that probes
+     * the index of its t2 table, made once it is needed. */
+    private final LogicalJoinNode[][] indexed;
+    /** The alias of each relation; null for the subplan of a subquery join. */
+    private final String[] aliases;
+    /** For the subplan of a subquery join, the join. */
+    private final LogicalSubplanJoinNode[] subplans;
+    /** Per relation, the relations it shares a join with. */
+    private final long[] neighbors;
+    /** Per join, the relation on the t1 and on the t2 side. */
+    private final int[] side1;
+    private final int[] side2;
+    /** Per join, whether it is on a primary key of the t1 or of the t2 side. */
+    private final boolean[] key1;
+    private final boolean[] key2;
+
+    /**
+     * @param isPkey whether a field, by alias and pure name, is the primary
+     *               key of its table
+     * @throws IllegalArgumentException if the joins name more than
+     *                                  {@link #MAX_RELATIONS} relations
+     */
+    JoinGraph(List<LogicalJoinNode> joins, BiPredicate<String, String> isPkey) {
+        this.joins = joins;
+        this.swapped = new LogicalJoinNode[joins.size()];
+        this.indexed = new LogicalJoinNode[2][joins.size()];
+        // the endpoints of each join, as a key per relation: the alias of a
+        // table, or the index of the join of a subplan
+        List<Object> keys = new ArrayList<>();
+        Map<Object, List<Integer>> joinsOf = new HashMap<>();
+        for (int e = 0; e < joins.size(); e++) {
+            for (Object k : endpoints(e)) {
+                joinsOf.computeIfAbsent(k, x -> new ArrayList<>()).add(e);
+                if (joinsOf.get(k).size() == 1)
+                    keys.add(k);
+            }
+        }
+        if (keys.size() > MAX_RELATIONS)
+            throw new IllegalArgumentException("cannot join more than " + MAX_RELATIONS + " relations");
+
+        // breadth-first numbering, from each relation not yet numbered in
+        // case the graph is not connected
+        Map<Object, Integer> index = new HashMap<>();
+        List<Object> order = new ArrayList<>();
+        for (Object start : keys) {
+            if (index.containsKey(start))
+                continue;
+            index.put(start, order.size());
+            order.add(start);
+            for (int next = order.size() - 1; next < order.size(); next++) {
+                for (int e : joinsOf.get(order.get(next))) {
+                    for (Object k : endpoints(e)) {
+                        if (!index.containsKey(k)) {
+                            index.put(k, order.size());
+                            order.add(k);
+                        }
+                    }
+                }
+            }
+        }
+
+        int n = order.size();
+        aliases = new String[n];
+        subplans = new LogicalSubplanJoinNode[n];
+        for (int i = 0; i < n; i++) {
+            if (order.get(i) instanceof Integer)
+                subplans[i] = (LogicalSubplanJoinNode) joins.get((Integer) order.get(i));
+            else
+                aliases[i] = (String) order.get(i);
+        }
+        neighbors = new long[n];
+        side1 = new int[joins.size()];
+        side2 = new int[joins.size()];
+        key1 = new boolean[joins.size()];
+        key2 = new boolean[joins.size()];
+        for (int e = 0; e < joins.size(); e++) {
+            Object[] ends = endpoints(e);
+            side1[e] = index.get(ends[0]);
+            side2[e] = index.get(ends[1]);
+            neighbors[side1[e]] |= 1L << side2[e];
+            neighbors[side2[e]] |= 1L << side1[e];
+            LogicalJoinNode j = joins.get(e);
+            key1[e] = isPkey.test(j.t1Alias, j.f1PureName);
+            key2[e] = j.t2Alias != null && isPkey.test(j.t2Alias, j.f2PureName);
+        }
+    }
+
+    private Object[] endpoints(int e) {
+        LogicalJoinNode j = joins.get(e);
+        return new Object[] { j.t1Alias, j instanceof LogicalSubplanJoinNode ? (Object) e : j.t2Alias };
+    }
+
+    /** @return the number of relations */
+    int size() {
+        return aliases.length;
+    }
+
+    /** @return the set of all relations */
+    long all() {
+        return (1L << aliases.length) - 1;
+    }
+
+    /** @return the alias of relation i, or null if it is the subplan of a subquery join */
+    String alias(int i) {
+        return aliases[i];
+    }
+
+    /** @return the subquery join whose subplan relation i is, or null */
+    LogicalSubplanJoinNode subplan(int i) {
+        return subplans[i];
+    }
+
+    /**
+     * @return the set of the relations j joins, which may be a join of the
+     *         graph with its sides swapped
+     */
+    long relations(LogicalJoinNode j) {
+        long s = 0;
+        for (int i = 0; i < aliases.length; i++) {
+            if (subplans[i] != null ? j instanceof LogicalSubplanJoinNode
+                    && ((LogicalSubplanJoinNode) j).subPlan == subplans[i].subPlan
+                    : aliases[i].equals(j.t1Alias) || aliases[i].equals(j.t2Alias))
+                s |= 1L << i;
+        }
+        return s;
+    }
+
+    /** @return the relations outside of s that share a join with one in s */
+    long neighborhood(long s) {
+        long n = 0;
+        for (long rest = s; rest != 0; rest &= rest - 1)
+            n |= neighbors[Long.numberOfTrailingZeros(rest)];
+        return n & ~s;
+    }
+
+    /** @return join e */
+    LogicalJoinNode join(int e) {
+        return joins.get(e);
+    }
+
+    /** @return join e with its inner and outer sides swapped */
+    LogicalJoinNode swapped(int e) {
+        if (swapped[e] == null)
+            swapped[e] = joins.get(e).swapInnerOuter();
+        return swapped[e];
+    }
+
+    /**
+     * @return join e, or join e with its sides swapped, that probes the index
+     *         of its t2 table
+     */
+    LogicalJoinNode withIndex(int e, boolean swap) {
+        int side = swap ? 1 : 0;
+        if (indexed[side][e] == null)
+            indexed[side][e] = (swap ? swapped(e) : joins.get(e)).withIndex();
+        return indexed[side][e];
+    }
+
+    /** @return the relation on the t1 side of join e */
+    int side1(int e) {
+        return side1[e];
+    }
+
+    /** @return the relation on the t2 side of join e */
+    int side2(int e) {
+        return side2[e];
+    }
+
+    /** @return the joins with one side in s1 and the other in s2 */
+    List<Integer> joinsBetween(long s1, long s2) {
+        List<Integer> between = new ArrayList<>();
+        for (int e = 0; e < side1.length; e++) {
+            long a = 1L << side1[e], b = 1L << side2[e];
+            if (((a & s1) != 0 && (b & s2) != 0) || ((a & s2) != 0 && (b & s1) != 0))
+                between.add(e);
+        }
+        return between;
+    }
+
+    /** @return whether join e is on a primary key of its t1 side */
+    boolean isKey1(int e) {
+        return key1[e];
+    }
+
+    /** @return whether join e is on a primary key of its t2 side */
+    boolean isKey2(int e) {
+        return key2[e];
+    }
+
+    /** @return whether one of the joins among the relations of s is on a primary key */
+    boolean joinsOnKey(long s) {
+        for (int e = 0; e < side1.length; e++) {
+            if ((key1[e] || key2[e]) && (s & (1L << side1[e])) != 0 && (s & (1L << side2[e])) != 0)
+                return true;
+        }
+        return false;
+    }
+}
@@ -3,6 +3,10 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -18,6 +22,8 @@ import javax.swing.tree.*;
 public class JoinOptimizer {
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
+    /** The pairs of sets of relations the last {@link #orderJoins} costed a join of. */
+    private long pairsCosted;
 
     /**
      * Constructor
@@ -49,6 +55,21 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, null);
+    }
+
+    /**
+     * Like {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator)},
+     * but the join returns only the fields whose names are in outputNames, so
+     * that fields no operator above it needs are not copied into the joined
+     * tuples.
+     *
+     * @param outputNames
+     *            the names of the fields the join must return, or null to
+     *            return all fields of both children
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj, OpIterator plan1, OpIterator plan2,
+                                             Set<String> outputNames) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         OpIterator j;
@@ -73,26 +94,81 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
-
-            try {
-                // dynamically load HashEquiJoin -- if it doesn't exist, just
-                // fall back on regular join
-                Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
-                j = (OpIterator) ct
-                        .newInstance(new Object[] { p, plan1, plan2 });
-            } catch (Exception e) {
-                j = new Join(p, plan1, plan2);
-            }
+        if (lj instanceof LogicalSubplanJoinNode
+                && ((LogicalSubplanJoinNode) lj).getKind() != LogicalSubplanJoinNode.Kind.JOIN) {
+            // returns outer tuples as they are, so there is nothing to narrow
+            HashSemiJoin sj = new HashSemiJoin(p, plan1, plan2,
+                    ((LogicalSubplanJoinNode) lj).getKind() == LogicalSubplanJoinNode.Kind.ANTI);
+            sj.pushRuntimeFilter();
+            j = sj;
+        } else if (lj.useIndex && lj.p == Predicate.Op.EQUALS && plan2 instanceof SeqScan
+                && isIndexedScan(plan2, ((SeqScan) plan2).tableColumn(t2id))) {
+            // probe the inner B+ tree once per outer tuple instead of
+            // hashing the outer relation, as orderJoins chose from the cost;
+            // the index returns whole tuples, so a scan that only returned
+            // some columns is narrowed by the join instead
+            SeqScan ss = (SeqScan) plan2;
+            if (outputNames == null && ss.getColumns() != null)
+                outputNames = fieldNames(plan1.getTupleDesc(), plan2.getTupleDesc());
+            BTreeScan index = new BTreeScan(ss.getTransactionId(), ss.getTableId(), ss.getAlias(), null);
+            j = new IndexNestedLoopJoin(new JoinPredicate(t1id, lj.p, ss.tableColumn(t2id)), plan1, index,
+                    outputFields(plan1.getTupleDesc(), index.getTupleDesc(), outputNames));
+        } else if (lj.p == Predicate.Op.EQUALS) {
+            HashEquiJoin hj = new HashEquiJoin(p, plan1, plan2,
+                    outputFields(plan1.getTupleDesc(), plan2.getTupleDesc(), outputNames));
+            hj.pushRuntimeFilter();
+            j = hj;
         } else {
-            j = new Join(p, plan1, plan2);
+            j = new Join(p, plan1, plan2, Join.DEFAULT_BLOCK_PAGES,
+                    outputFields(plan1.getTupleDesc(), plan2.getTupleDesc(), outputNames));
         }
 
         return j;
 
     }
 
+    private static Set<String> fieldNames(TupleDesc td1, TupleDesc td2) {
+        Set<String> names = new HashSet<>();
+        for (TupleDesc td : new TupleDesc[]{td1, td2}) {
+            for (int i = 0; i < td.numFields(); i++)
+                names.add(td.getFieldName(i));
+        }
+        return names;
+    }
+
+    /**
+     * @return the indexes of the fields of td1 and td2, concatenated, whose
+     *         names are in names, or null if that is all of them or none
+     */
+    private static int[] outputFields(TupleDesc td1, TupleDesc td2, Set<String> names) {
+        if (names == null)
+            return null;
+        TupleDesc merged = TupleDesc.merge(td1, td2);
+        int[] fields = new int[merged.numFields()];
+        int n = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (names.contains(merged.getFieldName(i)))
+                fields[n++] = i;
+        }
+        if (n == 0 || n == fields.length)
+            return null;
+        return Arrays.copyOf(fields, n);
+    }
+
+    /**
+     * Return true if plan is an unfiltered scan of a B+ tree whose key is the
+     * field with index field, so that an equi-join on field can probe the
+     * index instead of scanning it.
+     */
+    private static boolean isIndexedScan(OpIterator plan, int field) {
+        if (field == SeqScan.ROWID)
+            return false;
+        if (!(plan instanceof SeqScan))
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) plan).getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -121,17 +197,120 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true);
+    }
+
+    /**
+     * Like {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)},
+     * but the inner relation may be a join of several relations, which no
+     * index can be probed for.
+     *
+     * @param innerIsTable
+     *            whether the inner relation is the table t2 of j
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean innerIsTable) {
         if (j instanceof LogicalSubplanJoinNode) {
-            // A LogicalSubplanJoinNode represents a subquery.
-            // You do not need to implement proper support for these for Lab 3.
+            // A LogicalSubplanJoinNode represents a subquery; card2 and cost2
+            // are the estimates of its plan, see estimateSubplan.
+            if (((LogicalSubplanJoinNode) j).getKind() != LogicalSubplanJoinNode.Kind.JOIN) {
+                // the subquery is run once into a hash set of its keys, and
+                // each outer tuple is looked up once
+                return cost1 + cost2 + card2 + card1;
+            }
             return card1 + cost1 + cost2;
         } else {
             // Insert your code here.
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-            return cost1 + card1 * cost2 + card1 * card2;
+            if (j.p != Predicate.Op.EQUALS) {
+                // block nested-loop join: the inner relation is scanned once
+                // per block of buffered outer tuples
+                double blocks = Math.ceil((double) card1 / outerBlockSize(j));
+                return cost1 + blocks * cost2 + (double) card1 * card2;
+            }
+            return Math.min(estimateHashJoinCost(card1, card2, cost1, cost2), innerIsTable
+                    ? estimateIndexJoinCost(j, card1, card2, cost1, cost2) : Double.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Estimate the cost of a {@link HashEquiJoin}, which loads up to
+     * {@link HashEquiJoin#MAP_SIZE} outer tuples at a time into a hash table
+     * and scans the inner relation once per load, looking up each of its
+     * tuples.
+     */
+    private static double estimateHashJoinCost(int card1, int card2, double cost1, double cost2) {
+        double loads = Math.max(1, Math.ceil((double) card1 / HashEquiJoin.MAP_SIZE));
+        return cost1 + loads * cost2 + card1 + loads * card2;
+    }
+
+    /**
+     * Estimate the cost of an index nested-loop join, which descends a B+ tree
+     * on the inner join field once per outer tuple and reads the matching
+     * tuples.
+     *
+     * @return the estimated cost, or Double.MAX_VALUE if the inner table of j
+     *         is not a B+ tree keyed on the inner join field, or is filtered,
+     *         so that the join cannot probe it
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1,
+            int card2, double cost1, double cost2) {
+        Integer tableId = j.t2Alias == null ? null : p.getTableId(j.t2Alias);
+        if (tableId == null || p.isFiltered(j.t2Alias))
+            return Double.MAX_VALUE;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile))
+            return Double.MAX_VALUE;
+        TupleDesc td = f.getTupleDesc();
+        int field;
+        try {
+            field = td.fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return Double.MAX_VALUE;
+        }
+        if (((BTreeFile) f).keyField() != field)
+            return Double.MAX_VALUE;
+
+        int pages = Math.max(1, ((BTreeFile) f).numPages());
+        double ioCostPerPage = cost2 / pages;
+        int height = indexHeight((BTreeFile) f);
+
+        double matches;
+        if (isPkey(j.t2Alias, j.f2PureName)) {
+            matches = 1;
+        } else {
+            TableStats s = TableStats.getTableStats(
+                    Database.getCatalog().getTableName(tableId));
+            long ndv = s == null ? 1 : Math.max(1, s.estimateDistinctValues(field));
+            matches = Math.max(1, (double) card2 / ndv);
         }
+        return cost1 + card1 * (height * ioCostPerPage + matches);
+    }
+
+    /**
+     * @return the estimated number of pages a search of a B+ tree reads on
+     *         its way from the root to the first matching leaf
+     */
+    static int indexHeight(BTreeFile f) {
+        int pages = Math.max(1, f.numPages());
+        int fanout = Math.max(2, BufferPool.getPageSize()
+                / (f.getTupleDesc().getFieldType(f.keyField()).getLen() + 4));
+        return 1 + (int) Math.ceil(Math.log(pages) / Math.log(fanout));
+    }
+
+    /**
+     * Estimate the number of outer tuples {@link Join} buffers per pass over
+     * the inner relation of the specified join. The outer relation's width is
+     * approximated by the base table of its join field.
+     */
+    private int outerBlockSize(LogicalJoinNode j) {
+        Integer tableId = j.t1Alias == null ? null : p.getTableId(j.t1Alias);
+        if (tableId == null)
+            return Join.DEFAULT_BLOCK_PAGES;
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        return Join.DEFAULT_BLOCK_PAGES * Join.tuplesPerPage(td);
     }
 
     /**
@@ -157,8 +336,13 @@ public class JoinOptimizer {
             boolean t1pkey, boolean t2pkey, Map<String, TableStats> stats) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
-            // You do not need to implement proper support for these for Lab 3.
-            return card1;
+            LogicalSubplanJoinNode sj = (LogicalSubplanJoinNode) j;
+            if (sj.getKind() == LogicalSubplanJoinNode.Kind.JOIN)
+                return card1;
+            double matched = semiJoinSelectivity(sj, card2, stats);
+            if (sj.getKind() == LogicalSubplanJoinNode.Kind.ANTI)
+                matched = 1 - matched;
+            return Math.max(1, (int) Math.round(card1 * matched));
         } else {
             return estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias,
                     j.f1PureName, j.f2PureName, card1, card2, t1pkey, t2pkey,
@@ -166,8 +350,82 @@ public class JoinOptimizer {
         }
     }
 
+    /**
+     * Estimate the fraction of the outer tuples of a semi-join that have a
+     * match among the card2 keys the subquery returns, assuming that each key
+     * is one of the distinct values of the outer join field.
+     */
+    private double semiJoinSelectivity(LogicalSubplanJoinNode j, int card2,
+            Map<String, TableStats> stats) {
+        Integer tableId = p.getTableId(j.t1Alias);
+        if (tableId == null)
+            return 1.0;
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return 1.0;
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(j.f1PureName);
+        } catch (NoSuchElementException e) {
+            return 1.0;
+        }
+        return Math.min(1.0, (double) card2 / Math.max(1, s.estimateDistinctValues(field)));
+    }
+
+    /**
+     * Estimate the cardinality and the cost of running the plan of a
+     * subquery once: the cost of scanning each of its tables, and the
+     * cardinality {@link OperatorCardinality} computes for its root.
+     *
+     * @param stats
+     *            the stats of the outer query, which need not cover the
+     *            subquery's tables; those are looked up in
+     *            {@link TableStats#getStatsMap}, as when the subquery was
+     *            planned
+     */
+    static CostCard estimateSubplan(OpIterator plan, Map<String, TableStats> stats) {
+        Map<String, TableStats> all = new HashMap<>(TableStats.getStatsMap());
+        all.putAll(stats);
+        stats = all;
+        CostCard cc = new CostCard();
+        Map<String, Integer> aliases = new HashMap<>();
+        List<OpIterator> todo = new ArrayList<>();
+        todo.add(plan);
+        while (!todo.isEmpty()) {
+            OpIterator op = todo.remove(todo.size() - 1);
+            if (op instanceof SeqScan) {
+                SeqScan scan = (SeqScan) op;
+                aliases.put(scan.getAlias(), scan.getTableId());
+                TableStats s = stats.get(scan.getTableName());
+                if (s != null)
+                    cc.cost += s.estimateScanCost();
+            } else if (op instanceof Operator) {
+                for (OpIterator c : ((Operator) op).getChildren()) {
+                    if (c != null)
+                        todo.add(c);
+                }
+            }
+        }
+        if (plan instanceof Operator) {
+            OperatorCardinality.updateOperatorCardinality((Operator) plan, aliases, stats);
+            cc.card = ((Operator) plan).getEstimatedCardinality();
+        } else if (plan instanceof SeqScan && stats.get(((SeqScan) plan).getTableName()) != null) {
+            cc.card = stats.get(((SeqScan) plan).getTableName()).estimateTableCardinality(1.0);
+        }
+        return cc;
+    }
+
     /**
      * Estimate the join cardinality of two tables.
+     * <p>
+     * An equi-join matches each of the distinct values of the side with the
+     * fewer of them to card / ndv tuples of the other side, which gives
+     * card1 * card2 / max(ndv1, ndv2). The number of distinct values of a
+     * join field comes from the {@link HyperLogLog} sketch of its base table,
+     * capped by the cardinality of its side; a primary key has as many
+     * distinct values as tuples. Without stats for a field, the join is
+     * assumed to be on a key of one of the sides. A not-equals join produces
+     * the rest of the cross product.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
                                                    String table1Alias, String table2Alias, String field1PureName,
@@ -176,76 +434,69 @@ public class JoinOptimizer {
                                                    Map<String, Integer> tableAliasToId) {
         int card = 1;
         // some code goes here
-        if(joinOp == Predicate.Op.EQUALS) {
-            if(t1pkey && !t2pkey) {
-                card = card2;
-            }
-            else if (!t1pkey && t2pkey) {
-                card = card1;
-            }else if(t1pkey && t2pkey) {
-                card = Math.min(card1,card2);
-
-            }else {
-                card = Math.max(card1,card2);
+        if (joinOp == Predicate.Op.EQUALS || joinOp == Predicate.Op.NOT_EQUALS) {
+            long ndv1 = t1pkey ? card1 : distinctValues(table1Alias, field1PureName, card1, stats, tableAliasToId);
+            long ndv2 = t2pkey ? card2 : distinctValues(table2Alias, field2PureName, card2, stats, tableAliasToId);
+            double equal;
+            if (ndv1 > 0 && ndv2 > 0) {
+                equal = (double) card1 * card2 / Math.max(ndv1, ndv2);
+            } else if (t1pkey && !t2pkey) {
+                equal = card2;
+            } else if (!t1pkey && t2pkey) {
+                equal = card1;
+            } else if (t1pkey && t2pkey) {
+                equal = Math.min(card1, card2);
+            } else {
+                equal = Math.max(card1, card2);
             }
-        }else {
-            card = (int)(card1 * card2 * 0.3);
+            card = (int) Math.min(Integer.MAX_VALUE, joinOp == Predicate.Op.EQUALS
+                    ? equal : (double) card1 * card2 - equal);
+        } else {
+            card = (int) Math.min(Integer.MAX_VALUE, card1 * (double) card2 * 0.3);
         }
         return card <= 0 ? 1 : card;
     }
 
     /**
-     * Helper method to enumerate all of the subsets of a given size of a
-     * specified vector.
-     * 
-     * @param v
-     *            The vector whose subsets are desired
-     * @param size
-     *            The size of the subsets of interest
-     * @return a set of all subsets of the specified size
+     * @return the estimated number of distinct values of a join field among
+     *         card tuples of its side, or -1 if there are no stats for it
      */
-    private <T> void dfs(List<T> list, int cur, int size,Deque<T> subset, Set<Set<T>> subsets){
-        if(subset.size() == size){
-            subsets.add(new HashSet<>(subset));
-            //return;
-        }
-        for(int i=cur; i<list.size(); i++){
-            subset.addLast(list.get(i));
-            dfs(list,i+1,size,subset,subsets);
-            subset.removeLast();
+    private static long distinctValues(String alias, String field, int card,
+            Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        Integer tableId = alias == null ? null : tableAliasToId.get(alias);
+        if (tableId == null)
+            return -1;
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return -1;
+        int index;
+        try {
+            index = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            return -1;
         }
-    }
-
-    public <T> Set<Set<T>> enumerateSubsets(List<T> v, int size) {
-//        Set<Set<T>> els = new HashSet<>();
-//        els.add(new HashSet<>());
-//        // Iterator<Set> it;
-//        // long start = System.currentTimeMillis();
-//
-//        for (int i = 0; i < size; i++) {
-//            Set<Set<T>> newels = new HashSet<>();
-//            for (Set<T> s : els) {
-//                for (T t : v) {
-//                    Set<T> news = new HashSet<>(s);
-//                    if (news.add(t))
-//                        newels.add(news);
-//                }
-//            }
-//            els = newels;
-//        }
-//
-//        return els;
-        Set<Set<T>> subsets = new HashSet<>();
-        Deque<T> subset = new ArrayDeque<>();
-        dfs(v,0,size,subset,subsets);
-        return subsets;
-
-
+        long ndv = s.estimateDistinctValues(index);
+        return ndv <= 0 ? -1 : Math.min(ndv, Math.max(1, card));
     }
 
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
+     * <p>
+     * The best plan of each connected set of relations is found by dynamic
+     * programming over the pairs of disjoint, connected sets that are joined
+     * by at least one join (DPccp, Moerkotte and Neumann, 2006), so that
+     * cross products are never considered. The relations are the tables the
+     * joins name and the subplans of subquery joins; sets of them are
+     * bitmasks that index the flat arrays of a {@link PlanCache}. Plans are
+     * left-deep, joining a set of relations with one more relation at a time,
+     * unless {@link #setBushyPlans} allows bushy plans, in which both sides of
+     * a join may be joins of several relations, such as two pairs of the
+     * dimension tables of a star schema.
+     * <p>
+     * The number of connected sets grows exponentially with the relations, so
+     * joins of more relations than the threshold set by
+     * {@link #setExhaustiveThreshold} are ordered greedily instead.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -257,8 +508,10 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A List<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A List<LogicalJoinNode> that stores joins in the order in
+     *         which they should be executed: the joins of both sides of a
+     *         join come before it, and the side holding its t1 table is its
+     *         outer relation.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -270,41 +523,258 @@ public class JoinOptimizer {
 
         // some code goes here
         //Replace the following
-        PlanCache planCache = new PlanCache();
-        CostCard bestCostCard = new CostCard();
-        int size = joins.size();
-        for (int i = 1; i <= size; i++) {
-            Set<Set<LogicalJoinNode>> sets = enumerateSubsets(joins, i);
-            for (Set<LogicalJoinNode> set:sets) {
-                double bestCostSoFar = Double.MAX_VALUE;
-                bestCostCard = new CostCard();
-                for (LogicalJoinNode removedJoinNode:set) {
-                    CostCard costCard = computeCostAndCardOfSubplan(stats, filterSelectivities, removedJoinNode, set, bestCostSoFar, planCache);
-                    if(costCard !=null) {
-                        bestCostCard = costCard;
-                        bestCostSoFar = costCard.cost;
-                    }
+        pairsCosted = 0;
+        if (joins.isEmpty())
+            return joins;
+        JoinGraph g;
+        try {
+            g = new JoinGraph(joins, this::isPkey);
+        } catch (IllegalArgumentException e) {
+            throw new ParsingException(e.getMessage());
+        }
+        CostCard[] base = new CostCard[g.size()];
+        for (int i = 0; i < g.size(); i++)
+            base[i] = scanCostCard(g, i, stats, filterSelectivities);
 
+        PlanCache planCache;
+        if (g.size() > exhaustiveThreshold) {
+            planCache = orderGreedily(g, base, stats, filterSelectivities);
+        } else {
+            planCache = basePlans(g, base, false);
+            new Enumerator(g, planCache, stats, filterSelectivities).run();
+        }
+
+        List<LogicalJoinNode> best = planCache == null ? null : planCache.getOrder(g.all());
+        if (best == null)
+            throw new ParsingException("Query does not include join expressions joining all nodes!");
+        if(explain){
+            printJoins(best,g,planCache,stats,filterSelectivities);
+        }
+        return best;
+    }
+
+    /** The most relations {@link #orderJoins} plans a join of exhaustively. */
+    static final int MAX_DP_RELATIONS = 20;
+
+    private static volatile int exhaustiveThreshold = 12;
+
+    /**
+     * Sets the most relations {@link #orderJoins} plans a join of by dynamic
+     * programming; joins of more relations are ordered greedily.
+     *
+     * @throws IllegalArgumentException if relations is not between 1 and
+     *                                  {@link #MAX_DP_RELATIONS}
+     */
+    public static void setExhaustiveThreshold(int relations) {
+        if (relations < 1 || relations > MAX_DP_RELATIONS)
+            throw new IllegalArgumentException("exhaustive threshold must be in [1, " + MAX_DP_RELATIONS + "]: "
+                    + relations);
+        exhaustiveThreshold = relations;
+    }
+
+    private static volatile boolean bushyPlans = false;
+
+    /**
+     * Sets whether {@link #orderJoins} considers bushy plans, which join the
+     * results of two joins, as well as left-deep ones.
+     */
+    public static void setBushyPlans(boolean enabled) {
+        bushyPlans = enabled;
+    }
+
+    /**
+     * @return the number of pairs of sets of relations that the last call of
+     *         {@link #orderJoins} costed a join of, which measures its work
+     *         independently of the speed of the machine
+     */
+    public long getPairsCosted() {
+        return pairsCosted;
+    }
+
+    /**
+     * @param sparse whether the cache keeps its plans in a map, see
+     *               {@link PlanCache#PlanCache(int, boolean)}
+     * @return a PlanCache holding the plan of each single relation
+     */
+    private static PlanCache basePlans(JoinGraph g, CostCard[] base, boolean sparse) {
+        PlanCache pc = new PlanCache(g.size(), sparse);
+        for (int i = 0; i < g.size(); i++)
+            pc.addPlan(1L << i, base[i].cost, base[i].card, new ArrayList<>());
+        return pc;
+    }
+
+    /**
+     * Orders joins greedily, in O(n^3) join cost estimates for n relations:
+     * starting from each table in turn, a plan grows by whichever relation
+     * next to it is the cheapest to join, until it holds all of them. The
+     * cheapest of these plans wins. The plans share one cache, which holds
+     * the cheapest plan found for each set they grew through, so that it
+     * holds O(n^2) plans rather than one per set of relations.
+     *
+     * @return the PlanCache holding the cheapest plan, which has no plan of
+     *         all relations if they are not connected
+     */
+    private PlanCache orderGreedily(JoinGraph g, CostCard[] base, Map<String, TableStats> stats,
+                                    Map<String, Double> filterSelectivities) throws ParsingException {
+        PlanCache pc = basePlans(g, base, true);
+        for (int start = 0; start < g.size(); start++) {
+            // a subplan is only ever joined as the inner relation
+            if (g.subplan(start) != null)
+                continue;
+            double bestCost = pc.getCost(g.all());
+            long s = 1L << start;
+            while (s != g.all()) {
+                CostCard next = null;
+                int r = -1;
+                for (long rest = g.neighborhood(s); rest != 0; rest &= rest - 1) {
+                    int i = Long.numberOfTrailingZeros(rest);
+                    CostCard cc = computeCostAndCardOfSubplan(stats, filterSelectivities, g, s, 1L << i,
+                            next == null ? bestCost : next.cost, pc);
+                    if (cc != null) {
+                        next = cc;
+                        r = i;
+                    }
                 }
-                if(bestCostSoFar != Double.MAX_VALUE){
-                    planCache.addPlan(set,bestCostCard.cost,bestCostCard.card, bestCostCard.plan);
-                }
+                // no relation left to join, or none that is cheaper than the
+                // best plan so far
+                if (next == null)
+                    break;
+                s |= 1L << r;
+                // a plan grown from another start may have reached s more
+                // cheaply; this plan then grows on from that one
+                if (next.cost < pc.getCost(s))
+                    pc.addPlan(s, next.cost, next.card, next.plan);
+            }
+        }
+        return pc;
+    }
+
+    /**
+     * Enumerates the pairs of a connected set of relations and a connected
+     * complement of it that a join connects (csg-cmp pairs), in an order in
+     * which the best plans of both sets of a pair are known when it comes up:
+     * EnumerateCsg and EnumerateCmp of the DPccp algorithm. Each pair is
+     * planned by {@link #computeCostAndCardOfSubplan}.
+     */
+    private class Enumerator {
+        private final JoinGraph g;
+        private final PlanCache pc;
+        private final Map<String, TableStats> stats;
+        private final Map<String, Double> filterSelectivities;
+        private final boolean bushy = bushyPlans;
+
+        Enumerator(JoinGraph g, PlanCache pc, Map<String, TableStats> stats,
+                   Map<String, Double> filterSelectivities) {
+            this.g = g;
+            this.pc = pc;
+            this.stats = stats;
+            this.filterSelectivities = filterSelectivities;
+        }
 
+        /**
+         * Enumerates the connected sets by their lowest relation, from the
+         * last relation to the first, and each with its complements.
+         */
+        void run() throws ParsingException {
+            for (int i = g.size() - 1; i >= 0; i--) {
+                long start = 1L << i;
+                enumerateCmp(start);
+                enumerateCsg(start, upTo(i));
             }
         }
-        if(explain){
-            printJoins(bestCostCard.plan,planCache,stats,filterSelectivities);
+
+        /**
+         * Enumerates the connected sets that grow s by relations neither in
+         * excluded nor in s; a set grown by a subset of a neighborhood comes
+         * before the sets grown by a superset of it.
+         */
+        private void enumerateCsg(long s, long excluded) throws ParsingException {
+            long neighbors = g.neighborhood(s) & ~excluded;
+            if (neighbors == 0)
+                return;
+            for (long sub = -neighbors & neighbors; sub != 0; sub = (sub - neighbors) & neighbors)
+                enumerateCmp(s | sub);
+            for (long sub = -neighbors & neighbors; sub != 0; sub = (sub - neighbors) & neighbors)
+                enumerateCsg(s | sub, excluded | neighbors);
         }
-        return bestCostCard.plan;
+
+        /**
+         * Enumerates the connected complements of s1 that only hold relations
+         * after its lowest one, so that each pair comes up once.
+         */
+        private void enumerateCmp(long s1) throws ParsingException {
+            long excluded = upTo(Long.numberOfTrailingZeros(s1)) | s1;
+            long neighbors = g.neighborhood(s1) & ~excluded;
+            for (long rest = neighbors; rest != 0; ) {
+                int i = 63 - Long.numberOfLeadingZeros(rest);
+                rest &= ~(1L << i);
+                pair(s1, 1L << i);
+                // left-deep plans join a larger set only with a single relation
+                if (bushy || Long.bitCount(s1) == 1)
+                    enumerateCmpRec(s1, 1L << i, excluded | (upTo(i) & neighbors));
+            }
+        }
+
+        private void enumerateCmpRec(long s1, long s2, long excluded) throws ParsingException {
+            long neighbors = g.neighborhood(s2) & ~excluded;
+            if (neighbors == 0)
+                return;
+            for (long sub = -neighbors & neighbors; sub != 0; sub = (sub - neighbors) & neighbors)
+                pair(s1, s2 | sub);
+            for (long sub = -neighbors & neighbors; sub != 0; sub = (sub - neighbors) & neighbors)
+                enumerateCmpRec(s1, s2 | sub, excluded | neighbors);
+        }
+
+        /** Plans the join of a pair, if one of its sides is a single relation or plans may be bushy. */
+        private void pair(long s1, long s2) throws ParsingException {
+            if (!bushy && Long.bitCount(s1) > 1 && Long.bitCount(s2) > 1)
+                return;
+            assert pc.getOrder(s1) != null && pc.getOrder(s2) != null : "no plan for a side yet";
+            long s = s1 | s2;
+            CostCard cc = computeCostAndCardOfSubplan(stats, filterSelectivities, g,
+                    s1, s2, pc.getCost(s), pc);
+            if (cc != null)
+                pc.addPlan(s, cc.cost, cc.card, cc.plan);
+        }
+    }
+
+    /** @return the set of relations 0 to i */
+    private static long upTo(int i) {
+        return i >= 63 ? -1L : (1L << (i + 1)) - 1;
+    }
+
+    /**
+     * @return the cost and cardinality of scanning relation i, or of running
+     *         the subplan it is
+     */
+    private CostCard scanCostCard(JoinGraph g, int i, Map<String, TableStats> stats,
+                                  Map<String, Double> filterSelectivities) throws ParsingException {
+        if (g.subplan(i) != null)
+            return estimateSubplan(g.subplan(i).subPlan, stats);
+        String alias = g.alias(i);
+        if (this.p.getTableId(alias) == null)
+            throw new ParsingException("Unknown table " + alias);
+        String tableName = Database.getCatalog().getTableName(this.p.getTableId(alias));
+        CostCard cc = new CostCard();
+        cc.cost = stats.get(tableName).estimateScanCost();
+        cc.card = stats.get(tableName).estimateTableCardinality(filterSelectivities.get(alias));
+        return cc;
     }
 
     // ===================== Private Methods =================================
 
     /**
      * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
+     * the set of relations left with the set of relations right, given that
+     * the best plans of left and of right are stored in PlanCache pc. Either
+     * may be a single relation or a join of several, so that plans may be
+     * bushy.
+     * <p>
+     * One of the joins between left and right is performed, with the cheaper
+     * of its two sides as the outer relation; each is tried. The other joins
+     * between them follow it in the plan, and only filter its result. The
+     * cardinality of a set of relations does not depend on the order of its
+     * joins, so it is estimated once, when the set is first planned.
      * 
      * @param stats
      *            table stats for all of the tables, referenced by table names
@@ -313,152 +783,116 @@ public class JoinOptimizer {
      *            the selectivities of the filters over each of the tables
      *            (where tables are indentified by their alias or name if no
      *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
+     * @param g
+     *            the relations and joins being ordered
+     * @param left
+     *            a set of relations, whose joins come first in the plan
+     * @param right
+     *            the set of relations to join with left, disjoint from it and
+     *            sharing a join with it
      * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
+     *            the cost of the best plan for the union of left and right so
+     *            far, or Double.MAX_VALUE if there is none
      * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
+     *            the PlanCache for this join; should have plans for left and
+     *            right
      * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     *         optimal subplan, or null if no join of left and right is
+     *         cheaper than bestCostSoFar
      */
-    @SuppressWarnings("unchecked")
     private CostCard computeCostAndCardOfSubplan(
             Map<String, TableStats> stats,
             Map<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
+            JoinGraph g, long left, long right,
             double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        List<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = new HashSet<>(joinSet);
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new ArrayList<>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias != null && isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
-
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+        pairsCosted++;
+
+        List<Integer> between = g.joinsBetween(left, right);
+        CostCard best = null;
+        for (int e : between) {
+            LogicalJoinNode j = g.join(e);
+            // the sides of j, as sets of relations
+            long s1 = (left & (1L << g.side1(e))) != 0 ? left : right;
+            long s2 = s1 == left ? right : left;
+
+            double t1cost = pc.getCost(s1), t2cost = pc.getCost(s2);
+            int t1card = pc.getCard(s1), t2card = pc.getCard(s2);
+            boolean leftPkey = Long.bitCount(s1) == 1 ? g.isKey1(e) : g.joinsOnKey(s1);
+            boolean rightPkey = Long.bitCount(s2) == 1 ? g.isKey2(e) : g.joinsOnKey(s2);
+
+            // case where s1 is the outer relation
+            double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, Long.bitCount(s2) == 1);
+
+            // a subquery is always the inner side of its join
+            LogicalJoinNode j2 = g.swapped(e);
+            double cost2 = j instanceof LogicalSubplanJoinNode ? Double.MAX_VALUE
+                    : estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, Long.bitCount(s1) == 1);
+            boolean swapped = cost2 < cost1;
+            if (swapped) {
+                j = j2;
+                cost1 = cost2;
+            }
+            if (cost1 >= bestCostSoFar)
+                continue;
+
+            // the join probes the index of its inner table if that is what
+            // it was costed as, and hashes its outer relation otherwise
+            if (j.p == Predicate.Op.EQUALS && !(j instanceof LogicalSubplanJoinNode)
+                    && Long.bitCount(swapped ? s1 : s2) == 1) {
+                int outerCard = swapped ? t2card : t1card, innerCard = swapped ? t1card : t2card;
+                double outerCost = swapped ? t2cost : t1cost, innerCost = swapped ? t1cost : t2cost;
+                if (estimateIndexJoinCost(j, outerCard, innerCard, outerCost, innerCost)
+                        < estimateHashJoinCost(outerCard, innerCard, outerCost, innerCost))
+                    j = g.withIndex(e, swapped);
             }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias != null && isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
+            CostCard cc = new CostCard();
+            cc.cost = cost1;
+            if (pc.getOrder(left | right) != null) {
+                cc.card = pc.getCard(left | right);
             } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+                cc.card = swapped
+                        ? estimateJoinCardinality(j, t2card, t1card, rightPkey, leftPkey, stats)
+                        : estimateJoinCardinality(j, t1card, t2card, leftPkey, rightPkey, stats);
+                for (int other : between) {
+                    if (other != e)
+                        cc.card = filterCardinality(g, other, cc.card, left, right, pc, stats);
+                }
             }
+            // each side is planned before the join of both
+            cc.plan = new ArrayList<>(pc.getOrder(left));
+            cc.plan.addAll(pc.getOrder(right));
+            cc.plan.add(j);
+            for (int other : between) {
+                if (other != e)
+                    cc.plan.add(g.join(other));
+            }
+            best = cc;
+            bestCostSoFar = cost1;
         }
-
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
-        }
-        if (cost1 >= bestCostSoFar)
-            return null;
-
-        CostCard cc = new CostCard();
-
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = new ArrayList<>(prevBest);
-        cc.plan.add(j); // prevbest is left -- add new join to end
-        return cc;
+        return best;
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * @return card reduced by the selectivity of join e between left and
+     *         right, which is evaluated along with another join between
+     *         them: the fraction of the cross product of its sides that it
+     *         keeps
      */
-    private boolean doesJoin(List<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
-        }
-        return false;
+    private int filterCardinality(JoinGraph g, int e, int card, long left, long right, PlanCache pc,
+                                  Map<String, TableStats> stats) {
+        LogicalJoinNode j = g.join(e);
+        boolean t1Left = (left & (1L << g.side1(e))) != 0;
+        long s1 = t1Left ? left : right;
+        long s2 = t1Left ? right : left;
+        int card1 = pc.getCard(s1), card2 = pc.getCard(s2);
+        if (card1 == 0 || card2 == 0)
+            return 0;
+        boolean key1 = Long.bitCount(s1) == 1 ? g.isKey1(e) : g.joinsOnKey(s1);
+        boolean key2 = Long.bitCount(s2) == 1 ? g.isKey2(e) : g.joinsOnKey(s2);
+        double selectivity = (double) estimateJoinCardinality(j, card1, card2, key1, key2, stats)
+                / ((double) card1 * card2);
+        return (int) Math.max(1, Math.round(card * selectivity));
     }
 
     /**
@@ -477,20 +911,6 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(List<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
-    }
-
     /**
      * Helper function to display a Swing window with a tree representation of
      * the specified list of joins. See {@link #orderJoins}, which may want to
@@ -498,6 +918,8 @@ public class JoinOptimizer {
      * 
      * @param js
      *            the join plan to visualize
+     * @param g
+     *            the relations and joins of the plan
      * @param pc
      *            the PlanCache accumulated whild building the optimal plan
      * @param stats
@@ -507,7 +929,7 @@ public class JoinOptimizer {
      *            (where tables are indentified by their alias or name if no
      *            alias is given)
      */
-    private void printJoins(List<LogicalJoinNode> js, PlanCache pc,
+    private void printJoins(List<LogicalJoinNode> js, JoinGraph g, PlanCache pc,
             Map<String, TableStats> stats,
             Map<String, Double> selectivities) {
 
@@ -527,13 +949,16 @@ public class JoinOptimizer {
 
         // int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<>();
+        // the set of relations below the node each table is accessed from
+        Map<String, Long> sets = new HashMap<>();
+        long pathSoFar;
         boolean neither;
 
         System.out.println(js);
         for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
+            pathSoFar = g.relations(j) | sets.getOrDefault(j.t1Alias, 0L)
+                    | (j.t2Alias == null ? 0L : sets.getOrDefault(j.t2Alias, 0L));
+            System.out.println("PATH SO FAR = " + Long.toBinaryString(pathSoFar));
 
             String table1Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t1Alias));
@@ -585,12 +1010,21 @@ public class JoinOptimizer {
             m.put(j.t2Alias, root);
 
             // unless this table doesn't join with other tables,
-            // all tables are accessed from root
+            // all tables below root are accessed from it
             if (!neither) {
-                for (String key : m.keySet()) {
-                    m.put(key, root);
+                for (Map.Entry<String, Long> e : sets.entrySet()) {
+                    if ((e.getValue() & pathSoFar) != 0)
+                        m.put(e.getKey(), root);
                 }
             }
+            for (String alias : new String[] { j.t1Alias, j.t2Alias }) {
+                if (alias != null)
+                    sets.put(alias, pathSoFar);
+            }
+            for (Map.Entry<String, Long> e : sets.entrySet()) {
+                if ((e.getValue() & pathSoFar) != 0)
+                    e.setValue(pathSoFar);
+            }
 
             treetop = root;
         }
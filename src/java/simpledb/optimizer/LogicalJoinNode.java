@@ -25,6 +25,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** Whether the join probes the B+ tree of t2 on f2 once per t1 tuple, as
+     * JoinOptimizer chose from its cost, rather than hashing t1. */
+    public boolean useIndex;
+
     public LogicalJoinNode() {
     }
 
@@ -64,6 +68,14 @@ public class LogicalJoinNode {
         return new LogicalJoinNode(t2Alias,t1Alias,f2PureName,f1PureName, newp);
     }
     
+    /** Return a copy of this LogicalJoinNode that probes the index of t2,
+     * see {@link #useIndex}. */
+    public LogicalJoinNode withIndex() {
+        LogicalJoinNode j = new LogicalJoinNode(t1Alias, t2Alias, f1PureName, f2PureName, p);
+        j.useIndex = true;
+        return j;
+    }
+
     @Override public boolean equals(Object o) {
         if (!(o instanceof LogicalJoinNode)) return false;
         LogicalJoinNode j2 =(LogicalJoinNode)o;
@@ -4,6 +4,8 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -32,12 +34,15 @@ public class LogicalPlan {
     private final Map<String,Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
-    private String groupByField = null;
-    private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private final List<String> groupByFields = new ArrayList<>();
+    private final List<LogicalSelectListNode> aggregates = new ArrayList<>();
+    private final List<String> oByFields = new ArrayList<>();
+    private final List<Boolean> oByAscs = new ArrayList<>();
+    private int limit = -1;
+    private int offset = 0;
+    private boolean lateMaterialization = false;
+    private int workers = 1;
+    private boolean distinct = false;
     private String query;
 //    private Query owner;
 
@@ -84,6 +89,16 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /** @return whether a filter applies to the table with the given alias, so
+        that its plan is not a bare scan of the table */
+    boolean isFiltered(String alias) {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias))
+                return true;
+        }
+        return false;
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -149,12 +164,22 @@ public class LogicalPlan {
      *      or is not in one of the tables added via {@link #addScan}
      */
     public void addJoin(String joinField1, OpIterator joinField2, Predicate.Op pred) throws ParsingException {
+        addJoin(joinField1, joinField2, pred, LogicalSubplanJoinNode.Kind.JOIN);
+    }
+
+    /** Add a join between a field and a subquery, as in
+     *  {@link #addJoin(String, OpIterator, Predicate.Op)}, that is a
+     *  semi-join (IN) or an anti-join (NOT IN) if kind says so; those return
+     *  only the fields of the outer table.
+     */
+    public void addJoin(String joinField1, OpIterator joinField2, Predicate.Op pred,
+                        LogicalSubplanJoinNode.Kind kind) throws ParsingException {
         joinField1 = disambiguateName(joinField1);
 
         String table1 = joinField1.split("[.]")[0];
         String pureField = joinField1.split("[.]")[1];
 
-        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(table1,pureField, joinField2, pred);
+        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(table1,pureField, joinField2, pred, kind);
         System.out.println("Added subplan join on " + joinField1);
         joins.add(lj);
     }
@@ -189,34 +214,123 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
+        if (gfield != null)
+            addGroupBy(gfield);
+        addAggregate(op, afield);
+    }
+
+    /** Add an aggregate over the field to the query. All aggregates of a query are computed
+        in one pass, over the groups given by {@link #addGroupBy}.
+        @param op the aggregation operator
+        @param afield the field to aggregate over
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield) throws ParsingException {
         afield=disambiguateName(afield);
-        if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
-        hasAgg = true;
+        getAggOp(op);
+        for (LogicalSelectListNode a : aggregates) {
+            if (a.aggOp.equalsIgnoreCase(op) && a.fname.equals(afield))
+                return;
+        }
+        aggregates.add(new LogicalSelectListNode(op, afield));
+    }
+
+    /** Add a GROUP BY field to the query. Repeated calls group by several fields.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.add(gfield);
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** @return the index of the output column of aggregate op(fname), after the GROUP BY columns */
+    private int aggregateIndex(String op, String fname) {
+        for (int i = 0; i < aggregates.size(); i++) {
+            LogicalSelectListNode a = aggregates.get(i);
+            if (a.aggOp.equalsIgnoreCase(op) && a.fname.equals(fname))
+                return groupByFields.size() + i;
+        }
+        throw new NoSuchElementException("no aggregate " + op + "(" + fname + ")");
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Repeated calls add
+        further sort keys, each less significant than the ones before it.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.add(field);
+        oByAscs.add(asc);
+    }
+
+    /** Restrict the result to at most limit rows, after skipping the first offset rows.
+        @param limit the maximum number of rows to return
+        @param offset the number of leading rows to skip
+    */
+    public void setLimit(int limit, int offset) {
+        if (limit < 0 || offset < 0)
+            throw new IllegalArgumentException("LIMIT and OFFSET must not be negative");
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    /** Make the query return each distinct row of its select list once, as
+        SELECT DISTINCT does.
+        @param distinct true to eliminate duplicate rows
+    */
+    public void setDistinct(boolean distinct) {
+        this.distinct = distinct;
+    }
+
+    /** @return true if the query eliminates duplicate rows */
+    public boolean isDistinct() {
+        return distinct;
+    }
+
+    /** Choose whether the physical plan reads columns that are only returned,
+        not filtered, joined or sorted on, after the rest of the plan, for the
+        surviving rows only (see {@link Fetch}). Off by default, since random
+        page reads cost more than a wider scan unless few rows survive.
+        @param late true to fetch such columns at the top of the plan
+    */
+    public void setLateMaterialization(boolean late) {
+        this.lateMaterialization = late;
+    }
+
+    /** Choose how many worker pipelines scan the table of a query without
+        joins in parallel (see {@link Gather}). Each worker scans morsels of
+        the table, applies the filters and, if the query aggregates, computes
+        partial aggregates, which are merged above the Gather. Queries with
+        joins, index scans or late materialization, and tables that are not
+        HeapFiles, are planned serially. 1 by default, which plans every query
+        serially.
+        @param workers the number of worker pipelines
+    */
+    public void setParallelism(int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("a plan needs at least one worker");
+        this.workers = workers;
+    }
+
+    /** @return the LIMIT of this plan, or -1 if it has none */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** @return the OFFSET of this plan */
+    public int getOffset() {
+        return offset;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -293,11 +407,19 @@ public class LogicalPlan {
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
 
+        // projection pushdown: scans and joins only pass on the fields some
+        // operator above them needs
+        Set<String> topFields = topLevelFields();
+        Map<String, List<String>> payload = lateMaterialization && topFields != null
+                ? payloadFields() : Collections.emptyMap();
+
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                int id = Database.getCatalog().getDatabaseFile(table.t).getId();
+                int[] columns = topFields == null ? null : scanColumns(table, payload.get(table.alias));
+                ss = columns == null ? new SeqScan(t, id, table.alias) : new SeqScan(t, id, table.alias, columns);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -309,6 +431,8 @@ public class LogicalPlan {
 
         }
 
+        Set<LogicalFilterNode> indexed = chooseIndexScans(t, statsMap, explain);
+
         for (LogicalFilterNode lf : filters) {
             OpIterator subplan = subplanMap.get(lf.tableAlias);
             if (subplan == null) {
@@ -324,10 +448,7 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = constant(ftyp, lf.c);
 
             Predicate p = null;
             try {
@@ -335,21 +456,40 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // an index scan already returns only the tuples the filter keeps
+            if (!indexed.contains(lf))
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            int tableField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias)).fieldNameToIndex(lf.fieldPureName);
+            double sel = s.estimateSelectivity(tableField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
+        Gather gather = null;
+        if (workers > 1 && tables.size() == 1 && joins.isEmpty() && payload.isEmpty()
+                && indexed.isEmpty()) {
+            gather = parallelPlan(t, tables.get(0));
+            if (gather != null) {
+                subplanMap.put(tables.get(0).alias, gather);
+                if (explain)
+                    System.out.println("Scanning " + tables.get(0).alias + " with " + workers + " workers");
+            }
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
-        for (LogicalJoinNode lj : joins) {
+        HashAggregate partialAgg = pushPartialAggregate(statsMap, filterSelectivities);
+
+        // each side of a join is the subplan its table was last joined into,
+        // which for a bushy plan may be a join on both sides
+        for (int ji = 0; ji < joins.size(); ji++) {
+            LogicalJoinNode lj = joins.get(ji);
             OpIterator plan1;
             OpIterator plan2;
             boolean isSubqueryJoin = lj instanceof LogicalSubplanJoinNode;
@@ -381,7 +521,21 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            Set<String> keep = null;
+            if (topFields != null) {
+                keep = new HashSet<>(topFields);
+                for (List<String> fetched : payload.values())
+                    keep.add(rowIdName(fetched.get(0)));
+                if (partialAgg != null) {
+                    for (int i = 0; i < partialAgg.getTupleDesc().numFields(); i++)
+                        keep.add(partialAgg.getTupleDesc().getFieldName(i));
+                }
+                for (LogicalJoinNode later : joins.subList(ji + 1, joins.size())) {
+                    keep.add(later.f1QuantifiedName);
+                    keep.add(later.f2QuantifiedName);
+                }
+            }
+            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2, keep);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -410,31 +564,31 @@ public class LogicalPlan {
         //walk the select list, to determine order in which to project output fields
         List<Integer> outFields = new ArrayList<>();
         List<Type> outTypes = new ArrayList<>();
+        boolean hasAgg = !aggregates.isEmpty();
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
                 try {
-//                    id = 
                     td.fieldNameToIndex(si.fname);
+                    outFields.add(aggregateIndex(si.aggOp, si.fname));
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int gi = groupByFields.indexOf(si.fname);
+                    if (gi < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(gi);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -443,6 +597,12 @@ public class LogicalPlan {
                         outFields.add(i);
                         outTypes.add(td.getFieldType(i));
                     }
+            } else if (isFetched(payload, si.fname)) {
+                    // fetched at the top of the plan; its index is found below
+                    TupleDesc td = Database.getCatalog().getTupleDesc(
+                            getTableId(si.fname.substring(0, si.fname.indexOf('.'))));
+                    outFields.add(-1);
+                    outTypes.add(td.getFieldType(td.fieldNameToIndex(pureName(si.fname))));
             } else  {
                     TupleDesc td = node.getTupleDesc();
                     int id;
@@ -459,25 +619,388 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                int[] afields = new int[aggregates.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggregates.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggregates.get(i).fname);
+                    aops[i] = getAggOp(aggregates.get(i).aggOp);
+                }
+                if (partialAgg != null) {
+                    // merge the partial states, which follow the partial
+                    // aggregate's group-by fields in the joined tuples
+                    int first = td.fieldNameToIndex(partialAgg.groupFieldName(0))
+                            + partialAgg.groupFields().length;
+                    afields = TwoPhaseAggregation.partialFields(first, aops);
+                    aops = TwoPhaseAggregation.finalOps(aops);
+                }
+                // the workers of a parallel plan aggregated partially, so their
+                // tuples are the group-by fields followed by the partial states;
+                // input that already arrives grouped is aggregated one group at
+                // a time, without a hash table
+                if (gather != null)
+                    node = TwoPhaseAggregation.merge(node, gfields.length, aops);
+                else if (gfields.length > 0 && node.getOrdering().groups(gfields))
+                    node = new StreamAggregate(node, gfields, afields, aops);
+                else
+                    node = new HashAggregate(node, gfields, afields, aops);
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
-            node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (distinct) {
+            // duplicates are rows equal on the select list, so project it
+            // first; input already grouped on it needs no hash set
+            node = new Project(outFields, outTypes, node);
+            int[] all = new int[outFields.size()];
+            for (int i = 0; i < all.length; i++)
+                all[i] = i;
+            node = new Distinct(node, node.getOrdering().groups(all)
+                    ? Distinct.Strategy.SORT : Distinct.Strategy.HASH);
+        }
+
+        if (!oByFields.isEmpty()) {
+            int[] oByIdx = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int i = 0; i < oByIdx.length; i++) {
+                try {
+                    oByIdx[i] = node.getTupleDesc().fieldNameToIndex(oByFields.get(i));
+                } catch (NoSuchElementException e) {
+                    if (distinct)
+                        throw new ParsingException("ORDER BY field " + oByFields.get(i)
+                                + " must appear in the SELECT DISTINCT list");
+                    throw new ParsingException("Unknown field " + oByFields.get(i) + " in ORDER BY list");
+                }
+                asc[i] = oByAscs.get(i);
+            }
+            if (node.getOrdering().satisfies(oByIdx, asc)) {
+                if (limit >= 0)
+                    node = new Limit(limit, offset, node);
+            } else if (limit >= 0) {
+                node = new TopN(oByIdx, asc, limit, offset, node);
+            } else {
+                node = new OrderBy(oByIdx, asc, node);
+            }
+        } else if (limit >= 0) {
+            node = new Limit(limit, offset, node);
+        }
+
+        if (!payload.isEmpty()) {
+            for (Map.Entry<String, List<String>> e : payload.entrySet()) {
+                int tableId = getTableId(e.getKey());
+                TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableId);
+                int[] columns = new int[e.getValue().size()];
+                for (int i = 0; i < columns.length; i++)
+                    columns[i] = tableTd.fieldNameToIndex(pureName(e.getValue().get(i)));
+                int rowId = node.getTupleDesc().fieldNameToIndex(rowIdName(e.getValue().get(0)));
+                node = new Fetch(t, node, rowId, tableId, e.getKey(), columns);
+            }
+            // the fetched fields come after the others: find the select list again
+            for (int i = 0; i < selectList.size(); i++)
+                outFields.set(i, node.getTupleDesc().fieldNameToIndex(selectList.get(i).fname));
         }
 
+        if (distinct)
+            return node;
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * @return the names of the fields needed after all joins, or null if the
+     *         query returns all fields
+     */
+    private Set<String> topLevelFields() {
+        Set<String> names = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return null;
+            names.add(si.fname);
+        }
+        names.addAll(groupByFields);
+        for (LogicalSelectListNode a : aggregates)
+            names.add(a.fname);
+        names.addAll(oByFields);
+        return names;
+    }
+
+    /**
+     * @return for each table alias, the fields that are only returned by the
+     *         query, which late materialization fetches at the top of the
+     *         plan; only heap files qualify, since their tuples can be found
+     *         by row id
+     */
+    private Map<String, List<String>> payloadFields() throws ParsingException {
+        if (!aggregates.isEmpty() || distinct)
+            return Collections.emptyMap();
+        Set<String> used = new HashSet<>(oByFields);
+        for (LogicalFilterNode lf : filters)
+            used.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            used.add(lj.f2QuantifiedName);
+        }
+        Map<String, List<String>> payload = new LinkedHashMap<>();
+        for (LogicalSelectListNode si : selectList) {
+            String alias = si.fname.substring(0, Math.max(0, si.fname.indexOf('.')));
+            Integer id = tableMap.get(alias);
+            if (used.contains(si.fname) || id == null
+                    || !(Database.getCatalog().getDatabaseFile(id) instanceof HeapFile))
+                continue;
+            List<String> fields = payload.computeIfAbsent(alias, k -> new ArrayList<>());
+            if (!fields.contains(si.fname))
+                fields.add(si.fname);
+        }
+        return payload;
+    }
+
+    private static Field constant(Type type, String c) {
+        if (type == Type.INT_TYPE)
+            return new IntField(new Integer(c));
+        return new StringField(c, Type.STRING_LEN);
+    }
+
+    /**
+     * Access path selection: for each table stored in a B+ tree, finds the
+     * most selective filter on its key field, and replaces the scan of the
+     * table with an index range scan if descending the tree and reading the
+     * matching fraction of its pages is estimated to cost less than scanning
+     * the whole table.
+     *
+     * @return the filters that the chosen index scans apply
+     */
+    private Set<LogicalFilterNode> chooseIndexScans(TransactionId t, Map<String, TableStats> statsMap,
+                                                    boolean explain) {
+        Map<String, LogicalFilterNode> best = new HashMap<>();
+        Map<String, Double> bestSel = new HashMap<>();
+        for (LogicalFilterNode lf : filters) {
+            Integer id = tableMap.get(lf.tableAlias);
+            if (id == null || lf.p == Predicate.Op.NOT_EQUALS || lf.p == Predicate.Op.LIKE)
+                continue;
+            DbFile f = Database.getCatalog().getDatabaseFile(id);
+            if (!(f instanceof BTreeFile))
+                continue;
+            int field;
+            try {
+                field = f.getTupleDesc().fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                continue; // reported when the filter is planned
+            }
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(id));
+            if (field != ((BTreeFile) f).keyField() || s == null)
+                continue;
+            double sel = s.estimateSelectivity(field, lf.p, constant(f.getTupleDesc().getFieldType(field), lf.c));
+            Double prev = bestSel.get(lf.tableAlias);
+            if (prev == null || sel < prev) {
+                best.put(lf.tableAlias, lf);
+                bestSel.put(lf.tableAlias, sel);
+            }
+        }
+
+        Set<LogicalFilterNode> indexed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Map.Entry<String, LogicalFilterNode> e : best.entrySet()) {
+            String alias = e.getKey();
+            LogicalFilterNode lf = e.getValue();
+            int id = tableMap.get(alias);
+            BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(id);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(id));
+            int pages = Math.max(1, f.numPages());
+            double scanCost = s.estimateScanCost();
+            double indexCost = scanCost / pages * (JoinOptimizer.indexHeight(f) + bestSel.get(alias) * pages);
+            if (explain)
+                System.out.println("Access path for " + alias + ": scan " + scanCost
+                        + ", index on " + lf.fieldQuantifiedName + " " + indexCost);
+            if (indexCost >= scanCost)
+                continue;
+            Field c = constant(f.getTupleDesc().getFieldType(f.keyField()), lf.c);
+            subplanMap.put(alias, new BTreeScan(t, id, alias, new IndexPredicate(lf.p, c)));
+            indexed.add(lf);
+        }
+        return indexed;
+    }
+
+    private static boolean isFetched(Map<String, List<String>> payload, String fname) {
+        for (List<String> fields : payload.values()) {
+            if (fields.contains(fname))
+                return true;
+        }
+        return false;
+    }
+
+    private static String pureName(String quantifiedName) {
+        return quantifiedName.substring(quantifiedName.indexOf('.') + 1);
+    }
+
+    /** @return the name of the row id field of the table whose field this is */
+    private static String rowIdName(String quantifiedName) {
+        return quantifiedName.substring(0, quantifiedName.indexOf('.') + 1) + SeqScan.ROWID_NAME;
+    }
+
+    /**
+     * @return the columns a scan of table needs to return, including a row id
+     *         if some fields are fetched later, or null if it needs them all
+     */
+    private int[] scanColumns(LogicalScanNode table, List<String> fetched) {
+        Set<String> needed = new HashSet<>();
+        for (LogicalSelectListNode si : selectList)
+            needed.add(si.fname);
+        needed.addAll(groupByFields);
+        for (LogicalSelectListNode a : aggregates)
+            needed.add(a.fname);
+        needed.addAll(oByFields);
+        for (LogicalFilterNode lf : filters)
+            needed.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            needed.add(lj.f1QuantifiedName);
+            needed.add(lj.f2QuantifiedName);
+        }
+        if (fetched != null)
+            needed.removeAll(fetched);
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (needed.contains(table.alias + "." + td.getFieldName(i)))
+                columns.add(i);
+        }
+        if (fetched != null)
+            columns.add(SeqScan.ROWID);
+        else if (columns.size() == td.numFields() || columns.isEmpty())
+            return null;
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = columns.get(i);
+        return result;
+    }
+
+    /**
+     * Intra-query parallelism: replaces the scan of table, the only table of
+     * the query, with {@link #setParallelism workers} pipelines under a
+     * Gather. Each pipeline scans morsels of the table and applies all
+     * filters; if the query aggregates, it then aggregates partially, grouped
+     * by the GROUP BY fields.
+     *
+     * @return the Gather, or null if the aggregates cannot be computed in two
+     *         phases, in which case the query is planned serially
+     */
+    private Gather parallelPlan(TransactionId t, LogicalScanNode table) {
+        if (!(Database.getCatalog().getDatabaseFile(table.t) instanceof HeapFile))
+            return null;
+        PageMorsels morsels = new PageMorsels(table.t);
+        OpIterator[] pipelines = new OpIterator[workers];
+        try {
+            for (int w = 0; w < workers; w++) {
+                OpIterator node = new SeqScan(t, morsels, table.alias);
+                TupleDesc td = node.getTupleDesc();
+                for (LogicalFilterNode lf : filters) {
+                    int field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+                    node = new Filter(new Predicate(field, lf.p, constant(td.getFieldType(field), lf.c)), node);
+                }
+                if (!aggregates.isEmpty()) {
+                    int[] gfields = new int[groupByFields.size()];
+                    for (int i = 0; i < gfields.length; i++)
+                        gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                    int[] afields = new int[aggregates.size()];
+                    Aggregator.Op[] aops = new Aggregator.Op[aggregates.size()];
+                    for (int i = 0; i < afields.length; i++) {
+                        afields[i] = td.fieldNameToIndex(aggregates.get(i).fname);
+                        aops[i] = getAggOp(aggregates.get(i).aggOp);
+                    }
+                    node = TwoPhaseAggregation.partial(node, gfields, afields, aops);
+                }
+                pipelines[w] = node;
+            }
+        } catch (NoSuchElementException | IllegalArgumentException | UnsupportedOperationException
+                 | ParsingException e) {
+            return null; // reported, if it is an error, when the serial plan is built
+        }
+        return new Gather(pipelines, morsels);
+    }
+
+    /**
+     * Eager aggregation: when all aggregates read the same table of a join,
+     * aggregates that table partially before it is joined, grouped by its
+     * GROUP BY and join fields. The tuples of a partial group all join with
+     * the same tuples of the other tables, so merging the partial states
+     * after the joins gives the same result, while far fewer tuples flow
+     * into the joins.
+     *
+     * @return the partial aggregate that replaced the table's subplan, or
+     *         null if the table is not expected to collapse into few enough
+     *         groups for this to pay off
+     */
+    private HashAggregate pushPartialAggregate(Map<String, TableStats> statsMap,
+                                               Map<String, Double> filterSelectivities) throws ParsingException {
+        if (aggregates.isEmpty() || joins.isEmpty())
+            return null;
+        String alias = null;
+        for (LogicalSelectListNode a : aggregates) {
+            String t = a.fname.substring(0, Math.max(0, a.fname.indexOf('.')));
+            if (alias == null)
+                alias = t;
+            else if (!alias.equals(t))
+                return null;
+        }
+        OpIterator subplan = subplanMap.get(alias);
+        if (subplan == null)
+            return null;
+
+        Set<String> keys = new LinkedHashSet<>();
+        for (String g : groupByFields) {
+            if (g.startsWith(alias + "."))
+                keys.add(g);
+        }
+        for (LogicalJoinNode lj : joins) {
+            if (lj instanceof LogicalSubplanJoinNode)
+                return null;
+            if (lj.t1Alias.equals(alias))
+                keys.add(lj.f1QuantifiedName);
+            if (lj.t2Alias.equals(alias))
+                keys.add(lj.f2QuantifiedName);
+        }
+        if (keys.isEmpty())
+            return null;
+
+        TupleDesc td = subplan.getTupleDesc();
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(getTableId(alias)));
+        if (s == null)
+            return null;
+        int[] gfields = new int[keys.size()];
+        int[] afields = new int[aggregates.size()];
+        Aggregator.Op[] aops = new Aggregator.Op[aggregates.size()];
+        // the groups are at most the product of the distinct values of the keys
+        double groups = 1.0;
+        try {
+            int i = 0;
+            for (String k : keys) {
+                gfields[i] = td.fieldNameToIndex(k);
+                int tableField = Database.getCatalog().getTupleDesc(getTableId(alias)).fieldNameToIndex(pureName(k));
+                groups *= Math.max(1, s.estimateDistinctValues(tableField));
+                i++;
+            }
+            for (i = 0; i < afields.length; i++) {
+                afields[i] = td.fieldNameToIndex(aggregates.get(i).fname);
+                aops[i] = getAggOp(aggregates.get(i).aggOp);
+            }
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        if (groups > s.estimateTableCardinality(filterSelectivities.get(alias)) / 2)
+            return null;
+
+        HashAggregate partial;
+        try {
+            partial = TwoPhaseAggregation.partial(subplan, gfields, afields, aops);
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            return null;
+        }
+        subplanMap.put(alias, partial);
+        return partial;
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
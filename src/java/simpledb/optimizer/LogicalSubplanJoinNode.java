@@ -8,11 +8,30 @@ import simpledb.execution.Predicate;
  * {@link LogicalJoinNode}; t2 and f2 should always be null
  */
 public class LogicalSubplanJoinNode extends LogicalJoinNode {
-    
+
+    /** How the tuples of the outer table are matched with the subplan. */
+    public enum Kind {
+        /** An ordinary join, returning each pair of matching tuples. */
+        JOIN,
+        /** A semi-join, returning each outer tuple that has a match, e.g. for IN. */
+        SEMI,
+        /** An anti-join, returning each outer tuple without a match, e.g. for NOT IN. */
+        ANTI
+    }
+
     /** The subplan (used on the inner) of the join */
     final OpIterator subPlan;
-    
+    final Kind kind;
+
     public LogicalSubplanJoinNode(String table1, String joinField1, OpIterator sp, Predicate.Op pred) {
+        this(table1, joinField1, sp, pred, Kind.JOIN);
+    }
+
+    public LogicalSubplanJoinNode(String table1, String joinField1, OpIterator sp, Predicate.Op pred,
+                                  Kind kind) {
+        if (kind != Kind.JOIN && pred != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("semi- and anti-joins need an equality predicate");
+        this.kind = kind;
         t1Alias = table1;
         String[] tmps = joinField1.split("[.]");
         if (tmps.length>1)
@@ -24,6 +43,10 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
         p = pred;
     }
     
+    public Kind getKind() {
+        return kind;
+    }
+
     @Override public int hashCode() {
         return t1Alias.hashCode() + f1PureName.hashCode() + subPlan.hashCode();
     }
@@ -33,11 +56,12 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
         if (!(o instanceof LogicalSubplanJoinNode))
             return false;
         
-        return (j2.t1Alias.equals(t1Alias)  && j2.f1PureName.equals(f1PureName) && ((LogicalSubplanJoinNode)o).subPlan.equals(subPlan));
+        return (j2.t1Alias.equals(t1Alias)  && j2.f1PureName.equals(f1PureName) && ((LogicalSubplanJoinNode)o).subPlan.equals(subPlan)
+                && ((LogicalSubplanJoinNode)o).kind == kind);
     }
     
     public LogicalSubplanJoinNode swapInnerOuter() {
-        return new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p);
+        return new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p, kind);
     }
 
 }
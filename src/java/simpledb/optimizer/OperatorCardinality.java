@@ -34,6 +34,14 @@ public class OperatorCardinality {
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
+        } else if (o instanceof HashAggregate) {
+            return updateGroupedAggregateCardinality(o,
+                    ((HashAggregate) o).groupFields().length, tableAliasToId,
+                    tableStats);
+        } else if (o instanceof StreamAggregate) {
+            return updateGroupedAggregateCardinality(o,
+                    ((StreamAggregate) o).groupFields().length, tableAliasToId,
+                    tableStats);
         } else {
             OpIterator[] children = o.getChildren();
             int childC = 1;
@@ -229,19 +237,56 @@ public class OperatorCardinality {
         String pureFieldName = tmp[1];
         Integer tableId = tableAliasToId.get(tableAlias);
 
-        double groupFieldAvgSelectivity = 1.0;
         if (tableId != null) {
-            groupFieldAvgSelectivity = tableStats.get(
+            long groups = tableStats.get(
                     Database.getCatalog().getTableName(tableId))
-                    .avgSelectivity(
+                    .estimateDistinctValues(
                             Database.getCatalog().getTupleDesc(tableId)
-                                    .fieldNameToIndex(pureFieldName),
-                            Predicate.Op.EQUALS);
-            a.setEstimatedCardinality((int) (Math.min(childCard,
-                    1.0 / groupFieldAvgSelectivity)));
+                                    .fieldNameToIndex(pureFieldName));
+            a.setEstimatedCardinality((int) Math.max(1, Math.min(childCard, groups)));
             return hasJoinPK;
         }
         a.setEstimatedCardinality(childCard);
         return hasJoinPK;
     }
+
+    /**
+     * Estimates an aggregate whose output tuples start with numGroupFields
+     * group-by fields.
+     */
+    private static boolean updateGroupedAggregateCardinality(Operator a,
+            int numGroupFields, Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        OpIterator child = a.getChildren()[0];
+        int childCard = 1;
+        boolean hasJoinPK = false;
+        if (child instanceof Operator) {
+            Operator oChild = (Operator) child;
+            hasJoinPK = updateOperatorCardinality(oChild, tableAliasToId,
+                    tableStats);
+            childCard = oChild.getEstimatedCardinality();
+        } else if (child instanceof SeqScan) {
+            childCard = tableStats.get(((SeqScan) child).getTableName())
+                    .estimateTableCardinality(1.0);
+        }
+
+        // assume independent group-by columns: the number of groups is the
+        // product of their distinct value counts, capped by the input size
+        double groups = 1.0;
+        for (int i = 0; i < numGroupFields; i++) {
+            String[] tmp = a.getTupleDesc().getFieldName(i).split("[.]");
+            Integer tableId = tmp.length == 2 ? tableAliasToId.get(tmp[0]) : null;
+            if (tableId == null) {
+                groups = childCard;
+                break;
+            }
+            groups *= Math.max(1, tableStats.get(
+                    Database.getCatalog().getTableName(tableId))
+                    .estimateDistinctValues(
+                            Database.getCatalog().getTupleDesc(tableId)
+                                    .fieldNameToIndex(tmp[1])));
+        }
+        a.setEstimatedCardinality((int) Math.max(1, Math.min(childCard, groups)));
+        return hasJoinPK;
+    }
 }
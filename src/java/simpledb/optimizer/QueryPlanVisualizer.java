@@ -5,6 +5,7 @@ import java.util.Arrays;
 import java.util.Iterator;
 
 import simpledb.execution.*;
+import simpledb.index.BTreeScan;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
 
@@ -12,10 +13,13 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String SEMI_JOIN = "⋉(hash)";
+    static final String ANTI_JOIN = "▷(hash)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "scan(btree)";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
@@ -29,7 +33,7 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof HashSemiJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -67,24 +71,33 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof BTreeScan) {
+            String scan, tableName, alias;
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                scan = SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else {
+                BTreeScan s = (BTreeScan) queryPlan;
+                scan = INDEX_SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
+                    .format("%1$s(%2$s)", scan, tableName + alias);
+            if (scan.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
+                        - scan.length() / 2;
             } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
+                thisNode.upBarPosition = currentStartPosition + scan.length()
                         / 2;
                 thisNode.textStartPosition = currentStartPosition;
             }
@@ -111,11 +124,9 @@ public class QueryPlanVisualizer {
 
             if (plan instanceof Join) {
                 Join j = (Join) plan;
-                TupleDesc td = j.getTupleDesc();
                 JoinPredicate jp = j.getJoinPredicate();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
+                String field1 = children[0].getTupleDesc().getFieldName(jp.getField1());
+                String field2 = children[1].getTupleDesc().getFieldName(jp.getField2());
                 thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
                         field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
@@ -138,15 +149,22 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
+            } else if (plan instanceof HashEquiJoin || plan instanceof HashSemiJoin) {
+                JoinPredicate jp;
+                String label;
+                if (plan instanceof HashEquiJoin) {
+                    jp = ((HashEquiJoin) plan).getJoinPredicate();
+                    label = HASH_JOIN;
+                } else {
+                    jp = ((HashSemiJoin) plan).getJoinPredicate();
+                    label = ((HashSemiJoin) plan).isAnti() ? ANTI_JOIN : SEMI_JOIN;
+                }
+                // a join may return only some fields, so name the join
+                // fields after the children
+                String field1 = children[0].getTupleDesc().getFieldName(jp.getField1());
+                String field2 = children[1].getTupleDesc().getFieldName(jp.getField2());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", label, field1
+                        + jp.getOperator() + field2,plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
                     upBarShift = HASH_JOIN.length() / 2;
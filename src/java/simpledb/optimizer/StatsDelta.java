@@ -0,0 +1,127 @@
+package simpledb.optimizer;
+
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The tuples a transaction inserted into and deleted from a table with
+ * stats, which the stats count once the transaction commits; see
+ * {@link TableStats#tupleInserted}.
+ * <p>
+ * The changes take space that does not grow with the number of tuples: the
+ * number of tuples inserted and deleted, and per field a sketch of the
+ * inserted values and the number of tuples inserted and deleted per value.
+ * Once more than {@link #MAX_VALUES} values of a field were inserted or
+ * deleted, the values are replaced by those the histogram of the field
+ * counts them as, i.e. the MCVs and a value per bucket; if there are still
+ * too many, as the values are beyond the buckets, neighbouring values are
+ * merged into their mean, weighted by their counts.
+ */
+class StatsDelta {
+    /** The number of values per field whose tuples are counted apart. */
+    static final int MAX_VALUES = 128;
+
+    private final TableStats stats;
+    private final TupleDesc td;
+    int inserted;
+    int deleted;
+    /** Per field, the values of the tuples inserted, and of those deleted. */
+    final ValueCounts[] insertedValues;
+    final ValueCounts[] deletedValues;
+    /** Per field, the distinct values inserted, or null if there were none. */
+    final HyperLogLog[] sketches;
+
+    StatsDelta(TableStats stats, TupleDesc td) {
+        this.stats = stats;
+        this.td = td;
+        insertedValues = new ValueCounts[td.numFields()];
+        deletedValues = new ValueCounts[td.numFields()];
+        sketches = new HyperLogLog[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            insertedValues[i] = new ValueCounts(i);
+            deletedValues[i] = new ValueCounts(i);
+        }
+    }
+
+    synchronized void tupleInserted(Tuple t) {
+        inserted++;
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            insertedValues[i].add(code(f));
+            if (sketches[i] == null)
+                sketches[i] = new HyperLogLog();
+            if (f instanceof IntField)
+                sketches[i].addValue(((IntField) f).getValue());
+            else
+                sketches[i].addValue(((StringField) f).getValue());
+        }
+    }
+
+    synchronized void tupleDeleted(Tuple t) {
+        deleted++;
+        for (int i = 0; i < td.numFields(); i++)
+            deletedValues[i].add(code(t.getField(i)));
+    }
+
+    /** @return the value a histogram counts a field by */
+    private static int code(Field f) {
+        if (f instanceof IntField)
+            return ((IntField) f).getValue();
+        return StringHistogram.stringToInt(((StringField) f).getValue());
+    }
+
+    /** The number of tuples per value of a field, over fewer than 2 * MAX_VALUES values. */
+    final class ValueCounts {
+        private final int field;
+        private TreeMap<Integer, Long> counts = new TreeMap<>();
+
+        ValueCounts(int field) {
+            this.field = field;
+        }
+
+        void add(int v) {
+            counts.merge(v, 1L, Long::sum);
+            if (counts.size() >= 2 * MAX_VALUES)
+                compact();
+        }
+
+        private void compact() {
+            TreeMap<Integer, Long> snapped = new TreeMap<>();
+            for (Map.Entry<Integer, Long> e : counts.entrySet())
+                snapped.merge(stats.representative(field, e.getKey()), e.getValue(), Long::sum);
+            counts = snapped;
+            while (counts.size() > MAX_VALUES)
+                mergeNeighbours();
+        }
+
+        /** Merges each two neighbouring values into their weighted mean. */
+        private void mergeNeighbours() {
+            TreeMap<Integer, Long> merged = new TreeMap<>();
+            Map.Entry<Integer, Long> prev = null;
+            for (Map.Entry<Integer, Long> e : counts.entrySet()) {
+                if (prev == null) {
+                    prev = e;
+                    continue;
+                }
+                long n = prev.getValue() + e.getValue();
+                double mean = ((double) prev.getKey() * prev.getValue() + (double) e.getKey() * e.getValue()) / n;
+                merged.merge((int) Math.round(mean), n, Long::sum);
+                prev = null;
+            }
+            if (prev != null)
+                merged.merge(prev.getKey(), prev.getValue(), Long::sum);
+            counts = merged;
+        }
+
+        /** @return the number of tuples per value */
+        Map<Integer, Long> counts() {
+            return counts;
+        }
+    }
+}
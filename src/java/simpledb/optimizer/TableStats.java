@@ -4,16 +4,36 @@ import simpledb.common.Database;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionId;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
@@ -33,6 +53,7 @@ public class TableStats {
 
     public static void setTableStats(String tablename, TableStats stats) {
         statsMap.put(tablename, stats);
+        analyzeFailures.remove(tablename);
     }
     
     public static void setStatsMap(Map<String,TableStats> s)
@@ -51,16 +72,285 @@ public class TableStats {
         return statsMap;
     }
 
+    private static final ConcurrentMap<String, Double> sampleFractions = new ConcurrentHashMap<>();
+    private static volatile double defaultSampleFraction = 1.0;
+
+    /**
+     * Sets the fraction of the pages of a table that
+     * {@link #computeStatistics()} reads, overriding the default fraction.
+     */
+    public static void setSampleFraction(String tablename, double fraction) {
+        checkSampleFraction(fraction);
+        sampleFractions.put(tablename, fraction);
+    }
+
+    /** Sets the fraction of pages read for tables without a fraction of their own. */
+    public static void setDefaultSampleFraction(double fraction) {
+        checkSampleFraction(fraction);
+        defaultSampleFraction = fraction;
+    }
+
+    /** @return the fraction of pages {@link #computeStatistics()} reads for a table */
+    public static double getSampleFraction(String tablename) {
+        return sampleFractions.getOrDefault(tablename, defaultSampleFraction);
+    }
+
+    private static void checkSampleFraction(double fraction) {
+        if (!(fraction > 0 && fraction <= 1))
+            throw new IllegalArgumentException("sample fraction must be in (0, 1]: " + fraction);
+    }
+
+    private static volatile boolean autoAnalyze = true;
+    private static volatile int analyzeThreshold = 500;
+    private static volatile double analyzeScaleFactor = 0.2;
+    private static ExecutorService analyzer;
+
+    /**
+     * Sets whether tables are analyzed again in the background once enough of
+     * their tuples have been inserted or deleted.
+     */
+    public static void setAutoAnalyze(boolean enabled) {
+        autoAnalyze = enabled;
+    }
+
+    /**
+     * Sets when a table is analyzed again: after more than threshold +
+     * scaleFactor * (the tuples at the last analysis) insertions and
+     * deletions.
+     */
+    public static void setAnalyzeThreshold(int threshold, double scaleFactor) {
+        analyzeThreshold = threshold;
+        analyzeScaleFactor = scaleFactor;
+    }
+
+    /**
+     * Per running transaction, and per table with stats it changed, its
+     * changes. The keys are weak, so that a transaction that is dropped
+     * without completing does not keep its changes.
+     */
+    private static final Map<TransactionId, Map<Integer, StatsDelta>> pendingChanges =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Records a tuple inserted into a table by a transaction, to update the
+     * stats of the table with when the transaction commits; tables without
+     * stats are skipped. Called by {@link BufferPool#insertTuple}.
+     */
+    public static void tupleInserted(TransactionId tid, int tableid, Tuple t) {
+        StatsDelta d = deltaOf(tid, tableid);
+        if (d != null)
+            d.tupleInserted(t);
+    }
+
+    /**
+     * Records a tuple deleted from a table by a transaction, to update the
+     * stats of the table with when the transaction commits; tables without
+     * stats are skipped. Called by {@link BufferPool#deleteTuple}.
+     */
+    public static void tupleDeleted(TransactionId tid, int tableid, Tuple t) {
+        StatsDelta d = deltaOf(tid, tableid);
+        if (d != null)
+            d.tupleDeleted(t);
+    }
+
+    /** @return the changes of a transaction to a table, or null if the table has no stats */
+    private static StatsDelta deltaOf(TransactionId tid, int tableid) {
+        TableStats s = statsOf(tableid);
+        if (s == null)
+            return null;
+        // the workers of a parallel plan may change tables in one transaction
+        Map<Integer, StatsDelta> deltas = pendingChanges.computeIfAbsent(tid, k -> new ConcurrentHashMap<>());
+        return deltas.computeIfAbsent(tableid, k -> new StatsDelta(s, s.tupleDesc));
+    }
+
+    /** @return the stats of a table, or null if it has none */
+    private static TableStats statsOf(int tableid) {
+        String name;
+        try {
+            name = Database.getCatalog().getTableName(tableid);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        TableStats s = statsMap.get(name);
+        return s == null || s.tableid != tableid ? null : s;
+    }
+
+    /**
+     * Updates the stats of the tables a transaction changed, if they still
+     * have any, with its inserts and deletes if it committed; those of an
+     * aborted transaction are dropped. Called by
+     * {@link BufferPool#transactionComplete(TransactionId, boolean)}.
+     */
+    public static void transactionComplete(TransactionId tid, boolean commit) {
+        Map<Integer, StatsDelta> deltas = pendingChanges.remove(tid);
+        if (deltas == null || !commit)
+            return;
+        for (Map.Entry<Integer, StatsDelta> e : deltas.entrySet()) {
+            TableStats s = statsOf(e.getKey());
+            if (s != null)
+                s.apply(e.getValue());
+        }
+    }
+
+    /** Drops the changes of every running transaction; called by {@link Database#reset}. */
+    public static void clearPendingChanges() {
+        pendingChanges.clear();
+    }
+
+    /** Per table, why its last analysis in the background failed. */
+    private static final ConcurrentMap<String, Exception> analyzeFailures = new ConcurrentHashMap<>();
+
+    /**
+     * @return why the last analysis of a table in the background failed, or
+     *         null if it succeeded or there was none
+     */
+    public static Exception getAnalyzeFailure(String tablename) {
+        return analyzeFailures.get(tablename);
+    }
+
+    private static synchronized ExecutorService analyzer() {
+        if (analyzer == null) {
+            analyzer = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "simpledb-analyze");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return analyzer;
+    }
+
+    /** The first bytes of a stats file, and the version of its format. */
+    private static final int STATS_MAGIC = 0x53444253;
+    private static final int STATS_FORMAT = 1;
+
+    private static volatile File statsFile;
+
+    /**
+     * Sets the file that {@link #computeStatistics()} reads the stats of
+     * unchanged tables from, and writes the stats of every table to; null for
+     * none. {@link simpledb.common.Catalog#loadSchema} sets it to a file next
+     * to the catalog.
+     */
+    public static void setStatsFile(File file) {
+        statsFile = file;
+    }
+
+    /** @return the file stats are kept in between runs, or null */
+    public static File getStatsFile() {
+        return statsFile;
+    }
+
+    /**
+     * Computes the stats of every table in the catalog. The stats of tables
+     * whose files have not changed since they were written to the stats file
+     * are read from it rather than computed again; if any table had to be
+     * analyzed, the stats file is written afresh.
+     */
     public static void computeStatistics() {
+        File file = statsFile;
+        Map<String, TableStats> saved = file == null ? new HashMap<>() : readStatistics(file);
         Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
 
         System.out.println("Computing table stats.");
+        int analyzed = 0;
         while (tableIt.hasNext()) {
             int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            String name = Database.getCatalog().getTableName(tableid);
+            TableStats s = saved.get(name);
+            if (s == null) {
+                s = new TableStats(tableid, IOCOSTPERPAGE, getSampleFraction(name));
+                if (s.failure != null)
+                    System.out.println("Could not read all of table " + name + ": " + s.failure);
+                analyzed++;
+            }
+            setTableStats(name, s);
+        }
+        if (file != null && analyzed > 0) {
+            try {
+                writeStatistics(file);
+            } catch (IOException e) {
+                System.out.println("Could not write stats file " + file + ": " + e.getMessage());
+            }
+        }
+        System.out.println("Done; read the stats of " + saved.size() + " tables, analyzed " + analyzed + ".");
+    }
+
+    /**
+     * Writes the stats of the tables in the catalog to a file, to be read
+     * back by {@link #readStatistics}. Each table's stats are stamped with
+     * the length and modification time its file had when they were computed.
+     * The file is replaced atomically, so a crash leaves the old one.
+     */
+    public static void writeStatistics(File file) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<byte[]> records = new ArrayList<>();
+        for (Map.Entry<String, TableStats> e : statsMap.entrySet()) {
+            TableStats s = e.getValue();
+            try {
+                if (Database.getCatalog().getTableId(e.getKey()) != s.tableid)
+                    continue;
+            } catch (NoSuchElementException ex) {
+                continue;
+            }
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            if (s.write(new DataOutputStream(record))) {
+                names.add(e.getKey());
+                records.add(record.toByteArray());
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(STATS_MAGIC);
+            out.writeInt(STATS_FORMAT);
+            out.writeInt(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                out.writeUTF(names.get(i));
+                out.writeInt(records.get(i).length);
+                out.write(records.get(i));
+            }
         }
-        System.out.println("Done.");
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the stats written by {@link #writeStatistics} of the tables in
+     * the catalog whose files and schemas have not changed since. The stats
+     * of other tables are skipped without being decoded. A missing,
+     * unreadable or foreign file yields no stats.
+     *
+     * @return the stats read, by table name
+     */
+    public static Map<String, TableStats> readStatistics(File file) {
+        Map<String, TableStats> stats = new HashMap<>();
+        if (!file.exists())
+            return stats;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != STATS_MAGIC || in.readInt() != STATS_FORMAT) {
+                System.out.println("Ignoring stats file " + file + " of an unknown format");
+                return stats;
+            }
+            int tables = in.readInt();
+            for (int t = 0; t < tables; t++) {
+                String name = in.readUTF();
+                byte[] record = new byte[in.readInt()];
+                in.readFully(record);
+                int tableid;
+                try {
+                    tableid = Database.getCatalog().getTableId(name);
+                } catch (NoSuchElementException e) {
+                    continue;
+                }
+                TableStats s = read(tableid, new DataInputStream(new ByteArrayInputStream(record)));
+                if (s != null)
+                    stats.put(name, s);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Ignoring unreadable stats file " + file + ": " + e);
+            stats.clear();
+        }
+        return stats;
     }
 
     /**
@@ -70,22 +360,60 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
-    private HeapFile table;
+    /**
+     * The fewest pages a sample reads, so that the estimates of small tables
+     * do not rest on a handful of pages.
+     */
+    static final int MIN_SAMPLE_PAGES = 32;
+
+    private static final Random random = new Random();
+
+    private DbFile table;
     private int tableid;
     private int ioCostPerPage;
     private int tuplesNum;
     private int pagesNum;
+    /** The pages and tuples that were read; all of them unless sampled. */
+    private int sampledPages;
+    private int sampledTuples;
+    /** The standard error of tuplesNum; 0 if every page was read. */
+    private double cardinalityStdError;
+    /** Per column, the number of distinct values estimated from a sample. */
+    private long[] distinctValues;
+    /** Per column, a sketch of the distinct values read. */
+    private HyperLogLog[] sketches;
+    /** Whether the table was read without errors. */
+    private boolean complete;
+    /** Why the table could not be read, if it was not. */
+    private Exception failure;
+    /** The length and modification time of the file of the table when it was read. */
+    private long fileLength;
+    private long fileModified;
+    /** The tuples when the table was read, and the changes since. */
+    private int analyzedTuples;
+    private int modifications;
+    private boolean reanalyzing;
 
-    private HashMap<Integer,IntHistogram> integerIntHistogramMap;
+    private HashMap<Integer,EquiDepthHistogram> integerIntHistogramMap;
     private HashMap<Integer,StringHistogram> stringIntHistogramMap;//字符串型字段与其直方图的映射
-    private HashMap<Integer,Integer> maxField;//字段与该字段中最大值的映射
-    private HashMap<Integer,Integer> minField;//字段与该字段中最小值的映射
-    private ArrayList<Tuple> tuples;//表中的所有tuples
     private TupleDesc tupleDesc;//表的属性行
 
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
+     * <p>
+     * The table is read in a single pass that feeds every column's histogram
+     * at once. Integer columns get equi-depth histograms with lists of their
+     * most common values, built by {@link EquiDepthHistogramBuilder}, which
+     * does not need the range or the distribution of a column in advance, so
+     * memory stays proportional to the number of columns times
+     * {@link #NUM_HIST_BINS} rather than to the size of the table. The
+     * distinct values of each column are counted by a {@link HyperLogLog}
+     * sketch of fixed size.
+     * <p>
+     * Heap files are read a page at a time, and the lock on each page is
+     * released once it has been read, so that analyzing a table does not
+     * hold up the transactions writing to it.
      * 
      * @param tableid
      *            The table over which to compute statistics
@@ -94,84 +422,271 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
-        table = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        this(tableid, ioCostPerPage, 1.0);
+    }
+
+    /**
+     * Create a new TableStats object from a random sample of the pages of a
+     * table.
+     * <p>
+     * A heap file is sampled a page at a time: every tuple of a chosen page is
+     * read, and the number of tuples is extrapolated from the mean number per
+     * sampled page, with {@link #cardinalityStdError()} as its standard error.
+     * The histograms are built from the sampled tuples, which estimates the
+     * selectivities directly; {@link #selectivityStdError} bounds their error.
+     * The number of distinct values of a column is extrapolated from the
+     * sample by {@link #estimateDistinctValues}.
+     * <p>
+     * At least {@link #MIN_SAMPLE_PAGES} pages are read, and B+ trees, whose
+     * pages cannot be picked at random, are always read in full.
+     *
+     * @param sampleFraction
+     *            The fraction of the pages to read, in (0, 1]
+     */
+    public TableStats(int tableid, int ioCostPerPage, double sampleFraction) {
+        checkSampleFraction(sampleFraction);
+        table = Database.getCatalog().getDatabaseFile(tableid);
         tupleDesc = table.getTupleDesc();
-        pagesNum = table.numPages();
-        DbFileIterator iterator = table.iterator(new TransactionId());
-        int fieldNum = table.getTupleDesc().numFields();
-        maxField = new HashMap<>();
-        minField = new HashMap<>();
+        pagesNum = numPages();
+        int fieldNum = tupleDesc.numFields();
+        fileLength = dataFile(table).length();
+        fileModified = dataFile(table).lastModified();
 
         this.tableid = tableid;
         this.ioCostPerPage = ioCostPerPage;
 
-        tuples = new ArrayList<>();
-        tuplesNum = 0;
-        integerIntHistogramMap = new HashMap<>();
-        stringIntHistogramMap = new HashMap<>();
-        try{
-            iterator.open();
-            while(iterator.hasNext()){
-                Tuple tuple = iterator.next();
-                tuples.add(tuple);
-                tuplesNum++;
-                for (int i=0; i<fieldNum; i++){
-                    if(tupleDesc.getFieldType(i).equals(Type.INT_TYPE)){
-                        int value = ((IntField)tuple.getField(i)).getValue();
-                        if(maxField.get(i) == null || value > maxField.get(i)){
-                            maxField.put(i,value);
-                        }
-                        if(minField.get(i) == null || value < minField.get(i)){
-                            minField.put(i,value);
-                        }
-                    }
+        EquiDepthHistogramBuilder[] intBuilders = new EquiDepthHistogramBuilder[fieldNum];
+        StringHistogram[] stringHistograms = new StringHistogram[fieldNum];
+        sketches = new HyperLogLog[fieldNum];
+        for (int i = 0; i < fieldNum; i++) {
+            sketches[i] = new HyperLogLog();
+            if (tupleDesc.getFieldType(i).equals(Type.INT_TYPE))
+                intBuilders[i] = new EquiDepthHistogramBuilder(NUM_HIST_BINS);
+            else
+                stringHistograms[i] = new StringHistogram(NUM_HIST_BINS);
+        }
+
+        int samplePages = (int) Math.min(pagesNum,
+                Math.max(MIN_SAMPLE_PAGES, Math.ceil(sampleFraction * pagesNum)));
+        boolean sampled = table instanceof HeapFile && samplePages < pagesNum;
+        // per column, a bounded sample of the distinct values of the sampled
+        // pages and how often each was seen, for extrapolating the number of
+        // distinct values
+        DistinctSample[] valueSamples = null;
+        if (sampled) {
+            valueSamples = new DistinctSample[fieldNum];
+            for (int i = 0; i < fieldNum; i++)
+                valueSamples[i] = new DistinctSample();
+        }
+
+        TransactionId tid = new TransactionId();
+        try {
+            if (sampled) {
+                // selection sampling picks each page with the probability that
+                // yields exactly samplePages pages, in file order
+                double sum = 0, sumOfSquares = 0;
+                int needed = samplePages;
+                for (int p = 0; p < pagesNum && needed > 0; p++) {
+                    if (random.nextInt(pagesNum - p) >= needed)
+                        continue;
+                    needed--;
+                    int n = scanPage(tid, p, intBuilders, stringHistograms, valueSamples);
+                    sum += n;
+                    sumOfSquares += (double) n * n;
                 }
+                sampledPages = samplePages;
+                double mean = sum / samplePages;
+                double variance = samplePages > 1
+                        ? Math.max(0, (sumOfSquares - samplePages * mean * mean) / (samplePages - 1)) : 0;
+                tuplesNum = (int) Math.round(mean * pagesNum);
+                // without replacement, so with the finite population correction
+                cardinalityStdError = pagesNum
+                        * Math.sqrt((1 - (double) samplePages / pagesNum) * variance / samplePages);
+            } else if (table instanceof HeapFile) {
+                for (int p = 0; p < pagesNum; p++)
+                    scanPage(tid, p, intBuilders, stringHistograms, null);
+                sampledPages = pagesNum;
+                tuplesNum = sampledTuples;
+            } else {
+                scan(table.iterator(tid), intBuilders, stringHistograms, null);
+                sampledPages = pagesNum;
+                tuplesNum = sampledTuples;
             }
-            iterator.close();
+            complete = true;
         } catch (Exception e) {
-            e.printStackTrace();
+            failure = e;
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
         }
 
+        if (sampled) {
+            distinctValues = new long[fieldNum];
+            for (int i = 0; i < fieldNum; i++)
+                distinctValues[i] = extrapolateDistinct(valueSamples[i]);
+        }
+        integerIntHistogramMap = new HashMap<>();
+        stringIntHistogramMap = new HashMap<>();
+        for (int i = 0; i < fieldNum; i++) {
+            if (intBuilders[i] != null)
+                integerIntHistogramMap.put(i,
+                        intBuilders[i].build(NUM_HIST_BINS, estimateDistinctValues(i), sampled));
+            else
+                stringIntHistogramMap.put(i, stringHistograms[i]);
+        }
+        analyzedTuples = tuplesNum;
+    }
 
-        for(int i=0; i<fieldNum; i++){
-            Iterator<Tuple> tupleIterator = tuples.iterator();
-            Type fieldType = tupleDesc.getFieldType(i);
-            if(fieldType.equals(Type.INT_TYPE)){
-                int minValue = minField.get(i);
-                int maxValue = maxField.get(i);
-                IntHistogram histogram = new IntHistogram(NUM_HIST_BINS,minValue,maxValue);
-                try {
-                    while(tupleIterator.hasNext()){
-                        Tuple tuple = tupleIterator.next();
-                        int fieldValue = ((IntField)tuple.getField(i)).getValue();
-                        histogram.addValue(fieldValue);
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+    /** Creates stats from the rest of a record of a stats file. */
+    private TableStats(int tableid, DbFile table, DataInputStream in) throws IOException {
+        this.tableid = tableid;
+        this.table = table;
+        this.tupleDesc = table.getTupleDesc();
+        this.ioCostPerPage = IOCOSTPERPAGE;
+        fileLength = dataFile(table).length();
+        fileModified = dataFile(table).lastModified();
+        tuplesNum = in.readInt();
+        pagesNum = in.readInt();
+        sampledPages = in.readInt();
+        sampledTuples = in.readInt();
+        cardinalityStdError = in.readDouble();
+        int fieldNum = tupleDesc.numFields();
+        if (in.readBoolean()) {
+            distinctValues = new long[fieldNum];
+            for (int i = 0; i < fieldNum; i++)
+                distinctValues[i] = in.readLong();
+        }
+        sketches = new HyperLogLog[fieldNum];
+        integerIntHistogramMap = new HashMap<>();
+        stringIntHistogramMap = new HashMap<>();
+        for (int i = 0; i < fieldNum; i++) {
+            sketches[i] = HyperLogLog.read(in);
+            if (tupleDesc.getFieldType(i).equals(Type.INT_TYPE))
+                integerIntHistogramMap.put(i, EquiDepthHistogram.read(in));
+            else
+                stringIntHistogramMap.put(i, StringHistogram.read(in));
+        }
+        complete = true;
+        analyzedTuples = tuplesNum;
+    }
 
-                integerIntHistogramMap.put(i,histogram);
-            }
-            else {
-                StringHistogram histogram = new StringHistogram(NUM_HIST_BINS);
-                while (tupleIterator.hasNext()){
-                    Tuple tuple = tupleIterator.next();
-                    String fieldValue = ((StringField)tuple.getField(i)).getValue();
-                    histogram.addValue(fieldValue);
+    /**
+     * Writes a record of a stats file: the version stamp and schema of the
+     * table, then its stats.
+     *
+     * @return false if the stats are incomplete, and were not written
+     */
+    private synchronized boolean write(DataOutputStream out) throws IOException {
+        if (!complete)
+            return false;
+        out.writeLong(fileLength);
+        out.writeLong(fileModified);
+        out.writeInt(tupleDesc.numFields());
+        for (int i = 0; i < tupleDesc.numFields(); i++)
+            out.writeByte(tupleDesc.getFieldType(i).ordinal());
+        out.writeInt(tuplesNum);
+        out.writeInt(pagesNum);
+        out.writeInt(sampledPages);
+        out.writeInt(sampledTuples);
+        out.writeDouble(cardinalityStdError);
+        out.writeBoolean(distinctValues != null);
+        if (distinctValues != null) {
+            for (long d : distinctValues)
+                out.writeLong(d);
+        }
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            sketches[i].write(out);
+            if (tupleDesc.getFieldType(i).equals(Type.INT_TYPE))
+                integerIntHistogramMap.get(i).write(out);
+            else
+                stringIntHistogramMap.get(i).write(out);
+        }
+        return true;
+    }
+
+    /**
+     * Reads a record of a stats file.
+     *
+     * @return the stats, or null if the file or the schema of the table
+     *         changed since they were written
+     */
+    private static TableStats read(int tableid, DataInputStream in) throws IOException {
+        DbFile table = Database.getCatalog().getDatabaseFile(tableid);
+        File file = dataFile(table);
+        if (in.readLong() != file.length() || in.readLong() != file.lastModified())
+            return null;
+        TupleDesc td = table.getTupleDesc();
+        if (in.readInt() != td.numFields())
+            return null;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (in.readByte() != td.getFieldType(i).ordinal())
+                return null;
+        }
+        return new TableStats(tableid, table, in);
+    }
+
+    private static File dataFile(DbFile table) {
+        return table instanceof BTreeFile ? ((BTreeFile) table).getFile() : ((HeapFile) table).getFile();
+    }
+
+    /** Reads one page of a heap file, and releases its lock. */
+    private int scanPage(TransactionId tid, int page, EquiDepthHistogramBuilder[] intBuilders,
+                         StringHistogram[] stringHistograms, DistinctSample[] valueSamples) throws Exception {
+        int n = scan(((HeapFile) table).iterator(tid, page, page + 1), intBuilders, stringHistograms, valueSamples);
+        Database.getBufferPool().unsafeReleasePage(tid, new HeapPageId(tableid, page));
+        return n;
+    }
+
+    /**
+     * Adds the tuples of an iterator to the histograms and sketches, and to
+     * the value counts if there are any.
+     *
+     * @return the number of tuples read
+     */
+    private int scan(DbFileIterator iterator, EquiDepthHistogramBuilder[] intBuilders,
+                     StringHistogram[] stringHistograms, DistinctSample[] valueSamples) throws Exception {
+        int n = 0;
+        iterator.open();
+        while (iterator.hasNext()) {
+            Tuple tuple = iterator.next();
+            n++;
+            for (int i = 0; i < intBuilders.length; i++) {
+                if (intBuilders[i] != null) {
+                    int v = ((IntField) tuple.getField(i)).getValue();
+                    intBuilders[i].addValue(v);
+                    sketches[i].addValue(v);
+                    if (valueSamples != null)
+                        valueSamples[i].addValue(v);
+                } else {
+                    String v = ((StringField) tuple.getField(i)).getValue();
+                    stringHistograms[i].addValue(v);
+                    sketches[i].addValue(v);
+                    if (valueSamples != null)
+                        valueSamples[i].addValue(v);
                 }
-                stringIntHistogramMap.put(i,histogram);
             }
         }
+        iterator.close();
+        sampledTuples += n;
+        return n;
+    }
 
-
+    /**
+     * Extrapolates the number of distinct values of a column from the value
+     * counts of a sample with the Guaranteed-Error Estimator of Charikar et
+     * al.: values seen more than once in the sample are taken to be all there
+     * is of them, and values seen once stand for sqrt(N / n) values each. The
+     * estimate is within a factor of sqrt(N / n) of the truth. The counts of
+     * the sample are themselves estimated from a {@link DistinctSample}, so
+     * that they take a fixed amount of space however large the sample.
+     */
+    private long extrapolateDistinct(DistinctSample sample) {
+        if (sampledTuples == 0)
+            return 0;
+        long seen = sample.distinct();
+        long once = Math.min(seen, sample.singletons());
+        double scale = Math.sqrt(Math.max(1.0, (double) tuplesNum / sampledTuples));
+        long estimate = Math.round(scale * once) + seen - once;
+        return Math.max(seen, Math.min(estimate, tuplesNum));
     }
 
     /**
@@ -186,11 +701,115 @@ public class TableStats {
      * 
      * @return The estimated cost of scanning the table.
      */
-    public double estimateScanCost() {
+    public synchronized double estimateScanCost() {
         // some code goes here
         return 1.0 * pagesNum * ioCostPerPage;
     }
 
+    /**
+     * Updates the stats for the tuples a transaction inserted into and
+     * deleted from the table, when it commits: the number of tuples and
+     * pages, the histograms and the distinct value sketches. If the stats
+     * were built from a sample, the histograms count each tuple by the share
+     * of the tuples that were sampled. Sketches cannot forget values, so
+     * distinct value counts only shrink as far as the number of tuples does,
+     * and those that were extrapolated from a sample are only updated by
+     * analyzing the table again.
+     */
+    private synchronized void apply(StatsDelta d) {
+        synchronized (d) {
+            tuplesNum = Math.max(0, tuplesNum + d.inserted - d.deleted);
+            pagesNum = numPages();
+            double weight = sampleWeight();
+            for (int i = 0; i < tupleDesc.numFields(); i++) {
+                if (d.sketches[i] != null)
+                    sketches[i].merge(d.sketches[i]);
+                boolean isInt = tupleDesc.getFieldType(i).equals(Type.INT_TYPE);
+                for (Map.Entry<Integer, Long> e : d.insertedValues[i].counts().entrySet()) {
+                    if (isInt) {
+                        integerIntHistogramMap.get(i).addValue(e.getKey(), e.getValue() * weight);
+                    } else {
+                        for (long n = sampled(e.getValue(), weight); n > 0; n--)
+                            stringIntHistogramMap.get(i).addCode(e.getKey());
+                    }
+                }
+                for (Map.Entry<Integer, Long> e : d.deletedValues[i].counts().entrySet()) {
+                    if (isInt) {
+                        integerIntHistogramMap.get(i).removeValue(e.getKey(), e.getValue() * weight);
+                    } else {
+                        for (long n = sampled(e.getValue(), weight); n > 0; n--)
+                            stringIntHistogramMap.get(i).removeCode(e.getKey());
+                    }
+                }
+            }
+            modified(d.inserted + d.deleted);
+        }
+    }
+
+    /** @return about weight * n, rounded at random so that it is right on average */
+    private static long sampled(long n, double weight) {
+        return weight >= 1 ? n : (long) (n * weight + random.nextDouble());
+    }
+
+    /**
+     * @return a value the histogram of field i counts as v, where string
+     *         values are converted as {@link StringHistogram} does
+     */
+    int representative(int i, int v) {
+        if (tupleDesc.getFieldType(i).equals(Type.INT_TYPE))
+            return integerIntHistogramMap.get(i).representative(v);
+        return stringIntHistogramMap.get(i).representative(v);
+    }
+
+    /** @return the share of the tuples of the table the histograms count */
+    private double sampleWeight() {
+        return analyzedTuples == 0 ? 1.0 : Math.min(1.0, (double) sampledTuples / analyzedTuples);
+    }
+
+    private int numPages() {
+        return table instanceof BTreeFile ? ((BTreeFile) table).numPages() : ((HeapFile) table).numPages();
+    }
+
+    /**
+     * Counts n modifications, and analyzes the table again in the background
+     * once there have been enough of them. The new stats replace these in
+     * the stats map when the table has been read; if the analysis fails, e.g.
+     * because it timed out waiting for a lock, {@link #getAnalyzeFailure}
+     * tells why, and the next modification tries again.
+     */
+    private void modified(int n) {
+        modifications += n;
+        if (!autoAnalyze || reanalyzing
+                || modifications <= analyzeThreshold + analyzeScaleFactor * analyzedTuples)
+            return;
+        String name;
+        try {
+            name = Database.getCatalog().getTableName(tableid);
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        reanalyzing = true;
+        analyzer().execute(() -> {
+            Exception failure;
+            try {
+                TableStats fresh = new TableStats(tableid, ioCostPerPage, getSampleFraction(name));
+                failure = fresh.failure;
+                if (failure == null && statsMap.replace(name, this, fresh)) {
+                    analyzeFailures.remove(name);
+                    return;
+                }
+            } catch (RuntimeException e) {
+                // the table was dropped, or the catalog was reset
+                failure = e;
+            }
+            synchronized (this) {
+                reanalyzing = false;
+            }
+            if (failure != null)
+                analyzeFailures.put(name, failure);
+        });
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
@@ -200,7 +819,7 @@ public class TableStats {
      * @return The estimated cardinality of the scan with the specified
      *         selectivityFactor
      */
-    public int estimateTableCardinality(double selectivityFactor) {
+    public synchronized int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
         return (int) (tuplesNum * selectivityFactor);
     }
@@ -215,10 +834,10 @@ public class TableStats {
      * tuple, of which we do not know the value of the field, return the
      * expected selectivity. You may estimate this value from the histograms.
      * */
-    public double avgSelectivity(int field, Predicate.Op op) {
+    public synchronized double avgSelectivity(int field, Predicate.Op op) {
         // some code goes here
         if (tupleDesc.getFieldType(field).equals(Type.INT_TYPE)) {
-            IntHistogram intHistogram = integerIntHistogramMap.get(field);
+            EquiDepthHistogram intHistogram = integerIntHistogramMap.get(field);
             return intHistogram.avgSelectivity();
         } else {
             StringHistogram stringHistogram = stringIntHistogramMap.get(field);
@@ -239,12 +858,12 @@ public class TableStats {
      * @return The estimated selectivity (fraction of tuples that satisfy) the
      *         predicate
      */
-    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+    public synchronized double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // some code goes here
         Type fieldType = tupleDesc.getFieldType(field);
         if(fieldType.equals(Type.INT_TYPE)){
             int value = ((IntField) constant).getValue();
-            IntHistogram histogram = integerIntHistogramMap.get(field);
+            EquiDepthHistogram histogram = integerIntHistogramMap.get(field);
             return histogram.estimateSelectivity(op,value);
         }
         else {
@@ -258,9 +877,61 @@ public class TableStats {
     /**
      * return the total number of tuples in this table
      * */
-    public int totalTuples() {
-        // some code goes here
-        return 0;
+    public synchronized int totalTuples() {
+        return tuplesNum;
+    }
+
+    /** @return the fraction of the pages of the table that were read */
+    public synchronized double getSampleFraction() {
+        return pagesNum == 0 ? 1.0 : (double) sampledPages / pagesNum;
+    }
+
+    /** @return the number of tuples that were read */
+    public int sampledTuples() {
+        return sampledTuples;
+    }
+
+    /**
+     * @return the standard error of {@link #totalTuples()}, which is 0 if the
+     *         whole table was read
+     */
+    public double cardinalityStdError() {
+        return cardinalityStdError;
+    }
+
+    /**
+     * The standard error of a selectivity estimated from the histograms, from
+     * the binomial variance of the fraction of sampled tuples that satisfy a
+     * predicate. Tuples on the same page are taken to be independent, which
+     * understates the error on tables clustered by the field.
+     *
+     * @param selectivity
+     *            an estimate returned by {@link #estimateSelectivity}
+     * @return the standard error of the estimate, which is 0 if the whole
+     *         table was read
+     */
+    public synchronized double selectivityStdError(double selectivity) {
+        if (sampledTuples == 0 || sampledPages >= pagesNum)
+            return 0;
+        double s = Math.min(1, Math.max(0, selectivity));
+        return Math.sqrt((1 - getSampleFraction()) * s * (1 - s) / sampledTuples);
+    }
+
+    /**
+     * The number of distinct values of a field: counted by the field's sketch
+     * if the whole table was read, and extrapolated from the sample
+     * otherwise, since a sketch of the sample only counts the values that
+     * turned up in it.
+     *
+     * @param field
+     *            the index of the field
+     * @return the estimated number of distinct values of the field, at least
+     *         1 unless the table is empty
+     */
+    public synchronized long estimateDistinctValues(int field) {
+        if (distinctValues != null)
+            return distinctValues[field];
+        return Math.min(tuplesNum, Math.max(sampledTuples > 0 ? 1 : 0, sketches[field].estimate()));
     }
 
 }
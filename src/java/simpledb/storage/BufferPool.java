@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.optimizer.TableStats;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -287,6 +288,11 @@ public class BufferPool {
         lockManager = new LockManager();
     }
 
+    /** @return the maximum number of pages this buffer pool caches */
+    public int getMaxPages() {
+        return numPages;
+    }
+
     /**
      * 获得bufferpool的size
      * @return size
@@ -351,28 +357,34 @@ public class BufferPool {
                 throw new TransactionAbortedException();
             }
         }
-        if(!bufferPool.containsKey(pid)){
-            DbFile databaseFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = databaseFile.readPage(pid);
-            LinkedNode linkedNode = new LinkedNode(pid, page);
-
-            if(numPages>bufferPool.size()){
-                addToHead(linkedNode);
-                bufferPool.put(pid,linkedNode);
-                return page;
-            }else{
-                evictPage();
-                addToHead(linkedNode);
-                bufferPool.put(pid,linkedNode);
-                return page;
-
+        // several threads of one transaction (e.g. parallel scan workers)
+        // may get here at once, so the page cache itself is guarded; the page
+        // is read from disk outside of the monitor, so that a miss does not
+        // hold up the hits of other threads
+        synchronized (this) {
+            LinkedNode linkedNode = bufferPool.get(pid);
+            if (linkedNode != null) {
+                moveToHead(linkedNode);
+                return linkedNode.page;
             }
-        }else {
+        }
+        DbFile databaseFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        Page page = databaseFile.readPage(pid);
+        synchronized (this) {
+            // another thread may have read the page in the meantime, and
+            // its copy is the one that may have been changed since
             LinkedNode linkedNode = bufferPool.get(pid);
-            moveToHead(linkedNode);
-            return linkedNode.page;
+            if (linkedNode != null) {
+                moveToHead(linkedNode);
+                return linkedNode.page;
+            }
+            if (numPages <= bufferPool.size())
+                evictPage();
+            linkedNode = new LinkedNode(pid, page);
+            addToHead(linkedNode);
+            bufferPool.put(pid, linkedNode);
+            return page;
         }
-
     }
 
     /**
@@ -428,6 +440,7 @@ public class BufferPool {
             restorePages(tid);
         }
         lockManager.completeTransaction(tid);
+        TableStats.transactionComplete(tid, commit);
     }
 
     public synchronized void restorePages(TransactionId tid){
@@ -458,6 +471,9 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * The statistics of the table, if it has any, count the tuple once the
+     * transaction commits; see {@link TableStats#tupleInserted}.
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
@@ -468,6 +484,7 @@ public class BufferPool {
         // not necessary for lab1
         DbFile databaseFile = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> pageList = databaseFile.insertTuple(tid, t);
+        TableStats.tupleInserted(tid, tableId, t);
         for(Page page:pageList) {
             PageId id = page.getId();
             page.markDirty(true,tid);
@@ -501,6 +518,9 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * The statistics of the table, if it has any, stop counting the tuple
+     * once the transaction commits; see {@link TableStats#tupleDeleted}.
+     *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
@@ -508,8 +528,10 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        DbFile databaseFile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile databaseFile = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> pageList = databaseFile.deleteTuple(tid, t);
+        TableStats.tupleDeleted(tid, tableId, t);
         for(Page page : pageList) {
             page.markDirty(true,tid);
             LinkedNode linkedNode = bufferPool.get(page.getId());
@@ -536,13 +558,14 @@ public class BufferPool {
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
+     * Clean pages are not written, so that the files of tables that were only
+     * read keep the modification time their persisted stats are stamped with.
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
         for(LinkedNode node:bufferPool.values()) {
-            DbFile databaseFile = Database.getCatalog().getDatabaseFile(node.page.getId().getTableId());
-            databaseFile.writePage(node.page);
+            flushPage(node.pageId);
         }
 
     }
@@ -9,6 +9,7 @@ import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Predicate;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -237,34 +238,172 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, 0, numPages(), null);
     }
+
+    /**
+     * Returns an iterator over the tuples on pages startPage (inclusive) to
+     * endPage (exclusive) of this file. Used to split a scan into page ranges
+     * that can be read independently.
+     *
+     * @param tid the transaction the pages are read on behalf of
+     * @param startPage the first page to read
+     * @param endPage one past the last page to read; clipped to numPages()
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage) {
+        return new HeapFileIterator(tid, startPage, Math.min(endPage, numPages()), null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on pages startPage (inclusive) to
+     * endPage (exclusive) of this file that filter accepts; see
+     * {@link HeapPage#iterator(Predicate)}.
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage, Predicate<Tuple> filter) {
+        return new HeapFileIterator(tid, startPage, Math.min(endPage, numPages()), filter);
+    }
+
+    /**
+     * Returns an iterator over all tuples of this file that shares its reads
+     * with the other shared scans of the file running at the same time, as
+     * described in {@link ScanSharing}. It may start in the middle of the file
+     * and wrap around, so the tuples are not returned in file order.
+     *
+     * @param tid the transaction the pages are read on behalf of
+     */
+    public DbFileIterator sharedIterator(TransactionId tid) {
+        return new SharedHeapFileIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that filter accepts,
+     * sharing its reads as {@link #sharedIterator(TransactionId)} does; see
+     * {@link HeapPage#iterator(Predicate)}.
+     */
+    public DbFileIterator sharedIterator(TransactionId tid, Predicate<Tuple> filter) {
+        return new SharedHeapFileIterator(tid, filter);
+    }
+
+    private class SharedHeapFileIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final int tableId;
+        private Iterator<Tuple> tupsIterator;
+        private int numPages;
+        private int firstPage;
+        /** Pages read so far, not counting the first. */
+        private int read;
+        private boolean attached;
+        /** The tuples to return, or null for all. */
+        private final Predicate<Tuple> filter;
+
+        public SharedHeapFileIterator(TransactionId tid, Predicate<Tuple> filter) {
+            this.tid = tid;
+            this.tableId = getId();
+            this.filter = filter;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            numPages = numPages();
+            read = 0;
+            if (numPages == 0) {
+                tupsIterator = Collections.emptyIterator();
+                return;
+            }
+            attached = ScanSharing.shouldShare(numPages);
+            firstPage = attached ? ScanSharing.attach(tableId, numPages) : 0;
+            tupsIterator = getTuplesIterator(firstPage);
+        }
+
+        private Iterator<Tuple> getTuplesIterator(int pageNumber) throws DbException, TransactionAbortedException {
+            HeapPageId heapPageId = new HeapPageId(tableId, pageNumber);
+            HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_ONLY);
+            return filter == null ? heapPage.iterator() : heapPage.iterator(filter);
+        }
+
+        @Override
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (tupsIterator == null) {
+                return false;
+            }
+            while (!tupsIterator.hasNext()) {
+                if (read >= numPages - 1) {
+                    detach();
+                    return false;
+                }
+                read++;
+                int pageNo = (firstPage + read) % numPages;
+                // a scan that wrapped around is behind the others
+                if (attached && firstPage + read < numPages)
+                    ScanSharing.report(tableId, pageNo);
+                tupsIterator = getTuplesIterator(pageNo);
+            }
+            return true;
+        }
+
+        @Override
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException("This is the last element");
+            }
+            return tupsIterator.next();
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        private void detach() {
+            if (attached) {
+                ScanSharing.detach(tableId);
+                attached = false;
+            }
+        }
+
+        @Override
+        public void close() {
+            detach();
+            tupsIterator = null;
+        }
+    }
+
     private class HeapFileIterator implements DbFileIterator{
         private final TransactionId tid;
         private Iterator<Tuple> tupsIterator;
         private final int tableId;
-        private final int numPages;
+        private final int startPage;
+        private final int endPage;
         private int pageNo;
+        /** The tuples to return, or null for all. */
+        private final Predicate<Tuple> filter;
 
 
-        public HeapFileIterator(TransactionId transactionId) {
+        public HeapFileIterator(TransactionId transactionId, int startPage, int endPage, Predicate<Tuple> filter) {
             this.tid = transactionId;
             tableId = getId();
-            numPages = numPages();
+            this.startPage = startPage;
+            this.endPage = endPage;
+            this.filter = filter;
         }
 
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            pageNo = 0;
-            tupsIterator = getTuplesIterator(pageNo);
+            pageNo = startPage;
+            if (pageNo < endPage) {
+                tupsIterator = getTuplesIterator(pageNo);
+            } else {
+                tupsIterator = Collections.emptyIterator();
+            }
         }
 
         private Iterator<Tuple> getTuplesIterator(int pageNumber) throws DbException, TransactionAbortedException {
-            if(pageNumber>=0 && pageNumber<=numPages){
+            if(pageNumber>=0 && pageNumber<endPage){
                 HeapPageId heapPageId = new HeapPageId(tableId,pageNumber);
                 HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_ONLY);
-                return heapPage.iterator();
+                return filter == null ? heapPage.iterator() : heapPage.iterator(filter);
             } else {
                 throw new DbException(String.format("heapfile %d does not contain page %d!",tableId, pageNumber));
             }
@@ -276,23 +415,20 @@ public class HeapFile implements DbFile {
             if(tupsIterator == null){
                 return false;
             }
-            if(!tupsIterator.hasNext()){
-                if(pageNo < (numPages-1)){
-                    pageNo++;
-                    tupsIterator = getTuplesIterator(pageNo);
-                    return tupsIterator.hasNext();
-                }else {
+            // skip over empty pages
+            while (!tupsIterator.hasNext()) {
+                if (pageNo >= endPage - 1) {
                     return false;
                 }
-            } else {
-                return true;
+                pageNo++;
+                tupsIterator = getTuplesIterator(pageNo);
             }
-
+            return true;
         }
 
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            if(tupsIterator==null || !tupsIterator.hasNext()){
+            if(!hasNext()){
                 throw new NoSuchElementException("This is the last element");
             }
             return tupsIterator.next();
@@ -312,4 +448,3 @@ public class HeapFile implements DbFile {
 
 
 }
-
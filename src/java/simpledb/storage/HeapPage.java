@@ -7,6 +7,7 @@ import simpledb.common.Catalog;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
+import java.util.function.Predicate;
 import java.io.*;
 
 /**
@@ -74,10 +75,18 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-        return (int)(BufferPool.getPageSize()*8/(td.getSize()*8+1));
+        return numSlots(td);
 
     }
 
+    /**
+     * @return the number of tuple slots on a page of a HeapFile with the
+     *         given schema
+     */
+    public static int numSlots(TupleDesc td) {
+        return (int)(BufferPool.getPageSize()*8/(td.getSize()*8+1));
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
@@ -329,6 +338,15 @@ public class HeapPage implements Page {
         return cnt;
     }
 
+    /**
+     * @return the tuple in slot i, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i))
+            return null;
+        return tuples[i];
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -371,5 +389,19 @@ public class HeapPage implements Page {
         return tupleArrayList.iterator();
     }
 
+    /**
+     * @return an iterator over the tuples on this page that filter accepts,
+     *         checked as the slots are read, so that rejected tuples are
+     *         never handed out
+     */
+    public Iterator<Tuple> iterator(Predicate<Tuple> filter) {
+        ArrayList<Tuple> tupleArrayList = new ArrayList<>();
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i) && filter.test(tuples[i]))
+                tupleArrayList.add(tuples[i]);
+        }
+        return tupleArrayList.iterator();
+    }
+
 }
 
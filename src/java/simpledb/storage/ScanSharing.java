@@ -0,0 +1,100 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ScanSharing lets concurrent sequential scans of the same HeapFile share
+ * their page reads. Each table being scanned has a cursor, the page its scans
+ * last moved to. A scan that starts while others are running begins at that
+ * page instead of page 0, reads to the end of the file together with them,
+ * and then wraps around to read the pages it missed. The scans thus ask the
+ * buffer pool for the same pages at about the same time, and a table that
+ * does not fit in the pool is read from disk about once instead of once per
+ * scan.
+ * <p>
+ * Only the leading scan of a table, the one furthest into the file that has
+ * not wrapped around yet, moves its cursor, so a new scan joins the front of
+ * the pack rather than a scan rereading the pages it missed.
+ * <p>
+ * Sharing is off by default, since a shared scan may return tuples in an
+ * order other than the file's; turn it on with {@link #setEnabled}. Only
+ * tables larger than the buffer pool are shared; smaller ones stay cached
+ * anyway, and their scans keep returning tuples in file order.
+ */
+public class ScanSharing {
+
+    private static volatile boolean enabled = false;
+
+    /** The cursor of each table with running shared scans. */
+    private static final Map<Integer, Cursor> cursors = new HashMap<>();
+
+    private ScanSharing() {
+    }
+
+    /** Turns scan sharing on or off for scans opened from now on. */
+    public static void setEnabled(boolean enabled) {
+        ScanSharing.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true if a scan of a file with the given number of pages should
+     *         be shared
+     */
+    static boolean shouldShare(int numPages) {
+        return enabled && numPages > Database.getBufferPool().getMaxPages();
+    }
+
+    /**
+     * Registers a scan of a table.
+     *
+     * @return the page the scan should start at: the cursor of the table if
+     *         other scans are running, and 0 otherwise
+     */
+    static synchronized int attach(int tableid, int numPages) {
+        Cursor c = cursors.get(tableid);
+        if (c == null) {
+            c = new Cursor();
+            cursors.put(tableid, c);
+        }
+        if (c.scans == 0 || c.page >= numPages)
+            c.page = 0;
+        c.scans++;
+        return c.page;
+    }
+
+    /**
+     * Moves the cursor of a table to the page one of its scans just read, if
+     * that scan is now the leading one. Scans must stop reporting once they
+     * wrap around.
+     */
+    static synchronized void report(int tableid, int page) {
+        Cursor c = cursors.get(tableid);
+        if (c != null && page > c.page)
+            c.page = page;
+    }
+
+    /** Unregisters a scan of a table that has finished or was closed. */
+    static synchronized void detach(int tableid) {
+        Cursor c = cursors.get(tableid);
+        if (c != null && --c.scans == 0)
+            cursors.remove(tableid);
+    }
+
+    /** @return the number of running shared scans of a table */
+    public static synchronized int activeScans(int tableid) {
+        Cursor c = cursors.get(tableid);
+        return c == null ? 0 : c.scans;
+    }
+
+    private static class Cursor {
+        int scans;
+        int page;
+    }
+}
@@ -0,0 +1,44 @@
+package simpledb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simpledb.optimizer.DistinctSample;
+
+public class DistinctSampleTest {
+
+	/**
+	 * Until the sample is full, it counts the distinct values and those seen
+	 * once exactly.
+	 */
+	@Test public void exactTest() {
+		DistinctSample s = new DistinctSample(100);
+		for (int i = 0; i < 60; i++)
+			s.addValue(i);
+		for (int i = 0; i < 20; i++)
+			s.addValue(i);
+		s.addValue("a");
+		s.addValue("a");
+		Assert.assertEquals(61, s.distinct());
+		Assert.assertEquals(40, s.singletons());
+	}
+
+	/**
+	 * Once full, the sample estimates both counts, within a few standard
+	 * errors of 1 / sqrt(capacity), however many values are added.
+	 */
+	@Test public void estimateTest() {
+		DistinctSample s = new DistinctSample(1024);
+		// 200000 values, of which the odd ones are seen once and the even
+		// ones three times
+		for (int i = 0; i < 200000; i++) {
+			s.addValue(i);
+			if (i % 2 == 0) {
+				s.addValue(i);
+				s.addValue(i);
+			}
+		}
+		Assert.assertEquals(200000, s.distinct(), 200000 * 4 / 32.0);
+		Assert.assertEquals(100000, s.singletons(), 100000 * 4 / 32.0);
+	}
+}
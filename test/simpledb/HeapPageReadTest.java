@@ -102,6 +102,27 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit simpledb.test for HeapPage.iterator(Predicate)
+     */
+    @Test public void testFilteredIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator(t -> ((IntField) t.getField(0)).getValue() < 20000);
+
+        int row = 0;
+        for (int[] values : EXAMPLE_VALUES) {
+            if (values[0] >= 20000)
+                continue;
+            assertTrue(it.hasNext());
+            Tuple tup = it.next();
+            assertEquals(values[0], ((IntField) tup.getField(0)).getValue());
+            assertEquals(values[1], ((IntField) tup.getField(1)).getValue());
+            row++;
+        }
+        assertFalse(it.hasNext());
+        assertTrue(row > 0);
+    }
+
     /**
      * Unit simpledb.test for HeapPage.getNumEmptySlots()
      */
@@ -0,0 +1,68 @@
+package simpledb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simpledb.optimizer.HyperLogLog;
+
+public class HyperLogLogTest {
+
+	private static void assertClose(long expected, long actual, double relativeError) {
+		Assert.assertEquals(expected, actual, Math.max(1, expected * relativeError));
+	}
+
+	/**
+	 * Small counts are estimated by linear counting, which is nearly exact.
+	 */
+	@Test public void smallCountTest() {
+		HyperLogLog h = new HyperLogLog();
+		Assert.assertEquals(0, h.estimate());
+		for (int i = 0; i < 100; i++) {
+			h.addValue(i);
+			h.addValue(i);
+		}
+		assertClose(100, h.estimate(), 0.02);
+	}
+
+	/**
+	 * Large counts are within a few standard errors, whatever the spacing of
+	 * the values, and repeats do not change the estimate.
+	 */
+	@Test public void largeCountTest() {
+		for (int step : new int[] { 1, 7, 1 << 10 }) {
+			HyperLogLog h = new HyperLogLog();
+			for (int i = 0; i < 500000; i++)
+				h.addValue(i * step);
+			long once = h.estimate();
+			assertClose(500000, once, 4 * h.relativeError());
+			for (int i = 0; i < 500000; i += 3)
+				h.addValue(i * step);
+			Assert.assertEquals(once, h.estimate());
+		}
+	}
+
+	@Test public void stringTest() {
+		HyperLogLog h = new HyperLogLog();
+		for (int i = 0; i < 50000; i++)
+			h.addValue("value" + (i % 20000));
+		assertClose(20000, h.estimate(), 4 * h.relativeError());
+	}
+
+	/**
+	 * A merged sketch counts the union of the values of its inputs.
+	 */
+	@Test public void mergeTest() {
+		HyperLogLog a = new HyperLogLog();
+		HyperLogLog b = new HyperLogLog();
+		for (int i = 0; i < 30000; i++) {
+			a.addValue(i);
+			b.addValue(i + 20000);
+		}
+		a.merge(b);
+		assertClose(50000, a.estimate(), 4 * a.relativeError());
+	}
+
+	@Test(expected = IllegalArgumentException.class) public void mergePrecisionTest() {
+		new HyperLogLog(10).merge(new HyperLogLog(12));
+	}
+}
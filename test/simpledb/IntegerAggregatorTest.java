@@ -130,6 +130,21 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test that an ungrouped aggregate over no tuples returns one tuple
+   */
+  @Test public void mergeEmpty() throws Exception {
+    IntegerAggregator agg = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.COUNT);
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 0 }), it);
+
+    agg = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.SUM);
+    it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 0 }), it);
+  }
+
   /**
    * Test IntegerAggregator.iterator() for OpIterator behaviour
    */
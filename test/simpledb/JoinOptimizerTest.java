@@ -11,9 +11,14 @@ import org.junit.Test;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
 import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
 import simpledb.optimizer.JoinOptimizer;
 import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.OperatorCardinality;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.BufferPool;
 import simpledb.storage.HeapFile;
@@ -274,6 +279,49 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(cardinality == 800 || cardinality == 2000);
     }
 
+    /**
+     * Verify that equi-join and group-by cardinalities follow the number of
+     * distinct values of their fields
+     */
+    @Test
+    public void distinctValueCardinalityTest() throws ParsingException, IOException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                        + " t2 WHERE t1.c3 = t2.c4;"),
+                new ArrayList<>());
+
+        // every column holds the 20 values 0..19, so each tuple of one side
+        // matches a twentieth of the other
+        Assert.assertEquals(20, stats1.estimateDistinctValues(3));
+        Assert.assertEquals(20, stats2.estimateDistinctValues(4));
+        int card1 = stats1.estimateTableCardinality(0.8);
+        int card2 = stats2.estimateTableCardinality(0.2);
+        int cardinality = j.estimateJoinCardinality(new LogicalJoinNode("t1", "t2",
+                "c3", "c4", Predicate.Op.EQUALS), card1, card2, false, false,
+                TableStats.getStatsMap());
+        Assert.assertEquals(card1 * card2 / 20, cardinality);
+
+        // a side with fewer tuples than distinct values keeps them all
+        cardinality = j.estimateJoinCardinality(new LogicalJoinNode("t1", "t2",
+                "c3", "c4", Predicate.Op.EQUALS), 5, card2, false, false,
+                TableStats.getStatsMap());
+        Assert.assertEquals(card2 / 20 * 5, cardinality);
+
+        cardinality = j.estimateJoinCardinality(new LogicalJoinNode("t1", "t2",
+                "c3", "c4", Predicate.Op.NOT_EQUALS), card1, card2, false, false,
+                TableStats.getStatsMap());
+        Assert.assertEquals(card1 * card2 - card1 * card2 / 20, cardinality);
+
+        Aggregate agg = new Aggregate(new SeqScan(tid, tableId2, "t2"), 1, 0,
+                Aggregator.Op.COUNT);
+        Map<String, Integer> aliases = new HashMap<>();
+        aliases.put("t2", tableId2);
+        OperatorCardinality.updateOperatorCardinality(agg, aliases, TableStats.getStatsMap());
+        Assert.assertEquals(20, agg.getEstimatedCardinality());
+    }
+
     /**
      * Determine whether the orderJoins implementation is doing a reasonable job
      * of ordering joins, and not taking an unreasonable amount of time to do so
@@ -384,6 +432,62 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
                 && (result.get(0).t1Alias.equals("hobbies") || result.get(0).t2Alias.equals("hobbies")));
     }
 
+    /**
+     * Plan the join of orderJoinsTest with statistics from samples of the
+     * tables, and check that it matches the plan from full scans.
+     */
+    @Test
+    public void sampledStatsOrderJoinsTest() throws ParsingException, IOException {
+        final int IO_COST = 101;
+        final double FRACTION = 0.05;
+
+        TransactionId tid = new TransactionId();
+        String[] names = { "emp", "dept", "hobby", "hobbies" };
+        int[][] shapes = { { 6, 100000 }, { 3, 1000 }, { 6, 1000 }, { 2, 200000 } };
+        Map<String, TableStats> full = new HashMap<>();
+        Map<String, TableStats> sampled = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(shapes[i][0], shapes[i][1], null,
+                    new ArrayList<>(), "c");
+            Database.getCatalog().addTable(f, names[i]);
+            full.put(names[i], new TableStats(f.getId(), IO_COST));
+            sampled.put(names[i], new TableStats(f.getId(), IO_COST, FRACTION));
+            filterSelectivities.put(names[i], 1.0);
+        }
+        filterSelectivities.put("emp", 0.1);
+
+        // the large tables are sampled, and their sizes are close
+        Assert.assertTrue(sampled.get("hobbies").getSampleFraction() < 0.1);
+        for (String name : names) {
+            TableStats s = sampled.get(name);
+            Assert.assertEquals(full.get(name).totalTuples(), s.totalTuples(),
+                    4 * s.cardinalityStdError() + 0.01 * s.totalTuples());
+        }
+
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        nodes.add(new LogicalJoinNode("hobbies", "hobby", "c1", "c0",
+                Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("emp", "dept", "c1", "c0",
+                Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("emp", "hobbies", "c2", "c0",
+                Predicate.Op.EQUALS));
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(
+                p.generateLogicalPlan(
+                        tid,
+                        "SELECT * FROM emp,dept,hobbies,hobby WHERE emp.c1 = dept.c0 AND hobbies.c0 = emp.c2 AND hobbies.c1 = hobby.c0 AND e.c3 < 1000;"),
+                nodes);
+
+        List<LogicalJoinNode> fromFull = j.orderJoins(full, filterSelectivities, false);
+        List<LogicalJoinNode> fromSample = j.orderJoins(sampled, filterSelectivities, false);
+        Assert.assertEquals(fromFull.size(), fromSample.size());
+        for (int i = 0; i < fromFull.size(); i++) {
+            Assert.assertEquals(fromFull.get(i).t1Alias, fromSample.get(i).t1Alias);
+            Assert.assertEquals(fromFull.get(i).t2Alias, fromSample.get(i).t2Alias);
+        }
+    }
+
     /**
      * Test a much-larger join ordering, to confirm that it executes in a
      * reasonable amount of time
@@ -629,4 +733,226 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * @return the joins of a chain (t0-t1, t1-t2, ...), star (t0-ti) or
+     *         clique (every pair) of n tables
+     */
+    private static List<LogicalJoinNode> joinGraph(String shape, int n) {
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        for (int a = 0; a < n; a++) {
+            for (int b = a + 1; b < n; b++) {
+                if (shape.equals("clique") || (shape.equals("chain") && b == a + 1)
+                        || (shape.equals("star") && a == 0))
+                    nodes.add(new LogicalJoinNode("t" + a, "t" + b, "c" + (b % 2), "c" + (a % 2),
+                            Predicate.Op.EQUALS));
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Check that a plan is a left-deep order of the given joins: each join
+     * after the first adds at most one new table to the tables joined so far.
+     */
+    private static void assertLeftDeep(List<LogicalJoinNode> nodes, List<LogicalJoinNode> result) {
+        Assert.assertEquals(nodes.size(), result.size());
+        Set<String> joined = new HashSet<>();
+        Set<Set<String>> pairs = new HashSet<>();
+        for (LogicalJoinNode j : result) {
+            if (!joined.isEmpty())
+                Assert.assertTrue(joined.contains(j.t1Alias) || joined.contains(j.t2Alias));
+            joined.add(j.t1Alias);
+            joined.add(j.t2Alias);
+            pairs.add(new HashSet<>(Arrays.asList(j.t1Alias, j.t2Alias)));
+        }
+        for (LogicalJoinNode j : nodes)
+            Assert.assertTrue(pairs.contains(new HashSet<>(Arrays.asList(j.t1Alias, j.t2Alias))));
+    }
+
+    /**
+     * Create tables t0 to t(n - 1) of two columns c0 and c1, of 100 to 1500
+     * rows, with their stats.
+     *
+     * @return the plan of a query over all of them
+     */
+    private static LogicalPlan createTables(int n, Map<String, TableStats> stats,
+                                            Map<String, Double> filterSelectivities)
+            throws IOException, ParsingException {
+        StringBuilder from = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100 * (i % 15 + 1), 50 * (i % 15 + 1), null,
+                    new ArrayList<>(), "c");
+            Database.getCatalog().addTable(f, "t" + i);
+            stats.put("t" + i, new TableStats(f.getId(), 1000));
+            filterSelectivities.put("t" + i, 1.0);
+            from.append(i == 0 ? "" : ", ").append("t").append(i);
+        }
+        return new Parser().generateLogicalPlan(new TransactionId(), "SELECT * FROM " + from + ";");
+    }
+
+    /**
+     * The number of csg-cmp pairs of a join graph of n relations of the given
+     * shape, in which one side is a single relation if bushy is false.
+     */
+    private static long expectedPairs(String shape, int n, boolean bushy) {
+        switch (shape) {
+        case "chain":
+            return bushy ? ((long) n * n * n - n) / 6 : (long) (n - 1) * (n - 1);
+        case "star":
+            return (long) (n - 1) << (n - 2);
+        default:
+            long pow3 = 1;
+            for (int i = 0; i < n; i++)
+                pow3 *= 3;
+            return bushy ? (pow3 - (2L << n) + 1) / 2 : ((long) n << (n - 1)) - n - (long) n * (n - 1) / 2;
+        }
+    }
+
+    /**
+     * Plan chain, star and clique joins of 5 to 15 tables. The join graph is
+     * enumerated by connected pairs of sets, so each of them is costed once:
+     * polynomially many for chains, and exponentially many only for stars and
+     * cliques, of which every connected set is a plan.
+     */
+    @Test(timeout = 120000)
+    public void planningWorkTest() throws IOException, ParsingException {
+        final int TABLES = 15;
+        Map<String, TableStats> stats = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        LogicalPlan lp = createTables(TABLES, stats, filterSelectivities);
+
+        try {
+            JoinOptimizer.setExhaustiveThreshold(TABLES);
+            for (String shape : new String[] { "chain", "star", "clique" }) {
+                for (int n = 5; n <= TABLES; n++) {
+                    List<LogicalJoinNode> nodes = joinGraph(shape, n);
+                    JoinOptimizer jo = new JoinOptimizer(lp, nodes);
+                    assertLeftDeep(nodes, jo.orderJoins(stats, filterSelectivities, false));
+                    Assert.assertEquals(shape + " of " + n, expectedPairs(shape, n, false), jo.getPairsCosted());
+                }
+            }
+        } finally {
+            JoinOptimizer.setExhaustiveThreshold(12);
+        }
+    }
+
+    /**
+     * Joins of more relations than the exhaustive threshold are ordered
+     * greedily, in time polynomial in the relations, into plans that join
+     * them all.
+     */
+    @Test(timeout = 120000)
+    public void greedyOrderJoinsTest() throws IOException, ParsingException {
+        final int TABLES = 40;
+        Map<String, TableStats> stats = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        LogicalPlan lp = createTables(TABLES, stats, filterSelectivities);
+
+        for (String shape : new String[] { "chain", "star", "clique" }) {
+            List<LogicalJoinNode> nodes = joinGraph(shape, TABLES);
+            JoinOptimizer jo = new JoinOptimizer(lp, nodes);
+            assertLeftDeep(nodes, jo.orderJoins(stats, filterSelectivities, false));
+            // from each start, each step costs a join with each neighbor
+            Assert.assertTrue(shape + " costed " + jo.getPairsCosted() + " joins",
+                    jo.getPairsCosted() <= (long) TABLES * (TABLES - 1) * (TABLES - 1));
+        }
+
+        // the threshold is configurable
+        List<LogicalJoinNode> nodes = joinGraph("star", 8);
+        try {
+            JoinOptimizer.setExhaustiveThreshold(1);
+            assertLeftDeep(nodes, new JoinOptimizer(lp, nodes).orderJoins(stats, filterSelectivities, false));
+        } finally {
+            JoinOptimizer.setExhaustiveThreshold(12);
+        }
+    }
+
+    /**
+     * Check that a plan orders the given joins so that each join of two
+     * different sets of tables comes after the joins within each set.
+     *
+     * @return whether the plan is bushy: some join has joins of several
+     *         tables on both of its sides
+     */
+    private static boolean assertValidPlan(List<LogicalJoinNode> nodes, List<LogicalJoinNode> result) {
+        Assert.assertEquals(nodes.size(), result.size());
+        Map<String, Set<String>> sets = new HashMap<>();
+        boolean bushy = false;
+        for (LogicalJoinNode j : result) {
+            Set<String> s1 = sets.getOrDefault(j.t1Alias, new HashSet<>(Collections.singleton(j.t1Alias)));
+            Set<String> s2 = sets.getOrDefault(j.t2Alias, new HashSet<>(Collections.singleton(j.t2Alias)));
+            bushy |= s1 != s2 && s1.size() > 1 && s2.size() > 1;
+            s1.addAll(s2);
+            for (String alias : s1)
+                sets.put(alias, s1);
+        }
+        Assert.assertEquals(new HashSet<>(sets.values()).size(), 1);
+        return bushy;
+    }
+
+    /**
+     * Plan a chain of four tables of the given sizes, over the same values,
+     * left-deep and with bushy plans allowed.
+     *
+     * @return whether the plan with bushy plans allowed is bushy
+     */
+    private static boolean planChain(int... rows) throws IOException, ParsingException {
+        Map<String, TableStats> stats = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        for (int i = 0; i < rows.length; i++) {
+            // row j holds j % 100 in both columns, so the plan does not depend on random stats
+            List<List<Integer>> tuples = new ArrayList<>();
+            for (int j = 0; j < rows[i]; j++)
+                tuples.add(Arrays.asList(j % 100, j % 100));
+            HeapFile f = SystemTestUtil.createHeapFile(2, tuples, "c");
+            Database.getCatalog().addTable(f, "b" + i);
+            stats.put("b" + i, new TableStats(f.getId(), 1000));
+            filterSelectivities.put("b" + i, 1.0);
+        }
+        LogicalPlan lp = new Parser().generateLogicalPlan(new TransactionId(), "SELECT * FROM b0, b1, b2, b3;");
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        nodes.add(new LogicalJoinNode("b0", "b1", "c0", "c1", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("b1", "b2", "c0", "c1", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("b2", "b3", "c0", "c1", Predicate.Op.EQUALS));
+
+        Assert.assertFalse(assertValidPlan(nodes, new JoinOptimizer(lp, nodes)
+                .orderJoins(stats, filterSelectivities, false)));
+        try {
+            JoinOptimizer.setBushyPlans(true);
+            return assertValidPlan(nodes, new JoinOptimizer(lp, nodes).orderJoins(stats, filterSelectivities, false));
+        } finally {
+            JoinOptimizer.setBushyPlans(false);
+        }
+    }
+
+    /**
+     * With bushy plans allowed, a chain whose small ends each join a large
+     * table into a small result is planned by joining the ends first, rather
+     * than the two large tables into a large result. Bushy plans are costed
+     * as left-deep ones are, so that a chain whose large tables are at one end
+     * is still planned left-deep.
+     */
+    @Test(timeout = 120000)
+    public void bushyOrderJoinsTest() throws IOException, ParsingException {
+        Assert.assertTrue(planChain(20, 2000, 2000, 20));
+        Assert.assertFalse(planChain(20, 20, 2000, 2000));
+
+        Map<String, TableStats> stats = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        LogicalPlan lp = createTables(12, stats, filterSelectivities);
+        try {
+            JoinOptimizer.setBushyPlans(true);
+
+            // every pair of disjoint connected sets is a candidate now
+            for (String shape : new String[] { "chain", "star", "clique" }) {
+                List<LogicalJoinNode> joins = joinGraph(shape, 12);
+                JoinOptimizer jo = new JoinOptimizer(lp, joins);
+                assertValidPlan(joins, jo.orderJoins(stats, filterSelectivities, false));
+                Assert.assertEquals(shape, expectedPairs(shape, 12, true), jo.getPairsCosted());
+            }
+        } finally {
+            JoinOptimizer.setBushyPlans(false);
+        }
+    }
 }
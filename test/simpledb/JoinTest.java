@@ -13,6 +13,7 @@ import simpledb.execution.Join;
 import simpledb.execution.JoinPredicate;
 import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -112,6 +113,31 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit simpledb.test for Join.getNext() when the outer relation spans
+   * several blocks, so the inner relation is rescanned per block
+   */
+  @Test public void gtJoinMultipleBlocks() throws Exception {
+    // one two-int tuple per page, so each block buffers two outer tuples
+    BufferPool.setPageSize(16);
+    try {
+      JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+      Join op = new Join(pred, scan1, scan2, 2);
+      assertEquals(2, op.getBlockSize());
+      op.open();
+      int count = 0;
+      while (op.hasNext()) {
+        assertNotNull(op.next());
+        count++;
+      }
+      assertEquals(11, count);
+      gtJoin.open();
+      TestUtil.matchAllTuples(gtJoin, op);
+    } finally {
+      BufferPool.resetPageSize();
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,182 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TopN;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class LimitTest extends SimpleDbTestBase {
+
+  final int testWidth = 2;
+  OpIterator scan;
+  OpIterator unsorted;
+
+  /**
+   * Initialize each unit simpledb.test
+   */
+  @Before public void setUp() {
+    this.scan = new TestUtil.MockScan(-5, 5, testWidth);
+    this.unsorted = TestUtil.createTupleList(testWidth,
+        new int[] { 3, 0,
+                    1, 1,
+                    4, 2,
+                    1, 3,
+                    5, 4,
+                    9, 5,
+                    2, 6,
+                    6, 7 });
+  }
+
+  /**
+   * Unit simpledb.test for Limit.getNext() with a limit and no offset; the
+   * child must not be drained past the limit.
+   */
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(3, 0, scan);
+    op.open();
+    TestUtil.compareDbIterators(op, new TestUtil.MockScan(-5, -2, testWidth));
+    op.close();
+  }
+
+  /**
+   * Unit simpledb.test for Limit.getNext() with an offset
+   */
+  @Test public void limitOffset() throws Exception {
+    Limit op = new Limit(4, 2, scan);
+    op.open();
+    TestUtil.compareDbIterators(op, new TestUtil.MockScan(-3, 1, testWidth));
+    op.rewind();
+    TestUtil.compareDbIterators(op, new TestUtil.MockScan(-3, 1, testWidth));
+    op.close();
+  }
+
+  /**
+   * Unit simpledb.test for Limit.getNext() where the child ends before the limit
+   */
+  @Test public void limitPastEnd() throws Exception {
+    Limit op = new Limit(100, 8, scan);
+    op.open();
+    TestUtil.compareDbIterators(op, new TestUtil.MockScan(3, 5, testWidth));
+    op.close();
+
+    op = new Limit(0, 0, new TestUtil.MockScan(-5, 5, testWidth));
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Unit simpledb.test for TopN.getNext(), ascending
+   */
+  @Test public void topNAscending() throws Exception {
+    TopN op = new TopN(new int[] { 0, 1 }, new boolean[] { true, true }, 3, 0, unsorted);
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(testWidth,
+        new int[] { 1, 1, 1, 3, 2, 6 });
+    TestUtil.compareDbIterators(op, expected);
+    op.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(op, expected);
+    op.close();
+  }
+
+  /**
+   * Unit simpledb.test for TopN.getNext(), descending with an offset and a
+   * secondary key
+   */
+  @Test public void topNDescendingOffset() throws Exception {
+    TopN op = new TopN(new int[] { 0, 1 }, new boolean[] { false, false }, 3, 2, unsorted);
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(testWidth,
+        new int[] { 5, 4, 4, 2, 3, 0 });
+    TestUtil.compareDbIterators(op, expected);
+    op.close();
+  }
+
+  /**
+   * Parser simpledb.test: LIMIT and OFFSET reach the logical plan
+   */
+  @Test public void parseLimit() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, 20, null, null, "c");
+    Database.getCatalog().addTable(f, "lim");
+    TableStats.setTableStats("lim", new TableStats(f.getId(), 19));
+    Parser p = new Parser();
+    TransactionId tid = new TransactionId();
+
+    LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT * FROM lim ORDER BY lim.c0 LIMIT 5 OFFSET 2;");
+    assertEquals(5, lp.getLimit());
+    assertEquals(2, lp.getOffset());
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+    plan.open();
+    int count = 0;
+    for (; plan.hasNext(); plan.next())
+      count++;
+    assertEquals(5, count);
+    plan.close();
+
+    lp = p.generateLogicalPlan(tid, "SELECT * FROM lim limit 3, 7;");
+    assertEquals(7, lp.getLimit());
+    assertEquals(3, lp.getOffset());
+    plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof Limit);
+
+    lp = p.generateLogicalPlan(tid, "SELECT * FROM lim;");
+    assertEquals(-1, lp.getLimit());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** @return the number of tuples in the table with the given id */
+  private static int countTuples(int tableId) throws Exception {
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, tableId);
+    scan.open();
+    int count = 0;
+    for (; scan.hasNext(); scan.next())
+      count++;
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+    return count;
+  }
+
+  /**
+   * Parser simpledb.test: the LIMIT of an INSERT ... SELECT applies to its
+   * query, and a LIMIT on a DELETE is rejected rather than ignored
+   */
+  @Test public void parseLimitOnUpdates() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, 20, null, null, "c");
+    Database.getCatalog().addTable(f, "lim");
+    // Insert requires the columns of the table to be named as those of the query
+    HeapFile g = SystemTestUtil.createRandomHeapFile(2, 0, 20, null, null, "lim.c");
+    Database.getCatalog().addTable(g, "lim2");
+    Parser p = new Parser();
+
+    p.processNextStatement("INSERT INTO lim2 SELECT * FROM lim LIMIT 3;");
+    assertEquals(3, countTuples(g.getId()));
+
+    p.processNextStatement("DELETE FROM lim LIMIT 2;");
+    assertEquals(10, countTuples(f.getId()));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LimitTest.class);
+  }
+}
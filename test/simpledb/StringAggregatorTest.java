@@ -57,6 +57,16 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test that an ungrouped COUNT over no tuples returns one tuple holding 0
+   */
+  @Test public void countEmpty() throws Exception {
+    StringAggregator agg = new StringAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.COUNT);
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 0 }), it);
+  }
+
   /**
    * Test StringAggregator.iterator() for OpIterator behaviour
    */
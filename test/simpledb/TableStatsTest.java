@@ -1,8 +1,11 @@
 package simpledb;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -10,10 +13,14 @@ import org.junit.Assert;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Utility;
 import simpledb.execution.Predicate;
+import simpledb.optimizer.IntHistogram;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.Field;
+import simpledb.storage.BufferPool;
 import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
 import simpledb.storage.IntField;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -160,4 +167,156 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/**
+	 * Verify the estimates for a column whose range is only discovered while
+	 * the table is read: values far apart on both sides of the first one.
+	 */
+	@Test public void wideRangeColumnTest() throws IOException {
+		List<List<Integer>> rows = new ArrayList<>();
+		Random r = new Random(7);
+		for (int i = 0; i < 20000; i++)
+			rows.add(Arrays.asList(r.nextInt(1000), i % 10));
+		rows.add(Arrays.asList(-1000000, 0));
+		rows.add(Arrays.asList(5000000, 0));
+		File file = File.createTempFile("table", ".dat");
+		file.deleteOnExit();
+		HeapFileEncoder.convert(rows, file, BufferPool.getPageSize(), 2);
+		HeapFile hf = Utility.openHeapFile(2, file);
+
+		TableStats s = new TableStats(hf.getId(), IO_COST);
+		Assert.assertEquals(rows.size(), s.totalTuples());
+		// the outliers widen the buckets, but each is still counted in its own
+		Assert.assertEquals(1.0 / rows.size(), s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(3000000)), 0.0001);
+		Assert.assertEquals(1.0 / rows.size(), s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(-500000)), 0.0001);
+		Assert.assertEquals(1.0, s.estimateSelectivity(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(5000000)), 0.001);
+		Assert.assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(5000000)), 0.001);
+		// a narrow column keeps one value per bucket
+		Assert.assertEquals(0.1, s.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(3)), 0.001);
+		Assert.assertEquals(0.3, s.estimateSelectivity(1, Predicate.Op.LESS_THAN, new IntField(3)), 0.001);
+	}
+
+	/**
+	 * Verify that statistics from a sample of the pages are within their
+	 * error bounds of the statistics of the whole table.
+	 */
+	@Test public void sampledStatsTest() throws IOException {
+		List<List<Integer>> rows = new ArrayList<>();
+		Random r = new Random(11);
+		for (int i = 0; i < 60000; i++)
+			rows.add(Arrays.asList(r.nextInt(1000), i % 10, i));
+		File file = File.createTempFile("table", ".dat");
+		file.deleteOnExit();
+		HeapFileEncoder.convert(rows, file, BufferPool.getPageSize(), 3);
+		HeapFile hf = Utility.openHeapFile(3, file);
+
+		TableStats full = new TableStats(hf.getId(), IO_COST);
+		TableStats sampled = new TableStats(hf.getId(), IO_COST, 0.2);
+		Assert.assertEquals(1.0, full.getSampleFraction(), 0.0);
+		Assert.assertEquals(0.0, full.cardinalityStdError(), 0.0);
+		Assert.assertEquals(0.2, sampled.getSampleFraction(), 0.01);
+		Assert.assertTrue(sampled.sampledTuples() < rows.size() / 4);
+		Assert.assertEquals(full.estimateScanCost(), sampled.estimateScanCost(), 0.0);
+
+		// only the last page is not full, so the extrapolation is close
+		Assert.assertEquals(rows.size(), sampled.totalTuples(),
+				4 * sampled.cardinalityStdError() + 0.01 * rows.size());
+
+		for (int v : new int[] { 100, 500, 900 }) {
+			double sel = sampled.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(v));
+			Assert.assertEquals(full.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(v)), sel,
+					4 * sampled.selectivityStdError(sel) + 0.01);
+		}
+		Assert.assertEquals(0.1, sampled.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(3)), 0.02);
+
+		// the full scan counts distinct values with a sketch
+		Assert.assertEquals(1000, full.estimateDistinctValues(0), 50);
+		Assert.assertEquals(10, full.estimateDistinctValues(1));
+		Assert.assertEquals(rows.size(), full.estimateDistinctValues(2), 0.05 * rows.size());
+		// almost every value of the narrow columns turns up more than once
+		Assert.assertEquals(1000, sampled.estimateDistinctValues(0), 10);
+		Assert.assertEquals(10, sampled.estimateDistinctValues(1));
+		// a key is seen once per sampled tuple; the estimate is within a
+		// factor sqrt(N / n) of the truth, give or take the error of N
+		long keys = sampled.estimateDistinctValues(2);
+		double bound = Math.sqrt((double) sampled.totalTuples() / sampled.sampledTuples());
+		Assert.assertTrue(keys <= 1.05 * rows.size() * bound && keys >= 0.95 * rows.size() / bound);
+	}
+
+	/**
+	 * Measure the selectivity error of the histograms on Zipfian data, whose
+	 * most common values dominate the equality estimates, against a
+	 * fixed-width IntHistogram over the same values.
+	 */
+	@Test public void zipfianSelectivityTest() throws IOException {
+		final int distinct = 5000;
+		final int n = 100000;
+		// rank r is drawn with probability proportional to 1 / r, and maps to
+		// a value scattered over [0, 10 * distinct)
+		double[] cdf = new double[distinct];
+		double sum = 0;
+		for (int r = 0; r < distinct; r++) {
+			sum += 1.0 / (r + 1);
+			cdf[r] = sum;
+		}
+		Random rand = new Random(3);
+		int[] counts = new int[10 * distinct];
+		List<List<Integer>> rows = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			int r = Arrays.binarySearch(cdf, rand.nextDouble() * sum);
+			int v = ((r < 0 ? -r - 1 : r) * 7919) % (10 * distinct);
+			counts[v]++;
+			rows.add(Arrays.asList(v, i));
+		}
+		File file = File.createTempFile("table", ".dat");
+		file.deleteOnExit();
+		HeapFileEncoder.convert(rows, file, BufferPool.getPageSize(), 2);
+		HeapFile hf = Utility.openHeapFile(2, file);
+
+		TableStats s = new TableStats(hf.getId(), IO_COST);
+		IntHistogram fixed = new IntHistogram(100, 0, 10 * distinct - 1);
+		for (List<Integer> row : rows)
+			fixed.addValue(row.get(0));
+
+		// the equality estimates of the 20 most common values
+		double error = 0, fixedError = 0;
+		for (int r = 0; r < 20; r++) {
+			int v = (r * 7919) % (10 * distinct);
+			double truth = (double) counts[v] / n;
+			error += Math.abs(s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(v)) - truth) / truth;
+			fixedError += Math.abs(fixed.estimateSelectivity(Predicate.Op.EQUALS, v) - truth) / truth;
+		}
+		Assert.assertTrue("MCV equality error " + error / 20, error / 20 < 0.02);
+		Assert.assertTrue("fixed-width equality error " + fixedError / 20, fixedError / 20 > 0.5);
+
+		// range estimates over the whole domain
+		double rangeError = 0;
+		int below = 0;
+		for (int v = 0, next = 0; v <= 10 * distinct; v += distinct / 10) {
+			for (; next < v; next++)
+				below += counts[next];
+			rangeError = Math.max(rangeError,
+					Math.abs(s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(v)) - (double) below / n));
+		}
+		Assert.assertTrue("max range error " + rangeError, rangeError < 0.01);
+
+		// the chance that two tuples share a value
+		double truth = 0;
+		for (int c : counts)
+			truth += ((double) c / n) * ((double) c / n);
+		double avg = s.avgSelectivity(0, Predicate.Op.EQUALS);
+		Assert.assertEquals("avg selectivity, fixed-width: " + fixed.avgSelectivity(), truth, avg, 0.1 * truth);
+		// a key has a selectivity of 1 / n
+		Assert.assertEquals(1.0 / n, s.avgSelectivity(1, Predicate.Op.EQUALS), 0.1 / n);
+
+		// a sample of a fifth of the pages still gets the common values right
+		TableStats sampled = new TableStats(hf.getId(), IO_COST, 0.2);
+		double sampledError = 0;
+		for (int r = 0; r < 5; r++) {
+			int v = (r * 7919) % (10 * distinct);
+			double t = (double) counts[v] / n;
+			sampledError += Math.abs(sampled.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(v)) - t) / t;
+		}
+		Assert.assertTrue("sampled MCV equality error " + sampledError / 5, sampledError / 5 < 0.1);
+	}
 }
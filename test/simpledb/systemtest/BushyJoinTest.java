@@ -0,0 +1,116 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.Join;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BushyJoinTest extends SimpleDbTestBase {
+    private static final int MAX_VALUE = 100;
+
+    /**
+     * Creates tables bj0, bj1, ... with the given numbers of rows. Row j of
+     * each holds j % MAX_VALUE in both columns, so that every value of a
+     * small table is in every larger one, and the chain of them joins.
+     */
+    private static void createTables(int... rows) throws IOException {
+        for (int i = 0; i < rows.length; i++) {
+            List<List<Integer>> tuples = new ArrayList<>();
+            for (int j = 0; j < rows[i]; j++)
+                tuples.add(Arrays.asList(j % MAX_VALUE, j % MAX_VALUE));
+            HeapFile f = SystemTestUtil.createHeapFile(2, tuples, "c");
+            Database.getCatalog().addTable(f, "bj" + i);
+            TableStats.setTableStats("bj" + i, new TableStats(f.getId(), 1000));
+        }
+    }
+
+    @After public void tearDown() {
+        JoinOptimizer.setBushyPlans(false);
+    }
+
+    private static boolean isJoin(OpIterator op) {
+        return op instanceof HashEquiJoin || op instanceof Join;
+    }
+
+    /** @return whether some join of the plan joins the results of two joins */
+    private static boolean isBushy(OpIterator op) {
+        if (!(op instanceof Operator))
+            return false;
+        OpIterator[] children = ((Operator) op).getChildren();
+        if (isJoin(op) && isJoin(children[0]) && isJoin(children[1]))
+            return true;
+        for (OpIterator c : children) {
+            if (isBushy(c))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Plans a query both left-deep and with bushy plans allowed, checks
+     * whether the latter plan is bushy, and that both return the same tuples.
+     */
+    private void checkQuery(String sql, boolean expectBushy)
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        OpIterator leftDeep = new Parser().generateLogicalPlan(tid, sql)
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(isBushy(leftDeep));
+        List<List<Integer>> expected = SystemTestUtil.tuplesToLists(leftDeep);
+        assertFalse(expected.isEmpty());
+
+        JoinOptimizer.setBushyPlans(true);
+        OpIterator plan = new Parser().generateLogicalPlan(tid, sql)
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertEquals(expectBushy, isBushy(plan));
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static final String CHAIN = "SELECT bj0.c1, bj1.c1, bj2.c1, bj3.c1 FROM bj0, bj1, bj2, bj3 "
+            + "WHERE bj0.c0 = bj1.c1 AND bj1.c0 = bj2.c1 AND bj2.c0 = bj3.c1;";
+
+    /**
+     * The ends of the chain are small, and each joins a large table into a
+     * small result, while the two large tables join into a large one: the
+     * ends are joined first, and then their results.
+     */
+    @Test public void testBushyChain()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        createTables(20, 2000, 2000, 20);
+        checkQuery(CHAIN, true);
+    }
+
+    /**
+     * The two large tables at one end of the chain join into a large result,
+     * which a bushy plan would hash; a left-deep plan joins them one at a
+     * time into the small result of the other end.
+     */
+    @Test public void testLeftDeepChain()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        createTables(20, 20, 2000, 2000);
+        checkQuery(CHAIN, false);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BushyJoinTest.class);
+    }
+}
@@ -0,0 +1,187 @@
+package simpledb.systemtest;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.execution.Distinct;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class DistinctTest extends SimpleDbTestBase {
+    private static final int MAX_VALUE = 30;
+
+    private List<List<Integer>> tuples;
+    private HeapFile f;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        // few values per column, so there are many duplicate rows
+        f = SystemTestUtil.createRandomHeapFile(3, 5000, MAX_VALUE, null, tuples, "c");
+        Database.getCatalog().addTable(f, "d");
+        TableStats.setTableStats("d", new TableStats(f.getId(), 19));
+    }
+
+    /** @return the distinct rows of the given columns of the table */
+    private Set<List<Integer>> expected(int... columns) {
+        Set<List<Integer>> out = new HashSet<>();
+        for (List<Integer> t : tuples) {
+            List<Integer> row = new ArrayList<>();
+            for (int c : columns)
+                row.add(t.get(c));
+            out.add(row);
+        }
+        return out;
+    }
+
+    /** Checks that actual holds each row of expected exactly once. */
+    private static void assertDistinctRows(Set<List<Integer>> expected, List<List<Integer>> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, new HashSet<>(actual));
+    }
+
+    private static Distinct findDistinct(OpIterator op) {
+        if (op instanceof Distinct)
+            return (Distinct) op;
+        if (op instanceof Operator) {
+            for (OpIterator c : ((Operator) op).getChildren()) {
+                Distinct d = findDistinct(c);
+                if (d != null)
+                    return d;
+            }
+        }
+        return null;
+    }
+
+    @Test public void testStrategies() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (Distinct.Strategy s : Distinct.Strategy.values()) {
+            Distinct d = new Distinct(new SeqScan(tid, f.getId(), "d"), s);
+            assertEquals(s, d.getStrategy());
+            assertDistinctRows(expected(0, 1, 2), SystemTestUtil.tuplesToLists(d));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSortedOutput() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> out = SystemTestUtil.tuplesToLists(new Distinct(new SeqScan(tid, f.getId(), "d"), Distinct.Strategy.SORT));
+        for (int i = 1; i < out.size(); i++) {
+            List<Integer> a = out.get(i - 1), b = out.get(i);
+            int c = 0;
+            while (c < a.size() && a.get(c).equals(b.get(c)))
+                c++;
+            assertTrue(c < a.size() && a.get(c) < b.get(c));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPresortedInput() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator sorted = new OrderBy(new int[]{0, 1, 2}, new boolean[]{true, true, true},
+                new SeqScan(tid, f.getId(), "d"));
+        assertDistinctRows(expected(0, 1, 2), SystemTestUtil.tuplesToLists(new Distinct(sorted, Distinct.Strategy.SORT)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testHashSpills() throws Exception {
+        // a two page budget holds far fewer keys than the table has
+        TransactionId tid = new TransactionId();
+        Distinct d = new Distinct(new SeqScan(tid, f.getId(), "d"), Distinct.Strategy.HASH, 2);
+        assertDistinctRows(expected(0, 1, 2), SystemTestUtil.tuplesToLists(d));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        d = new Distinct(new SeqScan(tid, f.getId(), "d"), Distinct.Strategy.SORT, 2);
+        assertDistinctRows(expected(0, 1, 2), SystemTestUtil.tuplesToLists(d));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testRewind() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (Distinct.Strategy s : Distinct.Strategy.values()) {
+            Distinct d = new Distinct(new SeqScan(tid, f.getId(), "d"), s, 2);
+            d.open();
+            int n = 0;
+            while (d.hasNext()) {
+                d.next();
+                n++;
+            }
+            d.rewind();
+            int m = 0;
+            while (d.hasNext()) {
+                d.next();
+                m++;
+            }
+            d.close();
+            assertEquals(expected(0, 1, 2).size(), n);
+            assertEquals(n, m);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private OpIterator plan(TransactionId tid, String sql) throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    @Test public void testSelectDistinct() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator p = plan(tid, "SELECT DISTINCT d.c0, d.c2 FROM d WHERE d.c1 < 20;");
+        assertNotNull(findDistinct(p));
+        Set<List<Integer>> expected = new HashSet<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 20)
+                expected.add(Arrays.asList(t.get(0), t.get(2)));
+        }
+        assertDistinctRows(expected, SystemTestUtil.tuplesToLists(p));
+
+        p = plan(tid, "SELECT DISTINCT d.c1 FROM d ORDER BY d.c1 DESC LIMIT 5;");
+        assertNotNull(findDistinct(p));
+        List<Integer> values = new ArrayList<>();
+        for (List<Integer> row : expected(1))
+            values.add(row.get(0));
+        values.sort(Collections.reverseOrder());
+        List<List<Integer>> top = new ArrayList<>();
+        for (int v : values.subList(0, 5))
+            top.add(Collections.singletonList(v));
+        assertEquals(top, SystemTestUtil.tuplesToLists(p));
+
+        // without DISTINCT the duplicates stay
+        p = plan(tid, "SELECT d.c1 FROM d;");
+        assertNull(findDistinct(p));
+        assertEquals(tuples.size(), SystemTestUtil.tuplesToLists(p).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testOrderByUnknownField() throws Exception {
+        TransactionId tid = new TransactionId();
+        try {
+            plan(tid, "SELECT DISTINCT d.c0 FROM d ORDER BY d.c1;");
+            fail("expected ParsingException");
+        } catch (ParsingException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("SELECT DISTINCT list"));
+        }
+        try {
+            plan(tid, "SELECT d.c0, COUNT(d.c1) FROM d GROUP BY d.c0 ORDER BY d.c2;");
+            fail("expected ParsingException");
+        } catch (ParsingException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("ORDER BY"));
+            assertFalse(e.getMessage(), e.getMessage().contains("DISTINCT"));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.Gather;
+import simpledb.execution.OpIterator;
+import simpledb.execution.PageMorsels;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TwoPhaseAggregation;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class GatherTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 6000;
+    private static final int MAX_VALUE = 1000;
+
+    private Gather filteredScan(TransactionId tid, HeapFile f, int workers, int morselPages) {
+        PageMorsels morsels = new PageMorsels(f.getId(), morselPages);
+        OpIterator[] pipelines = new OpIterator[workers];
+        for (int i = 0; i < workers; i++) {
+            pipelines[i] = new Filter(
+                    new Predicate(0, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2)),
+                    new SeqScan(tid, morsels, ""));
+        }
+        return new Gather(pipelines, morsels);
+    }
+
+    private void validateFilteredScan(int workers, int morselPages)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < MAX_VALUE / 2)
+                expected.add(t);
+        }
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(filteredScan(tid, f, workers, morselPages), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSingleWorker()
+            throws IOException, DbException, TransactionAbortedException {
+        validateFilteredScan(1, 1);
+    }
+
+    @Test public void testManyWorkers()
+            throws IOException, DbException, TransactionAbortedException {
+        validateFilteredScan(4, 1);
+        validateFilteredScan(8, 3);
+    }
+
+    @Test public void testMoreWorkersThanMorsels()
+            throws IOException, DbException, TransactionAbortedException {
+        validateFilteredScan(4, PageMorsels.DEFAULT_MORSEL_PAGES);
+    }
+
+    @Test public void testRewind()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        Gather g = filteredScan(tid, f, 4, 1);
+        g.open();
+        int first = 0;
+        while (g.hasNext()) {
+            g.next();
+            first++;
+        }
+        // rewind partway through as well as at the end
+        g.rewind();
+        for (int i = 0; i < 10 && g.hasNext(); i++)
+            g.next();
+        g.rewind();
+        int second = 0;
+        while (g.hasNext()) {
+            g.next();
+            second++;
+        }
+        g.close();
+        assertEquals(first, second);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPartialAggregates()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+        int sum = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (List<Integer> t : tuples) {
+            sum += t.get(1);
+            min = Math.min(min, t.get(1));
+            max = Math.max(max, t.get(1));
+        }
+
+        TransactionId tid = new TransactionId();
+        Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX };
+        PageMorsels morsels = new PageMorsels(f.getId(), 1);
+        // a worker that gets no morsel emits no partial, so it cannot hide
+        // the MIN behind the 0 of an ungrouped aggregate over no tuples
+        OpIterator[] pipelines = new OpIterator[4];
+        for (int i = 0; i < pipelines.length; i++) {
+            pipelines[i] = TwoPhaseAggregation.partial(new SeqScan(tid, morsels, ""),
+                    new int[0], new int[] { 1, 1, 1 }, ops);
+        }
+        OpIterator total = TwoPhaseAggregation.merge(new Gather(pipelines, morsels), 0, ops);
+        List<List<Integer>> expected = new ArrayList<>();
+        expected.add(Arrays.asList(sum, min, max));
+        SystemTestUtil.matchTuples(total, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GatherTest.class);
+    }
+}
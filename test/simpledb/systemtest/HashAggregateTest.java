@@ -0,0 +1,166 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregator;
+import simpledb.execution.HashAggregate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.PushExecutor;
+import simpledb.execution.SeqScan;
+import simpledb.execution.StreamAggregate;
+import simpledb.execution.TwoPhaseAggregation;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.assertEquals;
+
+public class HashAggregateTest extends SimpleDbTestBase {
+    private static final int ROWS = 4000;
+
+    /**
+     * Computes GROUP BY c0, c1 with MIN(c2), MAX(c2), SUM(c2), AVG(c2),
+     * COUNT(c2) over the given tuples.
+     */
+    static List<List<Integer>> expected(List<List<Integer>> tuples, boolean grouped) {
+        Map<List<Integer>, List<Integer>> groups = new LinkedHashMap<>();
+        for (List<Integer> t : tuples) {
+            List<Integer> key = grouped ? Arrays.asList(t.get(0), t.get(1)) : Collections.emptyList();
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(t.get(2));
+        }
+        List<List<Integer>> out = new ArrayList<>();
+        for (Map.Entry<List<Integer>, List<Integer>> e : groups.entrySet()) {
+            List<Integer> vals = e.getValue();
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE, sum = 0;
+            for (int v : vals) {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+                sum += v;
+            }
+            List<Integer> row = new ArrayList<>(e.getKey());
+            row.add(min);
+            row.add(max);
+            row.add(sum);
+            row.add(sum / vals.size());
+            row.add(vals.size());
+            out.add(row);
+        }
+        return out;
+    }
+
+    static final Aggregator.Op[] OPS = {
+            Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT };
+
+    private void validate(int maxValue, int memoryPages, boolean grouped)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, maxValue, null, tuples);
+        TransactionId tid = new TransactionId();
+        int[] gfields = grouped ? new int[]{0, 1} : new int[0];
+        HashAggregate agg = new HashAggregate(new SeqScan(tid, f.getId(), ""),
+                gfields, new int[]{2, 2, 2, 2, 2}, OPS, memoryPages);
+        SystemTestUtil.matchTuples(agg, expected(tuples, grouped));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testInMemory()
+            throws IOException, DbException, TransactionAbortedException {
+        validate(20, HashAggregate.DEFAULT_MEMORY_PAGES, true);
+    }
+
+    @Test public void testNoGrouping()
+            throws IOException, DbException, TransactionAbortedException {
+        validate(1000, 1, false);
+    }
+
+    @Test public void testSpilled()
+            throws IOException, DbException, TransactionAbortedException {
+        // one page holds a few dozen groups; ~4000 distinct (c0, c1) pairs
+        // need several levels of partitioning
+        validate(1000, 1, true);
+    }
+
+    @Test public void testRewindAfterSpill()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, 200, null, tuples);
+        TransactionId tid = new TransactionId();
+        HashAggregate agg = new HashAggregate(new SeqScan(tid, f.getId(), ""),
+                new int[]{0}, new int[]{2}, new Aggregator.Op[]{Aggregator.Op.COUNT}, 1);
+        agg.open();
+        int first = 0;
+        while (agg.hasNext()) {
+            agg.next();
+            first++;
+        }
+        agg.rewind();
+        int second = 0;
+        while (agg.hasNext()) {
+            agg.next();
+            second++;
+        }
+        agg.close();
+        org.junit.Assert.assertEquals(first, second);
+        org.junit.Assert.assertTrue(first > agg.getMaxGroups());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParsedQuery()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, 10, null, tuples, "c");
+        Database.getCatalog().addTable(f, "hagg");
+        TableStats.setTableStats("hagg", new TableStats(f.getId(), 19));
+
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        OpIterator plan = p.generateLogicalPlan(tid,
+                "SELECT hagg.c0, hagg.c1, MIN(hagg.c2), MAX(hagg.c2), SUM(hagg.c2), AVG(hagg.c2), "
+                        + "COUNT(hagg.c2) FROM hagg GROUP BY hagg.c0, hagg.c1;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        SystemTestUtil.matchTuples(plan, expected(tuples, true));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testEmptyInput()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 0, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(f, "empty");
+        TableStats.setTableStats("empty", new TableStats(f.getId(), 19));
+        TransactionId tid = new TransactionId();
+        int[] afields = {2, 2, 2, 2, 2};
+
+        // without grouping, one tuple: COUNT is 0, and so is the rest
+        List<List<Integer>> zeros = Collections.singletonList(Arrays.asList(0, 0, 0, 0, 0));
+        SystemTestUtil.matchTuples(new HashAggregate(new SeqScan(tid, f.getId(), ""), new int[0], afields, OPS),
+                zeros);
+        SystemTestUtil.matchTuples(new StreamAggregate(new SeqScan(tid, f.getId(), ""), new int[0], afields, OPS),
+                zeros);
+        assertEquals(1, PushExecutor.collect(
+                new HashAggregate(new SeqScan(tid, f.getId(), ""), new int[0], afields, OPS)).size());
+        // with grouping, or as a partial aggregate, none
+        SystemTestUtil.matchTuples(new HashAggregate(new SeqScan(tid, f.getId(), ""), new int[]{0}, afields, OPS),
+                Collections.emptyList());
+        SystemTestUtil.matchTuples(TwoPhaseAggregation.partial(new SeqScan(tid, f.getId(), ""), new int[0],
+                afields, OPS), Collections.emptyList());
+
+        OpIterator plan = new Parser().generateLogicalPlan(tid, "SELECT COUNT(empty.c0) FROM empty;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        SystemTestUtil.matchTuples(plan, Collections.singletonList(Collections.singletonList(0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashAggregateTest.class);
+    }
+}
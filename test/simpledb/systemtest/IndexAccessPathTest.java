@@ -0,0 +1,171 @@
+package simpledb.systemtest;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class IndexAccessPathTest extends SimpleDbTestBase {
+    private static final int MAX_VALUE = 100000;
+    private static final int IO_COST = 1000;
+
+    private List<List<Integer>> btTuples;
+    private List<List<Integer>> hTuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        btTuples = new ArrayList<>();
+        BTreeFile random = BTreeUtility.createRandomBTreeFile(2, 20000, MAX_VALUE, null, btTuples, 0);
+        // the same file, with named columns so that queries can refer to them
+        BTreeFile bt = new BTreeFile(random.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(bt, "bt");
+        TableStats.setTableStats("bt", new TableStats(bt.getId(), IO_COST));
+
+        hTuples = new ArrayList<>();
+        HeapFile h = SystemTestUtil.createRandomHeapFile(2, 1000, MAX_VALUE, null, hTuples, "c");
+        Database.getCatalog().addTable(h, "h");
+        TableStats.setTableStats("h", new TableStats(h.getId(), IO_COST));
+    }
+
+    private static OpIterator plan(TransactionId tid, String sql) throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    /** @return the number of operators of the given class in a plan */
+    private static int count(OpIterator op, Class<?> c) {
+        int n = c.isInstance(op) ? 1 : 0;
+        if (op instanceof Operator) {
+            for (OpIterator child : ((Operator) op).getChildren())
+                n += count(child, c);
+        }
+        return n;
+    }
+
+    @Test public void testSelectiveRangeUsesIndex() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator p = plan(tid, "SELECT bt.c0, bt.c1 FROM bt WHERE bt.c0 < 500;");
+        assertEquals(1, count(p, BTreeScan.class));
+        assertEquals(0, count(p, SeqScan.class));
+        // the index applies the predicate, so no Filter is left
+        assertEquals(0, count(p, Filter.class));
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : btTuples) {
+            if (t.get(0) < 500)
+                expected.add(t);
+        }
+        List<List<Integer>> got = SystemTestUtil.tuplesToLists(p);
+        SystemTestUtil.assertSameTuples(expected, got);
+        for (int i = 1; i < got.size(); i++)
+            assertTrue(got.get(i - 1).get(0) <= got.get(i).get(0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testEqualityWithOtherFilter() throws Exception {
+        int key = btTuples.get(7).get(0);
+        TransactionId tid = new TransactionId();
+        OpIterator p = plan(tid, "SELECT bt.c0, bt.c1 FROM bt WHERE bt.c1 > 100 AND bt.c0 = " + key + ";");
+        assertEquals(1, count(p, BTreeScan.class));
+        assertEquals(1, count(p, Filter.class));
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : btTuples) {
+            if (t.get(0) == key && t.get(1) > 100)
+                expected.add(t);
+        }
+        SystemTestUtil.assertSameTuples(expected, SystemTestUtil.tuplesToLists(p));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testUnselectiveRangeScans() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator p = plan(tid, "SELECT bt.c0, bt.c1 FROM bt WHERE bt.c0 > 500;");
+        assertEquals(0, count(p, BTreeScan.class));
+        assertEquals(1, count(p, SeqScan.class));
+
+        // not the key field
+        p = plan(tid, "SELECT bt.c0, bt.c1 FROM bt WHERE bt.c1 < 500;");
+        assertEquals(0, count(p, BTreeScan.class));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testIndexScanInJoin() throws Exception {
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> b : btTuples) {
+            if (b.get(0) >= 2000)
+                continue;
+            for (List<Integer> h : hTuples) {
+                if (b.get(1).equals(h.get(0)))
+                    expected.add(Arrays.asList(b.get(0), h.get(1)));
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator p = plan(tid, "SELECT bt.c0, h.c1 FROM bt, h WHERE bt.c1 = h.c0 AND bt.c0 < 2000;");
+        assertEquals(1, count(p, BTreeScan.class));
+        SystemTestUtil.assertSameTuples(expected, SystemTestUtil.tuplesToLists(p));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the tuples of h matching the filter joined on h.c0 = bt.c0 */
+    private List<List<Integer>> joinOnKey(java.util.function.Predicate<List<Integer>> hFilter,
+            java.util.function.Predicate<List<Integer>> btFilter) {
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> h : hTuples) {
+            if (!hFilter.test(h))
+                continue;
+            for (List<Integer> b : btTuples) {
+                if (btFilter.test(b) && b.get(0).equals(h.get(0)))
+                    expected.add(Arrays.asList(h.get(1), b.get(1)));
+            }
+        }
+        return expected;
+    }
+
+    @Test public void testFewOuterTuplesProbeIndex() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator p = plan(tid, "SELECT h.c1, bt.c1 FROM h, bt WHERE h.c0 = bt.c0 AND h.c1 < 1000;");
+        assertEquals(1, count(p, IndexNestedLoopJoin.class));
+        assertEquals(0, count(p, HashEquiJoin.class));
+        SystemTestUtil.assertSameTuples(joinOnKey(h -> h.get(1) < 1000, b -> true), SystemTestUtil.tuplesToLists(p));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testManyOuterTuplesHash() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator p = plan(tid, "SELECT h.c1, bt.c1 FROM h, bt WHERE h.c0 = bt.c0;");
+        assertEquals(0, count(p, IndexNestedLoopJoin.class));
+        assertEquals(1, count(p, HashEquiJoin.class));
+        SystemTestUtil.assertSameTuples(joinOnKey(h -> true, b -> true), SystemTestUtil.tuplesToLists(p));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testFilteredInnerNotProbed() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator p = plan(tid, "SELECT h.c1, bt.c1 FROM h, bt "
+                + "WHERE h.c0 = bt.c0 AND h.c1 < 1000 AND bt.c1 < 50000;");
+        assertEquals(0, count(p, IndexNestedLoopJoin.class));
+        SystemTestUtil.assertSameTuples(joinOnKey(h -> h.get(1) < 1000, b -> b.get(1) < 50000), SystemTestUtil.tuplesToLists(p));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
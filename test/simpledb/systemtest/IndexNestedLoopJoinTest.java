@@ -0,0 +1,81 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int MAX_VALUE = 2000;
+
+    public void validateJoin(int outerRows, int innerRows, boolean sortOuter)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> outerTuples = new ArrayList<>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, outerRows, MAX_VALUE, null, outerTuples);
+        List<List<Integer>> innerTuples = new ArrayList<>();
+        BTreeFile inner = BTreeUtility.createRandomBTreeFile(
+                COLUMNS, innerRows, MAX_VALUE, null, innerTuples, 0);
+
+        // Generate the expected results
+        List<List<Integer>> expectedResults = new ArrayList<>();
+        for (List<Integer> t1 : outerTuples) {
+            for (List<Integer> t2 : innerTuples) {
+                if (t1.get(1).equals(t2.get(0))) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    expectedResults.add(out);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator outerScan = new SeqScan(tid, outer.getId(), "");
+        if (sortOuter)
+            outerScan = new OrderBy(1, true, outerScan);
+        BTreeScan innerScan = new BTreeScan(tid, inner.getId(), "", null);
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        IndexNestedLoopJoin joinOp = new IndexNestedLoopJoin(p, outerScan, innerScan);
+
+        SystemTestUtil.matchTuples(joinOp, expectedResults);
+
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testUnsortedProbes()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(300, 20000, false);
+    }
+
+    @Test public void testSortedProbes()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(300, 20000, true);
+    }
+
+    @Test public void testEmptyOuter()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(0, 1000, true);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,120 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class OrderByTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int MAX_VALUE = 50;
+
+    private List<List<Integer>> readAll(OrderBy op)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> out = new ArrayList<>();
+        while (op.hasNext())
+            out.add(SystemTestUtil.tupleToList(op.next()));
+        return out;
+    }
+
+    /**
+     * Sorts a random table on (field0 ASC, field1 DESC) with the given memory
+     * budget and checks the output against a sort done in memory.
+     */
+    private OrderBy validateSort(int rows, int memoryPages)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, MAX_VALUE, null, tuples);
+
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        expected.sort(Comparator.<List<Integer>>comparingInt(t -> t.get(0))
+                .thenComparing(t -> t.get(1), Comparator.reverseOrder()));
+
+        TransactionId tid = new TransactionId();
+        OrderBy op = new OrderBy(new int[]{0, 1}, new boolean[]{true, false},
+                new SeqScan(tid, f.getId(), ""), memoryPages);
+        op.open();
+        assertEquals(expected, readAll(op));
+        op.rewind();
+        assertEquals(expected, readAll(op));
+        op.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return op;
+    }
+
+    @Test public void testInMemory()
+            throws IOException, DbException, TransactionAbortedException {
+        OrderBy op = new OrderBy(new int[]{0, 1}, new boolean[]{true, false},
+                new SeqScan(new TransactionId(),
+                        SystemTestUtil.createRandomHeapFile(COLUMNS, 10, null, null).getId(), ""));
+        op.open();
+        assertEquals(0, op.numSpilledRuns());
+        op.close();
+        validateSort(2000, OrderBy.DEFAULT_MEMORY_PAGES);
+    }
+
+    @Test public void testSpilledSingleMerge()
+            throws IOException, DbException, TransactionAbortedException {
+        // a buffered two-int tuple takes about 176 bytes of heap, so 8 pages
+        // of 4096 bytes hold 186 tuples: 1000 tuples spill 6 runs, which one
+        // 7-way merge combines
+        validateSort(1000, 8);
+    }
+
+    @Test public void testSpilledMultiPassMerge()
+            throws IOException, DbException, TransactionAbortedException {
+        // 2 pages allow only a 2-way merge, so the ~50 runs need several passes
+        validateSort(2000, 2);
+    }
+
+    @Test public void testSpillCount()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, 3000, MAX_VALUE, null, null);
+        TransactionId tid = new TransactionId();
+        OrderBy op = new OrderBy(new int[]{1}, new boolean[]{true},
+                new SeqScan(tid, f.getId(), ""), 2);
+        op.open();
+        assertTrue(op.numSpilledRuns() > 1);
+        int prev = Integer.MIN_VALUE;
+        int count = 0;
+        for (List<Integer> t : readAll(op)) {
+            assertTrue(prev <= t.get(1));
+            prev = t.get(1);
+            count++;
+        }
+        assertEquals(3000, count);
+        op.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testRewindBeforeOpen()
+            throws IOException, DbException, TransactionAbortedException {
+        OrderBy op = new OrderBy(new int[]{0}, new boolean[]{true},
+                new SeqScan(new TransactionId(),
+                        SystemTestUtil.createRandomHeapFile(COLUMNS, 10, null, null).getId(), ""));
+        op.rewind();
+    }
+
+    @Test public void testEmpty()
+            throws IOException, DbException, TransactionAbortedException {
+        validateSort(0, 2);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(OrderByTest.class);
+    }
+}
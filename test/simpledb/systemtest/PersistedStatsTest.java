@@ -0,0 +1,130 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Insert;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PersistedStatsTest extends SimpleDbTestBase {
+    private static final int ROWS = 2000;
+    private static final int MAX_VALUE = 1000;
+
+    private File dir;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        dir = Files.createTempDirectory("catalog").toFile();
+        try (Writer w = new FileWriter(new File(dir, "catalog.txt"))) {
+            for (String name : new String[] { "a", "b" }) {
+                File data = SystemTestUtil.createRandomHeapFileUnopened(2, ROWS, MAX_VALUE, null, null);
+                Files.move(data.toPath(), new File(dir, name + ".dat").toPath());
+                w.write(name + " (c0 int pk, c1 int)\n");
+            }
+        }
+        Database.getCatalog().loadSchema(new File(dir, "catalog.txt").getPath());
+        TableStats.setAutoAnalyze(false);
+    }
+
+    @After public void tearDown() {
+        TableStats.setStatsFile(null);
+        TableStats.setAutoAnalyze(true);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files)
+                f.delete();
+        }
+        dir.delete();
+    }
+
+    private static void assertSameStats(TableStats expected, TableStats actual) {
+        assertEquals(expected.totalTuples(), actual.totalTuples());
+        assertEquals(expected.estimateScanCost(), actual.estimateScanCost(), 0.0);
+        for (int field = 0; field < 2; field++) {
+            assertEquals(expected.estimateDistinctValues(field), actual.estimateDistinctValues(field));
+            assertEquals(expected.avgSelectivity(field, Predicate.Op.EQUALS),
+                    actual.avgSelectivity(field, Predicate.Op.EQUALS), 0.0);
+            for (Predicate.Op op : Predicate.Op.values()) {
+                if (op == Predicate.Op.LIKE)
+                    continue;
+                for (int v = -1; v <= MAX_VALUE; v += 77)
+                    assertEquals(expected.estimateSelectivity(field, op, new IntField(v)),
+                            actual.estimateSelectivity(field, op, new IntField(v)), 0.0);
+            }
+        }
+    }
+
+    @Test public void testStatsFileNextToCatalog() {
+        assertEquals(new File(dir, "catalog.stats").getAbsoluteFile(), TableStats.getStatsFile().getAbsoluteFile());
+    }
+
+    @Test public void testStatsReadBack() {
+        TableStats.computeStatistics();
+        assertTrue(TableStats.getStatsFile().exists());
+
+        Map<String, TableStats> read = TableStats.readStatistics(TableStats.getStatsFile());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), read.keySet());
+        for (String name : read.keySet())
+            assertSameStats(TableStats.getTableStats(name), read.get(name));
+    }
+
+    @Test public void testChangedTableAnalyzedAgain() throws Exception {
+        TableStats.computeStatistics();
+
+        int tableid = Database.getCatalog().getTableId("b");
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+        TransactionId tid = new TransactionId();
+        OpIterator ins = new Insert(tid, new TupleIterator(td, tuples), tableid);
+        ins.open();
+        ins.next();
+        ins.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        Map<String, TableStats> read = TableStats.readStatistics(TableStats.getStatsFile());
+        assertEquals(Collections.singleton("a"), read.keySet());
+
+        TableStats.computeStatistics();
+        assertEquals(ROWS + 1000, TableStats.getTableStats("b").totalTuples());
+        // the file was written again with the new stats of b
+        read = TableStats.readStatistics(TableStats.getStatsFile());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), read.keySet());
+        assertEquals(ROWS + 1000, read.get("b").totalTuples());
+    }
+
+    @Test public void testUnreadableFileIgnored() throws IOException {
+        try (Writer w = new FileWriter(TableStats.getStatsFile())) {
+            w.write("not a stats file");
+        }
+        assertTrue(TableStats.readStatistics(TableStats.getStatsFile()).isEmpty());
+
+        TableStats.computeStatistics();
+        assertEquals(ROWS, TableStats.getTableStats("a").totalTuples());
+        assertEquals(2, TableStats.readStatistics(TableStats.getStatsFile()).size());
+    }
+}
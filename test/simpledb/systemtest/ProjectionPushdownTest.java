@@ -0,0 +1,183 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.Fetch;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ProjectionPushdownTest extends SimpleDbTestBase {
+    private static final int MAX_VALUE = 100;
+
+    private List<List<Integer>> aTuples;
+    private List<List<Integer>> bTuples;
+    private HeapFile a;
+    private HeapFile b;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        aTuples = new ArrayList<>();
+        bTuples = new ArrayList<>();
+        a = SystemTestUtil.createRandomHeapFile(3, 600, MAX_VALUE, null, aTuples, "c");
+        b = SystemTestUtil.createRandomHeapFile(3, 300, MAX_VALUE, null, bTuples, "c");
+        Database.getCatalog().addTable(a, "pa");
+        Database.getCatalog().addTable(b, "pb");
+        TableStats.setTableStats("pa", new TableStats(a.getId(), 19));
+        TableStats.setTableStats("pb", new TableStats(b.getId(), 19));
+    }
+
+    /** @return a.c1, a.c2, b.c2 of a join b on a.c0 = b.c0 with a.c1 below maxC1 */
+    private List<List<Integer>> expectedJoin(int maxC1) {
+        List<List<Integer>> out = new ArrayList<>();
+        for (List<Integer> ta : aTuples) {
+            if (ta.get(1) >= maxC1)
+                continue;
+            for (List<Integer> tb : bTuples) {
+                if (ta.get(0).equals(tb.get(0)))
+                    out.add(Arrays.asList(ta.get(1), ta.get(2), tb.get(2)));
+            }
+        }
+        return out;
+    }
+
+    private static void collect(OpIterator op, List<OpIterator> out) {
+        out.add(op);
+        if (op instanceof Operator) {
+            for (OpIterator c : ((Operator) op).getChildren())
+                collect(c, out);
+        }
+    }
+
+    private OpIterator plan(TransactionId tid, String sql, boolean late) throws ParsingException, IOException {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        lp.setLateMaterialization(late);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    @Test public void testNarrowScanAndFetch()
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, a.getId(), "pa", new int[]{SeqScan.ROWID, 1});
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("pa." + SeqScan.ROWID_NAME, scan.getTupleDesc().getFieldName(0));
+        assertEquals("pa.c1", scan.getTupleDesc().getFieldName(1));
+
+        // fetching the other columns by row id gives back the whole table
+        Fetch fetch = new Fetch(tid, scan, 0, a.getId(), "pa", new int[]{0, 2});
+        List<List<Integer>> rows = new ArrayList<>();
+        fetch.open();
+        while (fetch.hasNext()) {
+            Tuple t = fetch.next();
+            rows.add(Arrays.asList(((IntField) t.getField(2)).getValue(),
+                    ((IntField) t.getField(1)).getValue(), ((IntField) t.getField(3)).getValue()));
+        }
+        fetch.close();
+        Collections.sort(rows, Comparator.comparing(Object::toString));
+        List<List<Integer>> expected = new ArrayList<>(aTuples);
+        Collections.sort(expected, Comparator.comparing(Object::toString));
+        assertEquals(expected, rows);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testAllColumnsNotCopied()
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, a.getId(), "pa", new int[]{0, 1, 2});
+        assertNull(scan.getColumns());
+        scan.open();
+        Tuple t = scan.next();
+        // the tuple of the page itself, not a copy of it
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(),
+                Permissions.READ_ONLY);
+        assertSame(page.getTuple(t.getRecordId().getTupleNumber()), t);
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testNarrowJoin()
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, a.getId(), "pa"), new SeqScan(tid, b.getId(), "pb"),
+                new int[]{1, 2, 5});
+        assertEquals(3, join.getTupleDesc().numFields());
+        assertEquals("pb.c2", join.getTupleDesc().getFieldName(2));
+        SystemTestUtil.matchTuples(join, expectedJoin(Integer.MAX_VALUE));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPlannedQuery()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        String sql = "SELECT pa.c1, pa.c2, pb.c2 FROM pa, pb WHERE pa.c0 = pb.c0 AND pa.c1 < 50;";
+        for (boolean late : new boolean[]{false, true}) {
+            TransactionId tid = new TransactionId();
+            OpIterator plan = plan(tid, sql, late);
+            List<OpIterator> ops = new ArrayList<>();
+            collect(plan, ops);
+            boolean fetched = false;
+            for (OpIterator op : ops) {
+                // pb.c1 is not needed; pa.c2 is fetched late
+                if (op instanceof SeqScan && (late || ((SeqScan) op).getAlias().equals("pb")))
+                    assertNotNull(((SeqScan) op).getColumns());
+                fetched |= op instanceof Fetch;
+            }
+            assertEquals(late, fetched);
+            SystemTestUtil.matchTuples(plan, expectedJoin(50));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    @Test public void testLateMaterializedTopN()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> all = expectedJoin(Integer.MAX_VALUE);
+        List<Integer> keys = new ArrayList<>();
+        for (List<Integer> t : all)
+            keys.add(t.get(0));
+        Collections.sort(keys);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid,
+                "SELECT pa.c1, pa.c2, pb.c2 FROM pa, pb WHERE pa.c0 = pb.c0 ORDER BY pa.c1 LIMIT 10;", true);
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            List<Integer> row = Arrays.asList(((IntField) t.getField(0)).getValue(),
+                    ((IntField) t.getField(1)).getValue(), ((IntField) t.getField(2)).getValue());
+            assertEquals(keys.get(n), row.get(0));
+            assertTrue(all.contains(row));
+            n++;
+        }
+        plan.close();
+        assertEquals(10, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ProjectionPushdownTest.class);
+    }
+}
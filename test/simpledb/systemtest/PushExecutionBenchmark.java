@@ -0,0 +1,97 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.PushExecutor;
+import simpledb.execution.TupleSink;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Times the queries of {@link QueryTest} and {@link PushExecutionTest}, on
+ * the tables of QueryTest, with the pull engine and with the push engine of
+ * {@link PushExecutor}. Not a unit test; run it with
+ * <pre>
+ * java -cp ... simpledb.systemtest.PushExecutionBenchmark [runs]
+ * </pre>
+ * Each query is run once per engine to warm up, and then runs times; the
+ * fastest run of each engine is reported.
+ */
+public class PushExecutionBenchmark {
+    private static final int IO_COST = 101;
+
+    private static final String[] QUERIES = {
+            "SELECT * FROM emp,dept,hobbies,hobby WHERE emp.c1 = dept.c0 AND hobbies.c0 = emp.c2 "
+                    + "AND hobbies.c1 = hobby.c0 AND emp.c3 < 1000;",
+            "SELECT emp.c1, COUNT(emp.c0), SUM(emp.c2), AVG(hobbies.c1) FROM emp, hobbies "
+                    + "WHERE hobbies.c0 = emp.c2 GROUP BY emp.c1;",
+            "SELECT emp.c0, dept.c2 FROM emp, dept WHERE emp.c1 = dept.c0 ORDER BY emp.c0 DESC LIMIT 20;",
+    };
+
+    private static void addTable(String name, int columns, int rows) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(columns, rows, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(f, name);
+        TableStats.setTableStats(name, new TableStats(f.getId(), IO_COST));
+    }
+
+    private static OpIterator plan(TransactionId tid, String sql) throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    /** @return the nanoseconds it took to run sql with one of the engines */
+    private static long time(String sql, boolean push) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator op = plan(tid, sql);
+        final int[] count = new int[1];
+        long start = System.nanoTime();
+        if (push) {
+            PushExecutor.run(op, new TupleSink() {
+                public boolean push(Tuple t) {
+                    count[0]++;
+                    return true;
+                }
+
+                public void finish() {
+                }
+            });
+        } else {
+            op.open();
+            while (op.hasNext()) {
+                op.next();
+                count[0]++;
+            }
+            op.close();
+        }
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        return elapsed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        addTable("emp", 6, 100000);
+        addTable("dept", 3, 1000);
+        addTable("hobby", 6, 1000);
+        addTable("hobbies", 2, 200000);
+
+        for (String sql : QUERIES) {
+            long pull = Long.MAX_VALUE, push = Long.MAX_VALUE;
+            time(sql, false);
+            time(sql, true);
+            for (int i = 0; i < runs; i++) {
+                pull = Math.min(pull, time(sql, false));
+                push = Math.min(push, time(sql, true));
+            }
+            System.out.println(sql);
+            System.out.printf("  pull %8.1f ms  push %8.1f ms  speedup %.2fx%n",
+                    pull / 1e6, push / 1e6, (double) pull / push);
+        }
+    }
+}
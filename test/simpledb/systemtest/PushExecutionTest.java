@@ -0,0 +1,123 @@
+package simpledb.systemtest;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.PushExecutor;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PushExecutionTest extends SimpleDbTestBase {
+    private static final int IO_COST = 101;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // the tables of QueryTest, scaled down
+        addTable("emp", 6, 10000);
+        addTable("dept", 3, 1000);
+        addTable("hobby", 6, 1000);
+        addTable("hobbies", 2, 20000);
+    }
+
+    private static void addTable(String name, int columns, int rows) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(columns, rows, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(f, name);
+        TableStats.setTableStats(name, new TableStats(f.getId(), IO_COST));
+    }
+
+    private static OpIterator plan(TransactionId tid, String sql) throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    private static List<String> pull(OpIterator op) throws Exception {
+        List<String> out = new ArrayList<>();
+        op.open();
+        while (op.hasNext())
+            out.add(op.next().toString());
+        op.close();
+        return out;
+    }
+
+    private static List<String> push(OpIterator op) throws Exception {
+        List<String> out = new ArrayList<>();
+        for (Tuple t : PushExecutor.collect(op))
+            out.add(t.toString());
+        return out;
+    }
+
+    /** Runs sql with both engines and checks that they agree. */
+    private static void compare(String sql, boolean ordered) throws Exception {
+        TransactionId tid = new TransactionId();
+        List<String> pulled = pull(plan(tid, sql));
+        List<String> pushed = push(plan(tid, sql));
+        Database.getBufferPool().transactionComplete(tid);
+
+        if (!ordered) {
+            Collections.sort(pulled);
+            Collections.sort(pushed);
+        }
+        assertEquals(pulled, pushed);
+    }
+
+    @Test public void testQueryTestQuery() throws Exception {
+        String sql = "SELECT * FROM emp,dept,hobbies,hobby WHERE emp.c1 = dept.c0 AND hobbies.c0 = emp.c2 "
+                + "AND hobbies.c1 = hobby.c0 AND emp.c3 < 1000;";
+        compare(sql, false);
+    }
+
+    @Test public void testAggregates() throws Exception {
+        compare("SELECT emp.c1, COUNT(emp.c0), SUM(emp.c2), AVG(hobbies.c1) FROM emp, hobbies "
+                + "WHERE hobbies.c0 = emp.c2 GROUP BY emp.c1;", false);
+        compare("SELECT MIN(dept.c1), MAX(dept.c2) FROM dept WHERE dept.c0 > 100000;", false);
+    }
+
+    @Test public void testOrderByAndLimit() throws Exception {
+        compare("SELECT emp.c0, dept.c2 FROM emp, dept WHERE emp.c1 = dept.c0 ORDER BY emp.c0 DESC LIMIT 20;", true);
+        compare("SELECT hobby.c0, hobby.c1 FROM hobby WHERE hobby.c2 < 100000 LIMIT 7 OFFSET 3;", true);
+    }
+
+    @Test public void testLimitStopsJoin() throws Exception {
+        TransactionId tid = new TransactionId();
+        int hobbies = Database.getCatalog().getTableId("hobbies");
+        int emp = Database.getCatalog().getTableId("emp");
+        OpIterator join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 2),
+                new SeqScan(tid, hobbies, "hobbies"), new SeqScan(tid, emp, "emp"));
+        List<Tuple> out = PushExecutor.collect(new Limit(5, 0, join));
+        assertEquals(5, out.size());
+        for (Tuple t : out)
+            assertEquals(t.getField(0), t.getField(4));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testBuildSideLoadedInParts() throws Exception {
+        // more build tuples than HashEquiJoin loads at once
+        addTable("big", 1, HashEquiJoin.MAP_SIZE + 5000);
+        TransactionId tid = new TransactionId();
+        int big = Database.getCatalog().getTableId("big");
+        int dept = Database.getCatalog().getTableId("dept");
+        List<String> pulled = pull(new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, big, "big"), new SeqScan(tid, dept, "dept")));
+        List<String> pushed = push(new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, big, "big"), new SeqScan(tid, dept, "dept")));
+        Collections.sort(pulled);
+        Collections.sort(pushed);
+        assertEquals(pulled, pushed);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,209 @@
+package simpledb.systemtest;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Delete;
+import simpledb.execution.Filter;
+import simpledb.execution.Insert;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.QueryExecutor;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TupleSink;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class QueryExecutorTest extends SimpleDbTestBase {
+
+    private List<List<Integer>> tuples;
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, tuples);
+    }
+
+    private static List<List<Integer>> rows(List<Tuple> tuples) {
+        List<List<Integer>> out = new ArrayList<>();
+        for (Tuple t : tuples)
+            out.add(SystemTestUtil.tupleToList(t));
+        return out;
+    }
+
+    private List<List<Integer>> below(int max) {
+        List<List<Integer>> out = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < max)
+                out.add(t);
+        }
+        return out;
+    }
+
+    @Test public void testConcurrentQueries() throws Exception {
+        try (QueryExecutor ex = new QueryExecutor()) {
+            assertTrue(ex.getMaxRunning() >= 1);
+            List<Future<List<Tuple>>> results = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                final int max = i * 100;
+                results.add(ex.submitQuery(tid -> new Filter(
+                        new Predicate(0, Predicate.Op.LESS_THAN, new IntField(max)),
+                        new SeqScan(tid, table.getId(), "t"))));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                List<List<Integer>> got = rows(results.get(i).get());
+                List<List<Integer>> expected = below(i * 100);
+                Collections.sort(got, Comparator.comparing(Object::toString));
+                Collections.sort(expected, Comparator.comparing(Object::toString));
+                assertEquals(expected, got);
+            }
+        }
+    }
+
+    @Test public void testStreamingResult() throws Exception {
+        final List<Tuple> seen = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger finished = new AtomicInteger();
+        try (QueryExecutor ex = new QueryExecutor(2)) {
+            Future<Void> f = ex.submitQuery(tid -> new SeqScan(tid, table.getId(), "t"), new TupleSink() {
+                public boolean push(Tuple t) {
+                    seen.add(t);
+                    return true;
+                }
+
+                public void finish() {
+                    finished.incrementAndGet();
+                }
+            });
+            assertNull(f.get());
+        }
+        assertEquals(1, finished.get());
+        assertEquals(tuples.size(), seen.size());
+    }
+
+    /** Adds one to the value of the single row of a table. */
+    private static Integer increment(TransactionId tid, int tableId) throws Exception {
+        OpIterator scan = new SeqScan(tid, tableId, "");
+        scan.open();
+        int v = ((IntField) scan.next().getField(0)).getValue();
+        scan.close();
+        Thread.sleep(1);
+
+        OpIterator del = new Delete(tid, new SeqScan(tid, tableId, ""));
+        del.open();
+        del.next();
+        del.close();
+        Tuple t = new Tuple(SystemTestUtil.SINGLE_INT_DESCRIPTOR);
+        t.setField(0, new IntField(v + 1));
+        OpIterator ins = new Insert(tid, new TupleIterator(t.getTupleDesc(), Collections.singletonList(t)), tableId);
+        ins.open();
+        ins.next();
+        ins.close();
+        return v + 1;
+    }
+
+    @Test public void testAbortedTransactionsRetried() throws Exception {
+        Map<Integer, Integer> columnSpecification = new HashMap<>();
+        columnSpecification.put(0, 0);
+        final DbFile counter = SystemTestUtil.createRandomHeapFile(1, 1, columnSpecification, null);
+        final int n = 5;
+        int aborts = 0;
+        try (QueryExecutor ex = new QueryExecutor(n)) {
+            List<Future<Integer>> pending = new ArrayList<>();
+            for (int i = 0; i < n; i++)
+                pending.add(ex.submit(tid -> increment(tid, counter.getId())));
+            Set<Integer> values = new HashSet<>();
+            while (!pending.isEmpty()) {
+                Future<Integer> f = pending.remove(0);
+                try {
+                    values.add(f.get());
+                } catch (ExecutionException e) {
+                    // a deadlock victim was aborted and its locks released;
+                    // run it again
+                    assertTrue(e.getCause() instanceof TransactionAbortedException);
+                    aborts++;
+                    pending.add(ex.submit(tid -> increment(tid, counter.getId())));
+                }
+            }
+            // every committed increment saw the one before it
+            assertEquals("after " + aborts + " retries", n, values.size());
+        }
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = counter.iterator(tid);
+        it.open();
+        assertEquals(n, ((IntField) it.next().getField(0)).getValue());
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testAbortRollsBack() throws Exception {
+        try (QueryExecutor ex = new QueryExecutor(1)) {
+            Future<Integer> f = ex.submit(tid -> {
+                Tuple t = new Tuple(table.getTupleDesc());
+                t.setField(0, new IntField(-1));
+                t.setField(1, new IntField(-1));
+                Database.getBufferPool().insertTuple(tid, table.getId(), t);
+                throw new TransactionAbortedException();
+            });
+            try {
+                f.get();
+                fail("expected the transaction to abort");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TransactionAbortedException);
+            }
+            // the insert is gone and its locks were released
+            List<List<Integer>> got = rows(ex.submitQuery(tid -> new SeqScan(tid, table.getId(), "t")).get());
+            List<List<Integer>> expected = new ArrayList<>(tuples);
+            got.sort(Comparator.comparing(Object::toString));
+            expected.sort(Comparator.comparing(Object::toString));
+            assertEquals(expected, got);
+        }
+    }
+
+    @Test public void testAdmissionLimit() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        try (QueryExecutor ex = new QueryExecutor(2, 1)) {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                futures.add(ex.submit(tid -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    release.await();
+                    running.decrementAndGet();
+                    return 0;
+                }));
+            }
+            // two are running and one waits; a fourth submit blocks
+            Thread blocked = new Thread(() -> {
+                try {
+                    ex.submit(tid -> 0).get();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            blocked.start();
+            blocked.join(200);
+            assertTrue(blocked.isAlive());
+            release.countDown();
+            blocked.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(blocked.isAlive());
+            for (Future<Integer> f : futures)
+                assertEquals(0, (int) f.get());
+        }
+        assertEquals(2, maxRunning.get());
+    }
+}
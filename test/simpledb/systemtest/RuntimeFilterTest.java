@@ -0,0 +1,138 @@
+package simpledb.systemtest;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.RuntimeFilter;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class RuntimeFilterTest extends SimpleDbTestBase {
+
+    @Test public void testFilter() {
+        RuntimeFilter f = new RuntimeFilter();
+        assertTrue(f.mightContain(new IntField(7)));
+        assertFalse(f.isActive());
+
+        List<IntField> keys = new ArrayList<>();
+        for (int i = 100; i < 300; i += 2)
+            keys.add(new IntField(i));
+        f.build(keys);
+        assertTrue(f.isActive());
+        for (IntField k : keys)
+            assertTrue(f.mightContain(k));
+        // outside the range of the keys
+        assertFalse(f.mightContain(new IntField(99)));
+        assertFalse(f.mightContain(new IntField(300)));
+        // inside the range, the Bloom filter drops most of the rest
+        int passed = 0;
+        for (int i = 101; i < 300; i += 2) {
+            if (f.mightContain(new IntField(i)))
+                passed++;
+        }
+        assertTrue(passed < 10);
+
+        f.build(Collections.singletonList(new StringField("abc", 10)));
+        assertTrue(f.mightContain(new StringField("abc", 10)));
+        assertFalse(f.mightContain(new StringField("abd", 10)));
+
+        f.reset();
+        assertTrue(f.mightContain(new StringField("abd", 10)));
+    }
+
+    @Test public void testJoinPushesFilterIntoProbeScan() throws Exception {
+        List<List<Integer>> buildTuples = new ArrayList<>();
+        List<List<Integer>> probeTuples = new ArrayList<>();
+        HeapFile build = SystemTestUtil.createRandomHeapFile(2, 200, 10000, null, buildTuples, "c");
+        HeapFile probe = SystemTestUtil.createRandomHeapFile(2, 5000, 10000, null, probeTuples, "c");
+        Database.getCatalog().addTable(build, "rb");
+        Database.getCatalog().addTable(probe, "rp");
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> tb : buildTuples) {
+            if (tb.get(1) >= 2000)
+                continue;
+            for (List<Integer> tp : probeTuples) {
+                if (tb.get(0).equals(tp.get(0)))
+                    expected.add(Arrays.asList(tb.get(0), tb.get(1), tp.get(0), tp.get(1)));
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator buildSide = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(2000)),
+                new SeqScan(tid, build.getId(), "rb"));
+        SeqScan probeScan = new SeqScan(tid, probe.getId(), "rp");
+        OpIterator probeSide = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+                probeScan);
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), buildSide, probeSide);
+        RuntimeFilter f = join.pushRuntimeFilter();
+        assertNotNull(f);
+        assertSame(f, probeScan.getRuntimeFilters()[0]);
+
+        List<List<Integer>> actual = SystemTestUtil.tuplesToLists(join);
+        SystemTestUtil.assertSameTuples(expected, actual);
+        // about 96% of the probe keys are not in the build side
+        assertTrue(f.getRejected() > 4000);
+
+        // a second run rebuilds the filter and gives the same result
+        SystemTestUtil.assertSameTuples(expected, SystemTestUtil.tuplesToLists(join));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testUnselectiveFilterTurnsOff() throws Exception {
+        List<List<Integer>> buildTuples = new ArrayList<>();
+        List<List<Integer>> probeTuples = new ArrayList<>();
+        HeapFile build = SystemTestUtil.createRandomHeapFile(1, 500, 10, null, buildTuples, "c");
+        HeapFile probe = SystemTestUtil.createRandomHeapFile(1, 3000, 10, null, probeTuples, "c");
+        Database.getCatalog().addTable(build, "ub");
+        Database.getCatalog().addTable(probe, "up");
+
+        Map<Integer, Integer> buildCounts = new HashMap<>();
+        for (List<Integer> t : buildTuples)
+            buildCounts.merge(t.get(0), 1, Integer::sum);
+        int expected = 0;
+        for (List<Integer> t : probeTuples)
+            expected += buildCounts.getOrDefault(t.get(0), 0);
+
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, build.getId(), "ub"), new SeqScan(tid, probe.getId(), "up"));
+        RuntimeFilter f = join.pushRuntimeFilter();
+        assertNotNull(f);
+
+        join.open();
+        int count = 0;
+        while (join.hasNext()) {
+            join.next();
+            count++;
+        }
+        assertEquals(expected, count);
+        // every probe key is a build key, so the filter stops checking them
+        assertFalse(f.isActive());
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testNoPushdownIntoJoin() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapFile t = SystemTestUtil.createRandomHeapFile(1, 10, 10, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(t, "nj");
+        OpIterator inner = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, t.getId(), "nj"), new SeqScan(tid, t.getId(), "nj"));
+        HashEquiJoin outer = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, t.getId(), "nj"), inner);
+        assertNull(outer.pushRuntimeFilter());
+    }
+}
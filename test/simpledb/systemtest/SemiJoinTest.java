@@ -0,0 +1,166 @@
+package simpledb.systemtest;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.execution.HashSemiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SemiJoinTest extends SimpleDbTestBase {
+    private static final int MAX_VALUE = 200;
+
+    private List<List<Integer>> aTuples;
+    private List<List<Integer>> bTuples;
+    private List<List<Integer>> cTuples;
+    private HeapFile a;
+    private HeapFile b;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        aTuples = new ArrayList<>();
+        bTuples = new ArrayList<>();
+        cTuples = new ArrayList<>();
+        a = SystemTestUtil.createRandomHeapFile(2, 1000, MAX_VALUE, null, aTuples, "c");
+        b = SystemTestUtil.createRandomHeapFile(2, 400, MAX_VALUE, null, bTuples, "c");
+        HeapFile c = SystemTestUtil.createRandomHeapFile(2, 100, MAX_VALUE, null, cTuples, "c");
+        Database.getCatalog().addTable(a, "sa");
+        Database.getCatalog().addTable(b, "sb");
+        Database.getCatalog().addTable(c, "sc");
+        TableStats.setTableStats("sa", new TableStats(a.getId(), 19));
+        TableStats.setTableStats("sb", new TableStats(b.getId(), 19));
+        TableStats.setTableStats("sc", new TableStats(c.getId(), 19));
+    }
+
+    /** @return the keys of b whose c1 is below maxC1 */
+    private Set<Integer> bKeys(int maxC1) {
+        Set<Integer> keys = new HashSet<>();
+        for (List<Integer> t : bTuples) {
+            if (t.get(1) < maxC1)
+                keys.add(t.get(0));
+        }
+        return keys;
+    }
+
+    private List<List<Integer>> expected(Set<Integer> keys, boolean anti) {
+        List<List<Integer>> out = new ArrayList<>();
+        for (List<Integer> t : aTuples) {
+            if (keys.contains(t.get(0)) != anti)
+                out.add(t);
+        }
+        return out;
+    }
+
+    private static HashSemiJoin findSemiJoin(OpIterator op) {
+        if (op instanceof HashSemiJoin)
+            return (HashSemiJoin) op;
+        if (op instanceof Operator) {
+            for (OpIterator c : ((Operator) op).getChildren()) {
+                HashSemiJoin j = findSemiJoin(c);
+                if (j != null)
+                    return j;
+            }
+        }
+        return null;
+    }
+
+    @Test public void testSemiAndAntiJoin() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (boolean anti : new boolean[]{false, true}) {
+            HashSemiJoin j = new HashSemiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                    new SeqScan(tid, a.getId(), "sa"), new SeqScan(tid, b.getId(), "sb"), anti);
+            assertEquals(a.getTupleDesc().numFields(), j.getTupleDesc().numFields());
+            assertEquals(anti, j.isAnti());
+            // b has duplicate keys, but each tuple of a comes out at most once
+            SystemTestUtil.assertSameTuples(expected(bKeys(Integer.MAX_VALUE), anti), SystemTestUtil.tuplesToLists(j));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testOnlyEquality() {
+        TransactionId tid = new TransactionId();
+        try {
+            new HashSemiJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                    new SeqScan(tid, a.getId(), "sa"), new SeqScan(tid, b.getId(), "sb"), false);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private OpIterator plan(TransactionId tid, String sql) throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    @Test public void testInSubquery() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator p = plan(tid, "SELECT sa.c0, sa.c1 FROM sa WHERE sa.c0 IN (SELECT sb.c0 FROM sb WHERE sb.c1 < 100);");
+        HashSemiJoin j = findSemiJoin(p);
+        assertNotNull(j);
+        assertFalse(j.isAnti());
+        SystemTestUtil.assertSameTuples(expected(bKeys(100), false), SystemTestUtil.tuplesToLists(p));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testEqualsSubqueryIsJoin() throws Exception {
+        // x = (SELECT ...) is an ordinary join: a tuple of sa comes out once
+        // per matching row of the subquery, whose columns SELECT * returns
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> ta : aTuples) {
+            for (List<Integer> tb : bTuples) {
+                if (tb.get(1) < 100 && ta.get(0).equals(tb.get(0)))
+                    expected.add(Arrays.asList(ta.get(0), ta.get(1), tb.get(0)));
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator p = plan(tid, "SELECT * FROM sa WHERE sa.c0 = (SELECT sb.c0 FROM sb WHERE sb.c1 < 100);");
+        assertNull(findSemiJoin(p));
+        SystemTestUtil.assertSameTuples(expected, SystemTestUtil.tuplesToLists(p));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testNotInSubquery() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator p = plan(tid, "SELECT sa.c0, sa.c1 FROM sa WHERE sa.c0 NOT IN (SELECT sb.c0 FROM sb WHERE sb.c1 < 100);");
+        HashSemiJoin j = findSemiJoin(p);
+        assertNotNull(j);
+        assertTrue(j.isAnti());
+        SystemTestUtil.assertSameTuples(expected(bKeys(100), true), SystemTestUtil.tuplesToLists(p));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSubqueryWithJoin() throws Exception {
+        Set<Integer> keys = bKeys(50);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> ta : aTuples) {
+            if (!keys.contains(ta.get(0)))
+                continue;
+            for (List<Integer> tc : cTuples) {
+                if (ta.get(1).equals(tc.get(0)))
+                    expected.add(Arrays.asList(ta.get(0), tc.get(1)));
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator p = plan(tid, "SELECT sa.c0, sc.c1 FROM sa, sc WHERE sa.c1 = sc.c0 "
+                + "AND sa.c0 IN (SELECT sb.c0 FROM sb WHERE sb.c1 < 50);");
+        assertNotNull(findSemiJoin(p));
+        SystemTestUtil.assertSameTuples(expected, SystemTestUtil.tuplesToLists(p));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,197 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.ScanSharing;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SharedScanTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 10;
+    private static final int PAGES = 40;
+    private static final int TUPLES_PER_PAGE = 992;
+
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        int readCount = 0;
+
+        InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    private List<List<Integer>> tuples;
+    private InstrumentedHeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Database.resetBufferPool(POOL_PAGES);
+        tuples = new ArrayList<>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, TUPLES_PER_PAGE * PAGES, 1000, null, tuples);
+        table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        ScanSharing.setEnabled(true);
+    }
+
+    @After public void tearDown() {
+        ScanSharing.setEnabled(false);
+    }
+
+    private static List<List<Integer>> drain(SeqScan scan, List<List<Integer>> out) throws Exception {
+        while (scan.hasNext())
+            out.add(SystemTestUtil.tupleToList(scan.next()));
+        return out;
+    }
+
+    @Test public void testAttachToRunningScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan a = new SeqScan(tid, table.getId(), "a");
+        a.open();
+        List<List<Integer>> aRows = new ArrayList<>();
+        Tuple last = null;
+        for (int i = 0; i < TUPLES_PER_PAGE * PAGES / 2; i++) {
+            last = a.next();
+            aRows.add(SystemTestUtil.tupleToList(last));
+        }
+        assertEquals(1, ScanSharing.activeScans(table.getId()));
+
+        // b starts on the page a is reading, then wraps around
+        SeqScan b = new SeqScan(tid, table.getId(), "b");
+        b.open();
+        assertEquals(2, ScanSharing.activeScans(table.getId()));
+        Tuple first = b.next();
+        assertEquals(last.getRecordId().getPageId().getPageNumber(),
+                first.getRecordId().getPageId().getPageNumber());
+        List<List<Integer>> bRows = new ArrayList<>();
+        bRows.add(SystemTestUtil.tupleToList(first));
+
+        SystemTestUtil.assertSameTuples(tuples, drain(a, aRows));
+        SystemTestUtil.assertSameTuples(tuples, drain(b, bRows));
+        assertEquals(0, ScanSharing.activeScans(table.getId()));
+        a.close();
+        b.close();
+
+        // with no scan running, the next one starts at the beginning again
+        SeqScan c = new SeqScan(tid, table.getId(), "c");
+        c.open();
+        assertEquals(tuples.get(0), SystemTestUtil.tupleToList(c.next()));
+        c.close();
+        assertEquals(0, ScanSharing.activeScans(table.getId()));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testWrappedScanKeepsCursor() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan a = new SeqScan(tid, table.getId(), "a");
+        a.open();
+        Tuple last = null;
+        for (int i = 0; i < TUPLES_PER_PAGE * PAGES / 2; i++)
+            last = a.next();
+        int aPage = last.getRecordId().getPageId().getPageNumber();
+
+        // b joins a, reads to the end of the file and wraps around to the
+        // pages it missed; a is still the leading scan
+        SeqScan b = new SeqScan(tid, table.getId(), "b");
+        b.open();
+        for (int i = 0; i < TUPLES_PER_PAGE * (PAGES / 2 + PAGES / 4); i++)
+            b.next();
+
+        SeqScan c = new SeqScan(tid, table.getId(), "c");
+        c.open();
+        assertTrue(c.next().getRecordId().getPageId().getPageNumber() >= aPage);
+        a.close();
+        b.close();
+        c.close();
+        assertEquals(0, ScanSharing.activeScans(table.getId()));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Runs two scans, the second starting halfway through the first, in lockstep. */
+    private int lockstepReads() throws Exception {
+        Database.resetBufferPool(POOL_PAGES);
+        table.readCount = 0;
+        TransactionId tid = new TransactionId();
+        SeqScan a = new SeqScan(tid, table.getId(), "a");
+        SeqScan b = new SeqScan(tid, table.getId(), "b");
+        a.open();
+        List<List<Integer>> aRows = new ArrayList<>();
+        for (int i = 0; i < TUPLES_PER_PAGE * PAGES / 2; i++)
+            aRows.add(SystemTestUtil.tupleToList(a.next()));
+        b.open();
+        List<List<Integer>> bRows = new ArrayList<>();
+        while (a.hasNext() || b.hasNext()) {
+            if (a.hasNext())
+                aRows.add(SystemTestUtil.tupleToList(a.next()));
+            if (b.hasNext())
+                bRows.add(SystemTestUtil.tupleToList(b.next()));
+        }
+        a.close();
+        b.close();
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.assertSameTuples(tuples, aRows);
+        SystemTestUtil.assertSameTuples(tuples, bRows);
+        return table.readCount;
+    }
+
+    @Test public void testSharingSavesReads() throws Exception {
+        ScanSharing.setEnabled(false);
+        int unshared = lockstepReads();
+        ScanSharing.setEnabled(true);
+        int shared = lockstepReads();
+        assertEquals(2 * PAGES, unshared);
+        // b rereads only the pages a had read before b started
+        assertTrue(shared + " reads shared", shared <= PAGES + PAGES / 2 + 1);
+    }
+
+    @Test public void testSmallTableNotShared() throws Exception {
+        List<List<Integer>> small = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, TUPLES_PER_PAGE * (POOL_PAGES - 2), null, small);
+        TransactionId tid = new TransactionId();
+        SeqScan a = new SeqScan(tid, f.getId(), "a");
+        a.open();
+        for (int i = 0; i < TUPLES_PER_PAGE * 3; i++)
+            a.next();
+        SeqScan b = new SeqScan(tid, f.getId(), "b");
+        b.open();
+        assertEquals(0, ScanSharing.activeScans(f.getId()));
+        assertEquals(small.get(0), SystemTestUtil.tupleToList(b.next()));
+        a.close();
+        b.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testRewindAndClose() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan a = new SeqScan(tid, table.getId(), "a");
+        a.open();
+        a.next();
+        a.rewind();
+        assertEquals(1, ScanSharing.activeScans(table.getId()));
+        SystemTestUtil.assertSameTuples(tuples, drain(a, new ArrayList<>()));
+        a.rewind();
+        a.next();
+        a.close();
+        assertEquals(0, ScanSharing.activeScans(table.getId()));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
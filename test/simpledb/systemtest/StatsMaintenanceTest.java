@@ -0,0 +1,181 @@
+package simpledb.systemtest;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.Delete;
+import simpledb.execution.Filter;
+import simpledb.execution.Insert;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class StatsMaintenanceTest extends SimpleDbTestBase {
+    private static final int ROWS = 2000;
+    private static final int MAX_VALUE = 1000;
+
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(table, "t");
+        TableStats.setTableStats("t", new TableStats(table.getId(), 1000));
+    }
+
+    @After public void tearDown() {
+        TableStats.setAutoAnalyze(true);
+        TableStats.setAnalyzeThreshold(500, 0.2);
+    }
+
+    /**
+     * Inserts count tuples (v, MAX_VALUE + i), whose second fields are new
+     * distinct values, into the table in one transaction.
+     */
+    private void insert(int count, int v) throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(tid, count, v);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Inserts count tuples as {@link #insert(int, int)} does, in transaction tid. */
+    private void insert(TransactionId tid, int count, int v) throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setField(0, new IntField(v));
+            t.setField(1, new IntField(MAX_VALUE + i));
+            tuples.add(t);
+        }
+        OpIterator ins = new Insert(tid, new TupleIterator(table.getTupleDesc(), tuples), table.getId());
+        ins.open();
+        ins.next();
+        ins.close();
+    }
+
+    /** Deletes the tuples whose first field is below max. */
+    private int delete(int max) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator del = new Delete(tid, new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(max)),
+                new SeqScan(tid, table.getId(), "t")));
+        del.open();
+        int deleted = ((IntField) del.next().getField(0)).getValue();
+        del.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return deleted;
+    }
+
+    @Test public void testInsertUpdatesStats() throws Exception {
+        TableStats.setAutoAnalyze(false);
+        TableStats s = TableStats.getTableStats("t");
+        double cost = s.estimateScanCost();
+        long distinct = s.estimateDistinctValues(1);
+        // a value outside of the range that was analyzed
+        insert(1000, 5000);
+
+        assertSame(s, TableStats.getTableStats("t"));
+        assertEquals(ROWS + 1000, s.totalTuples());
+        assertTrue(s.estimateScanCost() > cost);
+        assertEquals(1000.0 / (ROWS + 1000),
+                s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(5000)), 0.01);
+        assertEquals(1000.0 / (ROWS + 1000),
+                s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(MAX_VALUE)), 0.01);
+        // the other values are a smaller share of the table now
+        assertEquals((double) ROWS / (ROWS + 1000),
+                s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE)), 0.01);
+        assertEquals(distinct + 1000, s.estimateDistinctValues(1), (distinct + 1000) * 0.05);
+    }
+
+    @Test public void testDeleteUpdatesStats() throws Exception {
+        TableStats.setAutoAnalyze(false);
+        TableStats s = TableStats.getTableStats("t");
+        double before = s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2));
+        int deleted = delete(MAX_VALUE / 2);
+        assertEquals(ROWS * before, deleted, ROWS * 0.05);
+
+        assertEquals(ROWS - deleted, s.totalTuples());
+        // what is left below is the error of the MCV counts
+        assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2)), 0.05);
+        assertEquals(1.0, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(MAX_VALUE / 2)),
+                0.05);
+    }
+
+    @Test public void testReanalyzeAfterThreshold() throws Exception {
+        TableStats.setAnalyzeThreshold(100, 0.0);
+        TableStats s = TableStats.getTableStats("t");
+        insert(50, 7);
+        Thread.sleep(100);
+        assertSame(s, TableStats.getTableStats("t"));
+
+        insert(100, 7);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (TableStats.getTableStats("t") == s && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        TableStats fresh = TableStats.getTableStats("t");
+        assertNotSame(s, fresh);
+        // the new stats were read from the table, which holds every insert
+        assertEquals(ROWS + 150, fresh.totalTuples());
+        assertEquals(ROWS + 150, s.totalTuples());
+    }
+
+    @Test public void testStatsChangeOnCommit() throws Exception {
+        TableStats.setAutoAnalyze(false);
+        TableStats s = TableStats.getTableStats("t");
+        TransactionId tid = new TransactionId();
+        insert(tid, 1000, 5000);
+        assertEquals(ROWS, s.totalTuples());
+        assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(5000)), 0.001);
+
+        // the inserts of an aborted transaction are never counted
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(ROWS, s.totalTuples());
+        assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(5000)), 0.001);
+
+        insert(1000, 5000);
+        assertEquals(ROWS + 1000, s.totalTuples());
+    }
+
+    @Test public void testAnalyzeFailureReported() throws Exception {
+        TableStats.setAnalyzeThreshold(100, 0.0);
+        TableStats s = TableStats.getTableStats("t");
+        TransactionId tid = new TransactionId();
+        insert(tid, 150, 7);
+        // the first page is full, so the inserts let go of it; another
+        // transaction then holds it, and the analysis times out waiting
+        TransactionId holder = new TransactionId();
+        Database.getBufferPool().getPage(holder, new HeapPageId(table.getId(), 0), Permissions.READ_WRITE);
+        try {
+            Database.getBufferPool().transactionComplete(tid);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (TableStats.getAnalyzeFailure("t") == null && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertTrue(TableStats.getAnalyzeFailure("t") instanceof TransactionAbortedException);
+            assertSame(s, TableStats.getTableStats("t"));
+        } finally {
+            Database.getBufferPool().transactionComplete(holder);
+        }
+
+        // the next modification analyzes the table again
+        insert(1, 7);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (TableStats.getTableStats("t") == s && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertNotSame(s, TableStats.getTableStats("t"));
+        assertNull(TableStats.getAnalyzeFailure("t"));
+    }
+}
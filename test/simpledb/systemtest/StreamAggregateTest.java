@@ -0,0 +1,130 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Ordering;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.execution.StreamAggregate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class StreamAggregateTest extends SimpleDbTestBase {
+    private static final int ROWS = 4000;
+
+    @Test public void testSortedInput()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, 20, null, tuples);
+        TransactionId tid = new TransactionId();
+        OrderBy sorted = new OrderBy(new int[]{1, 0}, new boolean[]{true, false},
+                new SeqScan(tid, f.getId(), ""));
+        assertTrue(sorted.getOrdering().groups(new int[]{0, 1}));
+        StreamAggregate agg = new StreamAggregate(sorted, new int[]{0, 1},
+                new int[]{2, 2, 2, 2, 2}, HashAggregateTest.OPS);
+        SystemTestUtil.matchTuples(agg, HashAggregateTest.expected(tuples, true));
+
+        // groups come out in the order of the input: c1 ascending, then c0 descending
+        Ordering o = agg.getOrdering();
+        assertArrayEquals(new int[]{1, 0}, o.getFields());
+        assertArrayEquals(new boolean[]{true, false}, o.getAscending());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testNoGrouping()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, 1000, null, tuples);
+        TransactionId tid = new TransactionId();
+        StreamAggregate agg = new StreamAggregate(new SeqScan(tid, f.getId(), ""), new int[0],
+                new int[]{2, 2, 2, 2, 2}, HashAggregateTest.OPS);
+        SystemTestUtil.matchTuples(agg, HashAggregateTest.expected(tuples, false));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testEmptyInput()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 0, 1000, null, null);
+        TransactionId tid = new TransactionId();
+        StreamAggregate agg = new StreamAggregate(new SeqScan(tid, f.getId(), ""), new int[]{0},
+                new int[]{2}, new Aggregator.Op[]{Aggregator.Op.COUNT});
+        agg.open();
+        assertFalse(agg.hasNext());
+        agg.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testIndexOrder()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, ROWS, 300, null, tuples, 1);
+        Map<Integer, int[]> groups = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            int[] g = groups.computeIfAbsent(t.get(1), k -> new int[2]);
+            g[0]++;
+            g[1] += t.get(0);
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, int[]> e : groups.entrySet())
+            expected.add(Arrays.asList(e.getKey(), e.getValue()[0], e.getValue()[1]));
+
+        TransactionId tid = new TransactionId();
+        BTreeScan scan = new BTreeScan(tid, f.getId(), "", null);
+        assertArrayEquals(new int[]{1}, scan.getOrdering().getFields());
+        // projecting the key field to the front keeps the order
+        OpIterator proj = new Project(Arrays.asList(1, 0),
+                Arrays.asList(scan.getTupleDesc().getFieldType(1), scan.getTupleDesc().getFieldType(0)),
+                scan);
+        assertTrue(proj.getOrdering().groups(new int[]{0}));
+        StreamAggregate agg = new StreamAggregate(proj, new int[]{0}, new int[]{1, 1},
+                new Aggregator.Op[]{Aggregator.Op.COUNT, Aggregator.Op.SUM});
+        SystemTestUtil.matchTuples(agg, expected);
+
+        agg.open();
+        int prev = Integer.MIN_VALUE;
+        int count = 0;
+        while (agg.hasNext()) {
+            int key = ((simpledb.storage.IntField) agg.next().getField(0)).getValue();
+            assertTrue(key > prev);
+            prev = key;
+            count++;
+        }
+        agg.close();
+        assertEquals(groups.size(), count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testOrderingProperties() {
+        Ordering o = new Ordering(new int[]{2, 0, 1}, new boolean[]{true, false, true});
+        assertTrue(o.groups(new int[]{0, 2}));
+        assertTrue(o.groups(new int[0]));
+        assertFalse(o.groups(new int[]{0, 1}));
+        assertTrue(o.satisfies(new int[]{2, 0}, new boolean[]{true, false}));
+        assertFalse(o.satisfies(new int[]{2, 0}, new boolean[]{true, true}));
+        assertFalse(Ordering.NONE.groups(new int[]{0}));
+
+        // dropping field 0 cuts the ordering after field 2
+        Ordering p = o.project(new int[]{-1, 0, 1});
+        assertArrayEquals(new int[]{1}, p.getFields());
+        assertArrayEquals(new int[]{5, 3, 4}, o.shift(3).getFields());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StreamAggregateTest.class);
+    }
+}
@@ -3,6 +3,7 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -57,6 +58,18 @@ public class SystemTestUtil {
         return Utility.openHeapFile(columns, colPrefix, temp);
     }
 
+    /**
+     * @return a heap file of the given tuples, whose columns are named
+     *         colPrefix0, colPrefix1, ...
+     */
+    public static HeapFile createHeapFile(int columns, List<List<Integer>> tuples, String colPrefix)
+            throws IOException {
+        File temp = File.createTempFile("table", ".dat");
+        temp.deleteOnExit();
+        HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
+        return Utility.openHeapFile(columns, colPrefix, temp);
+    }
+
     public static File createRandomHeapFileUnopened(int columns, int rows,
             int maxValue, Map<Integer, Integer> columnSpecification,
             List<List<Integer>> tuples) throws IOException {
@@ -99,6 +112,38 @@ public class SystemTestUtil {
         return list;
     }
 
+    /**
+     * Opens an iterator, reads all of its tuples and closes it.
+     * @return the tuples, as lists of their fields
+     */
+    public static List<List<Integer>> tuplesToLists(OpIterator iterator)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> out = new ArrayList<>();
+        iterator.open();
+        while (iterator.hasNext())
+            out.add(tupleToList(iterator.next()));
+        iterator.close();
+        return out;
+    }
+
+    /**
+     * Checks that two lists hold the same tuples, each as many times, in any
+     * order. Unlike {@link #matchTuples(OpIterator, List)}, this takes time
+     * linear in the tuples, for large results.
+     */
+    public static void assertSameTuples(List<List<Integer>> expected, List<List<Integer>> actual) {
+        Map<List<Integer>, Integer> counts = new HashMap<>();
+        for (List<Integer> t : expected)
+            counts.merge(t, 1, Integer::sum);
+        for (List<Integer> t : actual)
+            counts.merge(t, -1, Integer::sum);
+        for (Map.Entry<List<Integer>, Integer> e : counts.entrySet()) {
+            if (e.getValue() != 0)
+                Assert.fail("tuple " + Utility.listToString(e.getKey()) + " expected "
+                        + (e.getValue() > 0 ? e.getValue() + " more" : -e.getValue() + " fewer") + " times");
+        }
+    }
+
     public static void matchTuples(DbFile f, List<List<Integer>> tuples)
             throws DbException, TransactionAbortedException {
         TransactionId tid = new TransactionId();
@@ -0,0 +1,161 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Gather;
+import simpledb.execution.HashAggregate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.PageMorsels;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TwoPhaseAggregation;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class TwoPhaseAggregationTest extends SimpleDbTestBase {
+    private static final int ROWS = 4000;
+
+    private void validateParallel(int workers, boolean grouped)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, 20, null, tuples);
+        TransactionId tid = new TransactionId();
+        int[] gfields = grouped ? new int[]{0, 1} : new int[0];
+        PageMorsels morsels = new PageMorsels(f.getId(), 1);
+        OpIterator[] partials = new OpIterator[workers];
+        for (int i = 0; i < workers; i++) {
+            partials[i] = TwoPhaseAggregation.partial(new SeqScan(tid, morsels, ""),
+                    gfields, new int[]{2, 2, 2, 2, 2}, HashAggregateTest.OPS);
+        }
+        // AVG's partial state takes two fields
+        assertEquals(gfields.length + 6, partials[0].getTupleDesc().numFields());
+        HashAggregate merged = TwoPhaseAggregation.merge(new Gather(partials, morsels),
+                gfields.length, HashAggregateTest.OPS);
+        SystemTestUtil.matchTuples(merged, HashAggregateTest.expected(tuples, grouped));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParallelGrouped()
+            throws IOException, DbException, TransactionAbortedException {
+        validateParallel(1, true);
+        validateParallel(4, true);
+    }
+
+    @Test public void testParallelNoGrouping()
+            throws IOException, DbException, TransactionAbortedException {
+        validateParallel(4, false);
+    }
+
+    /** @return true if an aggregate appears below a join in the plan */
+    private static boolean aggregateBelowJoin(OpIterator op, boolean underJoin) {
+        if (!(op instanceof Operator))
+            return false;
+        if (underJoin && op instanceof HashAggregate)
+            return true;
+        boolean join = op.getClass().getSimpleName().contains("Join");
+        for (OpIterator c : ((Operator) op).getChildren()) {
+            if (aggregateBelowJoin(c, underJoin || join))
+                return true;
+        }
+        return false;
+    }
+
+    @Test public void testPartialBelowJoin()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> facts = new ArrayList<>();
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(3, ROWS, 50, null, facts, "c");
+        List<List<Integer>> dims = new ArrayList<>();
+        HeapFile dim = SystemTestUtil.createRandomHeapFile(2, 60, 50, null, dims, "c");
+        Database.getCatalog().addTable(fact, "fact");
+        Database.getCatalog().addTable(dim, "dim");
+        TableStats.setTableStats("fact", new TableStats(fact.getId(), 19));
+        TableStats.setTableStats("dim", new TableStats(dim.getId(), 19));
+
+        Map<Integer, List<Integer>> groups = new HashMap<>();
+        for (List<Integer> d : dims) {
+            for (List<Integer> t : facts) {
+                if (t.get(0).equals(d.get(0)))
+                    groups.computeIfAbsent(d.get(1), k -> new ArrayList<>()).add(t.get(2));
+            }
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, List<Integer>> e : groups.entrySet()) {
+            int sum = 0, min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int v : e.getValue()) {
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            int n = e.getValue().size();
+            expected.add(Arrays.asList(e.getKey(), sum, n, sum / n, min, max));
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT dim.c1, SUM(fact.c2), COUNT(fact.c2), AVG(fact.c2), MIN(fact.c2), MAX(fact.c2) "
+                        + "FROM fact, dim WHERE fact.c0 = dim.c0 GROUP BY dim.c1;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(aggregateBelowJoin(plan, false));
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return true if a Gather appears in the plan */
+    private static boolean hasGather(OpIterator op) {
+        if (op instanceof Gather)
+            return true;
+        if (!(op instanceof Operator))
+            return false;
+        for (OpIterator c : ((Operator) op).getChildren()) {
+            if (hasGather(c))
+                return true;
+        }
+        return false;
+    }
+
+    @Test public void testParallelPlan()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, 50, null, null, "c");
+        Database.getCatalog().addTable(f, "t");
+        TableStats.setTableStats("t", new TableStats(f.getId(), 19));
+
+        String[] queries = {
+                "SELECT t.c0, SUM(t.c2), COUNT(t.c2), AVG(t.c2), MIN(t.c2), MAX(t.c2) "
+                        + "FROM t WHERE t.c1 < 25 GROUP BY t.c0;",
+                "SELECT SUM(t.c2), COUNT(t.c2), AVG(t.c2) FROM t WHERE t.c1 > 10;",
+                "SELECT COUNT(t.c2) FROM t WHERE t.c1 > 50;",
+                "SELECT t.c0, t.c2 FROM t WHERE t.c1 < 5;",
+        };
+        TransactionId tid = new TransactionId();
+        for (String sql : queries) {
+            OpIterator serial = new Parser().generateLogicalPlan(tid, sql)
+                    .physicalPlan(tid, TableStats.getStatsMap(), false);
+            assertFalse(hasGather(serial));
+            LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+            lp.setParallelism(4);
+            OpIterator parallel = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+            assertTrue(hasGather(parallel));
+            SystemTestUtil.assertSameTuples(SystemTestUtil.tuplesToLists(serial),
+                    SystemTestUtil.tuplesToLists(parallel));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TwoPhaseAggregationTest.class);
+    }
+}